@@ -57,6 +57,15 @@ interface MXCrypto {
                             room: CryptoRoom,
                             callback: ApiCallback<MXEncryptEventContentResult>)
 
+    /**
+     * A sync response starts to be handled: the crypto writes are committed together when it is completed.
+     */
+    fun onSyncStarted()
+
+    /**
+     * A sync response has been handled. The crypto data of the response is stored when it returns,
+     * so it must be called before the sync token is stored.
+     */
     fun onSyncCompleted(syncResponse: CryptoSyncResponse, fromToken: String, isCatchingUp: Boolean)
 
     fun getOlmDevice(): MXOlmDevice?
@@ -72,6 +81,12 @@ interface MXCrypto {
     @Throws(MXDecryptionException::class)
     fun decryptEvent(event: CryptoEvent, timelineId: String?): MXEventDecryptionResult
 
+    /**
+     * Decrypt some events with a single switch to the decrypting thread.
+     * The events are decrypted in the list order, and each event receives its clear data or its crypto error.
+     */
+    fun decryptEvents(events: List<CryptoEvent>, timelineId: String?)
+
     fun resetReplayAttackCheckInTimeline(timelineId: String)
 
     fun isRoomBlacklistUnverifiedDevices(roomId: String, callback: ApiCallback<Boolean>)
@@ -70,6 +70,12 @@ public class MXDeviceList {
     public static final int TRACKING_STATUS_UP_TO_DATE = 3;
     public static final int TRACKING_STATUS_UNREACHABLE_SERVER = 4;
 
+    // the delay during which the outdated device lists are gathered before being refreshed
+    private static final long REFRESH_OUTDATED_DEVICE_LISTS_DELAY_MS = 500;
+
+    // the max number of users whose device lists are refreshed by a single /keys/query request
+    private static final int MAX_REFRESHED_USERS_COUNT = 250;
+
     // keys in progress
     private final Set<String> mUserKeyDownloadsInProgress = new HashSet<>();
 
@@ -115,6 +121,17 @@ public class MXDeviceList {
     // tells if there is a download keys request in progress
     private boolean mIsDownloadingKeys = false;
 
+    // tells if a refresh of the outdated device lists is scheduled
+    private boolean mIsRefreshScheduled = false;
+
+    private final Runnable mRefreshOutdatedDeviceListsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIsRefreshScheduled = false;
+            doRefreshOutdatedDeviceLists();
+        }
+    };
+
     /**
      * Constructor
      *
@@ -603,7 +620,9 @@ public class MXDeviceList {
 
                                             // Update the store
                                             // Note that devices which aren't in the response will be removed from the stores
-                                            cryptoStore.storeUserDevices(userId, mutableDevices);
+                                            if (null != cryptoStore) {
+                                                storeChangedUserDevices(cryptoStore, userId, mutableDevices);
+                                            }
                                         }
 
                                         // the response is the latest request one
@@ -673,6 +692,72 @@ public class MXDeviceList {
                 });
     }
 
+    /**
+     * Store the downloaded devices of a user, by only writing the ones which have changed.
+     * This method must be called on getEncryptingThreadHandler() thread.
+     *
+     * @param cryptoStore the crypto store
+     * @param userId      the user id
+     * @param devices     the validated downloaded devices, by device id
+     */
+    private void storeChangedUserDevices(IMXCryptoStore cryptoStore, String userId, Map<String, MXDeviceInfo> devices) {
+        Map<String, MXDeviceInfo> storedDevices = cryptoStore.getUserDevices(userId);
+
+        if (null == storedDevices) {
+            cryptoStore.storeUserDevices(userId, devices);
+            return;
+        }
+
+        if (!devices.keySet().containsAll(storedDevices.keySet())) {
+            // some devices have been removed: the devices list is replaced
+            Log.d(LOG_TAG, "## storeChangedUserDevices() : " + userId + " has removed some devices");
+            cryptoStore.storeUserDevices(userId, devices);
+            return;
+        }
+
+        int changedDevicesCount = 0;
+
+        for (MXDeviceInfo device : devices.values()) {
+            if (!isSameDevice(device, storedDevices.get(device.deviceId))) {
+                cryptoStore.storeUserDevice(userId, device);
+                changedDevicesCount++;
+            }
+        }
+
+        if (changedDevicesCount > 0) {
+            Log.d(LOG_TAG, "## storeChangedUserDevices() : " + changedDevicesCount + " changed devices for " + userId);
+        }
+    }
+
+    /**
+     * Tells if two devices have the same keys, signatures, data and verification status.
+     *
+     * @param device1 the first device
+     * @param device2 the second device
+     * @return true if they are the same
+     */
+    private static boolean isSameDevice(MXDeviceInfo device1, MXDeviceInfo device2) {
+        if (device1 == device2) {
+            return true;
+        }
+
+        if ((null == device1) || (null == device2)) {
+            return false;
+        }
+
+        return TextUtils.equals(device1.deviceId, device2.deviceId)
+                && TextUtils.equals(device1.userId, device2.userId)
+                && (device1.mVerified == device2.mVerified)
+                && areEqual(device1.algorithms, device2.algorithms)
+                && areEqual(device1.keys, device2.keys)
+                && areEqual(device1.signatures, device2.signatures)
+                && areEqual(device1.unsigned, device2.unsigned);
+    }
+
+    private static boolean areEqual(Object object1, Object object2) {
+        return (null == object1) ? (null == object2) : object1.equals(object2);
+    }
+
     /**
      * Validate device keys.
      * This method must called on getEncryptingThreadHandler() thread.
@@ -770,9 +855,23 @@ public class MXDeviceList {
 
     /**
      * Start device queries for any users who sent us an m.new_device recently
+     * The refresh is delayed, so that the users invalidated by the next syncs are gathered in the same requests.
      * This method must be called on getEncryptingThreadHandler() thread.
      */
     public void refreshOutdatedDeviceLists() {
+        if (mIsRefreshScheduled) {
+            return;
+        }
+
+        mIsRefreshScheduled = true;
+        mxCrypto.getEncryptingThreadHandler().postDelayed(mRefreshOutdatedDeviceListsRunnable, REFRESH_OUTDATED_DEVICE_LISTS_DELAY_MS);
+    }
+
+    /**
+     * Download the device lists of the users whose lists are outdated, by at most MAX_REFRESHED_USERS_COUNT users.
+     * This method must be called on getEncryptingThreadHandler() thread.
+     */
+    private void doRefreshOutdatedDeviceLists() {
         final List<String> users = new ArrayList<>();
 
         Map<String, Integer> deviceTrackingStatuses = mCryptoStore.getDeviceTrackingStatuses();
@@ -794,6 +893,14 @@ public class MXDeviceList {
             return;
         }
 
+        final boolean hasRemainingUsers = users.size() > MAX_REFRESHED_USERS_COUNT;
+
+        if (hasRemainingUsers) {
+            Log.d(LOG_TAG, "## refreshOutdatedDeviceLists() : " + users.size() + " outdated device lists, refresh "
+                    + MAX_REFRESHED_USERS_COUNT + " of them");
+            users.subList(MAX_REFRESHED_USERS_COUNT, users.size()).clear();
+        }
+
         // update the statuses
         for (String userId : users) {
             Integer status = deviceTrackingStatuses.get(userId);
@@ -812,6 +919,10 @@ public class MXDeviceList {
                     @Override
                     public void run() {
                         Log.d(LOG_TAG, "## refreshOutdatedDeviceLists() : done");
+
+                        if (hasRemainingUsers && !mxCrypto.hasBeenReleased()) {
+                            refreshOutdatedDeviceLists();
+                        }
                     }
                 });
             }
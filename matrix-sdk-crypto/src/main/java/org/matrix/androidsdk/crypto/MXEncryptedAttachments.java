@@ -25,12 +25,17 @@ import org.matrix.androidsdk.crypto.model.crypto.EncryptedFileKey;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -57,12 +62,54 @@ public class MXEncryptedAttachments implements Serializable {
 
     /***
      * Encrypt an attachment stream.
+     * The whole encrypted attachment is loaded in memory: prefer
+     * {@link #encryptAttachmentStream(InputStream, String)} for the large attachments.
      * @param attachmentStream the attachment stream
      * @param mimetype the mime type
-     * @return the encryption file info
+     * @return the encryption result, with the sha256 hash of the file info
      */
     public static EncryptionResult encryptAttachment(InputStream attachmentStream, String mimetype) {
         long t0 = System.currentTimeMillis();
+        EncryptionResult result = encryptAttachmentStream(attachmentStream, mimetype);
+
+        if (null == result) {
+            return null;
+        }
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+        try {
+            byte[] data = new byte[CRYPTO_BUFFER_SIZE];
+            int read;
+
+            // the hash is set when the end of the stream is reached
+            while (-1 != (read = result.mEncryptedStream.read(data))) {
+                outStream.write(data, 0, read);
+            }
+
+            result.mEncryptedStream = new ByteArrayInputStream(outStream.toByteArray());
+
+            Log.d(LOG_TAG, "Encrypt in " + (System.currentTimeMillis() - t0) + " ms");
+            return result;
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## encryptAttachment failed " + oom.getMessage(), oom);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## encryptAttachment failed " + e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /***
+     * Provide a stream which encrypts an attachment while it is read, so it is never loaded in memory.
+     * The sha256 hash of the file info is only set once the encrypted stream has been read until its end,
+     * the file info must not be sent before.
+     * Closing the encrypted stream closes the attachment stream.
+     * @param attachmentStream the attachment stream
+     * @param mimetype the mime type
+     * @return the encryption result, null if the encryption cannot be initialized
+     */
+    public static EncryptionResult encryptAttachmentStream(InputStream attachmentStream, String mimetype) {
         SecureRandom secureRandom = new SecureRandom();
 
         // generate a random iv key
@@ -80,8 +127,6 @@ public class MXEncryptedAttachments implements Serializable {
         byte[] key = new byte[32];
         secureRandom.nextBytes(key);
 
-        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-
         try {
             Cipher encryptCipher = Cipher.getInstance(CIPHER_ALGORITHM);
             SecretKeySpec secretKeySpec = new SecretKeySpec(key, SECRET_KEY_SPEC_ALGORITHM);
@@ -90,21 +135,6 @@ public class MXEncryptedAttachments implements Serializable {
 
             MessageDigest messageDigest = MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
 
-            byte[] data = new byte[CRYPTO_BUFFER_SIZE];
-            int read;
-            byte[] encodedBytes;
-
-            while (-1 != (read = attachmentStream.read(data))) {
-                encodedBytes = encryptCipher.update(data, 0, read);
-                messageDigest.update(encodedBytes, 0, encodedBytes.length);
-                outStream.write(encodedBytes);
-            }
-
-            // encrypt the latest chunk
-            encodedBytes = encryptCipher.doFinal();
-            messageDigest.update(encodedBytes, 0, encodedBytes.length);
-            outStream.write(encodedBytes);
-
             EncryptionResult result = new EncryptionResult();
             result.mEncryptedFileInfo = new EncryptedFileInfo();
             result.mEncryptedFileInfo.key = new EncryptedFileKey();
@@ -117,41 +147,156 @@ public class MXEncryptedAttachments implements Serializable {
             result.mEncryptedFileInfo.iv = Base64.encodeToString(initVectorBytes, Base64.DEFAULT).replace("\n", "").replace("=", "");
             result.mEncryptedFileInfo.v = "v2";
 
-            result.mEncryptedFileInfo.hashes = new HashMap<>();
-            result.mEncryptedFileInfo.hashes.put("sha256", base64ToUnpaddedBase64(Base64.encodeToString(messageDigest.digest(), Base64.DEFAULT)));
+            result.mEncryptedStream = new EncryptingInputStream(attachmentStream, encryptCipher, messageDigest, result.mEncryptedFileInfo);
 
-            result.mEncryptedStream = new ByteArrayInputStream(outStream.toByteArray());
-            outStream.close();
-
-            Log.d(LOG_TAG, "Encrypt in " + (System.currentTimeMillis() - t0) + " ms");
             return result;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## encryptAttachmentStream failed " + e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Decrypt an attachment.
+     * The whole decrypted attachment is loaded in memory: prefer
+     * {@link #decryptAttachment(InputStream, EncryptedFileInfo, OutputStream)} for the large attachments.
+     *
+     * @param attachmentStream  the attachment stream
+     * @param encryptedFileInfo the encryption file info
+     * @return the decrypted attachment stream
+     */
+    public static InputStream decryptAttachment(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo) {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+        try {
+            if (decryptAttachment(attachmentStream, encryptedFileInfo, outStream)) {
+                return new ByteArrayInputStream(outStream.toByteArray());
+            }
         } catch (OutOfMemoryError oom) {
-            Log.e(LOG_TAG, "## encryptAttachment failed " + oom.getMessage(), oom);
+            Log.e(LOG_TAG, "## decryptAttachment() :  failed " + oom.getMessage(), oom);
+        }
+
+        return null;
+    }
+
+    /**
+     * Decrypt an attachment to an output stream, by chunks.
+     * The output stream contains unverified data when the decryption fails, so it must be discarded.
+     *
+     * @param attachmentStream  the attachment stream
+     * @param encryptedFileInfo the encryption file info
+     * @param outputStream      the stream to write the decrypted attachment to. It is not closed.
+     * @return true if the attachment has been decrypted and its hash is the expected one
+     */
+    public static boolean decryptAttachment(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo, OutputStream outputStream) {
+        long t0 = System.currentTimeMillis();
+        InputStream decryptedStream = decryptAttachmentStream(attachmentStream, encryptedFileInfo);
+
+        if (null == decryptedStream) {
+            return false;
+        }
+
+        try {
+            byte[] data = new byte[CRYPTO_BUFFER_SIZE];
+            int read;
+
+            // the hash is checked when the end of the stream is reached
+            while (-1 != (read = decryptedStream.read(data))) {
+                outputStream.write(data, 0, read);
+            }
+
+            Log.d(LOG_TAG, "Decrypt in " + (System.currentTimeMillis() - t0) + " ms");
+
+            return true;
         } catch (Exception e) {
-            Log.e(LOG_TAG, "## encryptAttachment failed " + e.getMessage(), e);
+            Log.e(LOG_TAG, "## decryptAttachment() :  failed " + e.getMessage(), e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Provide a stream which decrypts an attachment while it is read.
+     * The hash of the attachment is checked when the end of the stream is reached: the read fails with
+     * an IOException if it is not the expected one. So the decrypted data must not be trusted before that,
+     * or the hash must have been checked before with {@link #checkAttachmentHash(InputStream, EncryptedFileInfo)}.
+     * Closing the decrypted stream closes the attachment stream.
+     *
+     * @param attachmentStream  the attachment stream
+     * @param encryptedFileInfo the encryption file info
+     * @return the decrypted attachment stream, null if the file info is invalid
+     */
+    public static InputStream decryptAttachmentStream(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo) {
+        if (!checkEncryptedFileInfo(attachmentStream, encryptedFileInfo)) {
+            return null;
         }
 
         try {
-            outStream.close();
+            byte[] key = Base64.decode(base64UrlToBase64(encryptedFileInfo.key.k), Base64.DEFAULT);
+            byte[] initVectorBytes = Base64.decode(encryptedFileInfo.iv, Base64.DEFAULT);
+
+            Cipher decryptCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            SecretKeySpec secretKeySpec = new SecretKeySpec(key, SECRET_KEY_SPEC_ALGORITHM);
+            IvParameterSpec ivParameterSpec = new IvParameterSpec(initVectorBytes);
+            decryptCipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
+
+            MessageDigest messageDigest = MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
+
+            return new DecryptingInputStream(attachmentStream, decryptCipher, messageDigest, encryptedFileInfo.hashes.get("sha256"));
         } catch (Exception e) {
-            Log.e(LOG_TAG, "## encryptAttachment() : fail to close outStream", e);
+            Log.e(LOG_TAG, "## decryptAttachmentStream() :  failed " + e.getMessage(), e);
         }
 
         return null;
     }
 
     /**
-     * Decrypt an attachment
+     * Check the hash of an encrypted attachment, without decrypting it.
+     * The attachment stream is read until its end, and it is not closed.
      *
      * @param attachmentStream  the attachment stream
      * @param encryptedFileInfo the encryption file info
-     * @return the decrypted attachment stream
+     * @return true if the hash is the expected one
      */
-    public static InputStream decryptAttachment(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo) {
+    public static boolean checkAttachmentHash(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo) {
+        if (!checkEncryptedFileInfo(attachmentStream, encryptedFileInfo)) {
+            return false;
+        }
+
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
+            byte[] data = new byte[CRYPTO_BUFFER_SIZE];
+            int read;
+
+            while (-1 != (read = attachmentStream.read(data))) {
+                messageDigest.update(data, 0, read);
+            }
+
+            if (TextUtils.equals(encryptedFileInfo.hashes.get("sha256"), digestToString(messageDigest))) {
+                return true;
+            }
+
+            Log.e(LOG_TAG, "## checkAttachmentHash() :  Digest value mismatch");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## checkAttachmentHash() :  failed " + e.getMessage(), e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Check the fields of an encryption file info.
+     *
+     * @param attachmentStream  the attachment stream
+     * @param encryptedFileInfo the encryption file info
+     * @return true if the attachment can be decrypted
+     */
+    private static boolean checkEncryptedFileInfo(InputStream attachmentStream, EncryptedFileInfo encryptedFileInfo) {
         // sanity checks
         if ((null == attachmentStream) || (null == encryptedFileInfo)) {
             Log.e(LOG_TAG, "## decryptAttachment() : null parameters");
-            return null;
+            return false;
         }
 
         if (TextUtils.isEmpty(encryptedFileInfo.iv)
@@ -159,81 +304,186 @@ public class MXEncryptedAttachments implements Serializable {
                 || (null == encryptedFileInfo.hashes)
                 || !encryptedFileInfo.hashes.containsKey("sha256")) {
             Log.e(LOG_TAG, "## decryptAttachment() : some fields are not defined");
-            return null;
+            return false;
         }
 
         if (!TextUtils.equals(encryptedFileInfo.key.alg, "A256CTR")
                 || !TextUtils.equals(encryptedFileInfo.key.kty, "oct")
                 || TextUtils.isEmpty(encryptedFileInfo.key.k)) {
             Log.e(LOG_TAG, "## decryptAttachment() : invalid key fields");
-            return null;
+            return false;
         }
 
-        // detect if there is no data to decrypt
-        try {
-            if (0 == attachmentStream.available()) {
-                return new ByteArrayInputStream(new byte[0]);
-            }
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Fail to retrieve the file size", e);
+        return true;
+    }
+
+    private static String digestToString(MessageDigest messageDigest) {
+        return base64ToUnpaddedBase64(Base64.encodeToString(messageDigest.digest(), Base64.DEFAULT));
+    }
+
+    /**
+     * Stream which encrypts or decrypts the read data by chunks, and computes the hash of the encrypted data.
+     * With AES-CTR, the processed data has the same length as the read one.
+     */
+    private abstract static class AttachmentCipherInputStream extends FilterInputStream {
+        private final Cipher mCipher;
+        private final MessageDigest mMessageDigest;
+        private final boolean mIsEncrypting;
+
+        private final byte[] mReadBuffer = new byte[CRYPTO_BUFFER_SIZE];
+
+        // the processed data which has not been read yet
+        private byte[] mProcessedBytes = new byte[0];
+        private int mProcessedBytesOffset = 0;
+
+        private boolean mIsEndOfStream = false;
+
+        AttachmentCipherInputStream(InputStream inputStream, Cipher cipher, MessageDigest messageDigest, boolean isEncrypting) {
+            super(inputStream);
+            mCipher = cipher;
+            mMessageDigest = messageDigest;
+            mIsEncrypting = isEncrypting;
         }
 
-        long t0 = System.currentTimeMillis();
+        /**
+         * Called once the whole stream has been processed.
+         *
+         * @param hash the unpadded base64 sha256 hash of the encrypted data
+         * @throws IOException if the stream is not valid
+         */
+        abstract void onEndOfStream(String hash) throws IOException;
 
-        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
 
-        try {
-            byte[] key = Base64.decode(base64UrlToBase64(encryptedFileInfo.key.k), Base64.DEFAULT);
-            byte[] initVectorBytes = Base64.decode(encryptedFileInfo.iv, Base64.DEFAULT);
+            return (-1 == read(data, 0, 1)) ? -1 : (data[0] & 0xff);
+        }
 
-            Cipher decryptCipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, SECRET_KEY_SPEC_ALGORITHM);
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(initVectorBytes);
-            decryptCipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
 
-            MessageDigest messageDigest = MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHM);
+            while (mProcessedBytesOffset == mProcessedBytes.length) {
+                if (mIsEndOfStream) {
+                    return -1;
+                }
 
-            int read;
+                processNextChunk();
+            }
+
+            int count = Math.min(len, mProcessedBytes.length - mProcessedBytesOffset);
+            System.arraycopy(mProcessedBytes, mProcessedBytesOffset, b, off, count);
+            mProcessedBytesOffset += count;
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // the skipped data must be processed
             byte[] data = new byte[CRYPTO_BUFFER_SIZE];
-            byte[] decodedBytes;
+            long skipped = 0;
+            int read;
 
-            while (-1 != (read = attachmentStream.read(data))) {
-                messageDigest.update(data, 0, read);
-                decodedBytes = decryptCipher.update(data, 0, read);
-                outStream.write(decodedBytes);
+            while ((skipped < n) && (-1 != (read = read(data, 0, (int) Math.min(data.length, n - skipped))))) {
+                skipped += read;
             }
 
-            // decrypt the last chunk
-            decodedBytes = decryptCipher.doFinal();
-            outStream.write(decodedBytes);
+            return skipped;
+        }
 
-            String currentDigestValue = base64ToUnpaddedBase64(Base64.encodeToString(messageDigest.digest(), Base64.DEFAULT));
+        @Override
+        public int available() throws IOException {
+            return (mProcessedBytes.length - mProcessedBytesOffset) + (mIsEndOfStream ? 0 : in.available());
+        }
 
-            if (!TextUtils.equals(encryptedFileInfo.hashes.get("sha256"), currentDigestValue)) {
-                Log.e(LOG_TAG, "## decryptAttachment() :  Digest value mismatch");
-                outStream.close();
-                return null;
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private void processNextChunk() throws IOException {
+            int read = in.read(mReadBuffer);
+            byte[] processedBytes;
+
+            try {
+                if (-1 == read) {
+                    processedBytes = mCipher.doFinal();
+                } else {
+                    if (!mIsEncrypting) {
+                        mMessageDigest.update(mReadBuffer, 0, read);
+                    }
+
+                    processedBytes = mCipher.update(mReadBuffer, 0, read);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
             }
 
-            InputStream decryptedStream = new ByteArrayInputStream(outStream.toByteArray());
-            outStream.close();
+            mProcessedBytes = (null == processedBytes) ? new byte[0] : processedBytes;
+            mProcessedBytesOffset = 0;
 
-            Log.d(LOG_TAG, "Decrypt in " + (System.currentTimeMillis() - t0) + " ms");
+            if (mIsEncrypting) {
+                mMessageDigest.update(mProcessedBytes);
+            }
 
-            return decryptedStream;
-        } catch (OutOfMemoryError oom) {
-            Log.e(LOG_TAG, "## decryptAttachment() :  failed " + oom.getMessage(), oom);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## decryptAttachment() :  failed " + e.getMessage(), e);
+            if (-1 == read) {
+                mIsEndOfStream = true;
+                onEndOfStream(digestToString(mMessageDigest));
+            }
         }
+    }
 
-        try {
-            outStream.close();
-        } catch (Exception closeException) {
-            Log.e(LOG_TAG, "## decryptAttachment() :  fail to close the file", closeException);
+    /**
+     * Stream which encrypts an attachment, and sets the hash of the file info at its end.
+     */
+    private static class EncryptingInputStream extends AttachmentCipherInputStream {
+        private final EncryptedFileInfo mEncryptedFileInfo;
+
+        EncryptingInputStream(InputStream attachmentStream, Cipher cipher, MessageDigest messageDigest, EncryptedFileInfo encryptedFileInfo) {
+            super(attachmentStream, cipher, messageDigest, true);
+            mEncryptedFileInfo = encryptedFileInfo;
         }
 
-        return null;
+        @Override
+        void onEndOfStream(String hash) {
+            Map<String, String> hashes = new HashMap<>();
+            hashes.put("sha256", hash);
+
+            mEncryptedFileInfo.hashes = hashes;
+        }
+    }
+
+    /**
+     * Stream which decrypts an attachment, and checks its hash at its end.
+     */
+    private static class DecryptingInputStream extends AttachmentCipherInputStream {
+        private final String mExpectedHash;
+
+        DecryptingInputStream(InputStream attachmentStream, Cipher cipher, MessageDigest messageDigest, String expectedHash) {
+            super(attachmentStream, cipher, messageDigest, false);
+            mExpectedHash = expectedHash;
+        }
+
+        @Override
+        void onEndOfStream(String hash) throws IOException {
+            if (!TextUtils.equals(mExpectedHash, hash)) {
+                Log.e(LOG_TAG, "## decryptAttachment() :  Digest value mismatch");
+                throw new IOException("Digest value mismatch");
+            }
+        }
     }
 
     /**
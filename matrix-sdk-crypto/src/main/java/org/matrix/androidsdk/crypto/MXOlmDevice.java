@@ -43,6 +43,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MXOlmDevice {
     private static final String LOG_TAG = MXOlmDevice.class.getSimpleName();
@@ -80,7 +81,7 @@ public class MXOlmDevice {
     // The first level keys are timeline ids.
     // The second level keys are strings of form "<senderKey>|<session_id>|<message_index>"
     // Values are true.
-    private final Map<String, Map<String, Boolean>> mInboundGroupSessionMessageIndexes;
+    private final ConcurrentHashMap<String, Map<String, Boolean>> mInboundGroupSessionMessageIndexes;
 
     /**
      * inboundGroupSessionWithId error
@@ -132,7 +133,7 @@ public class MXOlmDevice {
             Log.e(LOG_TAG, "## MXOlmDevice : cannot find " + OlmAccount.JSON_KEY_FINGER_PRINT_KEY + " with error " + e.getMessage(), e);
         }
 
-        mInboundGroupSessionMessageIndexes = new HashMap<>();
+        mInboundGroupSessionMessageIndexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -393,6 +394,8 @@ public class MXOlmDevice {
                 res.put("type", olmMessage.mType);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "## encryptMessage() : failed " + e.getMessage(), e);
+            } finally {
+                mStore.releaseDeviceSession(mxOlmSession);
             }
         }
 
@@ -424,6 +427,8 @@ public class MXOlmDevice {
                 mStore.storeSession(mxOlmSession, theirDeviceIdentityKey);
             } catch (Exception e) {
                 Log.e(LOG_TAG, "## decryptMessage() : decryptMessage failed " + e.getMessage(), e);
+            } finally {
+                mStore.releaseDeviceSession(mxOlmSession);
             }
         }
 
@@ -445,7 +450,12 @@ public class MXOlmDevice {
         }
 
         MXOlmSession mxOlmSession = getSessionForDevice(theirDeviceIdentityKey, sessionId);
-        return (null != mxOlmSession) && mxOlmSession.getOlmSession().matchesInboundSession(ciphertext);
+
+        try {
+            return (null != mxOlmSession) && mxOlmSession.getOlmSession().matchesInboundSession(ciphertext);
+        } finally {
+            mStore.releaseDeviceSession(mxOlmSession);
+        }
     }
 
 
@@ -549,6 +559,7 @@ public class MXOlmDevice {
             Log.e(LOG_TAG, "## addInboundGroupSession() : Update for megolm session " + senderKey + "/" + sessionId);
 
             Long existingFirstKnown = existingInboundSession.getFirstKnownIndex();
+            releaseInboundGroupSession(existingInboundSession);
             Long newKnownFirstIndex = session.getFirstKnownIndex();
 
             //If our existing session is better we keep it
@@ -635,8 +646,11 @@ public class MXOlmDevice {
                 // If we already have this session, consider updating it
                 Log.e(LOG_TAG, "## importInboundGroupSession() : Update for megolm session " + senderKey + "/" + sessionId);
 
+                Long existingFirstKnown = existingOlmSession.getFirstKnownIndex();
+                releaseInboundGroupSession(existingOlmSession);
+
                 // For now we just ignore updates. TODO: implement something here
-                if (existingOlmSession.getFirstKnownIndex() <= session.getFirstKnownIndex()) {
+                if (existingFirstKnown <= session.getFirstKnownIndex()) {
                     //Ignore this, keep existing
                     session.mSession.releaseSession();
                     continue;
@@ -681,67 +695,75 @@ public class MXOlmDevice {
         MXDecryptionResult result = new MXDecryptionResult();
         MXOlmInboundGroupSession2 session = getInboundGroupSession(sessionId, senderKey, roomId);
 
-        if (null != session) {
-            // Check that the room id matches the original one for the session. This stops
-            // the HS pretending a message was targeting a different room.
-            if (TextUtils.equals(roomId, session.mRoomId)) {
-                String errorMessage = "";
-                OlmInboundGroupSession.DecryptMessageResult decryptResult = null;
-                try {
-                    decryptResult = session.mSession.decryptMessage(body);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "## decryptGroupMessage () : decryptMessage failed " + e.getMessage(), e);
-                    errorMessage = e.getMessage();
-                }
+        try {
+            if (null != session) {
+                // Check that the room id matches the original one for the session. This stops
+                // the HS pretending a message was targeting a different room.
+                if (TextUtils.equals(roomId, session.mRoomId)) {
+                    String errorMessage = "";
+                    OlmInboundGroupSession.DecryptMessageResult decryptResult = null;
+                    try {
+                        decryptResult = session.mSession.decryptMessage(body);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## decryptGroupMessage () : decryptMessage failed " + e.getMessage(), e);
+                        errorMessage = e.getMessage();
+                    }
 
-                if (null != decryptResult) {
-                    if (null != timeline) {
-                        if (!mInboundGroupSessionMessageIndexes.containsKey(timeline)) {
-                            mInboundGroupSessionMessageIndexes.put(timeline, new HashMap<String, Boolean>());
-                        }
+                    if (null != decryptResult) {
+                        if (null != timeline) {
+                            // the sessions may be used from several threads
+                            Map<String, Boolean> messageIndexes = mInboundGroupSessionMessageIndexes.get(timeline);
+
+                            if (null == messageIndexes) {
+                                mInboundGroupSessionMessageIndexes.putIfAbsent(timeline, new ConcurrentHashMap<String, Boolean>());
+                                messageIndexes = mInboundGroupSessionMessageIndexes.get(timeline);
+                            }
 
-                        String messageIndexKey = senderKey + "|" + sessionId + "|" + decryptResult.mIndex;
+                            String messageIndexKey = senderKey + "|" + sessionId + "|" + decryptResult.mIndex;
 
-                        if (null != mInboundGroupSessionMessageIndexes.get(timeline).get(messageIndexKey)) {
-                            String reason = String.format(MXCryptoError.DUPLICATE_MESSAGE_INDEX_REASON, decryptResult.mIndex);
-                            Log.e(LOG_TAG, "## decryptGroupMessage() : " + reason);
-                            throw new MXDecryptionException(new MXCryptoError(MXCryptoError.DUPLICATED_MESSAGE_INDEX_ERROR_CODE,
-                                    MXCryptoError.UNABLE_TO_DECRYPT, reason));
+                            if (null != messageIndexes.put(messageIndexKey, true)) {
+                                String reason = String.format(MXCryptoError.DUPLICATE_MESSAGE_INDEX_REASON, decryptResult.mIndex);
+                                Log.e(LOG_TAG, "## decryptGroupMessage() : " + reason);
+                                throw new MXDecryptionException(new MXCryptoError(MXCryptoError.DUPLICATED_MESSAGE_INDEX_ERROR_CODE,
+                                        MXCryptoError.UNABLE_TO_DECRYPT, reason));
+                            }
                         }
 
-                        mInboundGroupSessionMessageIndexes.get(timeline).put(messageIndexKey, true);
-                    }
+                        mStore.storeInboundGroupSessions(Collections.singletonList(session));
+                        try {
+                            JsonParser parser = new JsonParser();
+                            result.mPayload = parser.parse(StringUtilsKt.convertFromUTF8(decryptResult.mDecryptedMessage));
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## decryptGroupMessage() : RLEncoder.encode failed " + e.getMessage(), e);
+                            return null;
+                        }
 
-                    mStore.storeInboundGroupSessions(Collections.singletonList(session));
-                    try {
-                        JsonParser parser = new JsonParser();
-                        result.mPayload = parser.parse(StringUtilsKt.convertFromUTF8(decryptResult.mDecryptedMessage));
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## decryptGroupMessage() : RLEncoder.encode failed " + e.getMessage(), e);
-                        return null;
-                    }
+                        if (null == result.mPayload) {
+                            Log.e(LOG_TAG, "## decryptGroupMessage() : fails to parse the payload");
+                            return null;
+                        }
 
-                    if (null == result.mPayload) {
-                        Log.e(LOG_TAG, "## decryptGroupMessage() : fails to parse the payload");
-                        return null;
+                        result.mKeysClaimed = session.mKeysClaimed;
+                        result.mSenderKey = senderKey;
+                        result.mForwardingCurve25519KeyChain = session.mForwardingCurve25519KeyChain;
+                    } else {
+                        Log.e(LOG_TAG, "## decryptGroupMessage() : failed to decode the message");
+                        throw new MXDecryptionException(new MXCryptoError(MXCryptoError.OLM_ERROR_CODE, errorMessage, null));
                     }
-
-                    result.mKeysClaimed = session.mKeysClaimed;
-                    result.mSenderKey = senderKey;
-                    result.mForwardingCurve25519KeyChain = session.mForwardingCurve25519KeyChain;
                 } else {
-                    Log.e(LOG_TAG, "## decryptGroupMessage() : failed to decode the message");
-                    throw new MXDecryptionException(new MXCryptoError(MXCryptoError.OLM_ERROR_CODE, errorMessage, null));
+                    String reason = String.format(MXCryptoError.INBOUND_SESSION_MISMATCH_ROOM_ID_REASON, roomId, session.mRoomId);
+                    Log.e(LOG_TAG, "## decryptGroupMessage() : " + reason);
+                    throw new MXDecryptionException(new MXCryptoError(MXCryptoError.INBOUND_SESSION_MISMATCH_ROOM_ID_ERROR_CODE,
+                            MXCryptoError.UNABLE_TO_DECRYPT, reason));
                 }
             } else {
-                String reason = String.format(MXCryptoError.INBOUND_SESSION_MISMATCH_ROOM_ID_REASON, roomId, session.mRoomId);
-                Log.e(LOG_TAG, "## decryptGroupMessage() : " + reason);
-                throw new MXDecryptionException(new MXCryptoError(MXCryptoError.INBOUND_SESSION_MISMATCH_ROOM_ID_ERROR_CODE,
-                        MXCryptoError.UNABLE_TO_DECRYPT, reason));
+                Log.e(LOG_TAG, "## decryptGroupMessage() : Cannot retrieve inbound group session " + sessionId);
+                // do not use mInboundGroupSessionWithIdError, the messages may be decrypted from several threads
+                throw new MXDecryptionException(new MXCryptoError(MXCryptoError.UNKNOWN_INBOUND_SESSION_ID_ERROR_CODE,
+                        MXCryptoError.UNKNOWN_INBOUND_SESSION_ID_REASON, null));
             }
-        } else {
-            Log.e(LOG_TAG, "## decryptGroupMessage() : Cannot retrieve inbound group session " + sessionId);
-            throw new MXDecryptionException(mInboundGroupSessionWithIdError);
+        } finally {
+            releaseInboundGroupSession(session);
         }
 
         return result;
@@ -784,7 +806,8 @@ public class MXOlmDevice {
     }
 
     /**
-     * Search an OlmSession
+     * Search an OlmSession.
+     * It must be given back with {@link IMXCryptoStore#releaseDeviceSession(MXOlmSession)} once it is not used anymore.
      *
      * @param theirDeviceIdentityKey the device key
      * @param sessionId              the session Id
@@ -803,6 +826,7 @@ public class MXOlmDevice {
     /**
      * Extract an InboundGroupSession from the session store and do some check.
      * mInboundGroupSessionWithIdError describes the failure reason.
+     * The session must be given back with {@link #releaseInboundGroupSession(MXOlmInboundGroupSession2)} once it is not used anymore.
      *
      * @param roomId    the room where the session is used.
      * @param sessionId the session identifier.
@@ -841,6 +865,18 @@ public class MXOlmDevice {
      * @return true if the unbound session keys are known.
      */
     public boolean hasInboundSessionKeys(String roomId, String senderKey, String sessionId) {
-        return null != getInboundGroupSession(sessionId, senderKey, roomId);
+        MXOlmInboundGroupSession2 session = getInboundGroupSession(sessionId, senderKey, roomId);
+        releaseInboundGroupSession(session);
+
+        return null != session;
+    }
+
+    /**
+     * Give back an inbound group session provided by {@link #getInboundGroupSession(String, String, String)}.
+     *
+     * @param session the session, null to do nothing
+     */
+    public void releaseInboundGroupSession(@Nullable MXOlmInboundGroupSession2 session) {
+        mStore.releaseInboundGroupSession(session);
     }
 }
@@ -215,17 +215,20 @@ public class MXMegolmDecryption implements IMXDecrypting {
             timelineId = "";
         }
 
-        if (!mPendingEvents.containsKey(k)) {
-            mPendingEvents.put(k, new HashMap<String, List<CryptoEvent>>());
-        }
+        // the events may be decrypted from several threads
+        synchronized (mPendingEvents) {
+            if (!mPendingEvents.containsKey(k)) {
+                mPendingEvents.put(k, new HashMap<String, List<CryptoEvent>>());
+            }
 
-        if (!mPendingEvents.get(k).containsKey(timelineId)) {
-            mPendingEvents.get(k).put(timelineId, new ArrayList<CryptoEvent>());
-        }
+            if (!mPendingEvents.get(k).containsKey(timelineId)) {
+                mPendingEvents.get(k).put(timelineId, new ArrayList<CryptoEvent>());
+            }
 
-        if (mPendingEvents.get(k).get(timelineId).indexOf(event) < 0) {
-            Log.d(LOG_TAG, "## addEventToPendingList() : add Event " + event.getEventId() + " in room id " + event.getRoomId());
-            mPendingEvents.get(k).get(timelineId).add(event);
+            if (mPendingEvents.get(k).get(timelineId).indexOf(event) < 0) {
+                Log.d(LOG_TAG, "## addEventToPendingList() : add Event " + event.getEventId() + " in room id " + event.getRoomId());
+                mPendingEvents.get(k).get(timelineId).add(event);
+            }
         }
     }
 
@@ -319,11 +322,14 @@ public class MXMegolmDecryption implements IMXDecrypting {
     public void onNewSession(String senderKey, String sessionId) {
         String k = senderKey + "|" + sessionId;
 
-        Map<String, List<CryptoEvent>> pending = mPendingEvents.get(k);
+        Map<String, List<CryptoEvent>> pending;
+
+        synchronized (mPendingEvents) {
+            pending = mPendingEvents.remove(k);
+        }
 
         if (null != pending) {
             // Have another go at decrypting events sent with this session.
-            mPendingEvents.remove(k);
 
             Set<String> timelineIds = pending.keySet();
 
@@ -408,6 +414,7 @@ public class MXMegolmDecryption implements IMXDecrypting {
                             Map<String, Object> payloadJson = new HashMap<>();
                             payloadJson.put("type", CryptoEvent.EVENT_TYPE_FORWARDED_ROOM_KEY);
                             payloadJson.put("content", inboundGroupSession.exportKeys());
+                            mCrypto.getOlmDevice().releaseInboundGroupSession(inboundGroupSession);
 
                             EncryptedMessage encodedPayload = mCrypto.encryptMessage(payloadJson, Arrays.asList(deviceInfo));
                             MXUsersDevicesMap<Object> sendToDeviceMap = new MXUsersDevicesMap<>();
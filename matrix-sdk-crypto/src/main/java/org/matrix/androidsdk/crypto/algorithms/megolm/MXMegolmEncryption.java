@@ -49,6 +49,12 @@ import java.util.Map;
 public class MXMegolmEncryption implements IMXEncrypting {
     private static final String LOG_TAG = MXMegolmEncryption.class.getSimpleName();
 
+    // the max number of devices in a key sharing batch, to avoid request timeouts
+    private static final int MAX_SHARE_KEY_BATCH_DEVICES_COUNT = 100;
+
+    // the max number of key sharing batches in progress at the same time
+    private static final int MAX_CONCURRENT_SHARE_KEY_BATCHES = 3;
+
     private MXCryptoImpl mCrypto;
 
     // The id of the room we will be sending to.
@@ -329,7 +335,8 @@ public class MXMegolmEncryption implements IMXEncrypting {
     }
 
     /**
-     * Share the device key to a list of users
+     * Share the device key to a list of users.
+     * The devices are split into batches, which are shared by a {@link ShareKeyPipeline}.
      *
      * @param session        the session info
      * @param devicesByUsers the devices map
@@ -354,90 +361,208 @@ public class MXMegolmEncryption implements IMXEncrypting {
             return;
         }
 
-        // reduce the map size to avoid request timeout when there are too many devices (Users size  * devices per user)
-        Map<String, List<MXDeviceInfo>> subMap = new HashMap<>();
+        new ShareKeyPipeline(session, devicesByUsers, callback).start();
+    }
 
-        final List<String> userIds = new ArrayList<>();
-        int devicesCount = 0;
+    /**
+     * Share a session key with batches of devices.
+     * Several batches are in progress at the same time, so the one-time keys claim of a batch, the olm encryption
+     * of another one and the upload of a third one overlap.
+     * The olm encryptions are done in the encrypting thread, and the pipeline state is only updated in this thread.
+     * The pipeline stops at the first error.
+     */
+    private class ShareKeyPipeline {
+        private final MXOutboundSessionInfo mSession;
+        private final ApiCallback<Void> mCallback;
+
+        // the m.room_key payload, and the chain index it contains
+        private final Map<String, Object> mPayload;
+        private final int mChainIndex;
+
+        // the batches which have not been started yet
+        private final List<Map<String, List<MXDeviceInfo>>> mPendingBatches = new ArrayList<>();
+
+        private final int mBatchesCount;
+        private int mRunningBatchesCount;
+        private boolean mIsCompleted;
+
+        // the timings, cumulated over the batches
+        private final long mStartTs = System.currentTimeMillis();
+        private long mClaimDurationMs;
+        private long mEncryptDurationMs;
+        private long mSendDurationMs;
+        private int mSharedDevicesCount;
+
+        ShareKeyPipeline(MXOutboundSessionInfo session, Map<String, List<MXDeviceInfo>> devicesByUsers, ApiCallback<Void> callback) {
+            mSession = session;
+            mCallback = callback;
+
+            mChainIndex = mCrypto.getOlmDevice().getMessageIndex(session.mSessionId);
+
+            Map<String, Object> submap = new HashMap<>();
+            submap.put("algorithm", CryptoConstantsKt.MXCRYPTO_ALGORITHM_MEGOLM);
+            submap.put("room_id", mRoomId);
+            submap.put("session_id", session.mSessionId);
+            submap.put("session_key", mCrypto.getOlmDevice().getSessionKey(session.mSessionId));
+            submap.put("chain_index", mChainIndex);
+
+            mPayload = new HashMap<>();
+            mPayload.put("type", CryptoEvent.EVENT_TYPE_ROOM_KEY);
+            mPayload.put("content", submap);
+
+            // reduce the batches size to avoid request timeout when there are too many devices (Users size  * devices per user)
+            Map<String, List<MXDeviceInfo>> batch = new HashMap<>();
+            int devicesCount = 0;
+
+            for (String userId : devicesByUsers.keySet()) {
+                List<MXDeviceInfo> devicesList = devicesByUsers.get(userId);
+
+                batch.put(userId, devicesList);
+                devicesCount += devicesList.size();
+
+                if (devicesCount >= MAX_SHARE_KEY_BATCH_DEVICES_COUNT) {
+                    mPendingBatches.add(batch);
+                    batch = new HashMap<>();
+                    devicesCount = 0;
+                }
+            }
 
-        for (String userId : devicesByUsers.keySet()) {
-            List<MXDeviceInfo> devicesList = devicesByUsers.get(userId);
+            if (!batch.isEmpty()) {
+                mPendingBatches.add(batch);
+            }
 
-            userIds.add(userId);
-            subMap.put(userId, devicesList);
+            mBatchesCount = mPendingBatches.size();
+        }
 
-            devicesCount += devicesList.size();
+        /**
+         * Start the first batches.
+         * It must be called in getEncryptingThreadHandler() thread.
+         */
+        void start() {
+            Log.d(LOG_TAG, "## shareKey() : " + mBatchesCount + " batches to share");
 
-            if (devicesCount > 100) {
-                break;
-            }
+            startNextBatches();
         }
 
-        Log.d(LOG_TAG, "## shareKey() ; userId " + userIds);
-        shareUserDevicesKey(session, subMap, new ApiCallback<Void>() {
-            @Override
-            public void onSuccess(Void info) {
-                mCrypto.getEncryptingThreadHandler().post(new Runnable() {
+        /**
+         * Start the pending batches, up to the concurrency limit, or complete the pipeline when all the batches are done.
+         */
+        private void startNextBatches() {
+            if (mIsCompleted) {
+                return;
+            }
+
+            while ((mRunningBatchesCount < MAX_CONCURRENT_SHARE_KEY_BATCHES) && !mPendingBatches.isEmpty()) {
+                final Map<String, List<MXDeviceInfo>> batch = mPendingBatches.remove(0);
+                mRunningBatchesCount++;
+
+                Log.d(LOG_TAG, "## shareKey() ; userId " + batch.keySet());
+
+                shareUserDevicesKey(this, batch, new ApiCallback<Void>() {
                     @Override
-                    public void run() {
-                        for (String userId : userIds) {
-                            devicesByUsers.remove(userId);
-                        }
-                        shareKey(session, devicesByUsers, callback);
+                    public void onSuccess(Void info) {
+                        mCrypto.getEncryptingThreadHandler().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mRunningBatchesCount--;
+                                startNextBatches();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNetworkError(final Exception e) {
+                        Log.e(LOG_TAG, "## shareKey() ; userIds " + batch.keySet() + " failed " + e.getMessage(), e);
+                        onBatchFailed(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onNetworkError(e);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onMatrixError(final MatrixError e) {
+                        Log.e(LOG_TAG, "## shareKey() ; userIds " + batch.keySet() + " failed " + e.getMessage());
+                        onBatchFailed(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onMatrixError(e);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onUnexpectedError(final Exception e) {
+                        Log.e(LOG_TAG, "## shareKey() ; userIds " + batch.keySet() + " failed " + e.getMessage(), e);
+                        onBatchFailed(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onUnexpectedError(e);
+                            }
+                        });
                     }
                 });
             }
 
-            @Override
-            public void onNetworkError(Exception e) {
-                Log.e(LOG_TAG, "## shareKey() ; userIds " + userIds + " failed " + e.getMessage(), e);
-                if (null != callback) {
-                    callback.onNetworkError(e);
-                }
+            if (0 == mRunningBatchesCount) {
+                complete(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onSuccess(null);
+                    }
+                });
             }
+        }
 
-            @Override
-            public void onMatrixError(MatrixError e) {
-                Log.e(LOG_TAG, "## shareKey() ; userIds " + userIds + " failed " + e.getMessage());
-                if (null != callback) {
-                    callback.onMatrixError(e);
+        /**
+         * A batch failed: stop the pipeline and dispatch the first error.
+         *
+         * @param dispatchError the error dispatch
+         */
+        private void onBatchFailed(final Runnable dispatchError) {
+            mCrypto.getEncryptingThreadHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    mRunningBatchesCount--;
+                    complete(dispatchError);
                 }
+            });
+        }
+
+        /**
+         * Report the timings and dispatch the result, once.
+         *
+         * @param dispatchResult the result dispatch
+         */
+        private void complete(Runnable dispatchResult) {
+            if (mIsCompleted) {
+                return;
             }
 
-            @Override
-            public void onUnexpectedError(Exception e) {
-                Log.e(LOG_TAG, "## shareKey() ; userIds " + userIds + " failed " + e.getMessage(), e);
-                if (null != callback) {
-                    callback.onUnexpectedError(e);
-                }
+            mIsCompleted = true;
+
+            Log.d(LOG_TAG, "## shareKey() : " + (mBatchesCount - mPendingBatches.size()) + "/" + mBatchesCount + " batches, "
+                    + mSharedDevicesCount + " devices, after " + (System.currentTimeMillis() - mStartTs) + " ms"
+                    + " (cumulated claim " + mClaimDurationMs + " ms, encrypt " + mEncryptDurationMs + " ms, send " + mSendDurationMs + " ms)");
+
+            if (null != mCallback) {
+                mCrypto.getUIHandler().post(dispatchResult);
             }
-        });
+        }
     }
 
     /**
-     * Share the device keys of a an user
+     * Share the session key with a batch of devices.
      *
-     * @param session       the session info
+     * @param pipeline      the pipeline which provides the payload, and collects the timings
      * @param devicesByUser the devices map
      * @param callback      the asynchronous callback
      */
-    private void shareUserDevicesKey(final MXOutboundSessionInfo session,
+    private void shareUserDevicesKey(final ShareKeyPipeline pipeline,
                                      final Map<String, List<MXDeviceInfo>> devicesByUser,
                                      final ApiCallback<Void> callback) {
-        final String sessionKey = mCrypto.getOlmDevice().getSessionKey(session.mSessionId);
-        final int chainIndex = mCrypto.getOlmDevice().getMessageIndex(session.mSessionId);
-
-        Map<String, Object> submap = new HashMap<>();
-        submap.put("algorithm", CryptoConstantsKt.MXCRYPTO_ALGORITHM_MEGOLM);
-        submap.put("room_id", mRoomId);
-        submap.put("session_id", session.mSessionId);
-        submap.put("session_key", sessionKey);
-        submap.put("chain_index", chainIndex);
-
-        final Map<String, Object> payload = new HashMap<>();
-        payload.put("type", CryptoEvent.EVENT_TYPE_ROOM_KEY);
-        payload.put("content", submap);
-
+        final MXOutboundSessionInfo session = pipeline.mSession;
         final long t0 = System.currentTimeMillis();
         Log.d(LOG_TAG, "## shareUserDevicesKey() : starts");
 
@@ -447,8 +572,16 @@ public class MXMegolmEncryption implements IMXEncrypting {
                 mCrypto.getEncryptingThreadHandler().post(new Runnable() {
                     @Override
                     public void run() {
-                        Log.d(LOG_TAG, "## shareUserDevicesKey() : ensureOlmSessionsForDevices succeeds after "
-                                + (System.currentTimeMillis() - t0) + " ms");
+                        long claimDurationMs = System.currentTimeMillis() - t0;
+                        pipeline.mClaimDurationMs += claimDurationMs;
+                        Log.d(LOG_TAG, "## shareUserDevicesKey() : ensureOlmSessionsForDevices succeeds after " + claimDurationMs + " ms");
+
+                        // another batch failed in the meantime
+                        if (pipeline.mIsCompleted) {
+                            return;
+                        }
+
+                        final long t1 = System.currentTimeMillis();
                         MXUsersDevicesMap<Object> contentMap = new MXUsersDevicesMap<>();
 
                         boolean haveTargets = false;
@@ -479,13 +612,15 @@ public class MXMegolmEncryption implements IMXEncrypting {
 
                                 Log.d(LOG_TAG, "## shareUserDevicesKey() : Sharing keys with device " + userId + ":" + deviceID);
                                 //noinspection ArraysAsListWithZeroOrOneArgument,ArraysAsListWithZeroOrOneArgument
-                                contentMap.setObject(mCrypto.encryptMessage(payload, Arrays.asList(sessionResult.mDevice)), userId, deviceID);
+                                contentMap.setObject(mCrypto.encryptMessage(pipeline.mPayload, Arrays.asList(sessionResult.mDevice)), userId, deviceID);
                                 haveTargets = true;
                             }
                         }
 
+                        pipeline.mEncryptDurationMs += System.currentTimeMillis() - t1;
+
                         if (haveTargets && !mCrypto.hasBeenReleased()) {
-                            final long t0 = System.currentTimeMillis();
+                            final long t2 = System.currentTimeMillis();
                             Log.d(LOG_TAG, "## shareUserDevicesKey() : has target");
 
                             mCrypto.getCryptoRestClient().sendToDevice(CryptoEvent.EVENT_TYPE_MESSAGE_ENCRYPTED, contentMap, new ApiCallback<Void>() {
@@ -494,8 +629,9 @@ public class MXMegolmEncryption implements IMXEncrypting {
                                     mCrypto.getEncryptingThreadHandler().post(new Runnable() {
                                         @Override
                                         public void run() {
-                                            Log.d(LOG_TAG, "## shareUserDevicesKey() : sendToDevice succeeds after "
-                                                    + (System.currentTimeMillis() - t0) + " ms");
+                                            long sendDurationMs = System.currentTimeMillis() - t2;
+                                            pipeline.mSendDurationMs += sendDurationMs;
+                                            Log.d(LOG_TAG, "## shareUserDevicesKey() : sendToDevice succeeds after " + sendDurationMs + " ms");
 
                                             // Add the devices we have shared with to session.sharedWithDevices.
                                             // we deliberately iterate over devicesByUser (ie, the devices we
@@ -506,18 +642,15 @@ public class MXMegolmEncryption implements IMXEncrypting {
                                                 List<MXDeviceInfo> devicesToShareWith = devicesByUser.get(userId);
 
                                                 for (MXDeviceInfo deviceInfo : devicesToShareWith) {
-                                                    session.mSharedWithDevices.setObject(chainIndex, userId, deviceInfo.deviceId);
+                                                    session.mSharedWithDevices.setObject(pipeline.mChainIndex, userId, deviceInfo.deviceId);
                                                 }
+
+                                                pipeline.mSharedDevicesCount += devicesToShareWith.size();
                                             }
 
-                                            mCrypto.getUIHandler().post(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    if (null != callback) {
-                                                        callback.onSuccess(null);
-                                                    }
-                                                }
-                                            });
+                                            if (null != callback) {
+                                                callback.onSuccess(null);
+                                            }
                                         }
                                     });
                                 }
@@ -553,12 +686,7 @@ public class MXMegolmEncryption implements IMXEncrypting {
                             Log.d(LOG_TAG, "## shareUserDevicesKey() : no need to sharekey");
 
                             if (null != callback) {
-                                mCrypto.getUIHandler().post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onSuccess(null);
-                                    }
-                                });
+                                callback.onSuccess(null);
                             }
                         }
                     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.crypto.cryptostore
+
+import org.matrix.androidsdk.crypto.data.MXDeviceInfo
+
+/**
+ * In-memory index of the known devices, by user id and device id, and by curve25519 identity key.
+ * The crypto stores keep it up to date when the devices are stored.
+ *
+ * The devices are copied when they are stored and when they are returned, like a deserialized device:
+ * a caller can update a returned device, the index is only updated when the device is stored again.
+ *
+ * The methods are thread safe.
+ */
+class DeviceIndex {
+
+    // userId -> deviceId -> device
+    private val devicesByUserId = HashMap<String, MutableMap<String, MXDeviceInfo>>()
+
+    // identity key -> device
+    private val devicesByIdentityKey = HashMap<String, MXDeviceInfo>()
+
+    private var isLoaded = false
+
+    /**
+     * Load the index, if it has not been loaded yet.
+     *
+     * @param loader provide all the stored devices, by user id and device id
+     */
+    @Synchronized
+    fun loadIfNeeded(loader: () -> Map<String, Map<String, MXDeviceInfo>>) {
+        if (!isLoaded) {
+            loader().forEach { (userId, devices) -> putUserDevices(userId, devices) }
+            isLoaded = true
+        }
+    }
+
+    /**
+     * @param userId   the user id
+     * @param deviceId the device id
+     * @return a copy of the device, null if it is unknown
+     */
+    @Synchronized
+    fun getUserDevice(userId: String, deviceId: String): MXDeviceInfo? {
+        return devicesByUserId[userId]?.get(deviceId)?.deepCopy()
+    }
+
+    /**
+     * @param userId the user id
+     * @return a copy of the devices of the user by device id, null if the user is unknown
+     */
+    @Synchronized
+    fun getUserDevices(userId: String): MutableMap<String, MXDeviceInfo>? {
+        return devicesByUserId[userId]?.mapValuesTo(HashMap()) { it.value.deepCopy() }
+    }
+
+    /**
+     * @param identityKey the curve25519 identity key
+     * @return a copy of the device, null if it is unknown
+     */
+    @Synchronized
+    fun deviceWithIdentityKey(identityKey: String): MXDeviceInfo? {
+        return devicesByIdentityKey[identityKey]?.deepCopy()
+    }
+
+    /**
+     * Add a user without device, if the user is unknown.
+     *
+     * @param userId the user id
+     */
+    @Synchronized
+    fun addUser(userId: String) {
+        devicesByUserId.getOrPut(userId) { HashMap() }
+    }
+
+    /**
+     * Add or replace a device.
+     *
+     * @param userId the user id
+     * @param device the device
+     */
+    @Synchronized
+    fun putUserDevice(userId: String, device: MXDeviceInfo) {
+        val devices = devicesByUserId.getOrPut(userId) { HashMap() }
+        val copiedDevice = device.deepCopy()
+
+        devices.put(copiedDevice.deviceId, copiedDevice)?.let { removeIdentityKey(it) }
+        copiedDevice.identityKey()?.let { devicesByIdentityKey[it] = copiedDevice }
+    }
+
+    /**
+     * Replace all the devices of a user.
+     *
+     * @param userId  the user id
+     * @param devices the devices by device id, null to remove the user
+     */
+    @Synchronized
+    fun putUserDevices(userId: String, devices: Map<String, MXDeviceInfo>?) {
+        devicesByUserId.remove(userId)?.values?.forEach { removeIdentityKey(it) }
+
+        if (devices != null) {
+            val copiedDevices = devices.mapValuesTo(HashMap()) { it.value.deepCopy() }
+            devicesByUserId[userId] = copiedDevices
+
+            copiedDevices.values.forEach { device ->
+                device.identityKey()?.let { devicesByIdentityKey[it] = device }
+            }
+        }
+    }
+
+    /**
+     * Remove all the devices. The index is considered as loaded.
+     */
+    @Synchronized
+    fun clear() {
+        devicesByUserId.clear()
+        devicesByIdentityKey.clear()
+        isLoaded = true
+    }
+
+    private fun removeIdentityKey(device: MXDeviceInfo) {
+        device.identityKey()?.let {
+            // the key may be used by another device
+            if (devicesByIdentityKey[it] === device) {
+                devicesByIdentityKey.remove(it)
+            }
+        }
+    }
+}
@@ -74,6 +74,28 @@ public interface IMXCryptoStore {
      */
     void close();
 
+    /**
+     * Open the store instance of the current thread, which is reused by the next calls from this thread.
+     */
+    void openThreadInstance();
+
+    /**
+     * Close the store instance of the current thread.
+     */
+    void closeThreadInstance();
+
+    /**
+     * Delay the next writes until flushPendingWrites(), to commit them together.
+     * The writes are committed immediately by default.
+     */
+    void deferWrites();
+
+    /**
+     * Commit the writes which have been delayed to be committed together.
+     * The next writes are committed immediately.
+     */
+    void flushPendingWrites();
+
     /**
      * Store the device id.
      *
@@ -185,6 +207,14 @@ public interface IMXCryptoStore {
     @Nullable
     MXOlmSession getDeviceSession(String sessionId, String deviceKey);
 
+    /**
+     * Tell that a session provided by {@link #getDeviceSession(String, String)} is not used anymore by the caller,
+     * so that its native memory can be released once it is evicted from the memory cache.
+     *
+     * @param session the session, null to do nothing
+     */
+    void releaseDeviceSession(@Nullable MXOlmSession session);
+
     /**
      * Retrieve the last used sessionId, regarding `lastReceivedMessageTs`, or null if no session exist
      *
@@ -211,6 +241,14 @@ public interface IMXCryptoStore {
     @Nullable
     MXOlmInboundGroupSession2 getInboundGroupSession(String sessionId, String senderKey);
 
+    /**
+     * Tell that a session provided by {@link #getInboundGroupSession(String, String)} is not used anymore by the caller,
+     * so that its native memory can be released once it is evicted from the memory cache.
+     *
+     * @param session the session, null to do nothing
+     */
+    void releaseInboundGroupSession(@Nullable MXOlmInboundGroupSession2 session);
+
     /**
      * Retrieve the known inbound group sessions.
      *
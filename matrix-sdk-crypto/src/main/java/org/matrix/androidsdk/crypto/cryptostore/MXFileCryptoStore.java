@@ -112,6 +112,12 @@ public class MXFileCryptoStore implements IMXCryptoStore {
     private MXUsersDevicesMap<MXDeviceInfo> mUsersDevicesInfoMap;
     private final Object mUsersDevicesInfoMapLock = new Object();
 
+    // The loaded devices, by identity key
+    private final DeviceIndex mDeviceIndex = new DeviceIndex();
+
+    // Tell if the devices of all the users have been loaded
+    private boolean mAreAllUserDevicesLoaded = false;
+
     // The algorithms used in rooms
     private Map<String, String> mRoomsAlgorithms;
 
@@ -266,6 +272,8 @@ public class MXFileCryptoStore implements IMXCryptoStore {
 
     @Override
     public void deleteStore() {
+        mDeviceIndex.clear();
+
         // delete the dedicated directories
         try {
             FileContentUtils.deleteDirectory(mStoreFile);
@@ -520,6 +528,8 @@ public class MXFileCryptoStore implements IMXCryptoStore {
                             synchronized (mUsersDevicesInfoMapLock) {
                                 mUsersDevicesInfoMap.setObjects((Map<String, MXDeviceInfo>) devicesMapAsVoid, userId);
                             }
+
+                            mDeviceIndex.putUserDevices(userId, (Map<String, MXDeviceInfo>) devicesMapAsVoid);
                         } catch (Exception e) {
                             Log.e(LOG_TAG, "## loadUserDevices : mUsersDevicesInfoMap.setObjects failed " + e.getMessage(), e);
                             mIsCorrupted = true;
@@ -542,6 +552,24 @@ public class MXFileCryptoStore implements IMXCryptoStore {
         }
     }
 
+    /**
+     * Load the devices of all the users from the filesystem
+     * if it is not yet done.
+     */
+    private void loadAllUserDevices() {
+        if (!mAreAllUserDevicesLoaded) {
+            String[] userIds = mDevicesFolder.list();
+
+            if (null != userIds) {
+                for (String userId : userIds) {
+                    loadUserDevices(userId);
+                }
+            }
+
+            mAreAllUserDevicesLoaded = true;
+        }
+    }
+
     @Override
     public void storeUserDevice(String userId, MXDeviceInfo device) {
         if (!mIsReady) {
@@ -558,6 +586,8 @@ public class MXFileCryptoStore implements IMXCryptoStore {
             devicesMap = new HashMap<>(mUsersDevicesInfoMap.getMap().get(userId));
         }
 
+        mDeviceIndex.putUserDevice(userId, device);
+
         storeObject(devicesMap, mDevicesFolder, userId, "storeUserDevice " + userId + " with " + devicesMap.size() + " devices");
     }
 
@@ -582,8 +612,18 @@ public class MXFileCryptoStore implements IMXCryptoStore {
     @Override
     @Nullable
     public MXDeviceInfo deviceWithIdentityKey(String identityKey) {
-        // No op
-        return null;
+        if (!mIsReady) {
+            Log.e(LOG_TAG, "## deviceWithIdentityKey() : the store is not ready");
+            return null;
+        }
+
+        if (null == identityKey) {
+            return null;
+        }
+
+        loadAllUserDevices();
+
+        return mDeviceIndex.deviceWithIdentityKey(identityKey);
     }
 
     @Override
@@ -597,6 +637,10 @@ public class MXFileCryptoStore implements IMXCryptoStore {
             mUsersDevicesInfoMap.setObjects(devices, userId);
         }
 
+        if (null != userId) {
+            mDeviceIndex.putUserDevices(userId, devices);
+        }
+
         storeObject(devices, mDevicesFolder, userId, "storeUserDevice " + userId);
     }
 
@@ -806,6 +850,11 @@ public class MXFileCryptoStore implements IMXCryptoStore {
         return null;
     }
 
+    @Override
+    public void releaseDeviceSession(@Nullable MXOlmSession session) {
+        // No op
+    }
+
     @Nullable
     @Override
     public String getLastUsedSessionId(String deviceKey) {
@@ -877,6 +926,11 @@ public class MXFileCryptoStore implements IMXCryptoStore {
         return null;
     }
 
+    @Override
+    public void releaseInboundGroupSession(@Nullable MXOlmInboundGroupSession2 session) {
+        // the sessions are kept in memory
+    }
+
     @Override
     public List<MXOlmInboundGroupSession2> getInboundGroupSessions() {
         if (!mIsReady) {
@@ -946,6 +1000,26 @@ public class MXFileCryptoStore implements IMXCryptoStore {
         mInboundGroupSessions.clear();
     }
 
+    @Override
+    public void openThreadInstance() {
+        // the data is loaded in memory
+    }
+
+    @Override
+    public void closeThreadInstance() {
+        // the data is loaded in memory
+    }
+
+    @Override
+    public void deferWrites() {
+        // the writes are not delayed
+    }
+
+    @Override
+    public void flushPendingWrites() {
+        // the writes are not delayed
+    }
+
     @Override
     public void setGlobalBlacklistUnverifiedDevices(boolean block) {
         if (!mIsReady) {
@@ -1297,6 +1371,7 @@ public class MXFileCryptoStore implements IMXCryptoStore {
 
                 for (String userId : userIds) {
                     storeObject(map.get(userId), mDevicesFolder, userId, "convert devices map of " + userId);
+                    mDeviceIndex.putUserDevices(userId, map.get(userId));
                 }
 
                 mDevicesFileTmp.delete();
@@ -46,11 +46,26 @@ fun String.hash() = try {
     hashCode().toString()
 }
 
+/**
+ * Get a Realm instance.
+ * If the current thread already holds an instance, it is reused, and refreshed to see the writes of the other threads.
+ */
+fun getRealmInstance(realmConfiguration: RealmConfiguration): Realm {
+    val isHeld = Realm.getLocalInstanceCount(realmConfiguration) > 0
+    val realm = Realm.getInstance(realmConfiguration)
+
+    if (isHeld && !realm.isInTransaction) {
+        realm.refresh()
+    }
+
+    return realm
+}
+
 /**
  * Get realm, invoke the action, close realm, and return the result of the action
  */
 fun <T> doWithRealm(realmConfiguration: RealmConfiguration, action: (Realm) -> T): T {
-    val realm = Realm.getInstance(realmConfiguration)
+    val realm = getRealmInstance(realmConfiguration)
     val result = action.invoke(realm)
     realm.close()
     return result
@@ -60,7 +75,7 @@ fun <T> doWithRealm(realmConfiguration: RealmConfiguration, action: (Realm) -> T
  * Get realm, do the query, copy from realm, close realm, and return the copied result
  */
 fun <T : RealmObject> doRealmQueryAndCopy(realmConfiguration: RealmConfiguration, action: (Realm) -> T?): T? {
-    val realm = Realm.getInstance(realmConfiguration)
+    val realm = getRealmInstance(realmConfiguration)
     val result = action.invoke(realm)
     val copiedResult = result?.let { realm.copyFromRealm(result) }
     realm.close()
@@ -71,7 +86,7 @@ fun <T : RealmObject> doRealmQueryAndCopy(realmConfiguration: RealmConfiguration
  * Get realm, do the list query, copy from realm, close realm, and return the copied result
  */
 fun <T : RealmObject> doRealmQueryAndCopyList(realmConfiguration: RealmConfiguration, action: (Realm) -> Iterable<T>): Iterable<T> {
-    val realm = Realm.getInstance(realmConfiguration)
+    val realm = getRealmInstance(realmConfiguration)
     val result = action.invoke(realm)
     val copiedResult = realm.copyFromRealm(result)
     realm.close()
@@ -82,7 +97,7 @@ fun <T : RealmObject> doRealmQueryAndCopyList(realmConfiguration: RealmConfigura
  * Get realm instance, invoke the action in a transaction and close realm
  */
 fun doRealmTransaction(realmConfiguration: RealmConfiguration, action: (Realm) -> Unit) {
-    val realm = Realm.getInstance(realmConfiguration)
+    val realm = getRealmInstance(realmConfiguration)
     realm.executeTransaction { action.invoke(it) }
     realm.close()
 }
@@ -125,3 +140,51 @@ fun <T> deserializeFromRealm(string: String?): T? {
 
     return result
 }
+
+/**
+ * Serialize any Serializable object to a byte array, to be stored in a Realm binary field.
+ * The olm objects serialize their pickle, which is encrypted, so the data is neither zipped nor converted to Base64.
+ */
+fun serializeForRealmBinary(o: Any?): ByteArray? {
+    if (o == null) {
+        return null
+    }
+
+    val baos = ByteArrayOutputStream()
+    val out = ObjectOutputStream(baos)
+
+    out.writeObject(o)
+    out.close()
+
+    return baos.toByteArray()
+}
+
+/**
+ * Do the opposite of serializeForRealmBinary.
+ */
+fun <T> deserializeFromRealmBinary(bytes: ByteArray?): T? {
+    if (bytes == null) {
+        return null
+    }
+
+    val ois = ObjectInputStream(ByteArrayInputStream(bytes))
+
+    val result = ois.readObject() as T
+
+    ois.close()
+
+    return result
+}
+
+/**
+ * Convert a String produced by serializeForRealm to the bytes produced by serializeForRealmBinary, without deserializing the object.
+ */
+fun convertRealmStringToBinary(string: String?): ByteArray? {
+    if (string == null) {
+        return null
+    }
+
+    val decodedB64 = Base64.decode(string.toByteArray(), Base64.DEFAULT)
+
+    return GZIPInputStream(ByteArrayInputStream(decodedB64)).use { it.readBytes() }
+}
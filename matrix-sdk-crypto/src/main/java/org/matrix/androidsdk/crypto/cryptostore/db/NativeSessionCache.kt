@@ -0,0 +1,239 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.crypto.cryptostore.db
+
+import java.util.IdentityHashMap
+
+/**
+ * Bounded cache of the sessions loaded from Realm, which hold some JNI objects.
+ *
+ * The least recently used sessions are evicted when the cache is full, and the sessions which have not been
+ * used for [maxIdleTimeMs] are evicted too. They will be read again from Realm when they are requested.
+ *
+ * A session provided by [get] or [putIfAbsent] is checked out until the caller gives it back with [release].
+ * The native memory of an evicted or replaced session is only released once it is not checked out anymore.
+ *
+ * The methods are thread safe.
+ *
+ * @param maxSize        the max number of cached sessions
+ * @param maxIdleTimeMs  the time after which an unused session is evicted
+ * @param nativeSession  provide the JNI object of a session, to compare the sessions
+ * @param releaseNative  release the JNI object of a session
+ * @param clock          provide the current time in milliseconds
+ */
+class NativeSessionCache<T : Any>(private val maxSize: Int,
+                                  private val maxIdleTimeMs: Long,
+                                  private val nativeSession: (T) -> Any,
+                                  private val releaseNative: (T) -> Unit,
+                                  private val clock: () -> Long = System::currentTimeMillis) {
+
+    /**
+     * The cache counters
+     */
+    data class Stats(val size: Int,
+                     val hitCount: Long,
+                     val missCount: Long,
+                     val evictionCount: Long,
+                     val pendingReleaseCount: Int)
+
+    private class Entry<T>(val session: T, var lastAccessTs: Long)
+
+    // the cached sessions, by access order
+    private val entries = LinkedHashMap<String, Entry<T>>(16, 0.75f, true)
+
+    // the evicted or replaced sessions which have not been released yet
+    private val pendingReleases = ArrayList<Entry<T>>()
+
+    // the number of callers using a session, by JNI object
+    private val checkoutCounts = IdentityHashMap<Any, Int>()
+
+    private var hitCount = 0L
+    private var missCount = 0L
+    private var evictionCount = 0L
+
+    /**
+     * Provide a cached session. It must be given back with [release].
+     *
+     * @param key the session key
+     * @return the session, null if it is not cached
+     */
+    @Synchronized
+    fun get(key: String): T? {
+        val now = clock()
+        val entry = entries[key]
+
+        if (entry == null) {
+            missCount++
+        } else {
+            hitCount++
+            entry.lastAccessTs = now
+            checkOut(entry.session)
+        }
+
+        trim(now)
+
+        return entry?.session
+    }
+
+    /**
+     * Cache a session which has just been read from Realm. The returned session must be given back with [release].
+     * If the session has been cached by another thread in the meantime, the read session is released.
+     *
+     * @param key     the session key
+     * @param session the read session
+     * @return the cached session
+     */
+    @Synchronized
+    fun putIfAbsent(key: String, session: T): T {
+        val now = clock()
+        val entry = entries[key]
+
+        if (entry != null) {
+            entry.lastAccessTs = now
+
+            if (nativeSession(entry.session) !== nativeSession(session)) {
+                // the read session has never been shared
+                releaseNative(session)
+            }
+
+            checkOut(entry.session)
+            return entry.session
+        }
+
+        entries[key] = Entry(session, now)
+        checkOut(session)
+        trim(now)
+
+        return session
+    }
+
+    /**
+     * Cache a session which has been stored.
+     * The previously cached session is released once it is not checked out anymore, if it is not the same one.
+     *
+     * @param key     the session key
+     * @param session the session
+     */
+    @Synchronized
+    fun put(key: String, session: T) {
+        val now = clock()
+        val previous = entries.put(key, Entry(session, now))
+        val native = nativeSession(session)
+
+        // the session is used again
+        pendingReleases.removeAll { nativeSession(it.session) === native }
+
+        if (previous != null && nativeSession(previous.session) !== native) {
+            pendingReleases.add(previous)
+        }
+
+        trim(now)
+    }
+
+    /**
+     * Give back a session provided by [get] or [putIfAbsent].
+     *
+     * @param session the session which is not used anymore by the caller
+     */
+    @Synchronized
+    fun release(session: T) {
+        val native = nativeSession(session)
+        val count = checkoutCounts[native] ?: return
+
+        if (count > 1) {
+            checkoutCounts[native] = count - 1
+        } else {
+            checkoutCounts.remove(native)
+        }
+
+        trim(clock())
+    }
+
+    /**
+     * Remove a session from the cache. It is released once it is not checked out anymore.
+     *
+     * @param key the session key
+     */
+    @Synchronized
+    fun remove(key: String) {
+        entries.remove(key)?.let {
+            pendingReleases.add(it)
+        }
+
+        trim(clock())
+    }
+
+    /**
+     * Release all the sessions.
+     */
+    @Synchronized
+    fun clear() {
+        entries.values.forEach { releaseNative(it.session) }
+        entries.clear()
+
+        pendingReleases.forEach { releaseNative(it.session) }
+        pendingReleases.clear()
+
+        checkoutCounts.clear()
+    }
+
+    /**
+     * @return the cache counters
+     */
+    @Synchronized
+    fun getStats(): Stats {
+        return Stats(entries.size, hitCount, missCount, evictionCount, pendingReleases.size)
+    }
+
+    /**
+     * Count a caller of a session.
+     */
+    private fun checkOut(session: T) {
+        val native = nativeSession(session)
+        checkoutCounts[native] = (checkoutCounts[native] ?: 0) + 1
+    }
+
+    /**
+     * Evict the least recently used sessions and the idle ones, and release the evicted sessions which are not checked out.
+     */
+    private fun trim(now: Long) {
+        val iterator = entries.values.iterator()
+
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+
+            // the entries are sorted by access time
+            if (entries.size <= maxSize && now - entry.lastAccessTs < maxIdleTimeMs) {
+                break
+            }
+
+            iterator.remove()
+            pendingReleases.add(entry)
+            evictionCount++
+        }
+
+        pendingReleases.removeAll {
+            val canBeReleased = !checkoutCounts.containsKey(nativeSession(it.session))
+
+            if (canBeReleased) {
+                releaseNative(it.session)
+            }
+
+            canBeReleased
+        }
+    }
+}
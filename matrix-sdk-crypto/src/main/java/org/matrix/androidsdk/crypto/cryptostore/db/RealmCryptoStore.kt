@@ -25,6 +25,7 @@ import io.realm.kotlin.where
 import org.matrix.androidsdk.core.Log
 import org.matrix.androidsdk.crypto.IncomingRoomKeyRequest
 import org.matrix.androidsdk.crypto.OutgoingRoomKeyRequest
+import org.matrix.androidsdk.crypto.cryptostore.DeviceIndex
 import org.matrix.androidsdk.crypto.cryptostore.IMXCryptoStore
 import org.matrix.androidsdk.crypto.cryptostore.db.model.*
 import org.matrix.androidsdk.crypto.cryptostore.db.query.delete
@@ -51,10 +52,21 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     private var olmAccount: OlmAccount? = null
 
     // Cache for OlmSession, to release them properly
-    private val olmSessionsToRelease = HashMap<String, MXOlmSession>()
+    private val olmSessionsToRelease = NativeSessionCache<MXOlmSession>(
+            MAX_CACHED_OLM_SESSIONS_COUNT,
+            MAX_CACHED_SESSION_IDLE_TIME_MS,
+            { it.olmSession },
+            { it.olmSession.releaseSession() })
 
     // Cache for InboundGroupSession, to release them properly
-    private val inboundGroupSessionToRelease = HashMap<String, MXOlmInboundGroupSession2>()
+    private val inboundGroupSessionToRelease = NativeSessionCache<MXOlmInboundGroupSession2>(
+            MAX_CACHED_INBOUND_GROUP_SESSIONS_COUNT,
+            MAX_CACHED_SESSION_IDLE_TIME_MS,
+            { it.mSession },
+            { it.mSession.releaseSession() })
+
+    // The known devices, loaded on the first access
+    private val deviceIndex = DeviceIndex()
 
     /* ==========================================================================================
      * Other data
@@ -63,6 +75,16 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     private lateinit var credentials: CryptoCredentials
     private lateinit var realmConfiguration: RealmConfiguration
 
+    // The writes which are committed together at the end of a sync pass
+    private lateinit var writeBatch: RealmWriteBatch
+
+    // The Realm instances held by the crypto threads
+    private val threadRealms = ThreadLocal<Realm>()
+
+    // Tell if the Realm cannot be opened, e.g. because its migration has failed
+    @Volatile
+    private var corrupted = false
+
     override fun initWithCredentials(context: Context, credentials: CryptoCredentials) {
         this.credentials = credentials
 
@@ -77,15 +99,35 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
                 .migration(RealmCryptoStoreMigration)
                 .initialData(CryptoFileStoreImporter(enableFileEncryption, context, credentials))
                 .build()
+
+        writeBatch = RealmWriteBatch(realmConfiguration, MAX_PENDING_WRITES_COUNT)
     }
 
     override fun isCorrupted(): Boolean {
-        // Should not happen anymore
-        return false
+        return corrupted
+    }
+
+    /**
+     * Open the Realm once, so that a failure of its migration is reported by isCorrupted() instead of crashing the application.
+     * The legacy data is kept, the migration is tried again at the next launch.
+     *
+     * @return true if the Realm can be opened
+     */
+    private fun checkCanOpen(): Boolean {
+        if (!corrupted) {
+            try {
+                Realm.getInstance(realmConfiguration).close()
+            } catch (e: Exception) {
+                Log.e(LOG_TAG, "## checkCanOpen() : the store cannot be opened", e)
+                corrupted = true
+            }
+        }
+
+        return !corrupted
     }
 
     override fun hasData(): Boolean {
-        return doWithRealm(realmConfiguration) {
+        return checkCanOpen() && doWithRealm(realmConfiguration) {
             !it.isEmpty
                     // Check if there is a MetaData object
                     && it.where<CryptoMetadataEntity>().count() > 0
@@ -93,12 +135,27 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun deleteStore() {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.clear()
+        deviceIndex.clear()
+
+        if (corrupted) {
+            // the Realm cannot be opened to delete its content
+            Realm.deleteRealm(realmConfiguration)
+            corrupted = false
+            return
+        }
+
+        writeBatch.commit {
             it.deleteAll()
         }
     }
 
     override fun open() {
+        if (!checkCanOpen()) {
+            Log.e(LOG_TAG, "## open() : the store is corrupted")
+            return
+        }
+
         // Ensure CryptoMetadataEntity is inserted in DB
         doWithRealm(realmConfiguration) { realm ->
             var currentMetadata = realm.where<CryptoMetadataEntity>().findFirst()
@@ -133,21 +190,35 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun close() {
-        olmSessionsToRelease.forEach {
-            it.value.olmSession.releaseSession()
-        }
-        olmSessionsToRelease.clear()
+        writeBatch.close()
 
-        inboundGroupSessionToRelease.forEach {
-            it.value.mSession.releaseSession()
-        }
+        olmSessionsToRelease.clear()
         inboundGroupSessionToRelease.clear()
 
         olmAccount?.releaseAccount()
     }
 
+    override fun openThreadInstance() {
+        if (threadRealms.get() == null) {
+            threadRealms.set(Realm.getInstance(realmConfiguration))
+        }
+    }
+
+    override fun closeThreadInstance() {
+        threadRealms.get()?.close()
+        threadRealms.remove()
+    }
+
+    override fun deferWrites() {
+        writeBatch.begin()
+    }
+
+    override fun flushPendingWrites() {
+        writeBatch.end()
+    }
+
     override fun storeDeviceId(deviceId: String?) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<CryptoMetadataEntity>().findFirst()?.deviceId = deviceId
         }
     }
@@ -161,7 +232,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     override fun storeAccount(account: OlmAccount) {
         olmAccount = account
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<CryptoMetadataEntity>().findFirst()?.putOlmAccount(account)
         }
     }
@@ -179,14 +250,18 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        getDeviceIndex().putUserDevice(userId, deviceInfo)
+
+        val deviceInfoData = serializeForRealmBinary(deviceInfo)
+
+        writeBatch.defer(RealmWriteBatch.Kind.DEVICE, DeviceInfoEntity.createPrimaryKey(userId, deviceInfo.deviceId)) {
             val user = UserEntity.getOrCreate(it, userId)
 
             // Create device info
             val deviceInfoEntity = DeviceInfoEntity.getOrCreate(it, userId, deviceInfo.deviceId).apply {
                 deviceId = deviceInfo.deviceId
                 identityKey = deviceInfo.identityKey()
-                putDeviceInfo(deviceInfo)
+                this.deviceInfoData = deviceInfoData
             }
 
             if (!user.devices.contains(deviceInfoEntity)) {
@@ -200,12 +275,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return null
         }
 
-        return doRealmQueryAndCopy(realmConfiguration) {
-            it.where<DeviceInfoEntity>()
-                    .equalTo(DeviceInfoEntityFields.PRIMARY_KEY, DeviceInfoEntity.createPrimaryKey(userId, deviceId))
-                    .findFirst()
-        }
-                ?.getDeviceInfo()
+        return getDeviceIndex().getUserDevice(userId, deviceId)
     }
 
     override fun deviceWithIdentityKey(identityKey: String?): MXDeviceInfo? {
@@ -213,20 +283,25 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return null
         }
 
-        return doRealmQueryAndCopy(realmConfiguration) {
-            it.where<DeviceInfoEntity>()
-                    .equalTo(DeviceInfoEntityFields.IDENTITY_KEY, identityKey)
-                    .findFirst()
-        }
-                ?.getDeviceInfo()
+        return getDeviceIndex().deviceWithIdentityKey(identityKey)
     }
 
     override fun storeUserDevices(userId: String?, devices: MutableMap<String, MXDeviceInfo>?) {
         if (userId == null) {
             return
         }
-        doRealmTransaction(realmConfiguration) { realm ->
-            if (devices == null) {
+
+        getDeviceIndex().putUserDevices(userId, devices)
+
+        // Serialize the devices now, the map may be updated before the write is committed
+        val deviceInfoEntities = devices?.values?.map {
+            DeviceInfoEntity(DeviceInfoEntity.createPrimaryKey(userId, it.deviceId), it.deviceId, it.identityKey()).apply {
+                putDeviceInfo(it)
+            }
+        }
+
+        writeBatch.defer(RealmWriteBatch.Kind.DEVICE, userId) { realm ->
+            if (deviceInfoEntities == null) {
                 // Remove the user
                 UserEntity.delete(realm, userId)
             } else {
@@ -237,12 +312,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
                             u.devices.deleteAllFromRealm()
 
                             u.devices.addAll(
-                                    devices.map {
-                                        DeviceInfoEntity.getOrCreate(realm, userId, it.value.deviceId).apply {
-                                            deviceId = it.value.deviceId
-                                            identityKey = it.value.identityKey()
-                                            putDeviceInfo(it.value)
-                                        }
+                                    deviceInfoEntities.map {
+                                        realm.copyToRealmOrUpdate(it)
                                     }
                             )
                         }
@@ -251,24 +322,43 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun getUserDevices(userId: String?): MutableMap<String, MXDeviceInfo>? {
-        return doRealmQueryAndCopy(realmConfiguration) {
-            it.where<UserEntity>()
-                    .equalTo(UserEntityFields.USER_ID, userId)
-                    .findFirst()
+        if (userId == null) {
+            return null
         }
-                ?.devices
-                ?.mapNotNull { it.getDeviceInfo() }
-                ?.associateBy { it.deviceId }
-                ?.toMutableMap()
+
+        return getDeviceIndex().getUserDevices(userId)
+    }
+
+    /**
+     * @return the index of the known devices, loaded from Realm on the first call
+     */
+    private fun getDeviceIndex(): DeviceIndex {
+        deviceIndex.loadIfNeeded {
+            writeBatch.flush(RealmWriteBatch.Kind.DEVICE)
+
+            doRealmQueryAndCopyList(realmConfiguration) {
+                it.where<UserEntity>().findAll()
+            }
+                    .filter { it.userId != null }
+                    .associate { userEntity ->
+                        userEntity.userId!! to userEntity.devices
+                                .mapNotNull { it.getDeviceInfo() }
+                                .associateBy { it.deviceId }
+                    }
+        }
+
+        return deviceIndex
     }
 
     override fun storeRoomAlgorithm(roomId: String, algorithm: String) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.defer(RealmWriteBatch.Kind.ROOM, roomId) {
             CryptoRoomEntity.getOrCreate(it, roomId).algorithm = algorithm
         }
     }
 
     override fun getRoomAlgorithm(roomId: String): String? {
+        writeBatch.flush(RealmWriteBatch.Kind.ROOM)
+
         return doRealmQueryAndCopy(realmConfiguration) {
             CryptoRoomEntity.getById(it, roomId)
         }
@@ -292,21 +382,18 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             val key = OlmSessionEntity.createPrimaryKey(sessionIdentifier, deviceKey)
 
             // Release memory of previously known session, if it is not the same one
-            if (olmSessionsToRelease[key]?.olmSession != session.olmSession) {
-                olmSessionsToRelease[key]?.olmSession?.releaseSession()
+            olmSessionsToRelease.put(key, session)
+
+            // Serialize the session now, it may be released before the write is committed
+            val realmOlmSession = OlmSessionEntity().apply {
+                primaryKey = key
+                sessionId = sessionIdentifier
+                this.deviceKey = deviceKey
+                putOlmSession(session.olmSession)
+                lastReceivedMessageTs = session.lastReceivedMessageTs
             }
 
-            olmSessionsToRelease[key] = session
-
-            doRealmTransaction(realmConfiguration) {
-                val realmOlmSession = OlmSessionEntity().apply {
-                    primaryKey = key
-                    sessionId = sessionIdentifier
-                    this.deviceKey = deviceKey
-                    putOlmSession(session.olmSession)
-                    lastReceivedMessageTs = session.lastReceivedMessageTs
-                }
-
+            writeBatch.defer(RealmWriteBatch.Kind.OLM_SESSION, key) {
                 it.insertOrUpdate(realmOlmSession)
             }
         }
@@ -319,25 +406,35 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
 
         val key = OlmSessionEntity.createPrimaryKey(sessionId, deviceKey)
 
+        olmSessionsToRelease.get(key)?.let {
+            return it
+        }
+
         // If not in cache (or not found), try to read it from realm
-        if (olmSessionsToRelease[key] == null) {
-            doRealmQueryAndCopy(realmConfiguration) {
-                it.where<OlmSessionEntity>()
-                        .equalTo(OlmSessionEntityFields.PRIMARY_KEY, key)
-                        .findFirst()
-            }
-                    ?.let {
-                        val olmSession = it.getOlmSession()
-                        if (olmSession != null && it.sessionId != null) {
-                            olmSessionsToRelease[key] = MXOlmSession(olmSession, it.lastReceivedMessageTs)
-                        }
-                    }
+        writeBatch.flush(RealmWriteBatch.Kind.OLM_SESSION)
+
+        return doRealmQueryAndCopy(realmConfiguration) {
+            it.where<OlmSessionEntity>()
+                    .equalTo(OlmSessionEntityFields.PRIMARY_KEY, key)
+                    .findFirst()
         }
+                ?.let {
+                    val olmSession = it.getOlmSession()
+                    if (olmSession != null && it.sessionId != null) {
+                        olmSessionsToRelease.putIfAbsent(key, MXOlmSession(olmSession, it.lastReceivedMessageTs))
+                    } else {
+                        null
+                    }
+                }
+    }
 
-        return olmSessionsToRelease[key]
+    override fun releaseDeviceSession(session: MXOlmSession?) {
+        session?.let { olmSessionsToRelease.release(it) }
     }
 
     override fun getLastUsedSessionId(deviceKey: String?): String? {
+        writeBatch.flush(RealmWriteBatch.Kind.OLM_SESSION)
+
         return doRealmQueryAndCopy(realmConfiguration) {
             it.where<OlmSessionEntity>()
                     .equalTo(OlmSessionEntityFields.DEVICE_KEY, deviceKey)
@@ -348,6 +445,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun getDeviceSessionIds(deviceKey: String?): MutableSet<String> {
+        writeBatch.flush(RealmWriteBatch.Kind.OLM_SESSION)
+
         return doRealmQueryAndCopyList(realmConfiguration) {
             it.where<OlmSessionEntity>()
                     .equalTo(OlmSessionEntityFields.DEVICE_KEY, deviceKey)
@@ -364,33 +463,30 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
-            sessions.forEach { session ->
-                var sessionIdentifier: String? = null
+        sessions.forEach { session ->
+            var sessionIdentifier: String? = null
 
-                try {
-                    sessionIdentifier = session.mSession.sessionIdentifier()
-                } catch (e: OlmException) {
-                    Log.e(LOG_TAG, "## storeInboundGroupSession() : sessionIdentifier failed " + e.message, e)
-                }
-
-                if (sessionIdentifier != null) {
-                    val key = OlmInboundGroupSessionEntity.createPrimaryKey(sessionIdentifier, session.mSenderKey)
+            try {
+                sessionIdentifier = session.mSession.sessionIdentifier()
+            } catch (e: OlmException) {
+                Log.e(LOG_TAG, "## storeInboundGroupSession() : sessionIdentifier failed " + e.message, e)
+            }
 
-                    // Release memory of previously known session, if it is not the same one
-                    if (inboundGroupSessionToRelease[key] != session) {
-                        inboundGroupSessionToRelease[key]?.mSession?.releaseSession()
-                    }
+            if (sessionIdentifier != null) {
+                val key = OlmInboundGroupSessionEntity.createPrimaryKey(sessionIdentifier, session.mSenderKey)
 
-                    inboundGroupSessionToRelease[key] = session
+                // Release memory of previously known session, if it is not the same one
+                inboundGroupSessionToRelease.put(key, session)
 
-                    val realmOlmInboundGroupSession = OlmInboundGroupSessionEntity().apply {
-                        primaryKey = key
-                        sessionId = sessionIdentifier
-                        senderKey = session.mSenderKey
-                        putInboundGroupSession(session)
-                    }
+                // Serialize the session now, it may be released before the write is committed
+                val realmOlmInboundGroupSession = OlmInboundGroupSessionEntity().apply {
+                    primaryKey = key
+                    sessionId = sessionIdentifier
+                    senderKey = session.mSenderKey
+                    putInboundGroupSession(session)
+                }
 
+                writeBatch.defer(RealmWriteBatch.Kind.INBOUND_GROUP_SESSION, key) {
                     it.insertOrUpdate(realmOlmInboundGroupSession)
                 }
             }
@@ -400,20 +496,28 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     override fun getInboundGroupSession(sessionId: String?, senderKey: String?): MXOlmInboundGroupSession2? {
         val key = OlmInboundGroupSessionEntity.createPrimaryKey(sessionId, senderKey)
 
+        // The sessions are read from several decrypting threads
+        inboundGroupSessionToRelease.get(key)?.let {
+            return it
+        }
+
         // If not in cache (or not found), try to read it from realm
-        if (inboundGroupSessionToRelease[key] == null) {
-            doRealmQueryAndCopy(realmConfiguration) {
-                it.where<OlmInboundGroupSessionEntity>()
-                        .equalTo(OlmInboundGroupSessionEntityFields.PRIMARY_KEY, key)
-                        .findFirst()
-            }
-                    ?.getInboundGroupSession()
-                    ?.let {
-                        inboundGroupSessionToRelease[key] = it
-                    }
+        writeBatch.flush(RealmWriteBatch.Kind.INBOUND_GROUP_SESSION)
+
+        return doRealmQueryAndCopy(realmConfiguration) {
+            it.where<OlmInboundGroupSessionEntity>()
+                    .equalTo(OlmInboundGroupSessionEntityFields.PRIMARY_KEY, key)
+                    .findFirst()
         }
+                ?.getInboundGroupSession()
+                ?.let {
+                    // another thread may have read it in the meantime
+                    inboundGroupSessionToRelease.putIfAbsent(key, it)
+                }
+    }
 
-        return inboundGroupSessionToRelease[key]
+    override fun releaseInboundGroupSession(session: MXOlmInboundGroupSession2?) {
+        session?.let { inboundGroupSessionToRelease.release(it) }
     }
 
     /**
@@ -421,6 +525,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
      * so there is no need to use or update `inboundGroupSessionToRelease` for native memory management
      */
     override fun getInboundGroupSessions(): MutableList<MXOlmInboundGroupSession2> {
+        writeBatch.flush(RealmWriteBatch.Kind.INBOUND_GROUP_SESSION)
+
         return doRealmQueryAndCopyList(realmConfiguration) {
             it.where<OlmInboundGroupSessionEntity>()
                     .findAll()
@@ -435,10 +541,9 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
         val key = OlmInboundGroupSessionEntity.createPrimaryKey(sessionId, senderKey)
 
         // Release memory of previously known session
-        inboundGroupSessionToRelease[key]?.mSession?.releaseSession()
         inboundGroupSessionToRelease.remove(key)
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<OlmInboundGroupSessionEntity>()
                     .equalTo(OlmInboundGroupSessionEntityFields.PRIMARY_KEY, key)
                     .findAll()
@@ -457,7 +562,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun setKeyBackupVersion(keyBackupVersion: String?) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<CryptoMetadataEntity>().findFirst()?.backupVersion = keyBackupVersion
         }
     }
@@ -469,7 +574,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun setKeysBackupData(keysBackupData: KeysBackupDataEntity?) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             if (keysBackupData == null) {
                 // Clear the table
                 it.where<KeysBackupDataEntity>()
@@ -483,7 +588,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun resetBackupMarkers() {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<OlmInboundGroupSessionEntity>()
                     .findAll()
                     .map { inboundGroupSession ->
@@ -497,7 +602,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             sessions.forEach { session ->
                 try {
                     val key = OlmInboundGroupSessionEntity.createPrimaryKey(session.mSession.sessionIdentifier(), session.mSenderKey)
@@ -514,6 +619,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun inboundGroupSessionsToBackup(limit: Int): List<MXOlmInboundGroupSession2> {
+        writeBatch.flush(RealmWriteBatch.Kind.INBOUND_GROUP_SESSION)
+
         return doRealmQueryAndCopyList(realmConfiguration) {
             it.where<OlmInboundGroupSessionEntity>()
                     .equalTo(OlmInboundGroupSessionEntityFields.BACKED_UP, false)
@@ -525,6 +632,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun inboundGroupSessionsCount(onlyBackedUp: Boolean): Int {
+        writeBatch.flush(RealmWriteBatch.Kind.INBOUND_GROUP_SESSION)
+
         return doWithRealm(realmConfiguration) {
             it.where<OlmInboundGroupSessionEntity>()
                     .apply {
@@ -538,7 +647,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun setGlobalBlacklistUnverifiedDevices(block: Boolean) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<CryptoMetadataEntity>().findFirst()?.globalBlacklistUnverifiedDevices = block
         }
     }
@@ -551,7 +660,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun setRoomsListBlacklistUnverifiedDevices(roomIds: MutableList<String>) {
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             // Reset all
             it.where<CryptoRoomEntity>()
                     .findAll()
@@ -570,6 +679,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun getRoomsListBlacklistUnverifiedDevices(): MutableList<String> {
+        writeBatch.flush(RealmWriteBatch.Kind.ROOM)
+
         return doRealmQueryAndCopyList(realmConfiguration) {
             it.where<CryptoRoomEntity>()
                     .equalTo(CryptoRoomEntityFields.BLACKLIST_UNVERIFIED_DEVICES, true)
@@ -582,6 +693,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun getDeviceTrackingStatuses(): MutableMap<String, Int> {
+        writeBatch.flush(RealmWriteBatch.Kind.DEVICE)
+
         return doRealmQueryAndCopyList(realmConfiguration) {
             it.where<UserEntity>()
                     .findAll()
@@ -600,7 +713,10 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        // the users are created in Realm too
+        deviceTrackingStatuses.keys.forEach { getDeviceIndex().addUser(it) }
+
+        writeBatch.commit {
             deviceTrackingStatuses
                     .map { entry ->
                         UserEntity.getOrCreate(it, entry.key)
@@ -610,6 +726,8 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
     }
 
     override fun getDeviceTrackingStatus(userId: String?, defaultValue: Int): Int {
+        writeBatch.flush(RealmWriteBatch.Kind.DEVICE)
+
         return doRealmQueryAndCopy(realmConfiguration) {
             it.where<UserEntity>()
                     .equalTo(UserEntityFields.USER_ID, userId)
@@ -647,7 +765,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
         }
 
         // Insert the request and return the one passed in parameter
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.createObject(OutgoingRoomKeyRequestEntity::class.java, request.mRequestId).apply {
                 putRequestBody(request.mRequestBody)
                 putRecipients(request.mRecipients)
@@ -677,7 +795,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             val obj = OutgoingRoomKeyRequestEntity().apply {
                 requestId = request.mRequestId
                 cancellationTxnId = request.mCancellationTxnId
@@ -695,7 +813,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<OutgoingRoomKeyRequestEntity>()
                     .equalTo(OutgoingRoomKeyRequestEntityFields.REQUEST_ID, transactionId)
                     .findFirst()
@@ -708,7 +826,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             // Delete any previous store request with the same parameters
             it.where<IncomingRoomKeyRequestEntity>()
                     .equalTo(IncomingRoomKeyRequestEntityFields.USER_ID, incomingRoomKeyRequest.mUserId)
@@ -732,7 +850,7 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
             return
         }
 
-        doRealmTransaction(realmConfiguration) {
+        writeBatch.commit {
             it.where<IncomingRoomKeyRequestEntity>()
                     .equalTo(IncomingRoomKeyRequestEntityFields.USER_ID, incomingRoomKeyRequest.mUserId)
                     .equalTo(IncomingRoomKeyRequestEntityFields.DEVICE_ID, incomingRoomKeyRequest.mDeviceId)
@@ -764,7 +882,25 @@ class RealmCryptoStore(private val enableFileEncryption: Boolean = false) : IMXC
                 .toMutableList()
     }
 
+    /**
+     * @return the counters of the olm sessions cache
+     */
+    fun getOlmSessionsCacheStats() = olmSessionsToRelease.getStats()
+
+    /**
+     * @return the counters of the inbound group sessions cache
+     */
+    fun getInboundGroupSessionsCacheStats() = inboundGroupSessionToRelease.getStats()
+
     companion object {
         private const val LOG_TAG = "RealmCryptoStore"
+
+        // the native sessions cache bounds
+        private const val MAX_CACHED_OLM_SESSIONS_COUNT = 100
+        private const val MAX_CACHED_INBOUND_GROUP_SESSIONS_COUNT = 500
+        private const val MAX_CACHED_SESSION_IDLE_TIME_MS = 10 * 60 * 1000L
+
+        // the deferred writes are committed before the end of the sync pass when there are too many of them
+        private const val MAX_PENDING_WRITES_COUNT = 500
     }
 }
\ No newline at end of file
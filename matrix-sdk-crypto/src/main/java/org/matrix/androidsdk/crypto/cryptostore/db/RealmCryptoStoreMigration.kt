@@ -17,18 +17,24 @@
 package org.matrix.androidsdk.crypto.cryptostore.db
 
 import io.realm.DynamicRealm
+import io.realm.DynamicRealmObject
 import io.realm.RealmMigration
 import org.matrix.androidsdk.core.Log
+import org.matrix.androidsdk.crypto.MXDeviceList
+import org.matrix.androidsdk.crypto.cryptostore.db.model.CryptoMetadataEntityFields
+import org.matrix.androidsdk.crypto.cryptostore.db.model.DeviceInfoEntityFields
 import org.matrix.androidsdk.crypto.cryptostore.db.model.IncomingRoomKeyRequestEntityFields
 import org.matrix.androidsdk.crypto.cryptostore.db.model.KeysBackupDataEntityFields
+import org.matrix.androidsdk.crypto.cryptostore.db.model.OlmInboundGroupSessionEntityFields
 import org.matrix.androidsdk.crypto.cryptostore.db.model.OlmSessionEntityFields
 import org.matrix.androidsdk.crypto.cryptostore.db.model.OutgoingRoomKeyRequestEntityFields
+import org.matrix.androidsdk.crypto.cryptostore.db.model.UserEntityFields
 
 internal object RealmCryptoStoreMigration : RealmMigration {
 
     private const val LOG_TAG = "RealmCryptoStoreMigration"
 
-    const val CRYPTO_STORE_SCHEMA_VERSION = 2L
+    const val CRYPTO_STORE_SCHEMA_VERSION = 3L
 
     override fun migrate(realm: DynamicRealm, oldVersion: Long, newVersion: Long) {
         Log.d(LOG_TAG, "Migrating Realm Crypto from $oldVersion to $newVersion")
@@ -105,5 +111,62 @@ internal object RealmCryptoStoreMigration : RealmMigration {
                     .addField(KeysBackupDataEntityFields.BACKUP_LAST_SERVER_HASH, String::class.java)
                     .addField(KeysBackupDataEntityFields.BACKUP_LAST_SERVER_NUMBER_OF_KEYS, Integer::class.java)
         }
+
+        if (oldVersion <= 2) {
+            Log.d(LOG_TAG, "Step 2 -> 3")
+            Log.d(LOG_TAG, "Store the serialized olm objects and device info as binary data, instead of zipped Base64 Strings")
+
+            // the sessions can be created again, or received again from the other devices or restored from a backup
+            migrateToBinary(realm, "OlmSessionEntity", OlmSessionEntityFields.OLM_SESSION_DATA) {}
+            migrateToBinary(realm, "OlmInboundGroupSessionEntity", OlmInboundGroupSessionEntityFields.OLM_INBOUND_GROUP_SESSION_DATA) {}
+            // the olm account cannot be recovered
+            migrateToBinary(realm, "CryptoMetadataEntity", CryptoMetadataEntityFields.OLM_ACCOUNT_DATA, null)
+            // the devices of the user will be downloaded again
+            migrateToBinary(realm, "DeviceInfoEntity", DeviceInfoEntityFields.DEVICE_INFO_DATA) { deviceInfo ->
+                realm.where("UserEntity")
+                        .equalTo(UserEntityFields.DEVICES.PRIMARY_KEY, deviceInfo.getString(DeviceInfoEntityFields.PRIMARY_KEY))
+                        .findFirst()
+                        ?.setInt(UserEntityFields.DEVICE_TRACKING_STATUS, MXDeviceList.TRACKING_STATUS_PENDING_DOWNLOAD)
+            }
+        }
+    }
+
+    /**
+     * Replace a String field containing a serializeForRealm value by a binary field containing the same serialized object.
+     * The objects are not deserialized, so no olm object is allocated during the migration.
+     *
+     * @param onDropRow called before a row whose value cannot be converted is deleted. If it is null, the migration
+     * is aborted instead, so that the legacy data is kept as it is, and the store reports it is corrupted.
+     */
+    private fun migrateToBinary(realm: DynamicRealm, className: String, fieldName: String, onDropRow: ((DynamicRealmObject) -> Unit)?) {
+        val schema = realm.schema.get(className) ?: return
+        val binaryFieldName = fieldName + "Binary"
+        val invalidRows = ArrayList<DynamicRealmObject>()
+
+        schema.addField(binaryFieldName, ByteArray::class.java)
+                .transform { dynamicObject ->
+                    try {
+                        dynamicObject.setBlob(binaryFieldName, convertRealmStringToBinary(dynamicObject.getString(fieldName)))
+                    } catch (e: Exception) {
+                        if (onDropRow == null) {
+                            Log.e(LOG_TAG, "Error while migrating $className.$fieldName", e)
+                            // the olm account would be lost
+                            throw IllegalStateException("Cannot migrate $className.$fieldName", e)
+                        }
+
+                        // the row content is not logged, it contains the keys
+                        Log.e(LOG_TAG, "Error while migrating $className.$fieldName, the row "
+                                + dynamicObject.get<Any>(schema.primaryKey) + " is dropped", e)
+                        invalidRows.add(dynamicObject)
+                    }
+                }
+
+        invalidRows.forEach {
+            onDropRow?.invoke(it)
+            it.deleteFromRealm()
+        }
+
+        schema.removeField(fieldName)
+                .renameField(binaryFieldName, fieldName)
     }
 }
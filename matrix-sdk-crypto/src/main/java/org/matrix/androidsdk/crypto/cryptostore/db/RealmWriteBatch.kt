@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.crypto.cryptostore.db
+
+import io.realm.Realm
+import io.realm.RealmConfiguration
+
+/**
+ * Writes of the crypto store which are delayed, to be committed together in a single Realm transaction.
+ *
+ * The writes are only delayed between [begin] and [end], the other ones are committed immediately.
+ * A deferred write replaces the pending write with the same key, and the pending writes are committed
+ * in the order of their last update. They are committed by [end] or [flush], before any other write,
+ * and before the reads of the same [Kind].
+ *
+ * The methods are thread safe. The lock is held while committing, so a reader never misses a write which
+ * has been removed from the batch but not yet committed.
+ *
+ * @param realmConfiguration the Realm configuration
+ * @param maxPendingWrites   the number of pending writes from which the batch is committed
+ */
+internal class RealmWriteBatch(private val realmConfiguration: RealmConfiguration,
+                               private val maxPendingWrites: Int) {
+
+    /**
+     * The kinds of deferred writes, to only commit the batch before the reads which depend on it
+     */
+    enum class Kind {
+        OLM_SESSION,
+        INBOUND_GROUP_SESSION,
+        DEVICE,
+        ROOM
+    }
+
+    private class PendingWrite(val kind: Kind, val action: (Realm) -> Unit)
+
+    private val pendingWrites = LinkedHashMap<String, PendingWrite>()
+
+    // the number of pending writes, by kind
+    private val pendingCounts = IntArray(Kind.values().size)
+
+    // tell if the writes are deferred until end()
+    private var isDeferring = false
+
+    // once closed, the writes are not deferred anymore
+    private var isClosed = false
+
+    /**
+     * Defer a write.
+     *
+     * @param kind   the kind of write
+     * @param key    the key of the written object
+     * @param action the write
+     */
+    @Synchronized
+    fun defer(kind: Kind, key: String, action: (Realm) -> Unit) {
+        if (isClosed || !isDeferring) {
+            commit(action)
+            return
+        }
+
+        // move the write at the end of the batch
+        pendingWrites.remove("$kind|$key")?.let { pendingCounts[it.kind.ordinal]-- }
+        pendingWrites["$kind|$key"] = PendingWrite(kind, action)
+        pendingCounts[kind.ordinal]++
+
+        if (pendingWrites.size >= maxPendingWrites) {
+            flush()
+        }
+    }
+
+    /**
+     * Commit the pending writes and a write in a single transaction.
+     *
+     * @param action the write
+     */
+    @Synchronized
+    fun commit(action: (Realm) -> Unit) {
+        val actions = takePendingWrites()
+
+        doRealmTransaction(realmConfiguration) { realm ->
+            actions.forEach { it.invoke(realm) }
+            action.invoke(realm)
+        }
+    }
+
+    /**
+     * Defer the next writes until [end].
+     */
+    @Synchronized
+    fun begin() {
+        isDeferring = true
+    }
+
+    /**
+     * Commit the pending writes. The next writes will be committed immediately, until [begin].
+     */
+    @Synchronized
+    fun end() {
+        flush()
+        isDeferring = false
+    }
+
+    /**
+     * Commit the pending writes.
+     */
+    @Synchronized
+    fun flush() {
+        if (pendingWrites.isEmpty()) {
+            return
+        }
+
+        val actions = takePendingWrites()
+
+        doRealmTransaction(realmConfiguration) { realm ->
+            actions.forEach { it.invoke(realm) }
+        }
+    }
+
+    /**
+     * Commit the pending writes, if some of them are of the given kind.
+     *
+     * @param kind the kind of the data which will be read
+     */
+    @Synchronized
+    fun flush(kind: Kind) {
+        if (pendingCounts[kind.ordinal] > 0) {
+            flush()
+        }
+    }
+
+    /**
+     * Drop the pending writes.
+     */
+    @Synchronized
+    fun clear() {
+        takePendingWrites()
+    }
+
+    /**
+     * Commit the pending writes. The next writes will be committed immediately.
+     */
+    @Synchronized
+    fun close() {
+        flush()
+        isDeferring = false
+        isClosed = true
+    }
+
+    private fun takePendingWrites(): List<(Realm) -> Unit> {
+        val actions = pendingWrites.values.map { it.action }
+
+        pendingWrites.clear()
+        pendingCounts.fill(0)
+
+        return actions
+    }
+}
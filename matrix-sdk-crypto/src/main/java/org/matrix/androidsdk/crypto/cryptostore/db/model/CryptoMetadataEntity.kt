@@ -18,8 +18,8 @@ package org.matrix.androidsdk.crypto.cryptostore.db.model
 
 import io.realm.RealmObject
 import io.realm.annotations.PrimaryKey
-import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealm
-import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealm
+import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealmBinary
+import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealmBinary
 import org.matrix.olm.OlmAccount
 
 internal open class CryptoMetadataEntity(
@@ -28,7 +28,7 @@ internal open class CryptoMetadataEntity(
         // The current device id.
         var deviceId: String? = null,
         // Serialized OlmAccount
-        var olmAccountData: String? = null,
+        var olmAccountData: ByteArray? = null,
         // The sync token corresponding to the device list. // TODO?
         var deviceSyncToken: String? = null,
         // Settings for blacklisting unverified devices.
@@ -40,11 +40,11 @@ internal open class CryptoMetadataEntity(
 
     // Deserialize data
     fun getOlmAccount(): OlmAccount? {
-        return deserializeFromRealm(olmAccountData)
+        return deserializeFromRealmBinary(olmAccountData)
     }
 
     // Serialize data
     fun putOlmAccount(olmAccount: OlmAccount?) {
-        olmAccountData = serializeForRealm(olmAccount)
+        olmAccountData = serializeForRealmBinary(olmAccount)
     }
 }
\ No newline at end of file
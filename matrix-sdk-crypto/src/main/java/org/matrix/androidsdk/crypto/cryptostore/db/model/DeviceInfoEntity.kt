@@ -20,8 +20,8 @@ import io.realm.RealmObject
 import io.realm.RealmResults
 import io.realm.annotations.LinkingObjects
 import io.realm.annotations.PrimaryKey
-import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealm
-import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealm
+import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealmBinary
+import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealmBinary
 import org.matrix.androidsdk.crypto.data.MXDeviceInfo
 
 fun DeviceInfoEntity.Companion.createPrimaryKey(userId: String, deviceId: String) = "$userId|$deviceId"
@@ -30,17 +30,17 @@ fun DeviceInfoEntity.Companion.createPrimaryKey(userId: String, deviceId: String
 open class DeviceInfoEntity(@PrimaryKey var primaryKey: String = "",
                             var deviceId: String? = null,
                             var identityKey: String? = null,
-                            var deviceInfoData: String? = null)
+                            var deviceInfoData: ByteArray? = null)
     : RealmObject() {
 
     // Deserialize data
     fun getDeviceInfo(): MXDeviceInfo? {
-        return deserializeFromRealm(deviceInfoData)
+        return deserializeFromRealmBinary(deviceInfoData)
     }
 
     // Serialize data
     fun putDeviceInfo(deviceInfo: MXDeviceInfo?) {
-        deviceInfoData = serializeForRealm(deviceInfo)
+        deviceInfoData = serializeForRealmBinary(deviceInfo)
     }
 
     @LinkingObjects("devices")
@@ -18,8 +18,8 @@ package org.matrix.androidsdk.crypto.cryptostore.db.model
 
 import io.realm.RealmObject
 import io.realm.annotations.PrimaryKey
-import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealm
-import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealm
+import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealmBinary
+import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealmBinary
 import org.matrix.androidsdk.crypto.data.MXOlmInboundGroupSession2
 
 fun OlmInboundGroupSessionEntity.Companion.createPrimaryKey(sessionId: String?, senderKey: String?) = "$sessionId|$senderKey"
@@ -29,18 +29,18 @@ open class OlmInboundGroupSessionEntity(
         @PrimaryKey var primaryKey: String? = null,
         var sessionId: String? = null,
         var senderKey: String? = null,
-        // olmInboundGroupSessionData contains Json
-        var olmInboundGroupSessionData: String? = null,
+        // olmInboundGroupSessionData contains a serialized MXOlmInboundGroupSession2
+        var olmInboundGroupSessionData: ByteArray? = null,
         // Indicate if the key has been backed up to the homeserver
         var backedUp: Boolean = false)
     : RealmObject() {
 
     fun getInboundGroupSession(): MXOlmInboundGroupSession2? {
-        return deserializeFromRealm(olmInboundGroupSessionData)
+        return deserializeFromRealmBinary(olmInboundGroupSessionData)
     }
 
     fun putInboundGroupSession(mxOlmInboundGroupSession2: MXOlmInboundGroupSession2?) {
-        olmInboundGroupSessionData = serializeForRealm(mxOlmInboundGroupSession2)
+        olmInboundGroupSessionData = serializeForRealmBinary(mxOlmInboundGroupSession2)
     }
 
     companion object
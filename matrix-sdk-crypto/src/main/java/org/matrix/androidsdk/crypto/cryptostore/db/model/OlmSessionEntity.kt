@@ -18,8 +18,8 @@ package org.matrix.androidsdk.crypto.cryptostore.db.model
 
 import io.realm.RealmObject
 import io.realm.annotations.PrimaryKey
-import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealm
-import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealm
+import org.matrix.androidsdk.crypto.cryptostore.db.deserializeFromRealmBinary
+import org.matrix.androidsdk.crypto.cryptostore.db.serializeForRealmBinary
 import org.matrix.olm.OlmSession
 
 fun OlmSessionEntity.Companion.createPrimaryKey(sessionId: String, deviceKey: String) = "$sessionId|$deviceKey"
@@ -28,16 +28,16 @@ fun OlmSessionEntity.Companion.createPrimaryKey(sessionId: String, deviceKey: St
 open class OlmSessionEntity(@PrimaryKey var primaryKey: String = "",
                             var sessionId: String? = null,
                             var deviceKey: String? = null,
-                            var olmSessionData: String? = null,
+                            var olmSessionData: ByteArray? = null,
                             var lastReceivedMessageTs: Long = 0)
     : RealmObject() {
 
     fun getOlmSession(): OlmSession? {
-        return deserializeFromRealm(olmSessionData)
+        return deserializeFromRealmBinary(olmSessionData)
     }
 
     fun putOlmSession(olmSession: OlmSession?) {
-        olmSessionData = serializeForRealm(olmSession)
+        olmSessionData = serializeForRealmBinary(olmSession)
     }
 
     companion object
@@ -23,6 +23,7 @@ import android.text.TextUtils;
 import com.google.gson.annotations.SerializedName;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -99,6 +100,39 @@ public class MXDeviceInfo implements Serializable {
         mVerified = DEVICE_VERIFICATION_UNKNOWN;
     }
 
+    /**
+     * Make a deep copy of this device, so that it can be updated without updating the original one.
+     *
+     * @return the copy
+     */
+    public MXDeviceInfo deepCopy() {
+        MXDeviceInfo copy = new MXDeviceInfo(deviceId);
+        copy.userId = userId;
+        copy.mVerified = mVerified;
+
+        if (null != algorithms) {
+            copy.algorithms = new ArrayList<>(algorithms);
+        }
+
+        if (null != keys) {
+            copy.keys = new HashMap<>(keys);
+        }
+
+        if (null != signatures) {
+            copy.signatures = new HashMap<>();
+
+            for (Map.Entry<String, Map<String, String>> entry : signatures.entrySet()) {
+                copy.signatures.put(entry.getKey(), (null != entry.getValue()) ? new HashMap<>(entry.getValue()) : null);
+            }
+        }
+
+        if (null != unsigned) {
+            copy.unsigned = new HashMap<>(unsigned);
+        }
+
+        return copy;
+    }
+
     /**
      * Tells if the device is unknown
      *
@@ -92,6 +92,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import retrofit2.Converter;
 
@@ -151,6 +155,13 @@ public class MXCryptoImpl implements MXCrypto {
     private HandlerThread mDecryptingHandlerThread;
     private Handler mDecryptingHandler = null;
 
+    // the max number of threads which decrypt the megolm events of a chunk
+    private static final int MAX_MEGOLM_DECRYPTING_THREADS_COUNT = 4;
+
+    // the threads which decrypt the megolm events of a chunk, by room and session.
+    // null when all the events are decrypted by the decrypting thread.
+    private ExecutorService[] mMegolmDecryptingExecutors;
+
     // the UI thread
     private Handler mUIHandler;
 
@@ -308,8 +319,21 @@ public class MXCryptoImpl implements MXCrypto {
         mDecryptingHandlerThread = new HandlerThread("MXCrypto_decrypting_" + mSession.getMyUserId(), Thread.MIN_PRIORITY);
         mDecryptingHandlerThread.start();
 
+        mMegolmDecryptingExecutors = createMegolmDecryptingExecutors();
+
         mUIHandler = new Handler(Looper.getMainLooper());
 
+        // the crypto threads keep their store instance
+        Runnable openThreadInstance = new Runnable() {
+            @Override
+            public void run() {
+                mCryptoStore.openThreadInstance();
+            }
+        };
+
+        getEncryptingThreadHandler().post(openThreadInstance);
+        getDecryptingThreadHandler().post(openThreadInstance);
+
         if (refreshDevicesList) {
             // ensure to have the up-to-date devices list
             // got some issues when upgrading from Riot < 0.6.4
@@ -361,6 +385,70 @@ public class MXCryptoImpl implements MXCrypto {
         return mDecryptingHandler;
     }
 
+    /**
+     * Create the threads which decrypt the megolm events of a chunk.
+     * An inbound group session is always used by the same thread, so its events are decrypted in order.
+     *
+     * @return the executors, null if the device has a single core
+     */
+    @Nullable
+    private ExecutorService[] createMegolmDecryptingExecutors() {
+        int threadsCount = Math.min(MAX_MEGOLM_DECRYPTING_THREADS_COUNT, Runtime.getRuntime().availableProcessors());
+
+        if (threadsCount < 2) {
+            return null;
+        }
+
+        ExecutorService[] executors = new ExecutorService[threadsCount];
+
+        for (int i = 0; i < threadsCount; i++) {
+            final String threadName = "MXCrypto_decrypting_" + mSession.getMyUserId() + "_" + i;
+
+            executors[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        return executors;
+    }
+
+    /**
+     * Provide the thread which decrypts a megolm event, from its room and its session.
+     *
+     * @param event        the event
+     * @param eventContent the event wire content
+     * @return the executor, null if the event must be decrypted by the decrypting thread
+     */
+    @Nullable
+    private ExecutorService getMegolmDecryptingExecutor(CryptoEvent event, CryptoEventContent eventContent) {
+        ExecutorService[] executors = mMegolmDecryptingExecutors;
+
+        if ((null == executors) || !TextUtils.equals(eventContent.getAlgorithm(), CryptoConstantsKt.MXCRYPTO_ALGORITHM_MEGOLM)) {
+            return null;
+        }
+
+        String sessionId = null;
+
+        try {
+            JsonElement sessionIdAsJson = event.getWireContent().getAsJsonObject().get("session_id");
+
+            if (null != sessionIdAsJson) {
+                sessionId = sessionIdAsJson.getAsString();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## getMegolmDecryptingExecutor() : failed " + e.getMessage(), e);
+        }
+
+        String key = event.getRoomId() + "|" + sessionId;
+
+        return executors[(key.hashCode() & Integer.MAX_VALUE) % executors.length];
+    }
+
     /**
      * @return the UI thread handler
      */
@@ -625,6 +713,7 @@ public class MXCryptoImpl implements MXCrypto {
                     // mMyDevice = null;
 
                     mCryptoStore.close();
+                    mCryptoStore.closeThreadInstance();
                     // Do not reset Crypto store
                     // mCryptoStore = null;
 
@@ -640,10 +729,20 @@ public class MXCryptoImpl implements MXCrypto {
             getDecryptingThreadHandler().post(new Runnable() {
                 @Override
                 public void run() {
+                    mCryptoStore.closeThreadInstance();
+
                     if (null != mDecryptingHandlerThread) {
                         mDecryptingHandlerThread.quit();
                         mDecryptingHandlerThread = null;
                     }
+
+                    if (null != mMegolmDecryptingExecutors) {
+                        for (ExecutorService executor : mMegolmDecryptingExecutors) {
+                            executor.shutdown();
+                        }
+
+                        mMegolmDecryptingExecutors = null;
+                    }
                 }
             });
         }
@@ -675,7 +774,20 @@ public class MXCryptoImpl implements MXCrypto {
     }
 
     /**
-     * A sync response has been received
+     * A sync response starts to be handled.
+     * The crypto writes of the sync pass are committed together by onSyncCompleted().
+     */
+    @Override
+    public void onSyncStarted() {
+        if (null != mCryptoStore) {
+            mCryptoStore.deferWrites();
+        }
+    }
+
+    /**
+     * A sync response has been received.
+     * It waits until the crypto data of the response has been handled and stored, so that the sync token
+     * is never stored before the room keys and the olm sessions of its to-device events.
      *
      * @param syncResponse the syncResponse
      * @param fromToken    the start sync token
@@ -683,7 +795,7 @@ public class MXCryptoImpl implements MXCrypto {
      */
     @Override
     public void onSyncCompleted(final CryptoSyncResponse syncResponse, final String fromToken, final boolean isCatchingUp) {
-        getEncryptingThreadHandler().post(new Runnable() {
+        runAndWait(getEncryptingThreadHandler(), new Runnable() {
             @Override
             public void run() {
                 if (null != syncResponse.getDeviceLists()) {
@@ -708,6 +820,52 @@ public class MXCryptoImpl implements MXCrypto {
                 }
             }
         });
+
+        // the room keys of the to-device events are handled by the decrypting thread
+        runAndWait(getDecryptingThreadHandler(), null);
+
+        // commit the writes of this sync pass together
+        if (null != mCryptoStore) {
+            mCryptoStore.flushPendingWrites();
+        }
+    }
+
+    /**
+     * Run a task after the pending tasks of a handler thread, and wait until it is done.
+     * The task is run immediately when it is called from the handler thread.
+     *
+     * @param handler  the handler
+     * @param runnable the task, null to only wait for the pending tasks
+     */
+    private void runAndWait(Handler handler, @Nullable final Runnable runnable) {
+        if (handler.getLooper() == Looper.myLooper()) {
+            if (null != runnable) {
+                runnable.run();
+            }
+            return;
+        }
+
+        final CountDownLatch lock = new CountDownLatch(1);
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (null != runnable) {
+                        runnable.run();
+                    }
+                } finally {
+                    lock.countDown();
+                }
+            }
+        });
+
+        try {
+            lock.await();
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## runAndWait() : interrupted", e);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -1454,25 +1612,16 @@ public class MXCryptoImpl implements MXCrypto {
         getDecryptingThreadHandler().post(new Runnable() {
             @Override
             public void run() {
-                MXEventDecryptionResult result = null;
-                IMXDecrypting alg = getRoomDecryptor(event.getRoomId(), eventContent.getAlgorithm());
-
-                if (null == alg) {
-                    String reason = String.format(MXCryptoError.UNABLE_TO_DECRYPT_REASON, event.getEventId(), eventContent.getAlgorithm());
-                    Log.e(LOG_TAG, "## decryptEvent() : " + reason);
-                    exceptions.add(new MXDecryptionException(new MXCryptoError(MXCryptoError.UNABLE_TO_DECRYPT_ERROR_CODE,
-                            MXCryptoError.UNABLE_TO_DECRYPT, reason)));
-                } else {
-                    try {
-                        result = alg.decryptEvent(event, timeline);
-                    } catch (MXDecryptionException decryptionException) {
-                        exceptions.add(decryptionException);
-                    }
+                try {
+                    MXEventDecryptionResult result = decryptEventInDecryptingThread(event, eventContent, timeline);
 
                     if (null != result) {
                         results.add(result);
                     }
+                } catch (MXDecryptionException decryptionException) {
+                    exceptions.add(decryptionException);
                 }
+
                 lock.countDown();
             }
         });
@@ -1494,6 +1643,142 @@ public class MXCryptoImpl implements MXCrypto {
         return null;
     }
 
+    /**
+     * Decrypt some events.
+     * The events are decrypted in the list order, in a single task of the decrypting thread.
+     * Each event receives its clear data or its crypto error.
+     *
+     * @param events   the raw events.
+     * @param timeline the id of the timeline where the events are decrypted. It is used to prevent replay attack.
+     */
+    @Override
+    public void decryptEvents(final List<? extends CryptoEvent> events, final String timeline) {
+        if ((null == events) || events.isEmpty()) {
+            return;
+        }
+
+        final MXEventDecryptionResult[] results = new MXEventDecryptionResult[events.size()];
+        final MXCryptoError[] errors = new MXCryptoError[events.size()];
+        final CountDownLatch lock = new CountDownLatch(1);
+
+        getDecryptingThreadHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                List<Future<?>> futures = new ArrayList<>();
+
+                try {
+                    for (int i = 0; i < events.size(); i++) {
+                        final int index = i;
+                        final CryptoEvent event = events.get(i);
+                        final CryptoEventContent eventContent = (null != event) ? event.getWireEventContent() : null;
+
+                        if (null == eventContent) {
+                            Log.e(LOG_TAG, "## decryptEvents : empty event content");
+                            continue;
+                        }
+
+                        final IMXDecrypting alg;
+
+                        try {
+                            alg = getEventDecryptor(event, eventContent);
+                        } catch (MXDecryptionException decryptionException) {
+                            errors[i] = decryptionException.getCryptoError();
+                            continue;
+                        }
+
+                        Runnable decryption = new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    results[index] = alg.decryptEvent(event, timeline);
+                                } catch (MXDecryptionException decryptionException) {
+                                    errors[index] = decryptionException.getCryptoError();
+                                } catch (Exception e) {
+                                    Log.e(LOG_TAG, "## decryptEvents() : failed " + e.getMessage(), e);
+                                }
+                            }
+                        };
+
+                        // the megolm events of the different sessions are decrypted in parallel
+                        ExecutorService executor = getMegolmDecryptingExecutor(event, eventContent);
+
+                        if (null != executor) {
+                            futures.add(executor.submit(decryption));
+                        } else {
+                            decryption.run();
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## decryptEvents() : failed " + e.getMessage(), e);
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## decryptEvents() : failed " + e.getMessage(), e);
+                    }
+                }
+
+                lock.countDown();
+            }
+        });
+
+        try {
+            lock.await();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## decryptEvents() : failed " + e.getMessage(), e);
+        }
+
+        // the events are updated from the caller thread
+        for (int i = 0; i < results.length; i++) {
+            if (null != errors[i]) {
+                events.get(i).setCryptoError(errors[i]);
+            } else if (null != results[i]) {
+                events.get(i).setClearData(results[i]);
+            }
+        }
+    }
+
+    /**
+     * Decrypt an event.
+     * This method must be called from the decrypting thread.
+     *
+     * @param event        the raw event.
+     * @param eventContent the event wire content
+     * @param timeline     the id of the timeline where the event is decrypted.
+     * @return the MXEventDecryptionResult data, or null in case of error
+     * @throws MXDecryptionException if the event cannot be decrypted
+     */
+    @Nullable
+    private MXEventDecryptionResult decryptEventInDecryptingThread(CryptoEvent event,
+                                                                   CryptoEventContent eventContent,
+                                                                   String timeline) throws MXDecryptionException {
+        return getEventDecryptor(event, eventContent).decryptEvent(event, timeline);
+    }
+
+    /**
+     * Provide the decryptor of an event.
+     * This method must be called from the decrypting thread.
+     *
+     * @param event        the raw event.
+     * @param eventContent the event wire content
+     * @return the decryptor
+     * @throws MXDecryptionException if the event algorithm is not supported
+     */
+    private IMXDecrypting getEventDecryptor(CryptoEvent event, CryptoEventContent eventContent) throws MXDecryptionException {
+        IMXDecrypting alg = getRoomDecryptor(event.getRoomId(), eventContent.getAlgorithm());
+
+        if (null == alg) {
+            String reason = String.format(MXCryptoError.UNABLE_TO_DECRYPT_REASON, event.getEventId(), eventContent.getAlgorithm());
+            Log.e(LOG_TAG, "## decryptEvent() : " + reason);
+            throw new MXDecryptionException(new MXCryptoError(MXCryptoError.UNABLE_TO_DECRYPT_ERROR_CODE,
+                    MXCryptoError.UNABLE_TO_DECRYPT, reason));
+        }
+
+        return alg;
+    }
+
     /**
      * Reset replay attack data for the given timeline.
      *
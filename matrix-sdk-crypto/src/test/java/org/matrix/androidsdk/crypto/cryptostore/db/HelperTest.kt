@@ -17,6 +17,7 @@
 package org.matrix.androidsdk.crypto.cryptostore.db
 
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
 import org.junit.Test
 
 class HelperTest {
@@ -33,4 +34,17 @@ class HelperTest {
             assertEquals(32, "a".repeat(i).hash().length)
         }
     }
+
+    @Test
+    fun testSerializeForRealmBinary_ok() {
+        val map = hashMapOf("algorithm" to "m.megolm.v1.aes-sha2", "session_id" to "ABCDEF")
+
+        assertEquals(map, deserializeFromRealmBinary<Map<String, String>>(serializeForRealmBinary(map)))
+    }
+
+    @Test
+    fun testSerializeForRealmBinary_null() {
+        assertNull(serializeForRealmBinary(null))
+        assertNull(deserializeFromRealmBinary<Any>(null))
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.crypto.cryptostore.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class NativeSessionCacheTest {
+
+    private class Session(val name: String)
+
+    private var now = 0L
+    private val released = ArrayList<String>()
+
+    private val cache = NativeSessionCache<Session>(2, 1_000L, { it }, { released.add(it.name) }, { now })
+
+    @Test
+    fun testEviction_releasesTheSessionsWhichAreGivenBack() {
+        val b = Session("b")
+        val c = Session("c")
+
+        cache.release(cache.putIfAbsent("a", Session("a")))
+        cache.putIfAbsent("b", b)
+        cache.release(cache.get("a")!!)
+        cache.release(cache.putIfAbsent("c", c))
+
+        // "b" is the least recently used session, but it is still used
+        assertNull(cache.get("b"))
+        assertEquals(emptyList<String>(), released)
+
+        // it is not released while it is used
+        now += 900L
+        cache.release(cache.get("a")!!)
+        assertEquals(emptyList<String>(), released)
+
+        cache.release(b)
+        assertEquals(listOf("b"), released)
+
+        // "c" is idle and it is not used
+        now += 1_000L
+        cache.release(cache.get("a")!!)
+        assertEquals(listOf("b", "c"), released)
+
+        assertEquals(NativeSessionCache.Stats(1, 3, 1, 2, 0), cache.getStats())
+    }
+
+    @Test
+    fun testRelease_keepsTheSessionUsedByAnotherCaller() {
+        val a = Session("a")
+        cache.putIfAbsent("a", a)
+        cache.get("a")
+
+        cache.remove("a")
+        cache.release(a)
+        assertEquals(emptyList<String>(), released)
+
+        cache.release(a)
+        assertEquals(listOf("a"), released)
+
+        // an unknown session is ignored
+        cache.release(a)
+        assertEquals(listOf("a"), released)
+    }
+
+    @Test
+    fun testPut_keepsTheSessionWhichIsStoredAgain() {
+        val a = Session("a")
+        cache.putIfAbsent("a", a)
+        cache.release(cache.putIfAbsent("b", Session("b")))
+        cache.release(cache.putIfAbsent("c", Session("c")))
+
+        // "a" has been evicted, but its owner stores it
+        cache.put("a", a)
+
+        assertSame(a, cache.get("a"))
+        assertEquals(listOf("b"), released)
+    }
+
+    @Test
+    fun testPutIfAbsent_releasesTheDuplicatedSession() {
+        val a = Session("a")
+        cache.putIfAbsent("a", a)
+
+        assertSame(a, cache.putIfAbsent("a", Session("a2")))
+        assertEquals(listOf("a2"), released)
+
+        cache.clear()
+        assertEquals(listOf("a2", "a"), released)
+    }
+}
@@ -22,6 +22,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.Pair;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -55,6 +56,7 @@ import org.matrix.androidsdk.db.MXMediaCache;
 import org.matrix.androidsdk.groups.GroupsManager;
 import org.matrix.androidsdk.listeners.IMXEventListener;
 import org.matrix.androidsdk.network.NetworkConnectivityReceiver;
+import org.matrix.androidsdk.rest.json.SyncResponseStreamDecoder;
 import org.matrix.androidsdk.rest.client.AccountDataRestClient;
 import org.matrix.androidsdk.rest.client.EventsRestClient;
 import org.matrix.androidsdk.rest.client.PresenceRestClient;
@@ -77,9 +79,12 @@ import org.matrix.androidsdk.rest.model.group.InvitedGroupSync;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 import org.matrix.androidsdk.rest.model.sync.AccountDataElement;
 import org.matrix.androidsdk.rest.model.sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 import org.matrix.androidsdk.ssl.UnrecognizedCertificateException;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -87,6 +92,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The data handler provides a layer to help manage matrix input and output.
@@ -141,6 +157,16 @@ public class MXDataHandler implements CryptoDataHandler {
     private HandlerThread mSyncHandlerThread;
     private final MXOsHandler mSyncHandler;
 
+    // the threads which apply the rooms of a sync response, null to apply them on the sync thread
+    private volatile ThreadPoolExecutor mSyncRoomsExecutor;
+
+    // the joined rooms are applied while the sync response is read
+    private boolean mIsSyncStreamingEnabled = false;
+
+    // the streamed joined rooms are applied by chunks
+    private static final int STREAMED_ROOMS_CHUNK_SIZE = 20;
+    private static final int MAX_PENDING_STREAMED_ROOMS_CHUNKS = 2;
+
     // list of ignored users
     // null -> not initialized
     // should be retrieved from the store
@@ -228,6 +254,46 @@ public class MXDataHandler implements CryptoDataHandler {
         mMetricsListener = metricsListener;
     }
 
+    /**
+     * Set the number of threads which apply the joined and invited rooms of a sync response.
+     * A room is handled by a single thread and the sync responses are applied one after the other,
+     * so the events of a room are always handled in order.
+     *
+     * @param threadsCount the threads count, 1 to apply the rooms on the sync thread (default).
+     */
+    public void setSyncRoomsThreadsCount(final int threadsCount) {
+        ThreadPoolExecutor executor = null;
+
+        if (threadsCount > 1) {
+            executor = new ThreadPoolExecutor(threadsCount,
+                    threadsCount,
+                    30,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mIndex = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "MXDataHandlerRooms_" + mIndex.incrementAndGet());
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        ThreadPoolExecutor previousExecutor = mSyncRoomsExecutor;
+        mSyncRoomsExecutor = executor;
+
+        if (null != previousExecutor) {
+            // the running tasks are completed
+            previousExecutor.shutdown();
+        }
+
+        Log.d(LOG_TAG, "## setSyncRoomsThreadsCount() : " + threadsCount);
+    }
+
     /**
      * @return the credentials
      */
@@ -654,6 +720,11 @@ public class MXDataHandler implements CryptoDataHandler {
             mSyncHandlerThread.quit();
             mSyncHandlerThread = null;
         }
+
+        if (null != mSyncRoomsExecutor) {
+            mSyncRoomsExecutor.shutdown();
+            mSyncRoomsExecutor = null;
+        }
     }
 
     /**
@@ -1204,6 +1275,143 @@ public class MXDataHandler implements CryptoDataHandler {
         }
     }
 
+    /**
+     * Apply the joined rooms of a sync response while it is read.
+     * The rooms are applied by chunks on the sync thread, after the to device events and the account data,
+     * and the reading is suspended while too many rooms are waiting to be applied.
+     * The header is applied with the first chunk, and the chunks which are not applied yet are discarded
+     * when the response cannot be read.
+     */
+    private class SyncStreamListener implements SyncResponseStreamDecoder.Listener {
+        private final boolean mIsInitialSync;
+
+        // limit the number of read rooms which are not yet applied
+        private final Semaphore mPendingChunks = new Semaphore(MAX_PENDING_STREAMED_ROOMS_CHUNKS);
+
+        private List<Pair<String, RoomSync>> mChunk = new ArrayList<>();
+
+        // the header waiting for the first chunk
+        private SyncResponse mHeader;
+
+        // the response reading has failed
+        private volatile boolean mIsFailed;
+
+        SyncStreamListener(boolean isInitialSync) {
+            mIsInitialSync = isInitialSync;
+        }
+
+        @Override
+        public void onSyncResponseHeader(final SyncResponse syncResponse) {
+            mHeader = syncResponse;
+        }
+
+        @Override
+        public void onJoinedRoomSync(String roomId, RoomSync roomSync) throws IOException {
+            mChunk.add(new Pair<>(roomId, roomSync));
+
+            if (mChunk.size() >= STREAMED_ROOMS_CHUNK_SIZE) {
+                postChunk();
+            }
+        }
+
+        @Override
+        public void onSyncResponseEnd() throws IOException {
+            if ((null != mHeader) || !mChunk.isEmpty()) {
+                postChunk();
+            }
+        }
+
+        @Override
+        public void onSyncResponseFailed() {
+            Log.e(LOG_TAG, "## onSyncResponseFailed() : the pending rooms are discarded");
+
+            mIsFailed = true;
+            mHeader = null;
+            mChunk = new ArrayList<>();
+        }
+
+        /**
+         * Apply the header if it is pending, then the read rooms, on the sync thread.
+         *
+         * @throws IOException if the thread has been interrupted
+         */
+        private void postChunk() throws IOException {
+            final SyncResponse header = mHeader;
+            final List<Pair<String, RoomSync>> chunk = mChunk;
+            mHeader = null;
+            mChunk = new ArrayList<>();
+
+            try {
+                mPendingChunks.acquire();
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## postChunk() : interrupted", e);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The sync response reading has been interrupted");
+            }
+
+            boolean isPosted = mSyncHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // the response will be requested again
+                        if (isAlive() && !mIsFailed) {
+                            mMxEventDispatcher.startBatch();
+
+                            try {
+                                if (null != header) {
+                                    manageResponseHeader(header, mIsInitialSync);
+                                }
+
+                                List<Runnable> roomSyncTasks = new ArrayList<>(chunk.size());
+
+                                for (Pair<String, RoomSync> pair : chunk) {
+                                    Runnable roomSyncTask = getJoinedRoomSyncTask(pair.first, pair.second, mIsInitialSync);
+
+                                    if (null != roomSyncTask) {
+                                        roomSyncTasks.add(roomSyncTask);
+                                    }
+                                }
+
+                                runRoomSyncTasks(roomSyncTasks);
+                            } finally {
+                                mMxEventDispatcher.flushBatch();
+                            }
+                        }
+                    } finally {
+                        mPendingChunks.release();
+                    }
+                }
+            });
+
+            if (!isPosted) {
+                // the sync thread has been stopped
+                mPendingChunks.release();
+            }
+        }
+    }
+
+    /**
+     * Enable the sync responses streaming: the joined rooms are applied while the response is read,
+     * so a large initial sync is never fully kept in memory.
+     *
+     * @param enabled true to enable it
+     */
+    public void setSyncStreamingEnabled(boolean enabled) {
+        mIsSyncStreamingEnabled = enabled;
+    }
+
+    /**
+     * Provide the listener which applies the parts of a sync response while it is read.
+     * The response must then be provided to {@link #onSyncResponse(SyncResponse, String, boolean)}.
+     *
+     * @param fromToken the start sync token
+     * @return the listener, null if the sync streaming is not enabled
+     */
+    @Nullable
+    public SyncResponseStreamDecoder.Listener getSyncStreamListener(String fromToken) {
+        return mIsSyncStreamingEnabled ? new SyncStreamListener(null == fromToken) : null;
+    }
+
     /**
      * Manage a syncResponse.
      *
@@ -1212,12 +1420,36 @@ public class MXDataHandler implements CryptoDataHandler {
      * @param isCatchingUp true when there is a pending catch-up
      */
     public void onSyncResponse(final SyncResponse syncResponse, final String fromToken, final boolean isCatchingUp) {
+        onSyncResponse(syncResponse, fromToken, isCatchingUp, null);
+    }
+
+    /**
+     * Manage a syncResponse.
+     * The responses are applied in the order they are received.
+     *
+     * @param syncResponse the syncResponse to manage.
+     * @param fromToken    the start sync token
+     * @param isCatchingUp true when there is a pending catch-up
+     * @param onApplied    to run once the response has been applied, can be null.
+     */
+    public void onSyncResponse(final SyncResponse syncResponse, final String fromToken, final boolean isCatchingUp, @Nullable final Runnable onApplied) {
         // perform the sync in background
         // to avoid UI thread lags.
         mSyncHandler.post(new Runnable() {
             @Override
             public void run() {
-                manageResponse(syncResponse, fromToken, isCatchingUp);
+                // deliver the listeners callbacks once the response is managed
+                mMxEventDispatcher.startBatch();
+
+                try {
+                    manageResponse(syncResponse, fromToken, isCatchingUp);
+                } finally {
+                    mMxEventDispatcher.flushBatch();
+
+                    if (null != onApplied) {
+                        onApplied.run();
+                    }
+                }
             }
         });
     }
@@ -1282,37 +1514,25 @@ public class MXDataHandler implements CryptoDataHandler {
             return;
         }
 
-        boolean isInitialSync = (null == fromToken);
+        final boolean isInitialSync = (null == fromToken);
         boolean isEmptyResponse = true;
 
         // sanity check
         if (null != syncResponse) {
             Log.d(LOG_TAG, "onSyncComplete");
 
-            // Handle the to device events before the room ones
-            // to ensure to decrypt them properly
-            if ((null != syncResponse.toDevice)
-                    && (null != syncResponse.toDevice.events)
-                    && (syncResponse.toDevice.events.size() > 0)) {
-                Log.d(LOG_TAG, "manageResponse : receives " + syncResponse.toDevice.events.size() + " toDevice events");
-
-                for (Event toDeviceEvent : syncResponse.toDevice.events) {
-                    handleToDeviceEvent(toDeviceEvent);
-                }
+            // the first sections have been applied while the response was read
+            if (!syncResponse.isStreamed()) {
+                manageResponseHeader(syncResponse, isInitialSync);
             }
 
-            // Handle account data before the room events
-            // to be able to update direct chats dictionary during invites handling.
-            if (syncResponse.accountData != null
-                    && syncResponse.accountData.accountDataElements != null
-                    && !syncResponse.accountData.accountDataElements.isEmpty()) {
-                Log.d(LOG_TAG, "Received " + syncResponse.accountData.accountDataElements.size() + " accountData events");
-                manageAccountData(syncResponse.accountData.accountDataElements, isInitialSync);
-
-                // Global management, to be sure to handle any account data
-                getStore().storeAccountData(syncResponse.accountData);
+            if (syncResponse.getStreamedJoinedRoomsCount() > 0) {
+                Log.d(LOG_TAG, "Received " + syncResponse.getStreamedJoinedRoomsCount() + " streamed joined rooms");
+                if (mMetricsListener != null) {
+                    mMetricsListener.onRoomsLoaded(syncResponse.getStreamedJoinedRoomsCount());
+                }
 
-                mMxEventDispatcher.dispatchOnAccountDataUpdate();
+                isEmptyResponse = false;
             }
 
             // sanity check
@@ -1324,20 +1544,19 @@ public class MXDataHandler implements CryptoDataHandler {
                         mMetricsListener.onRoomsLoaded(syncResponse.rooms.join.size());
                     }
                     Set<String> roomIds = syncResponse.rooms.join.keySet();
+                    List<Runnable> roomSyncTasks = new ArrayList<>(roomIds.size());
+
                     // Handle first joined rooms
                     for (String roomId : roomIds) {
-                        try {
-                            if (null != mLeftRoomsStore.getRoom(roomId)) {
-                                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
-                                mLeftRoomsStore.deleteRoom(roomId);
-                            }
+                        Runnable roomSyncTask = getJoinedRoomSyncTask(roomId, syncResponse.rooms.join.get(roomId), isInitialSync);
 
-                            getRoom(roomId).handleJoinedRoomSync(syncResponse.rooms.join.get(roomId), isInitialSync);
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## manageResponse() : handleJoinedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
+                        if (null != roomSyncTask) {
+                            roomSyncTasks.add(roomSyncTask);
                         }
                     }
 
+                    runRoomSyncTasks(roomSyncTasks);
+
                     isEmptyResponse = false;
                 }
 
@@ -1350,7 +1569,11 @@ public class MXDataHandler implements CryptoDataHandler {
                     Map<String, List<String>> updatedDirectChatRoomsDict = null;
                     boolean hasChanged = false;
 
-                    for (String roomId : roomIds) {
+                    // the inviter user ids of the direct chat invites, by room id
+                    final Map<String, String> directChatInviters = new ConcurrentHashMap<>();
+                    List<Runnable> roomSyncTasks = new ArrayList<>(roomIds.size());
+
+                    for (final String roomId : roomIds) {
                         try {
                             Log.d(LOG_TAG, "## manageResponse() : the user has been invited to " + roomId);
 
@@ -1359,52 +1582,67 @@ public class MXDataHandler implements CryptoDataHandler {
                                 mLeftRoomsStore.deleteRoom(roomId);
                             }
 
-                            Room room = getRoom(roomId);
-                            InvitedRoomSync invitedRoomSync = syncResponse.rooms.invite.get(roomId);
-
-                            room.handleInvitedRoomSync(invitedRoomSync);
-
-                            // Handle here the invites to a direct chat.
-                            if (room.isDirectChatInvitation()) {
-                                // Retrieve the inviter user id.
-                                String participantUserId = null;
-                                for (Event event : invitedRoomSync.inviteState.events) {
-                                    if (null != event.sender) {
-                                        participantUserId = event.sender;
-                                        break;
+                            final Room room = getRoom(roomId);
+                            final InvitedRoomSync invitedRoomSync = syncResponse.rooms.invite.get(roomId);
+
+                            roomSyncTasks.add(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        room.handleInvitedRoomSync(invitedRoomSync);
+
+                                        // Handle here the invites to a direct chat.
+                                        if (room.isDirectChatInvitation()) {
+                                            // Retrieve the inviter user id.
+                                            for (Event event : invitedRoomSync.inviteState.events) {
+                                                if (null != event.sender) {
+                                                    directChatInviters.put(roomId, event.sender);
+                                                    break;
+                                                }
+                                            }
+                                        }
+                                    } catch (Exception e) {
+                                        Log.e(LOG_TAG, "## manageResponse() : handleInvitedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
                                     }
                                 }
+                            });
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## manageResponse() : handleInvitedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
+                        }
+                    }
 
-                                if (null != participantUserId) {
-                                    // Prepare the updated dictionary.
-                                    if (null == updatedDirectChatRoomsDict) {
-                                        if (null != getStore().getDirectChatRoomsDict()) {
-                                            // Consider the current dictionary.
-                                            updatedDirectChatRoomsDict = new HashMap<>(getStore().getDirectChatRoomsDict());
-                                        } else {
-                                            updatedDirectChatRoomsDict = new HashMap<>();
-                                        }
-                                    }
+                    runRoomSyncTasks(roomSyncTasks);
 
-                                    List<String> roomIdsList;
-                                    if (updatedDirectChatRoomsDict.containsKey(participantUserId)) {
-                                        roomIdsList = new ArrayList<>(updatedDirectChatRoomsDict.get(participantUserId));
-                                    } else {
-                                        roomIdsList = new ArrayList<>();
-                                    }
+                    // merge the direct chat invites in the rooms order
+                    for (String roomId : roomIds) {
+                        String participantUserId = directChatInviters.get(roomId);
+
+                        if (null != participantUserId) {
+                            // Prepare the updated dictionary.
+                            if (null == updatedDirectChatRoomsDict) {
+                                if (null != getStore().getDirectChatRoomsDict()) {
+                                    // Consider the current dictionary.
+                                    updatedDirectChatRoomsDict = new HashMap<>(getStore().getDirectChatRoomsDict());
+                                } else {
+                                    updatedDirectChatRoomsDict = new HashMap<>();
+                                }
+                            }
 
-                                    // Check whether the room was not yet seen as direct chat
-                                    if (roomIdsList.indexOf(roomId) < 0) {
-                                        Log.d(LOG_TAG, "## manageResponse() : add this new invite in direct chats");
+                            List<String> roomIdsList;
+                            if (updatedDirectChatRoomsDict.containsKey(participantUserId)) {
+                                roomIdsList = new ArrayList<>(updatedDirectChatRoomsDict.get(participantUserId));
+                            } else {
+                                roomIdsList = new ArrayList<>();
+                            }
 
-                                        roomIdsList.add(roomId); // update room list with the new room
-                                        updatedDirectChatRoomsDict.put(participantUserId, roomIdsList);
-                                        hasChanged = true;
-                                    }
-                                }
+                            // Check whether the room was not yet seen as direct chat
+                            if (roomIdsList.indexOf(roomId) < 0) {
+                                Log.d(LOG_TAG, "## manageResponse() : add this new invite in direct chats");
+
+                                roomIdsList.add(roomId); // update room list with the new room
+                                updatedDirectChatRoomsDict.put(participantUserId, roomIdsList);
+                                hasChanged = true;
                             }
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## manageResponse() : handleInvitedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
                         }
                     }
 
@@ -1567,6 +1805,138 @@ public class MXDataHandler implements CryptoDataHandler {
         }
     }
 
+    /**
+     * Apply the sections of a sync response which must be handled before the rooms.
+     *
+     * @param syncResponse  the sync response
+     * @param isInitialSync true if it is an initial sync response
+     */
+    private void manageResponseHeader(SyncResponse syncResponse, boolean isInitialSync) {
+        // the crypto writes of the response are committed together by onSyncCompleted
+        if (null != mCrypto) {
+            mCrypto.onSyncStarted();
+        }
+
+        // Handle the to device events before the room ones
+        // to ensure to decrypt them properly
+        if ((null != syncResponse.toDevice)
+                && (null != syncResponse.toDevice.events)
+                && (syncResponse.toDevice.events.size() > 0)) {
+            Log.d(LOG_TAG, "manageResponse : receives " + syncResponse.toDevice.events.size() + " toDevice events");
+
+            for (Event toDeviceEvent : syncResponse.toDevice.events) {
+                handleToDeviceEvent(toDeviceEvent);
+            }
+        }
+
+        // Handle account data before the room events
+        // to be able to update direct chats dictionary during invites handling.
+        if (syncResponse.accountData != null
+                && syncResponse.accountData.accountDataElements != null
+                && !syncResponse.accountData.accountDataElements.isEmpty()) {
+            Log.d(LOG_TAG, "Received " + syncResponse.accountData.accountDataElements.size() + " accountData events");
+            manageAccountData(syncResponse.accountData.accountDataElements, isInitialSync);
+
+            // Global management, to be sure to handle any account data
+            getStore().storeAccountData(syncResponse.accountData);
+
+            mMxEventDispatcher.dispatchOnAccountDataUpdate();
+        }
+    }
+
+    /**
+     * Provide the task which applies a joined room sync.
+     * It must be called from the sync thread.
+     *
+     * @param roomId        the room id
+     * @param roomSync      the room sync
+     * @param isInitialSync true if it is an initial sync response
+     * @return the task, null if the room cannot be created
+     */
+    @Nullable
+    private Runnable getJoinedRoomSyncTask(final String roomId, final RoomSync roomSync, final boolean isInitialSync) {
+        try {
+            if (null != mLeftRoomsStore.getRoom(roomId)) {
+                Log.d(LOG_TAG, "the room " + roomId + " moves from left to the joined ones");
+                mLeftRoomsStore.deleteRoom(roomId);
+            }
+
+            final Room room = getRoom(roomId);
+
+            return new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        room.handleJoinedRoomSync(roomSync, isInitialSync);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## manageResponse() : handleJoinedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## manageResponse() : handleJoinedRoomSync failed " + e.getMessage() + " for room " + roomId, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Run the sync tasks of some rooms, one task per room.
+     * The tasks are run in parallel when there are some sync rooms threads,
+     * and the listeners callbacks are delivered in the tasks order once they are all completed.
+     *
+     * @param tasks the rooms tasks
+     */
+    private void runRoomSyncTasks(List<Runnable> tasks) {
+        ThreadPoolExecutor executor = mSyncRoomsExecutor;
+
+        if ((null == executor) || (tasks.size() < 2)) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+
+            return;
+        }
+
+        List<Future<List<Runnable>>> futures = new ArrayList<>(tasks.size());
+
+        for (final Runnable task : tasks) {
+            Callable<List<Runnable>> callable = new Callable<List<Runnable>>() {
+                @Override
+                public List<Runnable> call() {
+                    mMxEventDispatcher.startBatch();
+
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## runRoomSyncTasks() : failed " + e.getMessage(), e);
+                    }
+
+                    return mMxEventDispatcher.detachBatch();
+                }
+            };
+
+            try {
+                futures.add(executor.submit(callable));
+            } catch (RejectedExecutionException e) {
+                // the threads count has been updated
+                Log.e(LOG_TAG, "## runRoomSyncTasks() : the task is run on the sync thread");
+                task.run();
+            }
+        }
+
+        for (Future<List<Runnable>> future : futures) {
+            try {
+                mMxEventDispatcher.appendBatch(future.get());
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## runRoomSyncTasks() : interrupted", e);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "## runRoomSyncTasks() : failed " + e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * Refresh the unread summary counters of the updated rooms.
      */
@@ -1832,6 +2202,39 @@ public class MXDataHandler implements CryptoDataHandler {
         return false;
     }
 
+    /**
+     * Decrypt the encrypted events of a list, with a single switch to the decrypting thread.
+     * Each encrypted event receives its clear data or its crypto error.
+     *
+     * @param events     the events
+     * @param timelineId the timeline identifier
+     */
+    public void decryptEvents(List<Event> events, String timelineId) {
+        if (null == events) {
+            return;
+        }
+
+        List<CryptoEvent> encryptedEvents = new ArrayList<>();
+
+        for (Event event : events) {
+            if ((null != event) && TextUtils.equals(event.getType(), Event.EVENT_TYPE_MESSAGE_ENCRYPTED)) {
+                encryptedEvents.add(event);
+            }
+        }
+
+        if (encryptedEvents.isEmpty()) {
+            return;
+        }
+
+        if (null != getCrypto()) {
+            getCrypto().decryptEvents(encryptedEvents, timelineId);
+        } else {
+            for (CryptoEvent event : encryptedEvents) {
+                event.setCryptoError(new MXCryptoError(MXCryptoError.ENCRYPTING_NOT_ENABLED_ERROR_CODE, MXCryptoError.ENCRYPTING_NOT_ENABLED_REASON, null));
+            }
+        }
+    }
+
     /**
      * Reset replay attack data for the given timeline.
      *
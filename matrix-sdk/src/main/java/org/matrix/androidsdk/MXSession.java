@@ -2417,6 +2417,12 @@ public class MXSession implements CryptoSession {
      */
     public void checkCrypto() {
         if ((mCryptoStore.hasData() || mEnableCryptoWhenStartingMXSession) && (null == mCrypto)) {
+            // e.g. its migration has failed
+            if (mCryptoStore.isCorrupted()) {
+                Log.e(LOG_TAG, "## checkCrypto() : cannot enable the crypto because the crypto store cannot be opened");
+                return;
+            }
+
             boolean isStoreLoaded = false;
             try {
                 // open the store
@@ -2471,6 +2477,15 @@ public class MXSession implements CryptoSession {
     public void enableCrypto(boolean cryptoEnabled, final ApiCallback<Void> callback) {
         if (cryptoEnabled != isCryptoEnabled()) {
             if (cryptoEnabled) {
+                if (mCryptoStore.isCorrupted()) {
+                    Log.e(LOG_TAG, "## enableCrypto() : the crypto store cannot be opened");
+
+                    if (null != callback) {
+                        callback.onUnexpectedError(new Exception("The crypto store cannot be opened"));
+                    }
+                    return;
+                }
+
                 Log.d(LOG_TAG, "Crypto is enabled");
                 mCryptoStore.open();
                 mCrypto = new MXCryptoImpl(this,
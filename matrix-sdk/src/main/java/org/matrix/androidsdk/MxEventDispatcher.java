@@ -32,13 +32,15 @@ import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.rest.model.bingrules.BingRule;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Dispatcher for MXDataHandler
  * This class store a list of listener and dispatch event to every listener on the Ui Thread
+ * <p>
+ * The dispatches of a thread can be batched: they are delivered together on the UI thread
+ * and the consecutive live events are delivered once per listener.
  */
 /* package */ class MxEventDispatcher {
     private static final String LOG_TAG = MxEventDispatcher.class.getSimpleName();
@@ -48,7 +50,40 @@ import java.util.Set;
     @Nullable
     private CryptoEventListener mCryptoEventsListener = null;
 
-    private final Set<IMXEventListener> mEventListeners = new HashSet<>();
+    // copy on write : the dispatchers capture the current list without copying it
+    private volatile List<IMXEventListener> mEventListeners = Collections.emptyList();
+
+    // the pending dispatches of the current thread, null when they are posted immediately
+    private final ThreadLocal<List<Runnable>> mBatch = new ThreadLocal<>();
+
+    /**
+     * Dispatch some consecutive live events.
+     */
+    private static class LiveEventsDispatch implements Runnable {
+        private final List<IMXEventListener> mListeners;
+        private final List<Event> mEvents = new ArrayList<>();
+        private final List<RoomState> mRoomStates = new ArrayList<>();
+
+        LiveEventsDispatch(List<IMXEventListener> listeners) {
+            mListeners = listeners;
+        }
+
+        void add(Event event, RoomState roomState) {
+            mEvents.add(event);
+            mRoomStates.add(roomState);
+        }
+
+        @Override
+        public void run() {
+            for (IMXEventListener listener : mListeners) {
+                try {
+                    listener.onLiveEvents(mEvents, mRoomStates);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "onLiveEvents " + e.getMessage(), e);
+                }
+            }
+        }
+    }
 
     MxEventDispatcher() {
         mUiHandler = new MXOsHandler(Looper.getMainLooper());
@@ -73,7 +108,13 @@ import java.util.Set;
      * @param listener the listener to add.
      */
     public void addListener(IMXEventListener listener) {
-        mEventListeners.add(listener);
+        synchronized (this) {
+            if (!mEventListeners.contains(listener)) {
+                List<IMXEventListener> listeners = new ArrayList<>(mEventListeners);
+                listeners.add(listener);
+                mEventListeners = Collections.unmodifiableList(listeners);
+            }
+        }
     }
 
     /**
@@ -82,14 +123,106 @@ import java.util.Set;
      * @param listener to remove.
      */
     public void removeListener(IMXEventListener listener) {
-        mEventListeners.remove(listener);
+        synchronized (this) {
+            if (mEventListeners.contains(listener)) {
+                List<IMXEventListener> listeners = new ArrayList<>(mEventListeners);
+                listeners.remove(listener);
+                mEventListeners = Collections.unmodifiableList(listeners);
+            }
+        }
     }
 
     /**
      * Remove any listener
      */
     public void clearListeners() {
-        mEventListeners.clear();
+        synchronized (this) {
+            mEventListeners = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Start batching the dispatches of the current thread.
+     * They are delivered on the UI thread by {@link #flushBatch()}, in the same order.
+     */
+    public void startBatch() {
+        if (null == mBatch.get()) {
+            mBatch.set(new ArrayList<Runnable>());
+        }
+    }
+
+    /**
+     * Deliver the batched dispatches of the current thread with a single UI message
+     * and stop batching them.
+     */
+    public void flushBatch() {
+        final List<Runnable> batch = mBatch.get();
+        mBatch.remove();
+
+        if ((null != batch) && !batch.isEmpty()) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable runnable : batch) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop batching the dispatches of the current thread without delivering them.
+     *
+     * @return the batched dispatches, to be delivered by {@link #appendBatch(List)}
+     */
+    public List<Runnable> detachBatch() {
+        List<Runnable> batch = mBatch.get();
+        mBatch.remove();
+
+        return (null != batch) ? batch : Collections.<Runnable>emptyList();
+    }
+
+    /**
+     * Deliver some dispatches which have been batched by another thread,
+     * after the dispatches of the current thread.
+     *
+     * @param dispatches the dispatches provided by {@link #detachBatch()}
+     */
+    public void appendBatch(final List<Runnable> dispatches) {
+        if ((null == dispatches) || dispatches.isEmpty()) {
+            return;
+        }
+
+        List<Runnable> batch = mBatch.get();
+
+        if (null != batch) {
+            batch.addAll(dispatches);
+        } else {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable runnable : dispatches) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Post a dispatch to the UI thread, or add it to the current thread batch.
+     *
+     * @param runnable the dispatch
+     */
+    private void post(Runnable runnable) {
+        List<Runnable> batch = mBatch.get();
+
+        if (null != batch) {
+            batch.add(runnable);
+        } else {
+            mUiHandler.post(runnable);
+        }
     }
 
     /* ==========================================================================================
@@ -99,7 +232,7 @@ import java.util.Set;
     public void dispatchOnStoreReady() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -116,7 +249,7 @@ import java.util.Set;
     public void dispatchOnAccountInfoUpdate(final MyUser myUser) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -133,7 +266,7 @@ import java.util.Set;
     public void dispatchOnPresenceUpdate(final Event event, final User user) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -152,9 +285,28 @@ import java.util.Set;
             mCryptoEventsListener.onLiveEvent(event, roomState);
         }
 
+        List<Runnable> batch = mBatch.get();
+
+        if (null != batch) {
+            // merge the consecutive live events
+            LiveEventsDispatch dispatch = null;
+
+            if (!batch.isEmpty() && (batch.get(batch.size() - 1) instanceof LiveEventsDispatch)) {
+                dispatch = (LiveEventsDispatch) batch.get(batch.size() - 1);
+            }
+
+            if (null == dispatch) {
+                dispatch = new LiveEventsDispatch(getListenersSnapshot());
+                batch.add(dispatch);
+            }
+
+            dispatch.add(event, roomState);
+            return;
+        }
+
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -171,7 +323,7 @@ import java.util.Set;
     public void dispatchOnLiveEventsChunkProcessed(final String startToken, final String toToken) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -192,7 +344,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -213,7 +365,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -234,7 +386,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -251,7 +403,7 @@ import java.util.Set;
     public void dispatchOnBingRulesUpdate() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -268,7 +420,7 @@ import java.util.Set;
     public void dispatchOnInitialSyncComplete(final String toToken) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -285,7 +437,7 @@ import java.util.Set;
     public void dispatchOnCryptoSyncComplete() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -302,7 +454,7 @@ import java.util.Set;
     public void dispatchOnSyncError(final MatrixError matrixError) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -323,7 +475,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -344,7 +496,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -365,7 +517,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -386,7 +538,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -407,7 +559,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -428,7 +580,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -449,7 +601,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -470,7 +622,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -491,7 +643,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -508,7 +660,7 @@ import java.util.Set;
     public void dispatchOnIgnoredUsersListUpdate() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -533,7 +685,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -550,7 +702,7 @@ import java.util.Set;
     public void dispatchOnDirectMessageChatRoomsListUpdate() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -567,7 +719,7 @@ import java.util.Set;
     public void dispatchOnEventDecrypted(final CryptoEvent event) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -584,7 +736,7 @@ import java.util.Set;
     public void dispatchOnNewGroupInvitation(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -601,7 +753,7 @@ import java.util.Set;
     public void dispatchOnJoinGroup(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -618,7 +770,7 @@ import java.util.Set;
     public void dispatchOnLeaveGroup(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -635,7 +787,7 @@ import java.util.Set;
     public void dispatchOnGroupProfileUpdate(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -652,7 +804,7 @@ import java.util.Set;
     public void dispatchOnGroupRoomsListUpdate(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -669,7 +821,7 @@ import java.util.Set;
     public void dispatchOnGroupUsersListUpdate(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -686,7 +838,7 @@ import java.util.Set;
     public void dispatchOnGroupInvitedUsersListUpdate(final String groupId) {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -707,7 +859,7 @@ import java.util.Set;
 
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -724,7 +876,7 @@ import java.util.Set;
     public void dispatchOnAccountDataUpdate() {
         final List<IMXEventListener> eventListeners = getListenersSnapshot();
 
-        mUiHandler.post(new Runnable() {
+        post(new Runnable() {
             @Override
             public void run() {
                 for (IMXEventListener listener : eventListeners) {
@@ -746,12 +898,7 @@ import java.util.Set;
      * @return the current MXEvents listeners.
      */
     private List<IMXEventListener> getListenersSnapshot() {
-        List<IMXEventListener> eventListeners;
-
-        synchronized (this) {
-            eventListeners = new ArrayList<>(mEventListeners);
-        }
-
-        return eventListeners;
+        // the list is never updated in place
+        return mEventListeners;
     }
 }
@@ -43,6 +43,7 @@ import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import retrofit2.Converter;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
@@ -99,7 +100,7 @@ public class RestClient<T> {
     private OkHttpClient mOkHttpClient = new OkHttpClient();
 
     public RestClient(HomeServerConnectionConfig hsConfig, Class<T> type, String uriPrefix) {
-        this(hsConfig, type, uriPrefix, JsonUtils.getKotlinGson(), EndPointServer.HOME_SERVER);
+        this(hsConfig, type, uriPrefix, JsonUtils.getKotlinGson(), EndPointServer.HOME_SERVER, null);
     }
 
     public RestClient(HomeServerConnectionConfig hsConfig, Class<T> type, String uriPrefix, boolean withNullSerialization) {
@@ -129,11 +130,33 @@ public class RestClient<T> {
      * @param endPointServer        tell which server is used to define the base url
      */
     public RestClient(HomeServerConnectionConfig hsConfig, Class<T> type, String uriPrefix, boolean withNullSerialization, EndPointServer endPointServer) {
-        this(hsConfig, type, uriPrefix, JsonUtils.getGson(withNullSerialization), endPointServer);
+        this(hsConfig, type, uriPrefix, JsonUtils.getGson(withNullSerialization), endPointServer, null);
+    }
+
+    /**
+     * Constructor with a dedicated response converter.
+     *
+     * @param hsConfig              the home server configuration.
+     * @param type                  the REST type
+     * @param uriPrefix             the URL request prefix
+     * @param withNullSerialization true to serialise class member with null value
+     * @param converterFactory      the converter factory which is used before the Gson one
+     */
+    protected RestClient(HomeServerConnectionConfig hsConfig,
+                         Class<T> type,
+                         String uriPrefix,
+                         boolean withNullSerialization,
+                         Converter.Factory converterFactory) {
+        this(hsConfig, type, uriPrefix, JsonUtils.getGson(withNullSerialization), EndPointServer.HOME_SERVER, converterFactory);
     }
 
     // Private constructor with Gson instance as a parameter
-    private RestClient(HomeServerConnectionConfig hsConfig, Class<T> type, String uriPrefix, Gson gson, EndPointServer endPointServer) {
+    private RestClient(HomeServerConnectionConfig hsConfig,
+                       Class<T> type,
+                       String uriPrefix,
+                       Gson gson,
+                       EndPointServer endPointServer,
+                       @Nullable Converter.Factory converterFactory) {
         mHsConfig = hsConfig;
         mCredentials = hsConfig.getCredentials();
 
@@ -165,8 +188,13 @@ public class RestClient<T> {
         // Rest adapter for turning API interfaces into actual REST-calling objects
         Retrofit.Builder builder = new Retrofit.Builder()
                 .baseUrl(endPoint)
-                .addConverterFactory(PolymorphicRequestBodyConverter.FACTORY)
-                .addConverterFactory(GsonConverterFactory.create(gson))
+                .addConverterFactory(PolymorphicRequestBodyConverter.FACTORY);
+
+        if (null != converterFactory) {
+            builder.addConverterFactory(converterFactory);
+        }
+
+        builder.addConverterFactory(GsonConverterFactory.create(gson))
                 .client(mOkHttpClient);
 
         Retrofit retrofit = builder.build();
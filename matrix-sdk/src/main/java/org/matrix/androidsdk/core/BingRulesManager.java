@@ -41,12 +41,12 @@ import org.matrix.androidsdk.rest.model.bingrules.SenderNotificationPermissionCo
 import org.matrix.androidsdk.rest.model.message.Message;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 /**
  * Object that gets and processes bing rules from the server.
@@ -93,6 +93,9 @@ public class BingRulesManager {
     // the rules list
     private final List<BingRule> mRules = new ArrayList<>();
 
+    // the rules list compiled to evaluate the events
+    private volatile BingRulesPlan mRulesPlan = new BingRulesPlan(new ArrayList<BingRule>());
+
     // the default bing rule
     private BingRule mDefaultBingRule = new BingRule(true);
 
@@ -284,10 +287,11 @@ public class BingRulesManager {
      * Returns whether a string contains an occurrence of another, as a standalone word, regardless of case.
      *
      * @param subString  the string to search for
+     * @param isPattern  true if the string to search for is a regular expression
      * @param longString the string to search in
      * @return whether a match was found
      */
-    private static boolean caseInsensitiveFind(String subString, String longString) {
+    private static boolean caseInsensitiveFind(String subString, boolean isPattern, String longString) {
         // sanity check
         if (TextUtils.isEmpty(subString) || TextUtils.isEmpty(longString)) {
             return false;
@@ -296,8 +300,7 @@ public class BingRulesManager {
         boolean found = false;
 
         try {
-            Pattern pattern = Pattern.compile("(\\W|^)" + subString + "(\\W|$)", Pattern.CASE_INSENSITIVE);
-            found = pattern.matcher(longString).find();
+            found = GlobMatcher.getWordMatcher(subString, isPattern).matches(longString);
         } catch (Exception e) {
             Log.e(LOG_TAG, "caseInsensitiveFind : pattern.matcher failed with " + e.getMessage(), e);
         }
@@ -344,7 +347,9 @@ public class BingRulesManager {
             return null;
         }
 
-        if (0 == mRules.size()) {
+        final BingRulesPlan rulesPlan = mRulesPlan;
+
+        if (0 == rulesPlan.size()) {
             Log.e(LOG_TAG, "## fulfilledBingRule() : no rules");
             return null;
         }
@@ -364,15 +369,15 @@ public class BingRulesManager {
             return null;
         }
 
-        // GA issue
-        final List<BingRule> rules;
-
-        synchronized (this) {
-            rules = new ArrayList<>(mRules);
-        }
+        // the event fields are extracted once for all the rules
+        BingRulesPlan.EventFields eventFields = new BingRulesPlan.EventFields(event);
+        BitSet candidateRules = rulesPlan.getCandidateRules(eventFields);
 
         // Go down the rule list until we find a match
-        for (BingRule bingRule : rules) {
+        for (int position = candidateRules.nextSetBit(0); position >= 0; position = candidateRules.nextSetBit(position + 1)) {
+            BingRulesPlan.CompiledRule compiledRule = rulesPlan.get(position);
+            BingRule bingRule = compiledRule.mRule;
+
             if (bingRule.isEnabled && (!highlightRuleOnly || bingRule.shouldHighlight())) {
                 boolean isFullfilled = false;
 
@@ -383,6 +388,7 @@ public class BingRulesManager {
                         Message message = JsonUtils.toMessage(event.getContent());
                         MyUser myUser = mSession.getMyUser();
                         String pattern = null;
+                        boolean isPattern = true;
 
                         if (BingRule.RULE_ID_CONTAIN_USER_NAME.equals(bingRule.ruleId)) {
                             if (mMyUserId.indexOf(":") >= 0) {
@@ -399,14 +405,15 @@ public class BingRulesManager {
                                     String disambiguousedName = room.getState().getMemberName(mMyUserId);
 
                                     if (!TextUtils.equals(disambiguousedName, mMyUserId)) {
-                                        pattern = Pattern.quote(disambiguousedName);
+                                        pattern = disambiguousedName;
+                                        isPattern = false;
                                     }
                                 }
                             }
                         }
 
                         if (!TextUtils.isEmpty(pattern)) {
-                            isFullfilled = caseInsensitiveFind(pattern, message.body);
+                            isFullfilled = caseInsensitiveFind(pattern, isPattern, message.body);
                         }
                     }
                 } else if (BingRule.RULE_ID_FALLBACK.equals(bingRule.ruleId)) {
@@ -416,7 +423,7 @@ public class BingRulesManager {
                     // so use them instead of doing a custom treatment
                     // RULE_ID_ONE_TO_ONE_ROOM
                     // RULE_ID_SUPPRESS_BOTS_NOTIFICATIONS
-                    isFullfilled = eventMatchesConditions(event, bingRule.conditions);
+                    isFullfilled = eventMatchesConditions(event, eventFields, compiledRule.mConditions);
                 }
 
                 if (isFullfilled) {
@@ -432,16 +439,19 @@ public class BingRulesManager {
     /**
      * Check if an event matches a conditions set
      *
-     * @param event      the event to test
-     * @param conditions the conditions set
+     * @param event       the event to test
+     * @param eventFields the event fields
+     * @param conditions  the compiled conditions set
      * @return true if the event matches all the conditions set.
      */
-    private boolean eventMatchesConditions(Event event, List<Condition> conditions) {
+    private boolean eventMatchesConditions(Event event, BingRulesPlan.EventFields eventFields, List<BingRulesPlan.CompiledCondition> conditions) {
         try {
             if ((conditions != null) && (event != null)) {
-                for (Condition condition : conditions) {
-                    if (condition instanceof EventMatchCondition) {
-                        if (!((EventMatchCondition) condition).isSatisfied(event)) {
+                for (BingRulesPlan.CompiledCondition compiledCondition : conditions) {
+                    Condition condition = compiledCondition.mCondition;
+
+                    if (compiledCondition.isEventMatch()) {
+                        if (!compiledCondition.matches(eventFields.get(compiledCondition))) {
                             return false;
                         }
                     } else if (condition instanceof ContainsDisplayNameCondition) {
@@ -530,6 +540,7 @@ public class BingRulesManager {
             // sanity check
             if (null == ruleSet) {
                 mRulesSet = new PushRuleSet();
+                mRulesPlan = new BingRulesPlan(mRules);
                 return;
             }
 
@@ -590,6 +601,7 @@ public class BingRulesManager {
             }
 
             mRulesSet = ruleSet;
+            mRulesPlan = new BingRulesPlan(mRules);
 
             Log.d(LOG_TAG, "## updateRules() : has " + mRules.size() + " rules");
         }
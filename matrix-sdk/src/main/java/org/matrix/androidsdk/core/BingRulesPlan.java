@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.core;
+
+import android.text.TextUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.bingrules.BingRule;
+import org.matrix.androidsdk.rest.model.bingrules.Condition;
+import org.matrix.androidsdk.rest.model.bingrules.EventMatchCondition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The push rules compiled to evaluate the events.
+ * <p>
+ * The event match conditions are parsed once: their key path is split and their pattern is compiled.
+ * The rules which match a type, a room id or a sender are indexed by this condition: the matching rules
+ * are computed once per field value, so an event is only tested against the rules which can match it.
+ * The plan is immutable and can be used from several threads.
+ */
+class BingRulesPlan {
+    // the event fields which index the rules
+    private static final Set<String> INDEXED_KEYS = new HashSet<>(Arrays.asList("type", "room_id", "sender", "user_id"));
+
+    // the number of field values whose matching rules are kept, per indexed key
+    private static final int MAX_INDEXED_VALUES_COUNT = 256;
+
+    /**
+     * An event match condition which has been parsed.
+     */
+    static class CompiledCondition {
+        final Condition mCondition;
+
+        // the event match key and its split path, null if it is not an event match condition
+        final String mKey;
+        final String[] mPath;
+
+        // the event match pattern
+        private final String mPattern;
+        private final GlobMatcher mMatcher;
+
+        CompiledCondition(Condition condition) {
+            mCondition = condition;
+
+            if ((condition instanceof EventMatchCondition) && (null != ((EventMatchCondition) condition).key)) {
+                EventMatchCondition eventMatchCondition = (EventMatchCondition) condition;
+
+                mKey = eventMatchCondition.key;
+                mPath = mKey.split("\\.");
+                mPattern = eventMatchCondition.pattern;
+                mMatcher = (null != mPattern) ? GlobMatcher.compileGlob(mPattern) : null;
+            } else {
+                mKey = null;
+                mPath = null;
+                mPattern = null;
+                mMatcher = null;
+            }
+        }
+
+        /**
+         * @return true if it is an event match condition
+         */
+        boolean isEventMatch() {
+            return null != mKey;
+        }
+
+        /**
+         * Tell if an event field value matches the pattern, like {@link EventMatchCondition#isSatisfied(Event)}.
+         *
+         * @param value the field value
+         * @return true if it matches
+         */
+        boolean matches(String value) {
+            if (TextUtils.isEmpty(value)) {
+                return false;
+            }
+
+            if (TextUtils.equals(mPattern, value)) {
+                return true;
+            }
+
+            return (null != mMatcher) && mMatcher.matches(value);
+        }
+    }
+
+    /**
+     * A rule and its parsed conditions.
+     */
+    static class CompiledRule {
+        final BingRule mRule;
+
+        // the condition which indexes the rule, null if the rule is not indexed
+        final CompiledCondition mIndexCondition;
+
+        // the other conditions
+        final List<CompiledCondition> mConditions;
+
+        CompiledRule(BingRule rule, CompiledCondition indexCondition, List<CompiledCondition> conditions) {
+            mRule = rule;
+            mIndexCondition = indexCondition;
+            mConditions = conditions;
+        }
+    }
+
+    /**
+     * Extract the event fields, each field once per evaluation.
+     * It is not thread safe.
+     */
+    static class EventFields {
+        private final Event mEvent;
+
+        private JsonObject mClearEventJson;
+        private JsonObject mEventJson;
+
+        private final Map<String, String> mValues = new HashMap<>();
+
+        EventFields(Event event) {
+            mEvent = event;
+        }
+
+        /**
+         * Provide the value of an event field.
+         * Some information are in the decrypted event (like type), so it is checked first.
+         *
+         * @param condition the event match condition
+         * @return the field value, null if there is none
+         */
+        String get(CompiledCondition condition) {
+            if (mValues.containsKey(condition.mKey)) {
+                return mValues.get(condition.mKey);
+            }
+
+            String value = null;
+
+            if (mEvent.isEncrypted() && (null != mEvent.getClearEvent())) {
+                if (null == mClearEventJson) {
+                    mClearEventJson = mEvent.getClearEvent().toJsonObject();
+                }
+
+                value = extractField(mClearEventJson, condition.mPath);
+            }
+
+            if (TextUtils.isEmpty(value)) {
+                if (null == mEventJson) {
+                    mEventJson = mEvent.toJsonObject();
+                }
+
+                value = extractField(mEventJson, condition.mPath);
+            }
+
+            mValues.put(condition.mKey, value);
+            return value;
+        }
+
+        private static String extractField(JsonObject jsonObject, String[] fieldParts) {
+            JsonElement jsonElement = null;
+
+            try {
+                for (String field : fieldParts) {
+                    jsonElement = jsonObject.get(field);
+                    if (jsonElement == null) {
+                        return null;
+                    }
+                    if (jsonElement.isJsonObject()) {
+                        jsonObject = (JsonObject) jsonElement;
+                    }
+                }
+
+                return (jsonElement == null) ? null : jsonElement.getAsString();
+            } catch (Exception e) {
+                // the field is not a primitive
+                return null;
+            }
+        }
+    }
+
+    // the rules, by priority
+    private final List<CompiledRule> mRules;
+
+    // the rules which are not indexed
+    private final BitSet mNotIndexedRules = new BitSet();
+
+    // the indexed rules positions, by indexed key
+    private final Map<String, List<Integer>> mIndexedRulesByKey = new HashMap<>();
+
+    // the rules which match a field value, by indexed key then by value
+    private final Map<String, Map<String, BitSet>> mMatchingRulesByKey = new HashMap<>();
+
+    /**
+     * Compile some rules.
+     *
+     * @param rules the rules, by priority
+     */
+    BingRulesPlan(List<BingRule> rules) {
+        List<CompiledRule> compiledRules = new ArrayList<>(rules.size());
+
+        for (BingRule rule : rules) {
+            CompiledCondition indexCondition = null;
+            List<CompiledCondition> conditions = new ArrayList<>();
+
+            // these rules are checked from their rule id
+            boolean isCheckedByRuleId = BingRule.RULE_ID_CONTAIN_USER_NAME.equals(rule.ruleId)
+                    || BingRule.RULE_ID_CONTAIN_DISPLAY_NAME.equals(rule.ruleId)
+                    || BingRule.RULE_ID_FALLBACK.equals(rule.ruleId);
+
+            if (!isCheckedByRuleId && (null != rule.conditions)) {
+                for (Condition condition : rule.conditions) {
+                    CompiledCondition compiledCondition = new CompiledCondition(condition);
+
+                    if ((null == indexCondition) && compiledCondition.isEventMatch() && INDEXED_KEYS.contains(compiledCondition.mKey)) {
+                        indexCondition = compiledCondition;
+                    } else {
+                        conditions.add(compiledCondition);
+                    }
+                }
+            }
+
+            int position = compiledRules.size();
+            compiledRules.add(new CompiledRule(rule, indexCondition, conditions));
+
+            if (null == indexCondition) {
+                mNotIndexedRules.set(position);
+            } else {
+                List<Integer> positions = mIndexedRulesByKey.get(indexCondition.mKey);
+
+                if (null == positions) {
+                    positions = new ArrayList<>();
+                    mIndexedRulesByKey.put(indexCondition.mKey, positions);
+                    mMatchingRulesByKey.put(indexCondition.mKey, new LinkedHashMap<String, BitSet>(16, 0.75f, true));
+                }
+
+                positions.add(position);
+            }
+        }
+
+        mRules = Collections.unmodifiableList(compiledRules);
+    }
+
+    /**
+     * @return the rules count
+     */
+    int size() {
+        return mRules.size();
+    }
+
+    /**
+     * @param position the rule position
+     * @return the rule at this position
+     */
+    CompiledRule get(int position) {
+        return mRules.get(position);
+    }
+
+    /**
+     * Provide the rules which can match an event: the rules which are not indexed
+     * and the indexed rules whose index condition is satisfied.
+     *
+     * @param fields the event fields
+     * @return the positions of the rules
+     */
+    BitSet getCandidateRules(EventFields fields) {
+        BitSet candidates = (BitSet) mNotIndexedRules.clone();
+
+        for (Map.Entry<String, List<Integer>> entry : mIndexedRulesByKey.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            String value = fields.get(mRules.get(positions.get(0)).mIndexCondition);
+
+            if (!TextUtils.isEmpty(value)) {
+                candidates.or(getMatchingRules(entry.getKey(), positions, value));
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Provide the indexed rules which match a field value.
+     *
+     * @param key       the indexed key
+     * @param positions the positions of the rules indexed by this key
+     * @param value     the field value
+     * @return the positions of the matching rules
+     */
+    private BitSet getMatchingRules(String key, List<Integer> positions, String value) {
+        Map<String, BitSet> matchingRulesByValue = mMatchingRulesByKey.get(key);
+
+        synchronized (matchingRulesByValue) {
+            BitSet matchingRules = matchingRulesByValue.get(value);
+
+            if (null != matchingRules) {
+                return matchingRules;
+            }
+        }
+
+        BitSet matchingRules = new BitSet();
+
+        for (int position : positions) {
+            if (mRules.get(position).mIndexCondition.matches(value)) {
+                matchingRules.set(position);
+            }
+        }
+
+        synchronized (matchingRulesByValue) {
+            matchingRulesByValue.put(value, matchingRules);
+
+            if (matchingRulesByValue.size() > MAX_INDEXED_VALUES_COUNT) {
+                // remove the least recently used value
+                matchingRulesByValue.remove(matchingRulesByValue.keySet().iterator().next());
+            }
+        }
+
+        return matchingRules;
+    }
+}
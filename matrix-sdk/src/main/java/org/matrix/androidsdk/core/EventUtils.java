@@ -24,8 +24,6 @@ import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.RoomDirectoryVisibility;
 import org.matrix.androidsdk.rest.model.bingrules.BingRule;
 
-import java.util.regex.Pattern;
-
 /**
  * Utility methods for events.
  */
@@ -116,8 +114,7 @@ public class EventUtils {
         boolean res = false;
 
         try {
-            Pattern pattern = Pattern.compile("(\\W|^)" + Pattern.quote(subString) + "(\\W|$)", Pattern.CASE_INSENSITIVE);
-            res = pattern.matcher(longString).find();
+            res = GlobMatcher.getWordMatcher(subString, false).matches(longString);
         } catch (Exception e) {
             Log.e(LOG_TAG, "## caseInsensitiveFind() : failed", e);
         }
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.core;
+
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import java.util.regex.Pattern;
+
+/**
+ * Match the push rules patterns, case insensitively.
+ * <p>
+ * The simple patterns (words, prefixes, suffixes, contained strings) are matched character by character,
+ * without allocation. The other patterns are matched with the regular expression they were previously
+ * converted to, which is also used when the checked value contains characters the simple matchers do not
+ * handle (line terminators, surrogates). Both ways give the same results.
+ * <p>
+ * The matchers are immutable and can be used from several threads.
+ */
+public abstract class GlobMatcher {
+    private static final String LOG_TAG = GlobMatcher.class.getSimpleName();
+
+    // the number of cached matchers
+    private static final int MAX_CACHED_MATCHERS_COUNT = 500;
+
+    private static final LruCache<String, GlobMatcher> sGlobMatchers = new LruCache<>(MAX_CACHED_MATCHERS_COUNT);
+    private static final LruCache<String, GlobMatcher> sWordMatchers = new LruCache<>(MAX_CACHED_MATCHERS_COUNT);
+    private static final LruCache<String, GlobMatcher> sWordPatternMatchers = new LruCache<>(MAX_CACHED_MATCHERS_COUNT);
+
+    /**
+     * Tell if a value matches.
+     *
+     * @param value the value
+     * @return true if it matches
+     */
+    public abstract boolean matches(String value);
+
+    /**
+     * Provide the cached matcher of an event match glob.
+     *
+     * @param glob the glob
+     * @return the matcher
+     * @see #compileGlob(String)
+     */
+    public static GlobMatcher getGlobMatcher(String glob) {
+        GlobMatcher matcher = sGlobMatchers.get(glob);
+
+        if (null == matcher) {
+            matcher = compileGlob(glob);
+            sGlobMatchers.put(glob, matcher);
+        }
+
+        return matcher;
+    }
+
+    /**
+     * Provide the cached matcher which finds a standalone word.
+     *
+     * @param word      the word
+     * @param isPattern true if the word is a regular expression, false if it is a literal string
+     * @return the matcher
+     * @see #compileWord(String, boolean)
+     */
+    public static GlobMatcher getWordMatcher(String word, boolean isPattern) {
+        LruCache<String, GlobMatcher> cache = isPattern ? sWordPatternMatchers : sWordMatchers;
+        GlobMatcher matcher = cache.get(word);
+
+        if (null == matcher) {
+            matcher = compileWord(word, isPattern);
+            cache.put(word, matcher);
+        }
+
+        return matcher;
+    }
+
+    /**
+     * Compile an event match glob.
+     * '*' matches any characters sequence and '?' any character. The whole value must match.
+     * A glob without '*' nor '?' matches the values which contain it as a standalone word.
+     *
+     * @param glob the glob
+     * @return the matcher
+     */
+    public static GlobMatcher compileGlob(String glob) {
+        String regex = glob.replace("*", ".*").replace("?", ".");
+
+        // If no special characters were found (detected here by no replacements having been made),
+        // add asterisks and boundaries to both sides
+        if (regex.equals(glob)) {
+            regex = "(^|.*\\W)" + regex + "($|\\W.*)";
+
+            Segment word = Segment.parse(glob, 0, glob.length(), true, false);
+
+            if (null != word) {
+                return new WordMatcher(word, true, regex);
+            }
+        } else {
+            GlobMatcher matcher = WildcardMatcher.parse(glob, regex);
+
+            if (null != matcher) {
+                return matcher;
+            }
+        }
+
+        return new RegexMatcher(regex, false);
+    }
+
+    /**
+     * Compile a matcher which finds a standalone word in the values.
+     *
+     * @param word      the word
+     * @param isPattern true if the word is a regular expression, false if it is a literal string
+     * @return the matcher
+     */
+    public static GlobMatcher compileWord(String word, boolean isPattern) {
+        String regex = "(\\W|^)" + (isPattern ? word : Pattern.quote(word)) + "(\\W|$)";
+
+        Segment segment = Segment.parse(word, 0, word.length(), isPattern, false);
+
+        if (null != segment) {
+            return new WordMatcher(segment, false, regex);
+        }
+
+        return new RegexMatcher(regex, true);
+    }
+
+    // ==============================================================================================================
+    // Characters
+    // ==============================================================================================================
+
+    /**
+     * @return true if the character is matched by the regular expression \w
+     */
+    private static boolean isWordChar(char c) {
+        return ((c >= 'a') && (c <= 'z'))
+                || ((c >= 'A') && (c <= 'Z'))
+                || ((c >= '0') && (c <= '9'))
+                || (c == '_');
+    }
+
+    /**
+     * @return true if the character is not matched by the regular expression '.'
+     */
+    private static boolean isLineTerminator(char c) {
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029');
+    }
+
+    /**
+     * @return true if the character has a special meaning in a regular expression
+     */
+    private static boolean isRegexMetaChar(char c) {
+        return "\\^$.|?*+()[]{}".indexOf(c) >= 0;
+    }
+
+    /**
+     * Compare two characters like a case insensitive regular expression (only the US-ASCII characters are folded).
+     */
+    private static boolean equalsIgnoreCase(char patternChar, char c) {
+        if (patternChar == c) {
+            return true;
+        }
+
+        if ((patternChar < 128) && (c < 128)) {
+            return ((patternChar | 0x20) == (c | 0x20)) && ((c | 0x20) >= 'a') && ((c | 0x20) <= 'z');
+        }
+
+        return false;
+    }
+
+    // ==============================================================================================================
+    // Matchers
+    // ==============================================================================================================
+
+    /**
+     * A sequence of characters, where some characters may be any character.
+     */
+    private static class Segment {
+        private final char[] mChars;
+
+        // true at the positions which match any character
+        private final boolean[] mIsAnyChar;
+        private final boolean mHasAnyChar;
+
+        private Segment(char[] chars, boolean[] isAnyChar, boolean hasAnyChar) {
+            mChars = chars;
+            mIsAnyChar = isAnyChar;
+            mHasAnyChar = hasAnyChar;
+        }
+
+        /**
+         * Parse a part of a pattern.
+         *
+         * @param pattern   the pattern
+         * @param start     the start of the part
+         * @param end       the end of the part
+         * @param isPattern true if the pattern is a regular expression, false if it is a literal string
+         * @param isGlob    true if '?' matches any character in the pattern
+         * @return the segment, null if it cannot be matched without a regular expression
+         */
+        @Nullable
+        static Segment parse(String pattern, int start, int end, boolean isPattern, boolean isGlob) {
+            char[] chars = new char[end - start];
+            boolean[] isAnyChar = new boolean[end - start];
+            boolean hasAnyChar = false;
+
+            for (int i = start; i < end; i++) {
+                char c = pattern.charAt(i);
+
+                if (isLineTerminator(c) || Character.isSurrogate(c)) {
+                    return null;
+                }
+
+                if ((isPattern && (c == '.')) || (isGlob && (c == '?'))) {
+                    isAnyChar[i - start] = true;
+                    hasAnyChar = true;
+                } else if (isPattern && isRegexMetaChar(c)) {
+                    return null;
+                } else {
+                    chars[i - start] = c;
+                }
+            }
+
+            return new Segment(chars, isAnyChar, hasAnyChar);
+        }
+
+        int length() {
+            return mChars.length;
+        }
+
+        /**
+         * Tell if the segment matches a value at an offset.
+         */
+        boolean matchesAt(String value, int offset) {
+            for (int i = 0; i < mChars.length; i++) {
+                char c = value.charAt(offset + i);
+
+                if (mIsAnyChar[i] ? isLineTerminator(c) : !equalsIgnoreCase(mChars[i], c)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Find the first position where the segment matches a value.
+         *
+         * @return the position, -1 if it is not found
+         */
+        int indexIn(String value, int from, int to) {
+            for (int i = from; i + mChars.length <= to; i++) {
+                if (matchesAt(value, i)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * Match with a regular expression.
+     */
+    private static class RegexMatcher extends GlobMatcher {
+        private final String mRegex;
+        private final boolean mFind;
+
+        private volatile Pattern mPattern;
+        private volatile boolean mIsInvalid;
+
+        RegexMatcher(String regex, boolean find) {
+            mRegex = regex;
+            mFind = find;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (mIsInvalid || (null == value)) {
+                return false;
+            }
+
+            Pattern pattern = mPattern;
+
+            if (null == pattern) {
+                try {
+                    pattern = Pattern.compile(mRegex, Pattern.CASE_INSENSITIVE);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## matches() : invalid pattern " + mRegex + " " + e.getMessage(), e);
+                    mIsInvalid = true;
+                    return false;
+                }
+
+                mPattern = pattern;
+            }
+
+            return mFind ? pattern.matcher(value).find() : pattern.matcher(value).matches();
+        }
+    }
+
+    /**
+     * Match a standalone word.
+     */
+    private static class WordMatcher extends RegexMatcher {
+        private final Segment mWord;
+
+        // true to match "(^|.*\W)word($|\W.*)", false to find "(\W|^)word(\W|$)"
+        private final boolean mWholeValue;
+
+        WordMatcher(Segment word, boolean wholeValue, String regex) {
+            super(regex, !wholeValue);
+            mWord = word;
+            mWholeValue = wholeValue;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (null == value) {
+                return false;
+            }
+
+            int length = value.length();
+            int firstLineTerminator = length;
+            int lastLineTerminator = -1;
+
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+
+                if (mWord.mHasAnyChar && Character.isSurrogate(c)) {
+                    // '.' matches a code point
+                    return super.matches(value);
+                }
+
+                if (isLineTerminator(c)) {
+                    firstLineTerminator = Math.min(firstLineTerminator, i);
+                    lastLineTerminator = i;
+                }
+            }
+
+            int wordLength = mWord.length();
+
+            for (int i = 0; i + wordLength <= length; i++) {
+                // the matches cannot start inside a surrogate pair
+                if (((i > 0) && (i < length) && Character.isSurrogatePair(value.charAt(i - 1), value.charAt(i)))
+                        || !mWord.matchesAt(value, i)) {
+                    continue;
+                }
+
+                int end = i + wordLength;
+
+                boolean isStartBoundary = (i == 0) || !isWordChar(value.charAt(i - 1));
+                boolean isEndBoundary = (end == length) || !isWordChar(value.charAt(end));
+
+                if (isStartBoundary && isEndBoundary) {
+                    // '.*' does not match the line terminators
+                    if (!mWholeValue || (((i == 0) || (firstLineTerminator >= i - 1))
+                            && ((end == length) || (lastLineTerminator <= end)))) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Match a glob with '*': the segments must be found in order, the first one at the start of the value
+     * and the last one at its end.
+     */
+    private static class WildcardMatcher extends RegexMatcher {
+        private final Segment[] mSegments;
+        private final boolean mHasAnyChar;
+
+        private WildcardMatcher(Segment[] segments, String regex) {
+            super(regex, false);
+            mSegments = segments;
+
+            boolean hasAnyChar = false;
+
+            for (Segment segment : segments) {
+                hasAnyChar |= segment.mHasAnyChar;
+            }
+
+            mHasAnyChar = hasAnyChar;
+        }
+
+        @Nullable
+        static WildcardMatcher parse(String glob, String regex) {
+            int starsCount = 0;
+
+            for (int i = 0; i < glob.length(); i++) {
+                if (glob.charAt(i) == '*') {
+                    starsCount++;
+                }
+            }
+
+            Segment[] segments = new Segment[starsCount + 1];
+            int start = 0;
+
+            for (int i = 0; i < segments.length; i++) {
+                int end = glob.indexOf('*', start);
+
+                if (end < 0) {
+                    end = glob.length();
+                }
+
+                segments[i] = Segment.parse(glob, start, end, true, true);
+
+                if (null == segments[i]) {
+                    return null;
+                }
+
+                start = end + 1;
+            }
+
+            return new WildcardMatcher(segments, regex);
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (null == value) {
+                return false;
+            }
+
+            int length = value.length();
+
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+
+                // '.*' does not match the line terminators, and '.' matches a code point
+                if (isLineTerminator(c) || (mHasAnyChar && Character.isSurrogate(c))) {
+                    return super.matches(value);
+                }
+            }
+
+            Segment first = mSegments[0];
+
+            if (mSegments.length == 1) {
+                return (first.length() == length) && first.matchesAt(value, 0);
+            }
+
+            Segment last = mSegments[mSegments.length - 1];
+
+            if ((first.length() + last.length() > length)
+                    || !first.matchesAt(value, 0)
+                    || !last.matchesAt(value, length - last.length())) {
+                return false;
+            }
+
+            // the leftmost positions leave the most room to the next segments
+            int position = first.length();
+            int end = length - last.length();
+
+            for (int i = 1; i < mSegments.length - 1; i++) {
+                int index = mSegments[i].indexIn(value, position, end);
+
+                if (index < 0) {
+                    return false;
+                }
+
+                position = index + mSegments[i].length();
+            }
+
+            return true;
+        }
+    }
+}
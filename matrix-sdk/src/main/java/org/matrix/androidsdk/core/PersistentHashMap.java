@@ -0,0 +1,445 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.core;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable hash map, implemented as a hash array mapped trie.
+ * <p>
+ * {@link #plus(Object, Object)} and {@link #minus(Object)} return a new map which shares all the nodes
+ * which have not changed with the previous one, so an update costs O(log n) instead of a full copy.
+ * <p>
+ * The keys cannot be null. The maps are immutable and can be used from several threads.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class PersistentHashMap<K, V> {
+
+    // the number of hash bits used by each level of the trie
+    private static final int BITS_PER_LEVEL = 5;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    // marker of a missing key, as the values can be null
+    private static final Object NOT_FOUND = new Object();
+
+    @Nullable
+    private final Node mRoot;
+
+    private final int mSize;
+
+    private PersistentHashMap(@Nullable Node root, int size) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    /**
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the map has no entry
+     */
+    public boolean isEmpty() {
+        return 0 == mSize;
+    }
+
+    /**
+     * Provide the value of a key.
+     *
+     * @param key the key
+     * @return the value, null if the key is unknown
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(@NonNull Object key) {
+        Object value = find(key);
+
+        return (NOT_FOUND == value) ? null : (V) value;
+    }
+
+    /**
+     * @param key the key
+     * @return true if the map contains the key
+     */
+    public boolean containsKey(@NonNull Object key) {
+        return NOT_FOUND != find(key);
+    }
+
+    /**
+     * Provide a map with an added or replaced entry.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the updated map, this one if the key already has this value
+     */
+    public PersistentHashMap<K, V> plus(@NonNull K key, V value) {
+        boolean[] addedLeaf = new boolean[1];
+        Node root = ((null == mRoot) ? BitmapNode.EMPTY : mRoot).assoc(0, hash(key), key, value, addedLeaf);
+
+        if (root == mRoot) {
+            return this;
+        }
+
+        return new PersistentHashMap<>(root, addedLeaf[0] ? mSize + 1 : mSize);
+    }
+
+    /**
+     * Provide a map without an entry.
+     *
+     * @param key the key
+     * @return the updated map, this one if the key is unknown
+     */
+    public PersistentHashMap<K, V> minus(@NonNull Object key) {
+        if (null == mRoot) {
+            return this;
+        }
+
+        Node root = mRoot.without(0, hash(key), key);
+
+        if (root == mRoot) {
+            return this;
+        }
+
+        return (null == root) ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(root, mSize - 1);
+    }
+
+    /**
+     * @return a new list of the keys
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> keys() {
+        List<Object> keys = new ArrayList<>(mSize);
+
+        if (null != mRoot) {
+            mRoot.collect(keys, null);
+        }
+
+        return (List<K>) keys;
+    }
+
+    /**
+     * @return a new list of the values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<Object> values = new ArrayList<>(mSize);
+
+        if (null != mRoot) {
+            mRoot.collect(null, values);
+        }
+
+        return (List<V>) values;
+    }
+
+    private Object find(Object key) {
+        return (null == mRoot) ? NOT_FOUND : mRoot.find(0, hash(key), key);
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+
+        // spread the high bits, which are only used by the deepest levels
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bitPosition(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 0x1f);
+    }
+
+    private static Object[] cloneAndSet(Object[] array, int index, Object value) {
+        Object[] clone = array.clone();
+        clone[index] = value;
+        return clone;
+    }
+
+    private static Object[] removePair(Object[] array, int pairIndex) {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, 2 * pairIndex);
+        System.arraycopy(array, 2 * (pairIndex + 1), newArray, 2 * pairIndex, newArray.length - 2 * pairIndex);
+        return newArray;
+    }
+
+    /**
+     * A node of the trie. The nodes are never modified once built.
+     */
+    private interface Node {
+        /**
+         * @return the value of the key, NOT_FOUND if it is unknown
+         */
+        Object find(int shift, int hash, Object key);
+
+        /**
+         * @return the node with the entry, this one if it does not change
+         */
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+        /**
+         * @return the node without the entry, this one if it does not change, null if the node becomes empty
+         */
+        @Nullable
+        Node without(int shift, int hash, Object key);
+
+        /**
+         * Add the keys and the values of the node to the lists which are not null.
+         */
+        void collect(@Nullable List<Object> keys, @Nullable List<Object> values);
+    }
+
+    /**
+     * A node with up to 32 entries, by 5 bits of the hash.
+     * The array contains a pair for each bit of the bitmap: the key and the value of an entry,
+     * or null and the node of the entries which share these bits.
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int mBitmap;
+        final Object[] mArray;
+
+        BitmapNode(int bitmap, Object[] array) {
+            mBitmap = bitmap;
+            mArray = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(mBitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = bitPosition(hash, shift);
+
+            if (0 == (mBitmap & bit)) {
+                return NOT_FOUND;
+            }
+
+            int index = index(bit);
+            Object keyOrNull = mArray[2 * index];
+            Object valueOrNode = mArray[2 * index + 1];
+
+            if (null == keyOrNull) {
+                return ((Node) valueOrNode).find(shift + BITS_PER_LEVEL, hash, key);
+            }
+
+            return key.equals(keyOrNull) ? valueOrNode : NOT_FOUND;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+            int bit = bitPosition(hash, shift);
+            int index = index(bit);
+
+            if (0 == (mBitmap & bit)) {
+                int count = Integer.bitCount(mBitmap);
+                Object[] newArray = new Object[2 * (count + 1)];
+
+                System.arraycopy(mArray, 0, newArray, 0, 2 * index);
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy(mArray, 2 * index, newArray, 2 * (index + 1), 2 * (count - index));
+
+                addedLeaf[0] = true;
+                return new BitmapNode(mBitmap | bit, newArray);
+            }
+
+            Object keyOrNull = mArray[2 * index];
+            Object valueOrNode = mArray[2 * index + 1];
+
+            if (null == keyOrNull) {
+                Node node = ((Node) valueOrNode).assoc(shift + BITS_PER_LEVEL, hash, key, value, addedLeaf);
+
+                return (node == valueOrNode) ? this : new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, node));
+            }
+
+            if (key.equals(keyOrNull)) {
+                return (value == valueOrNode) ? this : new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, value));
+            }
+
+            // both entries are moved to a sub node
+            addedLeaf[0] = true;
+
+            Object[] newArray = cloneAndSet(mArray, 2 * index, null);
+            newArray[2 * index + 1] = createNode(shift + BITS_PER_LEVEL, keyOrNull, valueOrNode, hash, key, value);
+
+            return new BitmapNode(mBitmap, newArray);
+        }
+
+        @Nullable
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int bit = bitPosition(hash, shift);
+
+            if (0 == (mBitmap & bit)) {
+                return this;
+            }
+
+            int index = index(bit);
+            Object keyOrNull = mArray[2 * index];
+            Object valueOrNode = mArray[2 * index + 1];
+
+            if (null == keyOrNull) {
+                Node node = ((Node) valueOrNode).without(shift + BITS_PER_LEVEL, hash, key);
+
+                if (node == valueOrNode) {
+                    return this;
+                }
+
+                if (null != node) {
+                    return new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, node));
+                }
+            } else if (!key.equals(keyOrNull)) {
+                return this;
+            }
+
+            if (mBitmap == bit) {
+                return null;
+            }
+
+            return new BitmapNode(mBitmap ^ bit, removePair(mArray, index));
+        }
+
+        @Override
+        public void collect(@Nullable List<Object> keys, @Nullable List<Object> values) {
+            for (int i = 0; i < mArray.length; i += 2) {
+                if (null == mArray[i]) {
+                    ((Node) mArray[i + 1]).collect(keys, values);
+                } else {
+                    if (null != keys) {
+                        keys.add(mArray[i]);
+                    }
+
+                    if (null != values) {
+                        values.add(mArray[i + 1]);
+                    }
+                }
+            }
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = hash(key1);
+
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+
+            boolean[] addedLeaf = new boolean[1];
+
+            return EMPTY.assoc(shift, hash1, key1, value1, addedLeaf)
+                    .assoc(shift, hash2, key2, value2, addedLeaf);
+        }
+    }
+
+    /**
+     * A node of the entries whose keys have the same hash.
+     */
+    private static final class CollisionNode implements Node {
+        final int mHash;
+        final Object[] mArray;
+
+        CollisionNode(int hash, Object[] array) {
+            mHash = hash;
+            mArray = array;
+        }
+
+        private int keyIndex(Object key) {
+            for (int i = 0; i < mArray.length; i += 2) {
+                if (key.equals(mArray[i])) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int index = (hash == mHash) ? keyIndex(key) : -1;
+
+            return (index < 0) ? NOT_FOUND : mArray[index + 1];
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+            if (hash != mHash) {
+                // nest this node in a bitmap node
+                return new BitmapNode(bitPosition(mHash, shift), new Object[]{null, this})
+                        .assoc(shift, hash, key, value, addedLeaf);
+            }
+
+            int index = keyIndex(key);
+
+            if (index >= 0) {
+                return (value == mArray[index + 1]) ? this : new CollisionNode(mHash, cloneAndSet(mArray, index + 1, value));
+            }
+
+            Object[] newArray = new Object[mArray.length + 2];
+            System.arraycopy(mArray, 0, newArray, 0, mArray.length);
+            newArray[mArray.length] = key;
+            newArray[mArray.length + 1] = value;
+
+            addedLeaf[0] = true;
+            return new CollisionNode(mHash, newArray);
+        }
+
+        @Nullable
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int index = (hash == mHash) ? keyIndex(key) : -1;
+
+            if (index < 0) {
+                return this;
+            }
+
+            if (2 == mArray.length) {
+                return null;
+            }
+
+            return new CollisionNode(mHash, removePair(mArray, index / 2));
+        }
+
+        @Override
+        public void collect(@Nullable List<Object> keys, @Nullable List<Object> values) {
+            for (int i = 0; i < mArray.length; i += 2) {
+                if (null != keys) {
+                    keys.add(mArray[i]);
+                }
+
+                if (null != values) {
+                    values.add(mArray[i + 1]);
+                }
+            }
+        }
+    }
+}
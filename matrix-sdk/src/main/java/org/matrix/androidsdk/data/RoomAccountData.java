@@ -20,8 +20,13 @@ package org.matrix.androidsdk.data;
 
 import androidx.annotation.Nullable;
 
+import org.matrix.androidsdk.data.store.MXFileStoreCodec;
 import org.matrix.androidsdk.rest.model.Event;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,4 +85,46 @@ public class RoomAccountData implements java.io.Serializable {
             return null;
         }
     }
+
+    /**
+     * Write the room account data with the {@link MXFileStoreCodec} binary format.
+     *
+     * @param output the output
+     * @throws IOException if it cannot be written
+     */
+    public void writeBinary(DataOutput output) throws IOException {
+        if (null == tags) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(tags.size());
+
+            for (Map.Entry<String, RoomTag> entry : tags.entrySet()) {
+                MXFileStoreCodec.writeString(output, entry.getKey());
+                MXFileStoreCodec.writeString(output, entry.getValue().mName);
+                MXFileStoreCodec.writeDouble(output, entry.getValue().mOrder);
+            }
+        }
+    }
+
+    /**
+     * Read a room account data written with {@link #writeBinary(DataOutput)}.
+     *
+     * @param input   the input
+     * @param version the codec version
+     * @throws IOException if it cannot be read
+     */
+    public void readBinary(DataInput input, int version) throws IOException {
+        int count = input.readInt();
+
+        if (count < 0) {
+            tags = null;
+        } else {
+            tags = new HashMap<>(count);
+
+            for (int i = 0; i < count; i++) {
+                String key = MXFileStoreCodec.readString(input);
+                tags.put(key, new RoomTag(MXFileStoreCodec.readString(input), MXFileStoreCodec.readDouble(input)));
+            }
+        }
+    }
 }
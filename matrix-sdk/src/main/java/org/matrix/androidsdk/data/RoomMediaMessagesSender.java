@@ -822,15 +822,29 @@ class RoomMediaMessagesSender {
                 try {
                     stream = new FileInputStream(new File(uri.getPath()));
                     if (mRoom.isEncrypted() && mDataHandler.isCryptoEnabled() && (null != stream)) {
-                        encryptionResult = MXEncryptedAttachments.encryptAttachment(stream, mimeType);
-                        stream.close();
+                        MXEncryptedAttachments.EncryptionResult result = MXEncryptedAttachments.encryptAttachmentStream(stream, mimeType);
+                        String encryptedUrl = null;
 
-                        if (null != encryptionResult) {
+                        if (null != result) {
+                            // the media is encrypted by chunks while it is saved, and its stream is closed
+                            encryptedUrl = mediaCache.saveMedia(result.mEncryptedStream, null, fMimeType);
+                        } else {
+                            stream.close();
+                        }
+
+                        // the hash is only set when the whole media has been encrypted
+                        if ((null != encryptedUrl) && (null != result.mEncryptedFileInfo.hashes)) {
+                            encryptionResult = result;
                             mimeType = "application/octet-stream";
-                            encryptedUri = Uri.parse(mediaCache.saveMedia(encryptionResult.mEncryptedStream, null, fMimeType));
+                            encryptedUri = Uri.parse(encryptedUrl);
                             File file = new File(encryptedUri.getPath());
                             stream = new FileInputStream(file);
                         } else {
+                            if (null != encryptedUrl) {
+                                // remove the partially encrypted media
+                                new File(Uri.parse(encryptedUrl).getPath()).delete();
+                            }
+
                             skip();
 
                             mUiHandler.post(new Runnable() {
@@ -30,6 +30,7 @@ import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.call.MXCallsManager;
 import org.matrix.androidsdk.core.JsonUtils;
 import org.matrix.androidsdk.core.Log;
+import org.matrix.androidsdk.core.PersistentHashMap;
 import org.matrix.androidsdk.core.callback.ApiCallback;
 import org.matrix.androidsdk.core.callback.SimpleApiCallback;
 import org.matrix.androidsdk.core.model.MatrixError;
@@ -53,13 +54,16 @@ import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * The state of a room.
+ * <p>
+ * The members and the third party invites are stored in persistent maps, and the room members, the contents
+ * and the state events lists are never modified once they are in a room state: they are replaced.
+ * So the copies made by {@link #deepCopy()} share them, and a copy costs the same whatever the room size.
  */
 public class RoomState implements Externalizable, CryptoRoomState {
     private static final String LOG_TAG = RoomState.class.getSimpleName();
@@ -167,7 +171,10 @@ public class RoomState implements Externalizable, CryptoRoomState {
     private String token;
 
     // the room members. May be a partial list if all members are not loaded yet, due to lazy loading
-    private final Map<String, RoomMember> mMembers = new HashMap<>();
+    private PersistentHashMap<String, RoomMember> mMembers = PersistentHashMap.empty();
+
+    // the user ids of the members, by display name, to disambiguate the members who have the same display name
+    private PersistentHashMap<String, PersistentHashMap<String, String>> mUserIdsByDisplayName = PersistentHashMap.empty();
 
     // true if all members are loaded
     private boolean mAllMembersAreLoaded;
@@ -175,13 +182,13 @@ public class RoomState implements Externalizable, CryptoRoomState {
     private final List<ApiCallback<List<RoomMember>>> mGetAllMembersCallbacks = new ArrayList<>();
 
     // the third party invite members
-    private final Map<String, RoomThirdPartyInvite> mThirdPartyInvites = new HashMap<>();
+    private PersistentHashMap<String, RoomThirdPartyInvite> mThirdPartyInvites = PersistentHashMap.empty();
 
     /**
      * Cache for memberWithThirdPartyInviteToken.
      * The key is the 3pid invite token.
      */
-    private final Map<String, RoomMember> mMembersWithThirdPartyInviteTokenCache = new HashMap<>();
+    private PersistentHashMap<String, RoomMember> mMembersWithThirdPartyInviteTokenCache = PersistentHashMap.empty();
 
     /**
      * Tell if the roomstate if a live one.
@@ -257,7 +264,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
 
         synchronized (this) {
             // make a copy to avoid concurrency modifications
-            res = new ArrayList<>(mMembers.values());
+            res = mMembers.values();
         }
 
         return res;
@@ -281,7 +288,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
 
             synchronized (this) {
                 // make a copy to avoid concurrency modifications
-                res = new ArrayList<>(mMembers.values());
+                res = mMembers.values();
             }
 
             callback.onSuccess(res);
@@ -319,7 +326,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
                         synchronized (mGetAllMembersCallbacks) {
                             for (ApiCallback<List<RoomMember>> apiCallback : mGetAllMembersCallbacks) {
                                 // make a copy to avoid concurrency modifications
-                                res = new ArrayList<>(mMembers.values());
+                                res = getLoadedMembers();
 
                                 apiCallback.onSuccess(res);
                             }
@@ -530,21 +537,25 @@ public class RoomState implements Externalizable, CryptoRoomState {
 
     /**
      * Update the room member from its user id.
+     * The member must not be modified once it has been set, as it is shared with the copies of this state.
      *
      * @param userId the user id.
      * @param member the new member value.
      */
     @VisibleForTesting
     public void setMember(String userId, RoomMember member) {
+        if (null == userId) {
+            Log.e(LOG_TAG, "## setMember() : null user id in " + roomId);
+            return;
+        }
+
         // Populate a basic user object if there is none
         if (member.getUserId() == null) {
             member.setUserId(userId);
         }
         synchronized (this) {
-            if (null != mMemberDisplayNameByUserId) {
-                mMemberDisplayNameByUserId.remove(userId);
-            }
-            mMembers.put(userId, member);
+            updateMembersIndex(userId, mMembers.get(userId), member);
+            mMembers = mMembers.plus(userId, member);
         }
     }
 
@@ -561,7 +572,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
         RoomMember member;
 
         synchronized (this) {
-            member = mMembers.get(userId);
+            member = (null == userId) ? null : mMembers.get(userId);
         }
 
         if (member == null) {
@@ -604,9 +615,70 @@ public class RoomState implements Externalizable, CryptoRoomState {
      */
     public void removeMember(String userId) {
         synchronized (this) {
-            mMembers.remove(userId);
-            // remove the cached display name
-            if (null != mMemberDisplayNameByUserId) {
+            if (null != userId) {
+                updateMembersIndex(userId, mMembers.get(userId), null);
+                mMembers = mMembers.minus(userId);
+            }
+        }
+    }
+
+    /**
+     * Update the user ids by display name index when a member is updated, and remove the cached member names
+     * which are not valid anymore: the member one, and the one of the namesake who is not anymore or who is now
+     * disambiguated. The lock must be held.
+     *
+     * @param userId         the user id
+     * @param previousMember the previous member, null if it is added
+     * @param member         the new member, null if it is removed
+     */
+    private void updateMembersIndex(String userId, @Nullable RoomMember previousMember, @Nullable RoomMember member) {
+        String previousDisplayName = (null == previousMember) ? null : previousMember.displayname;
+        String displayName = (null == member) ? null : member.displayname;
+
+        if (null != mMemberDisplayNameByUserId) {
+            mMemberDisplayNameByUserId.remove(userId);
+        }
+
+        if (TextUtils.equals(previousDisplayName, displayName)) {
+            return;
+        }
+
+        if (!TextUtils.isEmpty(previousDisplayName)) {
+            PersistentHashMap<String, String> userIds = mUserIdsByDisplayName.get(previousDisplayName);
+
+            if (null != userIds) {
+                userIds = userIds.minus(userId);
+                mUserIdsByDisplayName = userIds.isEmpty()
+                        ? mUserIdsByDisplayName.minus(previousDisplayName) : mUserIdsByDisplayName.plus(previousDisplayName, userIds);
+
+                // the last namesake is not disambiguated anymore
+                if (1 == userIds.size()) {
+                    removeCachedMemberNames(userIds);
+                }
+            }
+        }
+
+        if (!TextUtils.isEmpty(displayName)) {
+            PersistentHashMap<String, String> userIds = mUserIdsByDisplayName.get(displayName);
+
+            userIds = ((null == userIds) ? PersistentHashMap.<String, String>empty() : userIds).plus(userId, userId);
+            mUserIdsByDisplayName = mUserIdsByDisplayName.plus(displayName, userIds);
+
+            // the first namesake is now disambiguated
+            if (2 == userIds.size()) {
+                removeCachedMemberNames(userIds);
+            }
+        }
+    }
+
+    /**
+     * Remove the cached names of some members. The lock must be held.
+     *
+     * @param userIds the user ids of the members
+     */
+    private void removeCachedMemberNames(PersistentHashMap<String, String> userIds) {
+        if (null != mMemberDisplayNameByUserId) {
+            for (String userId : userIds.keys()) {
                 mMemberDisplayNameByUserId.remove(userId);
             }
         }
@@ -619,7 +691,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
      * @return the member it exists.
      */
     public RoomMember memberWithThirdPartyInviteToken(String thirdPartyInviteToken) {
-        return mMembersWithThirdPartyInviteTokenCache.get(thirdPartyInviteToken);
+        return (null == thirdPartyInviteToken) ? null : mMembersWithThirdPartyInviteTokenCache.get(thirdPartyInviteToken);
     }
 
     /**
@@ -629,7 +701,7 @@ public class RoomState implements Externalizable, CryptoRoomState {
      * @return the linked RoomThirdPartyInvite if it exists
      */
     public RoomThirdPartyInvite thirdPartyInviteWithToken(String thirdPartyInviteToken) {
-        return mThirdPartyInvites.get(thirdPartyInviteToken);
+        return (null == thirdPartyInviteToken) ? null : mThirdPartyInvites.get(thirdPartyInviteToken);
     }
 
     /**
@@ -726,7 +798,9 @@ public class RoomState implements Externalizable, CryptoRoomState {
     }
 
     /**
-     * Make a deep copy of this room state object.
+     * Make a copy of this room state object.
+     * The copy shares the members, the third party invites and the state events lists with this state,
+     * as they are replaced instead of being modified, so its cost does not depend on the number of members.
      *
      * @return the copy
      */
@@ -756,21 +830,10 @@ public class RoomState implements Externalizable, CryptoRoomState {
         copy.mStateEvents = new HashMap<>(mStateEvents);
         copy.mRoomTombstoneContent = mRoomTombstoneContent != null ? mRoomTombstoneContent.deepCopy() : null;
         synchronized (this) {
-            Iterator it = mMembers.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
-                copy.setMember(pair.getKey(), pair.getValue().deepCopy());
-            }
-
-            Collection<String> keys = mThirdPartyInvites.keySet();
-            for (String key : keys) {
-                copy.mThirdPartyInvites.put(key, mThirdPartyInvites.get(key).deepCopy());
-            }
-
-            keys = mMembersWithThirdPartyInviteTokenCache.keySet();
-            for (String key : keys) {
-                copy.mMembersWithThirdPartyInviteTokenCache.put(key, mMembersWithThirdPartyInviteTokenCache.get(key).deepCopy());
-            }
+            copy.mMembers = mMembers;
+            copy.mUserIdsByDisplayName = mUserIdsByDisplayName;
+            copy.mThirdPartyInvites = mThirdPartyInvites;
+            copy.mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache;
         }
 
         return copy;
@@ -839,8 +902,13 @@ public class RoomState implements Externalizable, CryptoRoomState {
                 aliases.remove(alias);
             }
 
-            for (String host : mAliasesByDomain.keySet()) {
-                mAliasesByDomain.get(host).remove(alias);
+            // the lists are shared with the copies of this state
+            for (Map.Entry<String, List<String>> entry : mAliasesByDomain.entrySet()) {
+                if (entry.getValue().contains(alias)) {
+                    List<String> domainAliases = new ArrayList<>(entry.getValue());
+                    domainAliases.remove(alias);
+                    entry.setValue(domainAliases);
+                }
             }
 
             mMergedAliasesList = null;
@@ -1024,11 +1092,6 @@ public class RoomState implements Externalizable, CryptoRoomState {
                                     member.displayname = currentMember.displayname;
                                 }
 
-                                // remove the cached display name
-                                if (null != mMemberDisplayNameByUserId) {
-                                    mMemberDisplayNameByUserId.remove(userId);
-                                }
-
                                 // test if the user has been kicked
                                 if (!TextUtils.equals(event.getSender(), event.stateKey)
                                         && TextUtils.equals(currentMember.membership, RoomMember.MEMBERSHIP_JOIN)
@@ -1044,7 +1107,10 @@ public class RoomState implements Externalizable, CryptoRoomState {
 
                         // Cache room member event that is successor of a third party invite event
                         if (!TextUtils.isEmpty(member.getThirdPartyInviteToken())) {
-                            mMembersWithThirdPartyInviteTokenCache.put(member.getThirdPartyInviteToken(), member);
+                            synchronized (this) {
+                                mMembersWithThirdPartyInviteTokenCache =
+                                        mMembersWithThirdPartyInviteTokenCache.plus(member.getThirdPartyInviteToken(), member);
+                            }
                         }
                     } catch (Exception e) {
                         Log.e(LOG_TAG, "## applyState() - EVENT_TYPE_STATE_ROOM_MEMBER failed " + e.getMessage(), e);
@@ -1065,7 +1131,9 @@ public class RoomState implements Externalizable, CryptoRoomState {
                     }
 
                     if (!TextUtils.isEmpty(thirdPartyInvite.token)) {
-                        mThirdPartyInvites.put(thirdPartyInvite.token, thirdPartyInvite);
+                        synchronized (this) {
+                            mThirdPartyInvites = mThirdPartyInvites.plus(thirdPartyInvite.token, thirdPartyInvite);
+                        }
                     }
                 }
             } else if (Event.EVENT_TYPE_STATE_ROOM_TOMBSTONE.equals(eventType)) {
@@ -1077,14 +1145,12 @@ public class RoomState implements Externalizable, CryptoRoomState {
             // excepts the membership ones
             // they are saved elsewhere
             if (!TextUtils.isEmpty(eventType) && !Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(eventType)) {
-                List<Event> eventsList = mStateEvents.get(eventType);
-
-                if (null == eventsList) {
-                    eventsList = new ArrayList<>();
-                    mStateEvents.put(eventType, eventsList);
-                }
+                // the lists are shared with the copies of this state
+                List<Event> previousEventsList = mStateEvents.get(eventType);
+                List<Event> eventsList = (null == previousEventsList) ? new ArrayList<Event>() : new ArrayList<>(previousEventsList);
 
                 eventsList.add(event);
+                mStateEvents.put(eventType, eventsList);
             }
 
         } catch (Exception e) {
@@ -1134,18 +1200,12 @@ public class RoomState implements Externalizable, CryptoRoomState {
             displayName = member.displayname;
 
             synchronized (this) {
-                List<String> matrixIds = new ArrayList<>();
-
                 // Disambiguate users who have the same display name in the room
-                for (RoomMember aMember : mMembers.values()) {
-                    if (displayName.equals(aMember.displayname)) {
-                        matrixIds.add(aMember.getUserId());
-                    }
-                }
+                PersistentHashMap<String, String> matrixIds = mUserIdsByDisplayName.get(displayName);
 
                 // if several users have the same display name
                 // index it i.e bob (<Matrix id>)
-                if (matrixIds.size() > 1) {
+                if ((null != matrixIds) && (matrixIds.size() > 1)) {
                     displayName += " (" + userId + ")";
                 }
             }
@@ -1162,7 +1222,12 @@ public class RoomState implements Externalizable, CryptoRoomState {
             displayName = userId;
         }
 
-        mMemberDisplayNameByUserId.put(userId, displayName);
+        synchronized (this) {
+            // the member may have been updated in the meantime
+            if (member == mMembers.get(userId)) {
+                mMemberDisplayNameByUserId.put(userId, displayName);
+            }
+        }
 
         return displayName;
     }
@@ -1254,17 +1319,20 @@ public class RoomState implements Externalizable, CryptoRoomState {
 
         List<RoomMember> members = (List<RoomMember>) input.readObject();
         for (RoomMember r : members) {
-            mMembers.put(r.getUserId(), r);
+            if (null != r.getUserId()) {
+                updateMembersIndex(r.getUserId(), null, r);
+                mMembers = mMembers.plus(r.getUserId(), r);
+            }
         }
 
         List<RoomThirdPartyInvite> invites = (List<RoomThirdPartyInvite>) input.readObject();
         for (RoomThirdPartyInvite i : invites) {
-            mThirdPartyInvites.put(i.token, i);
+            mThirdPartyInvites = mThirdPartyInvites.plus(i.token, i);
         }
 
         List<RoomMember> inviteTokens = (List<RoomMember>) input.readObject();
         for (RoomMember r : inviteTokens) {
-            mMembersWithThirdPartyInviteTokenCache.put(r.getThirdPartyInviteToken(), r);
+            mMembersWithThirdPartyInviteTokenCache = mMembersWithThirdPartyInviteTokenCache.plus(r.getThirdPartyInviteToken(), r);
         }
 
         mIsLive = input.readBoolean();
@@ -1376,9 +1444,9 @@ public class RoomState implements Externalizable, CryptoRoomState {
             output.writeUTF(token);
         }
 
-        output.writeObject(new ArrayList<>(mMembers.values()));
-        output.writeObject(new ArrayList<>(mThirdPartyInvites.values()));
-        output.writeObject(new ArrayList<>(mMembersWithThirdPartyInviteTokenCache.values()));
+        output.writeObject(mMembers.values());
+        output.writeObject(mThirdPartyInvites.values());
+        output.writeObject(mMembersWithThirdPartyInviteTokenCache.values());
 
         output.writeBoolean(mIsLive);
 
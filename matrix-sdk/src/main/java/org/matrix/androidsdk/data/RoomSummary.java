@@ -27,12 +27,16 @@ import com.google.gson.JsonObject;
 
 import org.matrix.androidsdk.call.MXCallsManager;
 import org.matrix.androidsdk.core.Log;
+import org.matrix.androidsdk.data.store.MXFileStoreCodec;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.EventContent;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.message.Message;
 import org.matrix.androidsdk.rest.model.sync.RoomSyncSummary;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -626,4 +630,64 @@ public class RoomSummary implements java.io.Serializable {
     public int getNumberOfInvitedMembers() {
         return mInvitedMembersCountFromSyncRoomSummary;
     }
+
+    /**
+     * Write the summary with the {@link MXFileStoreCodec} binary format.
+     *
+     * @param output the output
+     * @throws IOException if it cannot be written
+     */
+    public void writeBinary(DataOutput output) throws IOException {
+        MXFileStoreCodec.writeString(output, mRoomId);
+        MXFileStoreCodec.writeString(output, mTopic);
+        MXFileStoreCodec.writeEvent(output, mLatestReceivedEvent);
+        MXFileStoreCodec.writeString(output, mReadReceiptEventId);
+        MXFileStoreCodec.writeString(output, mReadMarkerEventId);
+        MXFileStoreCodec.writeStrings(output, mRoomTags);
+        output.writeInt(mUnreadEventsCount);
+        output.writeInt(mNotificationCount);
+        output.writeInt(mHighlightsCount);
+        MXFileStoreCodec.writeString(output, mInviterUserId);
+        MXFileStoreCodec.writeString(output, mInviterName);
+        MXFileStoreCodec.writeString(output, mUserId);
+        MXFileStoreCodec.writeString(output, mUserMembership);
+        MXFileStoreCodec.writeBoolean(output, mIsConferenceUserRoom);
+        MXFileStoreCodec.writeStrings(output, mHeroes);
+        output.writeInt(mJoinedMembersCountFromSyncRoomSummary);
+        output.writeInt(mInvitedMembersCountFromSyncRoomSummary);
+    }
+
+    /**
+     * Read a summary written with {@link #writeBinary(DataOutput)}.
+     *
+     * @param input   the input
+     * @param version the codec version
+     * @throws IOException            if it cannot be read
+     * @throws ClassNotFoundException if a serialized field of the latest event cannot be read
+     */
+    public void readBinary(DataInput input, int version) throws IOException, ClassNotFoundException {
+        mRoomId = MXFileStoreCodec.readString(input);
+        mTopic = MXFileStoreCodec.readString(input);
+        mLatestReceivedEvent = MXFileStoreCodec.readEvent(input, version);
+        mReadReceiptEventId = MXFileStoreCodec.readString(input);
+        mReadMarkerEventId = MXFileStoreCodec.readString(input);
+
+        List<String> roomTags = MXFileStoreCodec.readStrings(input);
+        mRoomTags = (null != roomTags) ? new HashSet<>(roomTags) : null;
+
+        mUnreadEventsCount = input.readInt();
+        mNotificationCount = input.readInt();
+        mHighlightsCount = input.readInt();
+        mInviterUserId = MXFileStoreCodec.readString(input);
+        mInviterName = MXFileStoreCodec.readString(input);
+        mUserId = MXFileStoreCodec.readString(input);
+        mUserMembership = MXFileStoreCodec.readString(input);
+        mIsConferenceUserRoom = MXFileStoreCodec.readBoolean(input);
+
+        List<String> heroes = MXFileStoreCodec.readStrings(input);
+        mHeroes = (null != heroes) ? heroes : new ArrayList<String>();
+
+        mJoinedMembersCountFromSyncRoomSummary = input.readInt();
+        mInvitedMembersCountFromSyncRoomSummary = input.readInt();
+    }
 }
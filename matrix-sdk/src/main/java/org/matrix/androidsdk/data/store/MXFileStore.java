@@ -45,6 +45,10 @@ import org.matrix.androidsdk.rest.model.group.Group;
 import org.matrix.androidsdk.rest.model.pid.ThirdPartyIdentifier;
 import org.matrix.androidsdk.rest.model.sync.AccountData;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -54,12 +58,19 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -80,6 +91,7 @@ public class MXFileStore extends MXMemoryStore {
     private static final String MXFILE_STORE_ACCOUNT_DATA_FILE_NAME = "MXAccountData";
 
     private static final String MXFILE_STORE_GZ_ROOMS_MESSAGES_FOLDER = "messages_gz";
+    private static final String MXFILE_STORE_ROOMS_MESSAGES_LOG_FOLDER = "messages_log";
     private static final String MXFILE_STORE_ROOMS_TOKENS_FOLDER = "tokens";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_FOLDER = "state_gz";
     private static final String MXFILE_STORE_GZ_ROOMS_STATE_EVENTS_FOLDER = "state_rooms_events";
@@ -102,7 +114,7 @@ public class MXFileStore extends MXMemoryStore {
     private boolean mIsOpening = false;
 
     // List of rooms to save on [MXStore commit]
-    // filled with roomId
+    // filled with roomId, they can be updated by several sync threads
     private Set<String> mRoomsToCommitForMessages;
     private Set<String> mRoomsToCommitForStates;
     //private Set<String> mRoomsToCommitForStatesEvents;
@@ -118,6 +130,7 @@ public class MXFileStore extends MXMemoryStore {
     // The path of the MXFileStore folders
     private File mStoreFolderFile = null;
     private File mGzStoreRoomsMessagesFolderFile = null;
+    private File mStoreRoomsMessagesLogFolderFile = null;
     private File mStoreRoomsTokensFolderFile = null;
     private File mGzStoreRoomsStateFolderFile = null;
     private File mGzStoreRoomsStateEventsFolderFile = null;
@@ -127,6 +140,9 @@ public class MXFileStore extends MXMemoryStore {
     private File mStoreUserFolderFile = null;
     private File mStoreGroupsFolderFile = null;
 
+    // the rooms messages are appended to a log
+    private MXFileStoreEventsLog mEventsLog = null;
+
     // the background thread
     private HandlerThread mHandlerThread = null;
     private MXOsHandler mFileStoreHandler = null;
@@ -139,12 +155,46 @@ public class MXFileStore extends MXMemoryStore {
 
     private long mPreloadTime = 0;
 
+    // reads the files in parallel while the store is opening
+    private MXFileStoreLoader mLoader = null;
+
+    // the rooms whose messages are loaded on demand
+    // it is protected by mRoomEventsLock
+    private final Set<String> mRoomsWithUnloadedMessages = new HashSet<>();
+
+    // the rooms whose messages are in memory, the least recently used first
+    // it is protected by mRoomEventsLock
+    private final LinkedHashMap<String, Boolean> mRoomsWithLoadedMessages = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the rooms whose messages are being written by the store thread
+    // it is protected by mRoomEventsLock
+    private final Set<String> mRoomsWithSavingMessages = new HashSet<>();
+
+    // the rooms whose messages are being read by the loader threads
+    // it is protected by mRoomEventsLock
+    private final Map<String, Future<RoomMessages>> mRoomMessagesLoadings = new HashMap<>();
+
+    // the rooms whose stored messages cannot be read : their log must not be compacted
+    // it is protected by mRoomEventsLock
+    private final Set<String> mRoomsWithUnreadableMessages = new HashSet<>();
+
+    // the maximum number of events kept in memory, 0 means no limit
+    private int mRoomEventsMemoryBudget = 0;
+
     // the read receipts are asynchronously loaded
-    // keep a list of the remaining receipts to load
-    private final List<String> mRoomReceiptsToLoad = new ArrayList<>();
+    // keep the remaining rooms to load with their loading priority
+    private final Map<String, Integer> mRoomReceiptsToLoad = new HashMap<>();
+
+    // the receipts of the room are being loaded
+    private static final int RECEIPTS_LOADING = -1;
+
+    // the number of rooms whose receipts are not loaded
+    private final AtomicInteger mRemainingRoomReceiptsCount = new AtomicInteger();
+    private long mReceiptsLoadStart = 0;
 
     // store some stats
-    private final Map<String, Long> mStoreStats = new HashMap<>();
+    // they are updated from the loader threads
+    private final Map<String, Long> mStoreStats = new ConcurrentHashMap<>();
 
     // True if file encryption is enabled
     private final boolean mEnableFileEncryption;
@@ -160,6 +210,7 @@ public class MXFileStore extends MXMemoryStore {
         // MXFileStore/userID/
         // MXFileStore/userID/MXFileStore
         // MXFileStore/userID/MXFileStore/Messages/
+        // MXFileStore/userID/MXFileStore/MessagesLog/<room Id>/<segment index>
         // MXFileStore/userID/MXFileStore/Tokens/
         // MXFileStore/userID/MXFileStore/States/
         // MXFileStore/userID/MXFileStore/Summaries/
@@ -180,6 +231,11 @@ public class MXFileStore extends MXMemoryStore {
             mGzStoreRoomsMessagesFolderFile.mkdirs();
         }
 
+        mStoreRoomsMessagesLogFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_MESSAGES_LOG_FOLDER);
+        if (!mStoreRoomsMessagesLogFolderFile.exists()) {
+            mStoreRoomsMessagesLogFolderFile.mkdirs();
+        }
+
         mStoreRoomsTokensFolderFile = new File(mStoreFolderFile, MXFILE_STORE_ROOMS_TOKENS_FOLDER);
         if (!mStoreRoomsTokensFolderFile.exists()) {
             mStoreRoomsTokensFolderFile.mkdirs();
@@ -221,6 +277,13 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
+    /**
+     * @return a new set of ids to commit, which can be filled from any thread.
+     */
+    private static Set<String> newCommitSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
     /**
      * Constructor
      *
@@ -242,15 +305,17 @@ public class MXFileStore extends MXMemoryStore {
 
         createDirTree(mCredentials.userId);
 
+        mEventsLog = new MXFileStoreEventsLog(this, mStoreRoomsMessagesLogFolderFile, 2 * MAX_STORED_MESSAGES_COUNT);
+
         // updated data
-        mRoomsToCommitForMessages = new HashSet<>();
-        mRoomsToCommitForStates = new HashSet<>();
+        mRoomsToCommitForMessages = newCommitSet();
+        mRoomsToCommitForStates = newCommitSet();
         //mRoomsToCommitForStatesEvents = new HashSet<>();
-        mRoomsToCommitForSummaries = new HashSet<>();
-        mRoomsToCommitForAccountData = new HashSet<>();
-        mRoomsToCommitForReceipts = new HashSet<>();
-        mUserIdsToCommit = new HashSet<>();
-        mGroupsToCommit = new HashSet<>();
+        mRoomsToCommitForSummaries = newCommitSet();
+        mRoomsToCommitForAccountData = newCommitSet();
+        mRoomsToCommitForReceipts = newCommitSet();
+        mUserIdsToCommit = newCommitSet();
+        mGroupsToCommit = newCommitSet();
 
         // check if the metadata file exists and if it is valid
         loadMetaData();
@@ -288,6 +353,19 @@ public class MXFileStore extends MXMemoryStore {
         mMXDataHandler = dataHandler;
     }
 
+    /**
+     * Limit the number of room events kept in memory.
+     * When the limit is reached, the messages of the least recently used rooms are released.
+     * They are reloaded from the file system the next time they are accessed.
+     * The rooms summaries and states stay in memory.
+     *
+     * @param maxEventsCount the maximum number of events, 0 to keep all of them.
+     */
+    public void setRoomEventsMemoryBudget(int maxEventsCount) {
+        mRoomEventsMemoryBudget = Math.max(0, maxEventsCount);
+        evictRoomEventsIfNeeded(null);
+    }
+
     /**
      * Killed the background thread.
      *
@@ -331,6 +409,7 @@ public class MXFileStore extends MXMemoryStore {
             saveRoomsAccountData();
             saveReceipts();
             saveMetaData();
+            evictRoomEventsIfNeeded(null);
             Log.d(LOG_TAG, "-- Commit");
         }
     }
@@ -381,34 +460,43 @@ public class MXFileStore extends MXMemoryStore {
                                     Log.e(LOG_TAG, errorDescription);
                                 }
 
+                                Map<String, Future<Object>> summariesFutures = null;
+                                Map<String, Future<RoomFiles>> roomsFutures = null;
+                                Map<String, Future<Object>> groupsFutures = null;
+
                                 if (succeed) {
-                                    succeed &= loadRoomsMessages();
-                                    if (!succeed) {
-                                        errorDescription = "loadRoomsMessages fails";
-                                        Log.e(LOG_TAG, errorDescription);
-                                    } else {
-                                        Log.d(LOG_TAG, "loadRoomsMessages succeeds");
+                                    // the files are read in parallel
+                                    // the summaries are read first because they are required to display the rooms list
+                                    // the rooms messages are loaded on demand
+                                    if (null == mLoader) {
+                                        mLoader = new MXFileStoreLoader("MXFileStoreLoader_" + mCredentials.userId,
+                                                MXFileStoreLoader.getDefaultThreadsCount());
                                     }
+
+                                    summariesFutures = readSummaries();
+                                    roomsFutures = readRoomsFiles();
+                                    groupsFutures = readGroups();
                                 }
 
                                 if (succeed) {
-                                    succeed &= loadGroups();
+                                    succeed &= loadSummaries(summariesFutures, fLoadTimeT0);
+
                                     if (!succeed) {
-                                        errorDescription = "loadGroups fails";
+                                        errorDescription = "loadSummaries fails";
                                         Log.e(LOG_TAG, errorDescription);
                                     } else {
-                                        Log.d(LOG_TAG, "loadGroups succeeds");
+                                        Log.d(LOG_TAG, "loadSummaries succeeds");
                                     }
                                 }
 
                                 if (succeed) {
-                                    succeed &= loadRoomsState();
+                                    succeed &= loadRooms(roomsFutures, fLoadTimeT0);
 
                                     if (!succeed) {
-                                        errorDescription = "loadRoomsState fails";
+                                        errorDescription = "loadRooms fails";
                                         Log.e(LOG_TAG, errorDescription);
                                     } else {
-                                        Log.d(LOG_TAG, "loadRoomsState succeeds");
+                                        Log.d(LOG_TAG, "loadRooms succeeds");
                                         long t0 = System.currentTimeMillis();
                                         Log.d(LOG_TAG, "Retrieve the users from the roomstate");
 
@@ -428,29 +516,27 @@ public class MXFileStore extends MXMemoryStore {
                                 }
 
                                 if (succeed) {
-                                    succeed &= loadSummaries();
+                                    // Check if the room summaries match to existing rooms.
+                                    // We could have more rooms than summaries because
+                                    // some of them are hidden.
+                                    // For example, the conference calls create a dummy room to manage
+                                    // the call events.
+                                    // check also if the user is a member of the room
+                                    // https://github.com/vector-im/riot-android/issues/1302
+
+                                    for (String roomId : mRoomSummaries.keySet()) {
+                                        Room room = getRoom(roomId);
 
-                                    if (!succeed) {
-                                        errorDescription = "loadSummaries fails";
-                                        Log.e(LOG_TAG, errorDescription);
-                                    } else {
-                                        Log.d(LOG_TAG, "loadSummaries succeeds");
+                                        if (null == room) {
+                                            succeed = false;
+                                            errorDescription = "loadSummaries fails";
+                                            Log.e(LOG_TAG, "loadSummaries : the room " + roomId + " does not exist");
+                                        } else {
+                                            // the room state is not saved in the summary.
+                                            // it is restored from the room
+                                            mRoomSummaries.get(roomId).setLatestRoomState(room.getState());
 
-                                        // Check if the room summaries match to existing rooms.
-                                        // We could have more rooms than summaries because
-                                        // some of them are hidden.
-                                        // For example, the conference calls create a dummy room to manage
-                                        // the call events.
-                                        // check also if the user is a member of the room
-                                        // https://github.com/vector-im/riot-android/issues/1302
-
-                                        for (String roomId : mRoomSummaries.keySet()) {
-                                            Room room = getRoom(roomId);
-
-                                            if (null == room) {
-                                                succeed = false;
-                                                Log.e(LOG_TAG, "loadSummaries : the room " + roomId + " does not exist");
-                                            } else if (null == room.getMember(mCredentials.userId)) {
+                                            if (null == room.getMember(mCredentials.userId)) {
                                                 //succeed = false;
                                                 Log.e(LOG_TAG, "loadSummaries) : a summary exists for the roomId "
                                                         + roomId + " but the user is not anymore a member");
@@ -460,13 +546,12 @@ public class MXFileStore extends MXMemoryStore {
                                 }
 
                                 if (succeed) {
-                                    succeed &= loadRoomsAccountData();
-
+                                    succeed &= loadGroups(groupsFutures, fLoadTimeT0);
                                     if (!succeed) {
-                                        errorDescription = "loadRoomsAccountData fails";
+                                        errorDescription = "loadGroups fails";
                                         Log.e(LOG_TAG, errorDescription);
                                     } else {
-                                        Log.d(LOG_TAG, "loadRoomsAccountData succeeds");
+                                        Log.d(LOG_TAG, "loadGroups succeeds");
                                     }
                                 }
 
@@ -493,11 +578,11 @@ public class MXFileStore extends MXMemoryStore {
 
                                     deleteAllData(true);
 
-                                    mRoomsToCommitForMessages = new HashSet<>();
-                                    mRoomsToCommitForStates = new HashSet<>();
+                                    mRoomsToCommitForMessages = newCommitSet();
+                                    mRoomsToCommitForStates = newCommitSet();
                                     //mRoomsToCommitForStatesEvents = new HashSet<>();
-                                    mRoomsToCommitForSummaries = new HashSet<>();
-                                    mRoomsToCommitForReceipts = new HashSet<>();
+                                    mRoomsToCommitForSummaries = newCommitSet();
+                                    mRoomsToCommitForReceipts = newCommitSet();
 
                                     mMetadata = tmpMetadata;
 
@@ -551,9 +636,20 @@ public class MXFileStore extends MXMemoryStore {
                                     Log.e(LOG_TAG, "The store is corrupted.");
                                     dispatchOnStoreCorrupted(mCredentials.userId, errorDescription);
                                 } else {
-                                    // extract the room states
-                                    mRoomReceiptsToLoad.addAll(listFiles(mStoreRoomsMessagesReceiptsFolderFile.list()));
+                                    // the read receipts are loaded after the store is ready
+                                    synchronized (mRoomReceiptsToLoad) {
+                                        for (String roomId : listFiles(mStoreRoomsMessagesReceiptsFolderFile.list())) {
+                                            mRoomReceiptsToLoad.put(roomId, MXFileStoreLoader.PRIORITY_RECEIPTS);
+                                        }
+
+                                        // the receipts of a room can be requested as soon as the store is ready
+                                        // the extra count is released by loadReceipts() once every room is submitted
+                                        mReceiptsLoadStart = System.currentTimeMillis();
+                                        mRemainingRoomReceiptsCount.set(mRoomReceiptsToLoad.size() + 1);
+                                    }
+
                                     mPreloadTime = System.currentTimeMillis() - fLoadTimeT0;
+                                    mStoreStats.put("preload", mPreloadTime);
                                     if (mMetricsListener != null) {
                                         mMetricsListener.onStorePreloaded(mPreloadTime);
                                     }
@@ -641,7 +737,13 @@ public class MXFileStore extends MXMemoryStore {
     }
 
     /**
-     * Provides some store stats
+     * Provides some store stats.
+     * The loading phases ("loadSummaries", "loadRooms", "loadGroups", "preload", "loadReceipts")
+     * are the elapsed times in milliseconds since the store opening.
+     * "lazyLoadRoomMessages" is the total time spent to load the rooms messages on demand
+     * and "lazyLoadRoomMessagesCount" the number of loaded rooms.
+     * When a memory budget is set, "evictedRoomsCount" and "evictedEventsCount" count the released rooms messages
+     * and "residentEventsCount" is the number of events in memory after the last eviction.
      *
      * @return the store stats
      */
@@ -659,6 +761,10 @@ public class MXFileStore extends MXMemoryStore {
 
         super.close();
         setIsKilled(true);
+        if (null != mLoader) {
+            mLoader.shutdown();
+            mLoader = null;
+        }
         if (null != mHandlerThread) {
             mHandlerThread.quit();
         }
@@ -695,6 +801,23 @@ public class MXFileStore extends MXMemoryStore {
         if (init) {
             initCommon();
         }
+
+        if (null != mEventsLog) {
+            mEventsLog.clear();
+        }
+
+        synchronized (mRoomEventsLock) {
+            mRoomsWithUnloadedMessages.clear();
+            mRoomsWithLoadedMessages.clear();
+            mRoomsWithSavingMessages.clear();
+            mRoomMessagesLoadings.clear();
+            mRoomsWithUnreadableMessages.clear();
+        }
+
+        synchronized (mRoomReceiptsToLoad) {
+            mRoomReceiptsToLoad.clear();
+        }
+
         mMetadata = null;
         mEventStreamToken = null;
         mAreUsersLoaded = true;
@@ -822,8 +945,12 @@ public class MXFileStore extends MXMemoryStore {
 
     @Override
     public void flushRoomEvents(String roomId) {
-        super.flushRoomEvents(roomId);
+        synchronized (mRoomEventsLock) {
+            super.flushRoomEvents(roomId);
 
+            // the events have been updated in place
+            mEventsLog.requestSnapshot(roomId);
+        }
         mRoomsToCommitForMessages.add(roomId);
 
         if ((null != mMetadata) && (null != mMetadata.mAccessToken) && !isKilled()) {
@@ -838,7 +965,8 @@ public class MXFileStore extends MXMemoryStore {
         // do not flush the room messages file
         // when the user reads the room history and the events list size reaches its max size.
         if (direction == EventTimeline.Direction.BACKWARDS) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            loadRoomEventsIfNeeded(roomId);
+            RoomEvents events = mRoomEvents.get(roomId);
 
             if (null != events) {
                 canStore = (events.size() < MAX_STORED_MESSAGES_COUNT);
@@ -849,7 +977,21 @@ public class MXFileStore extends MXMemoryStore {
             }
         }
 
-        super.storeRoomEvents(roomId, tokensChunkEvents, direction);
+        // the messages must not be released between their update and their logging
+        synchronized (mRoomEventsLock) {
+            super.storeRoomEvents(roomId, tokensChunkEvents, direction);
+
+            if (canStore) {
+                if (direction == EventTimeline.Direction.FORWARDS) {
+                    for (Event event : tokensChunkEvents.chunk) {
+                        mEventsLog.appendEvent(roomId, event.eventId, event);
+                    }
+                } else {
+                    // the events are inserted before the stored ones
+                    mEventsLog.requestSnapshot(roomId);
+                }
+            }
+        }
 
         if (canStore) {
             mRoomsToCommitForMessages.add(roomId);
@@ -863,13 +1005,51 @@ public class MXFileStore extends MXMemoryStore {
      */
     @Override
     public void storeLiveRoomEvent(Event event) {
-        super.storeLiveRoomEvent(event);
+        if ((null == event) || (null == event.roomId) || (null == event.eventId)) {
+            super.storeLiveRoomEvent(event);
+            return;
+        }
+
+        loadRoomEventsIfNeeded(event.roomId);
+
+        synchronized (mRoomEventsLock) {
+            RoomEvents events = mRoomEvents.get(event.roomId);
+            int countBefore = (null != events) ? events.size() : 0;
+            Event storedEvent = (null != events) ? events.get(event.eventId) : null;
+            String echoKey = (null == storedEvent) ? getPendingEchoKey(event) : null;
+
+            super.storeLiveRoomEvent(event);
+
+            events = mRoomEvents.get(event.roomId);
+
+            if (null != storedEvent) {
+                // the stored event may have been updated
+                mEventsLog.appendEvent(event.roomId, event.eventId, storedEvent);
+            } else if ((null != events) && (events.size() > countBefore)) {
+                mEventsLog.appendEvent(event.roomId, event.eventId, event);
+            } else if ((null != echoKey) && (null != events) && !events.containsKey(echoKey) && events.containsKey(event.eventId)) {
+                // a pending echo has been replaced
+                mEventsLog.deleteEvent(event.roomId, echoKey);
+                mEventsLog.appendEvent(event.roomId, event.eventId, event);
+            } else {
+                // unexpected update : rewrite the whole history
+                mEventsLog.requestSnapshot(event.roomId);
+            }
+        }
+
         mRoomsToCommitForMessages.add(event.roomId);
     }
 
     @Override
     public void deleteEvent(Event event) {
-        super.deleteEvent(event);
+        synchronized (mRoomEventsLock) {
+            super.deleteEvent(event);
+
+            if ((null != event) && (null != event.roomId) && (null != event.eventId)) {
+                mEventsLog.deleteEvent(event.roomId, event.eventId);
+            }
+        }
+
         mRoomsToCommitForMessages.add(event.roomId);
     }
 
@@ -879,7 +1059,10 @@ public class MXFileStore extends MXMemoryStore {
      * @param roomId the room id.
      */
     private void deleteRoomMessagesFiles(String roomId) {
-        // messages list
+        // messages log
+        mEventsLog.delete(roomId);
+
+        // former messages list
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
         // remove the files
@@ -917,9 +1100,15 @@ public class MXFileStore extends MXMemoryStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         Log.d(LOG_TAG, "deleteAllRoomMessages " + roomId);
 
-        super.deleteAllRoomMessages(roomId, keepUnsent);
-        if (!keepUnsent) {
-            deleteRoomMessagesFiles(roomId);
+        synchronized (mRoomEventsLock) {
+            super.deleteAllRoomMessages(roomId, keepUnsent);
+            if (!keepUnsent) {
+                deleteRoomMessagesFiles(roomId);
+                // the new log only contains the memory store events
+                mRoomsWithUnreadableMessages.remove(roomId);
+            }
+
+            mEventsLog.requestSnapshot(roomId);
         }
 
         deleteRoomSummaryFile(roomId);
@@ -1048,7 +1237,7 @@ public class MXFileStore extends MXMemoryStore {
         if ((mUserIdsToCommit.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fUserIds = mUserIdsToCommit;
-            mUserIdsToCommit = new HashSet<>();
+            mUserIdsToCommit = newCommitSet();
 
             try {
                 final Set<User> fUsers;
@@ -1172,16 +1361,10 @@ public class MXFileStore extends MXMemoryStore {
      * @return the saved eventMap
      */
     private LinkedHashMap<String, Event> getSavedEventsMap(String roomId) {
-        LinkedHashMap<String, Event> eventsMap;
-
-        synchronized (mRoomEventsLock) {
-            eventsMap = mRoomEvents.get(roomId);
-        }
-
         List<Event> eventsList;
 
         synchronized (mRoomEventsLock) {
-            eventsList = new ArrayList<>(eventsMap.values());
+            eventsList = mRoomEvents.get(roomId).getEvents();
         }
 
         int startIndex = 0;
@@ -1214,29 +1397,100 @@ public class MXFileStore extends MXMemoryStore {
         return savedEvents;
     }
 
-    private void saveRoomMessages(String roomId) {
-        LinkedHashMap<String, Event> eventsHash;
+    /**
+     * Save the room messages.
+     * The pending updates are appended to the room log, the whole history is only saved when the log is compacted.
+     *
+     * @param roomId  the room id
+     * @param segment the pending updates, null if there is none.
+     */
+    private void saveRoomMessages(String roomId, MXFileStoreEventsLog.Segment segment) {
+        RoomEvents eventsHash;
+        boolean isLoaded;
+        boolean isReadable;
+
         synchronized (mRoomEventsLock) {
             eventsHash = mRoomEvents.get(roomId);
+            isLoaded = !mRoomsWithUnloadedMessages.contains(roomId);
+            isReadable = !mRoomsWithUnreadableMessages.contains(roomId);
         }
 
         String token = mRoomTokens.get(roomId);
 
+        // the messages are not in memory
+        if (!isLoaded) {
+            if ((null != segment) && segment.mIsSnapshot) {
+                // the snapshot is computed from the memory store
+                loadRoomEventsIfNeeded(roomId);
+
+                synchronized (mRoomEventsLock) {
+                    eventsHash = mRoomEvents.get(roomId);
+                    isLoaded = !mRoomsWithUnloadedMessages.contains(roomId);
+                    isReadable = !mRoomsWithUnreadableMessages.contains(roomId);
+                }
+
+                if (!isLoaded) {
+                    // the snapshot cannot be computed : retry at the next commit
+                    Log.e(LOG_TAG, "## saveRoomMessages() : the messages of " + roomId + " are not loaded, the snapshot is delayed");
+                    mEventsLog.requestSnapshot(roomId);
+                    return;
+                }
+            } else {
+                // append the pending updates to the log without compacting it
+                if ((null == token) || ((null != segment) && !segment.isEmpty() && !mEventsLog.writeSegment(roomId, segment))) {
+                    return;
+                }
+
+                writeObject("saveRoomsMessage " + roomId, new File(mStoreRoomsTokensFolderFile, roomId), token);
+                return;
+            }
+        }
+
         // the list exists ?
         if ((null != eventsHash) && (null != token)) {
             long t0 = System.currentTimeMillis();
+            int savedEventsCount = 0;
+
+            if (!isReadable) {
+                // the memory store does not contain the whole history : only append the updates
+                if ((null != segment) && !segment.isEmpty() && !segment.mIsSnapshot && !mEventsLog.writeSegment(roomId, segment)) {
+                    return;
+                }
 
-            LinkedHashMap<String, Event> savedEventsMap = getSavedEventsMap(roomId);
+                if (null != segment) {
+                    savedEventsCount = segment.mKeys.size();
+                }
+            } else if (((null != segment) && segment.mIsSnapshot) || mEventsLog.needsCompaction(roomId)) {
+                MXFileStoreEventsLog.Segment snapshot = MXFileStoreEventsLog.createSnapshot(getSavedEventsMap(roomId));
 
-            if (!writeObject("saveRoomsMessage " + roomId, new File(mGzStoreRoomsMessagesFolderFile, roomId), savedEventsMap)) {
-                return;
+                if (!mEventsLog.writeSegment(roomId, snapshot)) {
+                    mEventsLog.requestSnapshot(roomId);
+                    return;
+                }
+
+                savedEventsCount = snapshot.mKeys.size();
+
+                // the former messages file has been migrated
+                File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
+
+                if (messagesListFile.exists()) {
+                    messagesListFile.delete();
+                }
+            } else if ((null != segment) && !segment.isEmpty()) {
+                if (!mEventsLog.writeSegment(roomId, segment)) {
+                    // the log cannot be trusted anymore
+                    mEventsLog.requestSnapshot(roomId);
+                    return;
+                }
+
+                savedEventsCount = segment.mKeys.size();
             }
 
             if (!writeObject("saveRoomsMessage " + roomId, new File(mStoreRoomsTokensFolderFile, roomId), token)) {
                 return;
             }
 
-            Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + savedEventsMap.size() + " messages saved in " + (System.currentTimeMillis() - t0) + " ms");
+            Log.d(LOG_TAG, "saveRoomsMessage (" + roomId + ") : " + savedEventsCount + " messages saved in " + (System.currentTimeMillis() - t0) + " ms");
         } else {
             deleteRoomMessagesFiles(roomId);
         }
@@ -1250,7 +1504,19 @@ public class MXFileStore extends MXMemoryStore {
         if ((mRoomsToCommitForMessages.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fRoomsToCommitForMessages = mRoomsToCommitForMessages;
-            mRoomsToCommitForMessages = new HashSet<>();
+            mRoomsToCommitForMessages = newCommitSet();
+
+            // and their pending updates
+            final Map<String, MXFileStoreEventsLog.Segment> fSegments = new HashMap<>();
+
+            synchronized (mRoomEventsLock) {
+                for (String roomId : fRoomsToCommitForMessages) {
+                    fSegments.put(roomId, mEventsLog.takePendingSegment(roomId));
+                }
+
+                // the messages must not be released until they are written
+                mRoomsWithSavingMessages.addAll(fRoomsToCommitForMessages);
+            }
 
             Runnable r = new Runnable() {
                 @Override
@@ -1261,12 +1527,16 @@ public class MXFileStore extends MXMemoryStore {
                                 long start = System.currentTimeMillis();
 
                                 for (String roomId : fRoomsToCommitForMessages) {
-                                    saveRoomMessages(roomId);
+                                    saveRoomMessages(roomId, fSegments.get(roomId));
                                 }
 
                                 Log.d(LOG_TAG, "saveRoomsMessages : " + fRoomsToCommitForMessages.size() + " rooms in "
                                         + (System.currentTimeMillis() - start) + " ms");
                             }
+
+                            synchronized (mRoomEventsLock) {
+                                mRoomsWithSavingMessages.removeAll(fRoomsToCommitForMessages);
+                            }
                         }
                     });
                 }
@@ -1278,170 +1548,399 @@ public class MXFileStore extends MXMemoryStore {
     }
 
     /**
-     * Load room messages from the filesystem.
+     * The messages of a room, read by a loader thread.
+     */
+    private static class RoomMessages {
+        // the stored events, null if they cannot be read
+        LinkedHashMap<String, Event> mEvents;
+
+        // the stored events must be saved again
+        boolean mShouldSave;
+    }
+
+    /**
+     * Read the messages of a room from the filesystem.
+     * This method is called from a loader thread.
      *
      * @param roomId the room id.
-     * @return true if succeed.
+     * @return the room messages.
      */
-    private boolean loadRoomMessages(final String roomId) {
-        boolean succeeded = true;
-        boolean shouldSave = false;
-        LinkedHashMap<String, Event> events = null;
+    private RoomMessages readRoomMessages(final String roomId) {
+        RoomMessages messages = new RoomMessages();
+        Object eventsAsVoid;
 
         File messagesListFile = new File(mGzStoreRoomsMessagesFolderFile, roomId);
 
-        if (messagesListFile.exists()) {
-            Object eventsAsVoid = readObject("events " + roomId, messagesListFile);
+        if (mEventsLog.exists(roomId)) {
+            eventsAsVoid = mEventsLog.read(roomId);
+        } else if (messagesListFile.exists()) {
+            // former format : it will be migrated to the log at the next commit
+            eventsAsVoid = readObject("events " + roomId, messagesListFile);
+            messages.mShouldSave = true;
+        } else {
+            eventsAsVoid = new LinkedHashMap<String, Event>();
+        }
 
-            if (null != eventsAsVoid) {
-                try {
-                    events = (LinkedHashMap<String, Event>) eventsAsVoid;
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "loadRoomMessages " + roomId + "failed : " + e.getMessage(), e);
-                    return false;
-                }
+        if (null == eventsAsVoid) {
+            return messages;
+        }
+
+        try {
+            messages.mEvents = (LinkedHashMap<String, Event>) eventsAsVoid;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "readRoomMessages " + roomId + "failed : " + e.getMessage(), e);
+            return messages;
+        }
+
+        if (messages.mEvents.size() > (2 * MAX_STORED_MESSAGES_COUNT)) {
+            Log.d(LOG_TAG, "## readRoomMessages() : the room " + roomId + " has " + messages.mEvents.size()
+                    + " stored events : we need to find a way to reduce it.");
+        }
+
+        // finalizes the deserialization
+        for (Event event : messages.mEvents.values()) {
+            // if a message was not sent, mark it as UNDELIVERED
+            if ((event.mSentState == Event.SentState.UNSENT)
+                    || (event.mSentState == Event.SentState.SENDING)
+                    || (event.mSentState == Event.SentState.WAITING_RETRY)
+                    || (event.mSentState == Event.SentState.ENCRYPTING)) {
+                event.mSentState = Event.SentState.UNDELIVERED;
+                messages.mShouldSave = true;
+            }
+        }
+
+        return messages;
+    }
+
+    /**
+     * Load the messages of a room the first time they are accessed.
+     * They are read by a loader thread, the caller waits for them without locking the store.
+     *
+     * @param roomId the room id
+     */
+    @Override
+    protected void loadRoomEventsIfNeeded(final String roomId) {
+        if (null == roomId) {
+            return;
+        }
+
+        MXFileStoreLoader loader = mLoader;
+        Future<RoomMessages> future;
 
-                if (events.size() > (2 * MAX_STORED_MESSAGES_COUNT)) {
-                    Log.d(LOG_TAG, "## loadRoomMessages() : the room " + roomId + " has " + events.size()
-                            + " stored events : we need to find a way to reduce it.");
+        synchronized (mRoomEventsLock) {
+            if (!mRoomsWithUnloadedMessages.contains(roomId)) {
+                // the room messages are in memory : refresh their LRU position
+                if (mRoomEvents.containsKey(roomId)) {
+                    mRoomsWithLoadedMessages.put(roomId, Boolean.TRUE);
                 }
+                return;
+            }
+
+            // another thread may already wait for them
+            future = mRoomMessagesLoadings.get(roomId);
 
-                // finalizes the deserialization
-                for (Event event : events.values()) {
-                    // if a message was not sent, mark it as UNDELIVERED
-                    if ((event.mSentState == Event.SentState.UNSENT)
-                            || (event.mSentState == Event.SentState.SENDING)
-                            || (event.mSentState == Event.SentState.WAITING_RETRY)
-                            || (event.mSentState == Event.SentState.ENCRYPTING)) {
-                        event.mSentState = Event.SentState.UNDELIVERED;
-                        shouldSave = true;
+            if ((null == future) && (null != loader)) {
+                Callable<RoomMessages> reader = new Callable<RoomMessages>() {
+                    @Override
+                    public RoomMessages call() {
+                        return readRoomMessages(roomId);
                     }
-                }
-            } else {
-                return false;
+                };
+
+                // a loader thread (e.g. while merging the receipts) reads the messages itself
+                future = loader.isLoaderThread() ? new FutureTask<>(reader) : loader.submit(MXFileStoreLoader.PRIORITY_ON_DEMAND, reader);
+
+                mRoomMessagesLoadings.put(roomId, future);
             }
         }
 
-        // succeeds to extract the message list
-        if (null != events) {
-            // create the room object
-            final Room room = new Room(mMXDataHandler, this, roomId);
-            // do not wait that the live state update
-            room.setReadyState(true);
-            storeRoom(room);
-
-            mRoomEvents.put(roomId, events);
+        if (null == future) {
+            Log.e(LOG_TAG, "## loadRoomEventsIfNeeded() : the store is closed, the messages of " + roomId + " are not loaded");
+            return;
         }
 
-        if (shouldSave) {
-            saveRoomMessages(roomId);
+        long start = System.currentTimeMillis();
+
+        // a loader thread must not wait for a queued read : the other loader threads might be waiting too
+        if ((null != loader) && loader.isLoaderThread()) {
+            MXFileStoreLoader.runIfPending(future);
         }
 
-        return succeeded;
+        RoomMessages messages = MXFileStoreLoader.getResult(future);
+
+        synchronized (mRoomEventsLock) {
+            if (mRoomMessagesLoadings.get(roomId) != future) {
+                // the messages have been applied by another thread, or the room has been deleted
+                return;
+            }
+
+            mRoomMessagesLoadings.remove(roomId);
+
+            if (null == messages) {
+                // the read has been cancelled : the next access will retry
+                return;
+            }
+
+            mRoomsWithUnloadedMessages.remove(roomId);
+
+            if (null == messages.mEvents) {
+                // keep the stored log as it is : it will be read again when the application restarts
+                Log.e(LOG_TAG, "## loadRoomEventsIfNeeded() : the messages of " + roomId + " cannot be read, they are not displayed");
+                mRoomsWithUnreadableMessages.add(roomId);
+                mRoomEvents.put(roomId, new RoomEvents());
+
+                Long failuresCount = mStoreStats.get("lazyLoadRoomMessagesFailures");
+                mStoreStats.put("lazyLoadRoomMessagesFailures", ((null != failuresCount) ? failuresCount : 0) + 1);
+            } else {
+                // the room history could have been reduced to save memory
+                // so, if the oldest messages has a token, use it instead of the stored token.
+                if (messages.mEvents.size() > 0) {
+                    Event oldestEvent = messages.mEvents.values().iterator().next();
+
+                    if (null != oldestEvent.mToken) {
+                        mRoomTokens.put(roomId, oldestEvent.mToken);
+                    }
+                }
+
+                mRoomEvents.put(roomId, new RoomEvents(messages.mEvents));
+
+                if (messages.mShouldSave) {
+                    mEventsLog.requestSnapshot(roomId);
+                    mRoomsToCommitForMessages.add(roomId);
+                }
+            }
+
+            long delta = System.currentTimeMillis() - start;
+            Long loadTime = mStoreStats.get("lazyLoadRoomMessages");
+            Long loadCount = mStoreStats.get("lazyLoadRoomMessagesCount");
+
+            mStoreStats.put("lazyLoadRoomMessages", ((null != loadTime) ? loadTime : 0) + delta);
+            mStoreStats.put("lazyLoadRoomMessagesCount", ((null != loadCount) ? loadCount : 0) + 1);
+
+            mRoomsWithLoadedMessages.put(roomId, Boolean.TRUE);
+            evictRoomEventsIfNeeded(roomId);
+        }
     }
 
     /**
-     * Load the room token from the file system.
+     * Release the messages of the least recently used rooms when the memory budget is exceeded.
+     * The rooms with some unsaved messages are kept.
      *
-     * @param roomId the room id.
-     * @return true if it succeeds.
+     * @param keptRoomId a room whose messages must be kept, null if there is none.
      */
-    private boolean loadRoomToken(final String roomId) {
-        boolean succeed = true;
+    private void evictRoomEventsIfNeeded(String keptRoomId) {
+        if (0 == mRoomEventsMemoryBudget) {
+            return;
+        }
 
-        Room room = getRoom(roomId);
+        synchronized (mRoomEventsLock) {
+            int eventsCount = 0;
 
-        // should always be true
-        if (null != room) {
-            String token = null;
+            for (Map.Entry<String, RoomEvents> entry : mRoomEvents.entrySet()) {
+                eventsCount += entry.getValue().size();
 
-            try {
-                File messagesListFile = new File(mStoreRoomsTokensFolderFile, roomId);
-                Object tokenAsVoid = readObject("loadRoomToken " + roomId, messagesListFile);
+                // the rooms created after the store opening
+                if (!mRoomsWithLoadedMessages.containsKey(entry.getKey())) {
+                    mRoomsWithLoadedMessages.put(entry.getKey(), Boolean.TRUE);
+                }
+            }
 
-                if (null == tokenAsVoid) {
-                    succeed = false;
-                } else {
-                    token = (String) tokenAsVoid;
+            int evictedRoomsCount = 0;
+            int evictedEventsCount = 0;
+
+            Iterator<String> iterator = mRoomsWithLoadedMessages.keySet().iterator();
+
+            while ((eventsCount > mRoomEventsMemoryBudget) && iterator.hasNext()) {
+                String roomId = iterator.next();
+                RoomEvents events = mRoomEvents.get(roomId);
+
+                if (null == events) {
+                    // the room has been deleted
+                    iterator.remove();
+                } else if (!TextUtils.equals(roomId, keptRoomId)
+                        // the messages cannot be reloaded without a token
+                        && (null != mRoomTokens.get(roomId))
+                        // the unsaved messages would be lost
+                        && !mRoomsWithSavingMessages.contains(roomId)
+                        // the messages could not be read again
+                        && !mRoomsWithUnreadableMessages.contains(roomId)
+                        && !mEventsLog.hasPendingSegment(roomId)) {
+                    iterator.remove();
+                    mRoomEvents.remove(roomId);
+                    mRoomsWithUnloadedMessages.add(roomId);
+
+                    eventsCount -= events.size();
+                    evictedEventsCount += events.size();
+                    evictedRoomsCount++;
+                }
+            }
 
-                    // check if the oldest event has a token.
-                    LinkedHashMap<String, Event> eventsHash = mRoomEvents.get(roomId);
-                    if ((null != eventsHash) && (eventsHash.size() > 0)) {
-                        Event event = eventsHash.values().iterator().next();
+            if (evictedRoomsCount > 0) {
+                Log.d(LOG_TAG, "## evictRoomEventsIfNeeded() : release " + evictedEventsCount + " events of " + evictedRoomsCount + " rooms");
 
-                        // the room history could have been reduced to save memory
-                        // so, if the oldest messages has a token, use it instead of the stored token.
-                        if (null != event.mToken) {
-                            token = event.mToken;
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                succeed = false;
-                Log.e(LOG_TAG, "loadRoomToken failed : " + e.toString(), e);
+                Long roomsCount = mStoreStats.get("evictedRoomsCount");
+                Long totalEventsCount = mStoreStats.get("evictedEventsCount");
+
+                mStoreStats.put("evictedRoomsCount", ((null != roomsCount) ? roomsCount : 0) + evictedRoomsCount);
+                mStoreStats.put("evictedEventsCount", ((null != totalEventsCount) ? totalEventsCount : 0) + evictedEventsCount);
             }
 
-            if (null != token) {
-                mRoomTokens.put(roomId, token);
-            } else {
-                deleteRoom(roomId);
+            mStoreStats.put("residentEventsCount", (long) eventsCount);
+        }
+    }
+
+    @Override
+    public void deleteRoomData(String roomId) {
+        super.deleteRoomData(roomId);
+
+        if (null != roomId) {
+            synchronized (mRoomEventsLock) {
+                mRoomsWithUnloadedMessages.remove(roomId);
+                mRoomsWithLoadedMessages.remove(roomId);
+                mRoomMessagesLoadings.remove(roomId);
+                mRoomsWithUnreadableMessages.remove(roomId);
             }
-        } else {
-            try {
-                File messagesListFile = new File(mStoreRoomsTokensFolderFile, roomId);
-                messagesListFile.delete();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "loadRoomToken failed with error " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The files of a room, read by a loader thread.
+     */
+    private static class RoomFiles {
+        // the room has some stored messages
+        boolean mHasMessages;
+
+        Object mToken;
+        Object mState;
+        Object mAccountData;
+
+        // a file exists but it cannot be read
+        boolean mIsCorrupted;
+    }
+
+    /**
+     * Read the files of a room but its messages.
+     * This method is called from a loader thread.
+     *
+     * @param roomId the room id
+     * @return the room files
+     */
+    private RoomFiles readRoomFiles(String roomId) {
+        RoomFiles files = new RoomFiles();
+        files.mHasMessages = mEventsLog.exists(roomId) || new File(mGzStoreRoomsMessagesFolderFile, roomId).exists();
+
+        // the room object is only created when there are some messages
+        if (files.mHasMessages) {
+            File tokenFile = new File(mStoreRoomsTokensFolderFile, roomId);
+
+            if (tokenFile.exists()) {
+                files.mToken = readObject("loadRoomToken " + roomId, tokenFile);
+                files.mIsCorrupted |= !(files.mToken instanceof String);
+            }
+
+            File roomStateFile = new File(mGzStoreRoomsStateFolderFile, roomId);
+
+            if (roomStateFile.exists()) {
+                files.mState = readObject("loadRoomState " + roomId, roomStateFile);
+                files.mIsCorrupted |= !(files.mState instanceof RoomState);
+            }
+
+            File accountDataFile = new File(mStoreRoomsAccountDataFolderFile, roomId);
+
+            if (accountDataFile.exists()) {
+                files.mAccountData = readObject("loadRoomAccountData " + roomId, accountDataFile);
+                files.mIsCorrupted |= !(files.mAccountData instanceof RoomAccountData);
             }
         }
 
-        return succeed;
+        return files;
     }
 
     /**
-     * Load room messages from the filesystem.
+     * Read the rooms files in parallel.
      *
+     * @return the rooms files futures by room id
+     */
+    private Map<String, Future<RoomFiles>> readRoomsFiles() {
+        Set<String> roomIds = new HashSet<>(mEventsLog.getRoomIds());
+
+        // the rooms which have not been migrated to the log
+        roomIds.addAll(listFiles(mGzStoreRoomsMessagesFolderFile.list()));
+
+        // and the files of the deleted rooms
+        roomIds.addAll(listFiles(mStoreRoomsTokensFolderFile.list()));
+        roomIds.addAll(listFiles(mGzStoreRoomsStateFolderFile.list()));
+
+        return mLoader.readAll(roomIds, MXFileStoreLoader.PRIORITY_ROOMS, new MXFileStoreLoader.Reader<RoomFiles>() {
+            @Override
+            public RoomFiles read(String roomId) {
+                return readRoomFiles(roomId);
+            }
+        });
+    }
+
+    /**
+     * Create the rooms from their files.
+     * Their messages will be loaded when they are accessed.
+     *
+     * @param futures   the rooms files futures
+     * @param loadStart the load start time
      * @return true if the operation succeeds.
      */
-    private boolean loadRoomsMessages() {
+    private boolean loadRooms(Map<String, Future<RoomFiles>> futures, long loadStart) {
         boolean succeed = true;
+        int roomsCount = 0;
 
-        try {
-            // extract the messages list
-            List<String> filenames = listFiles(mGzStoreRoomsMessagesFolderFile.list());
+        for (Map.Entry<String, Future<RoomFiles>> entry : futures.entrySet()) {
+            String roomId = entry.getKey();
+            RoomFiles files = MXFileStoreLoader.getResult(entry.getValue());
 
-            long start = System.currentTimeMillis();
+            if ((null == files) || files.mIsCorrupted) {
+                Log.e(LOG_TAG, "loadRooms : the room " + roomId + " cannot be loaded");
+                succeed = false;
+                break;
+            }
 
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomMessages(filename);
+            if (!files.mHasMessages) {
+                // the room does not exist anymore
+                try {
+                    new File(mStoreRoomsTokensFolderFile, roomId).delete();
+                    new File(mGzStoreRoomsStateFolderFile, roomId).delete();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "loadRooms failed to delete a file : " + e.getMessage(), e);
                 }
-            }
 
-            if (succeed) {
-                long delta = (System.currentTimeMillis() - start);
-                Log.d(LOG_TAG, "loadRoomMessages : " + filenames.size() + " rooms in " + delta + " ms");
-                mStoreStats.put("loadRoomMessages", delta);
+                continue;
             }
 
-            // extract the tokens list
-            filenames = listFiles(mStoreRoomsTokensFolderFile.list());
+            final Room room = new Room(mMXDataHandler, this, roomId);
+            // do not wait that the live state update
+            room.setReadyState(true);
+            storeRoom(room);
 
-            start = System.currentTimeMillis();
+            synchronized (mRoomEventsLock) {
+                mRoomsWithUnloadedMessages.add(roomId);
+            }
 
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomToken(filename);
-                }
+            if (null != files.mToken) {
+                mRoomTokens.put(roomId, (String) files.mToken);
             }
 
-            if (succeed) {
-                Log.d(LOG_TAG, "loadRoomToken : " + filenames.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
+            if (null != files.mState) {
+                room.getTimeline().setState((RoomState) files.mState);
             }
 
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadRoomsMessages failed : " + e.getMessage(), e);
+            if (null != files.mAccountData) {
+                room.setAccountData((RoomAccountData) files.mAccountData);
+            }
+
+            roomsCount++;
+        }
+
+        if (succeed) {
+            long delta = System.currentTimeMillis() - loadStart;
+            Log.d(LOG_TAG, "loadRooms : " + roomsCount + " rooms in " + delta + " ms");
+            mStoreStats.put("loadRooms", delta);
         }
 
         return succeed;
@@ -1677,7 +2176,7 @@ public class MXFileStore extends MXMemoryStore {
         if ((mRoomsToCommitForStates.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fRoomsToCommitForStates = mRoomsToCommitForStates;
-            mRoomsToCommitForStates = new HashSet<>();
+            mRoomsToCommitForStates = newCommitSet();
 
             Runnable r = new Runnable() {
                 @Override
@@ -1704,89 +2203,6 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
-    /**
-     * Load a room state from the file system.
-     *
-     * @param roomId the room id.
-     * @return true if the operation succeeds.
-     */
-    private boolean loadRoomState(final String roomId) {
-        boolean succeed = true;
-
-        Room room = getRoom(roomId);
-
-        // should always be true
-        if (null != room) {
-            RoomState liveState = null;
-
-            try {
-                // the room state is not zipped
-                File roomStateFile = new File(mGzStoreRoomsStateFolderFile, roomId);
-
-                // new format
-                if (roomStateFile.exists()) {
-                    Object roomStateAsObject = readObject("loadRoomState " + roomId, roomStateFile);
-
-                    if (null == roomStateAsObject) {
-                        succeed = false;
-                    } else {
-                        liveState = (RoomState) roomStateAsObject;
-                    }
-                }
-            } catch (Exception e) {
-                succeed = false;
-                Log.e(LOG_TAG, "loadRoomState failed : " + e.getMessage(), e);
-            }
-
-            if (null != liveState) {
-                room.getTimeline().setState(liveState);
-            } else {
-                deleteRoom(roomId);
-            }
-        } else {
-            try {
-                File messagesListFile = new File(mGzStoreRoomsStateFolderFile, roomId);
-                messagesListFile.delete();
-
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "loadRoomState failed to delete a file : " + e.getMessage(), e);
-            }
-        }
-
-        return succeed;
-    }
-
-    /**
-     * Load room state from the file system.
-     *
-     * @return true if the operation succeeds.
-     */
-    private boolean loadRoomsState() {
-        boolean succeed = true;
-
-        try {
-            long start = System.currentTimeMillis();
-
-            List<String> filenames = listFiles(mGzStoreRoomsStateFolderFile.list());
-
-            for (String filename : filenames) {
-                if (succeed) {
-                    succeed &= loadRoomState(filename);
-                }
-            }
-
-            long delta = (System.currentTimeMillis() - start);
-            Log.d(LOG_TAG, "loadRoomsState " + filenames.size() + " rooms in " + delta + " ms");
-            mStoreStats.put("loadRoomsState", delta);
-
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadRoomsState failed : " + e.getMessage(), e);
-        }
-
-        return succeed;
-    }
-
     //================================================================================
     // AccountData management
     //================================================================================
@@ -1816,7 +2232,7 @@ public class MXFileStore extends MXMemoryStore {
         if ((mRoomsToCommitForAccountData.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fRoomsToCommitForAccountData = mRoomsToCommitForAccountData;
-            mRoomsToCommitForAccountData = new HashSet<>();
+            mRoomsToCommitForAccountData = newCommitSet();
 
             Runnable r = new Runnable() {
                 @Override
@@ -1849,74 +2265,6 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
-    /***
-     * Load the account Data of a dedicated room.
-     * @param roomId the room Id
-     * @return true if the operation succeeds.
-     */
-    private boolean loadRoomAccountData(final String roomId) {
-        boolean succeeded = true;
-        RoomAccountData roomAccountData = null;
-
-        try {
-            File accountDataFile = new File(mStoreRoomsAccountDataFolderFile, roomId);
-
-            if (accountDataFile.exists()) {
-                Object accountAsVoid = readObject("loadRoomAccountData " + roomId, accountDataFile);
-
-                if (null == accountAsVoid) {
-                    Log.e(LOG_TAG, "loadRoomAccountData failed");
-                    return false;
-                }
-
-                roomAccountData = (RoomAccountData) accountAsVoid;
-            }
-        } catch (Exception e) {
-            succeeded = false;
-            Log.e(LOG_TAG, "loadRoomAccountData failed : " + e.toString(), e);
-        }
-
-        // succeeds to extract the message list
-        if (null != roomAccountData) {
-            Room room = getRoom(roomId);
-
-            if (null != room) {
-                room.setAccountData(roomAccountData);
-            }
-        }
-
-        return succeeded;
-    }
-
-    /**
-     * Load room accountData from the filesystem.
-     *
-     * @return true if the operation succeeds.
-     */
-    private boolean loadRoomsAccountData() {
-        boolean succeed = true;
-
-        try {
-            // extract the messages list
-            List<String> filenames = listFiles(mStoreRoomsAccountDataFolderFile.list());
-
-            long start = System.currentTimeMillis();
-
-            for (String filename : filenames) {
-                succeed &= loadRoomAccountData(filename);
-            }
-
-            if (succeed) {
-                Log.d(LOG_TAG, "loadRoomsAccountData : " + filenames.size() + " rooms in " + (System.currentTimeMillis() - start) + " ms");
-            }
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadRoomsAccountData failed : " + e.getMessage(), e);
-        }
-
-        return succeed;
-    }
-
     @Override
     public void storeRoomAccountData(String roomId, RoomAccountData accountData) {
         super.storeRoomAccountData(roomId, accountData);
@@ -1961,7 +2309,7 @@ public class MXFileStore extends MXMemoryStore {
         if ((mRoomsToCommitForSummaries.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fRoomsToCommitForSummaries = mRoomsToCommitForSummaries;
-            mRoomsToCommitForSummaries = new HashSet<>();
+            mRoomsToCommitForSummaries = newCommitSet();
 
             Runnable r = new Runnable() {
                 @Override
@@ -2003,73 +2351,49 @@ public class MXFileStore extends MXMemoryStore {
     }
 
     /**
-     * Load the room summary from the files system.
+     * Read the room summaries in parallel.
+     * The summaries are read first because they are required to display the rooms list.
      *
-     * @param roomId the room id.
-     * @return true if the operation succeeds;
+     * @return the summaries futures by room id
      */
-    private boolean loadSummary(final String roomId) {
-        boolean succeed = true;
-
-        // do not check if the room exists here.
-        // if the user is invited to a room, the room object is not created until it is joined.
-        RoomSummary summary = null;
-
-        try {
-            File messagesListFile = new File(mStoreRoomsSummaryFolderFile, roomId);
-            Object summaryAsVoid = readObject("loadSummary " + roomId, messagesListFile);
-
-            if (null == summaryAsVoid) {
-                Log.e(LOG_TAG, "loadSummary failed");
-                return false;
-            }
-
-            summary = (RoomSummary) summaryAsVoid;
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadSummary failed : " + e.getMessage(), e);
-        }
-
-        if (null != summary) {
-            //summary.getLatestReceivedEvent().finalizeDeserialization();
-
-            Room room = getRoom(summary.getRoomId());
-
-            // the room state is not saved in the summary.
-            // it is restored from the room
-            if (null != room) {
-                summary.setLatestRoomState(room.getState());
-            }
-
-            mRoomSummaries.put(roomId, summary);
-        }
-
-        return succeed;
+    private Map<String, Future<Object>> readSummaries() {
+        return mLoader.readAll(listFiles(mStoreRoomsSummaryFolderFile.list()), MXFileStoreLoader.PRIORITY_SUMMARIES,
+                new MXFileStoreLoader.Reader<Object>() {
+                    @Override
+                    public Object read(String roomId) {
+                        return readObject("loadSummary " + roomId, new File(mStoreRoomsSummaryFolderFile, roomId));
+                    }
+                });
     }
 
     /**
      * Load room summaries from the file system.
+     * Do not check if the rooms exist here : if the user is invited to a room,
+     * the room object is not created until it is joined.
      *
+     * @param futures   the summaries futures
+     * @param loadStart the load start time
      * @return true if the operation succeeds.
      */
-    private boolean loadSummaries() {
+    private boolean loadSummaries(Map<String, Future<Object>> futures, long loadStart) {
         boolean succeed = true;
-        try {
-            // extract the room states
-            List<String> filenames = listFiles(mStoreRoomsSummaryFolderFile.list());
 
-            long start = System.currentTimeMillis();
+        for (Map.Entry<String, Future<Object>> entry : futures.entrySet()) {
+            Object summaryAsVoid = MXFileStoreLoader.getResult(entry.getValue());
 
-            for (String filename : filenames) {
-                succeed &= loadSummary(filename);
+            if (!(summaryAsVoid instanceof RoomSummary)) {
+                Log.e(LOG_TAG, "loadSummaries : the summary of " + entry.getKey() + " cannot be loaded");
+                succeed = false;
+                break;
             }
 
-            long delta = (System.currentTimeMillis() - start);
-            Log.d(LOG_TAG, "loadSummaries " + filenames.size() + " rooms in " + delta + " ms");
+            mRoomSummaries.put(entry.getKey(), (RoomSummary) summaryAsVoid);
+        }
+
+        if (succeed) {
+            long delta = System.currentTimeMillis() - loadStart;
+            Log.d(LOG_TAG, "loadSummaries " + futures.size() + " rooms in " + delta + " ms");
             mStoreStats.put("loadSummaries", delta);
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadSummaries failed : " + e.getMessage(), e);
         }
 
         return succeed;
@@ -2156,17 +2480,22 @@ public class MXFileStore extends MXMemoryStore {
 
     @Override
     public List<ReceiptData> getEventReceipts(String roomId, String eventId, boolean excludeSelf, boolean sort) {
+        boolean loadNow = false;
+
         synchronized (mRoomReceiptsToLoad) {
-            int pos = mRoomReceiptsToLoad.indexOf(roomId);
+            Integer priority = mRoomReceiptsToLoad.get(roomId);
 
             // the user requires the receipts asap
-            if (pos >= 2) {
-                mRoomReceiptsToLoad.remove(roomId);
-                // index 0 is the current managed one
-                mRoomReceiptsToLoad.add(1, roomId);
+            if ((null != priority) && (priority > MXFileStoreLoader.PRIORITY_ON_DEMAND)) {
+                mRoomReceiptsToLoad.put(roomId, MXFileStoreLoader.PRIORITY_ON_DEMAND);
+                loadNow = true;
             }
         }
 
+        if (loadNow) {
+            submitReceiptsLoading(roomId, MXFileStoreLoader.PRIORITY_ON_DEMAND);
+        }
+
         return super.getEventReceipts(roomId, eventId, excludeSelf, sort);
     }
 
@@ -2245,44 +2574,97 @@ public class MXFileStore extends MXMemoryStore {
 
     /**
      * Load event receipts from the file system.
+     * The rooms receipts are loaded in background, the receipts of a room are loaded
+     * first when they are requested by {@link #getEventReceipts(String, String, boolean, boolean)}.
+     */
+    private void loadReceipts() {
+        List<String> roomIds;
+
+        synchronized (mRoomReceiptsToLoad) {
+            roomIds = new ArrayList<>(mRoomReceiptsToLoad.keySet());
+        }
+
+        for (String roomId : roomIds) {
+            submitReceiptsLoading(roomId, MXFileStoreLoader.PRIORITY_RECEIPTS);
+        }
+
+        // every room has been submitted
+        if (0 == mRemainingRoomReceiptsCount.decrementAndGet()) {
+            onReceiptsLoaded();
+        }
+    }
+
+    /**
+     * Submit the receipts loading of a room to the loader.
      *
-     * @return true if the operation succeeds.
+     * @param roomId   the room id
+     * @param priority the loading priority
      */
-    private boolean loadReceipts() {
-        boolean succeed = true;
-        try {
-            int count = mRoomReceiptsToLoad.size();
-            long start = System.currentTimeMillis();
+    private void submitReceiptsLoading(final String roomId, int priority) {
+        MXFileStoreLoader loader = mLoader;
 
-            while (mRoomReceiptsToLoad.size() > 0) {
-                String roomId;
-                synchronized (mRoomReceiptsToLoad) {
-                    roomId = mRoomReceiptsToLoad.get(0);
-                }
+        if (null == loader) {
+            Log.e(LOG_TAG, "## submitReceiptsLoading() : the store is closed, the receipts of " + roomId + " are not loaded");
+            return;
+        }
 
-                loadReceipts(roomId);
+        loader.submit(priority, new Callable<Void>() {
+            @Override
+            public Void call() {
+                loadPendingReceipts(roomId);
+                return null;
+            }
+        });
+    }
 
-                synchronized (mRoomReceiptsToLoad) {
-                    mRoomReceiptsToLoad.remove(0);
-                }
+    /**
+     * Load the receipts of a room if they have not been loaded yet.
+     * This method is called from a loader thread.
+     *
+     * @param roomId the room id
+     */
+    private void loadPendingReceipts(String roomId) {
+        synchronized (mRoomReceiptsToLoad) {
+            Integer priority = mRoomReceiptsToLoad.get(roomId);
+
+            // already loaded or being loaded by another thread
+            if ((null == priority) || (RECEIPTS_LOADING == priority)) {
+                return;
             }
 
-            saveReceipts();
+            mRoomReceiptsToLoad.put(roomId, RECEIPTS_LOADING);
+        }
 
-            long delta = (System.currentTimeMillis() - start);
-            Log.d(LOG_TAG, "loadReceipts " + count + " rooms in " + delta + " ms");
-            mStoreStats.put("loadReceipts", delta);
+        try {
+            if (!isKilled()) {
+                loadReceipts(roomId);
+            }
         } catch (Exception e) {
-            succeed = false;
-            //Toast.makeText(mContext, "loadReceipts failed" + e, Toast.LENGTH_LONG).show();
             Log.e(LOG_TAG, "loadReceipts failed : " + e.getMessage(), e);
         }
 
+        synchronized (mRoomReceiptsToLoad) {
+            mRoomReceiptsToLoad.remove(roomId);
+        }
+
+        if (0 == mRemainingRoomReceiptsCount.decrementAndGet()) {
+            onReceiptsLoaded();
+        }
+    }
+
+    /**
+     * Called when the receipts of all the rooms have been loaded.
+     */
+    private void onReceiptsLoaded() {
+        saveReceipts();
+
+        long delta = System.currentTimeMillis() - mReceiptsLoadStart;
+        Log.d(LOG_TAG, "loadReceipts in " + delta + " ms");
+        mStoreStats.put("loadReceipts", delta);
+
         synchronized (this) {
             mAreReceiptsReady = true;
         }
-
-        return succeed;
     }
 
     /**
@@ -2293,7 +2675,7 @@ public class MXFileStore extends MXMemoryStore {
     private void saveReceipts(final String roomId) {
         synchronized (mRoomReceiptsToLoad) {
             // please wait
-            if (mRoomReceiptsToLoad.contains(roomId)) {
+            if (mRoomReceiptsToLoad.containsKey(roomId)) {
                 return;
             }
         }
@@ -2380,7 +2762,7 @@ public class MXFileStore extends MXMemoryStore {
      * @param object      the object to save
      * @return true if the operation succeeds
      */
-    private boolean writeObject(String description, File file, Object object) {
+    boolean writeObject(String description, File file, Object object) {
         String parent = file.getParent();
         String name = file.getName();
 
@@ -2404,11 +2786,20 @@ public class MXFileStore extends MXMemoryStore {
                 cos = fos;
             }
             GZIPOutputStream gz = CompatUtil.createGzipOutputStream(cos);
-            ObjectOutputStream out = new ObjectOutputStream(gz);
 
-            out.writeObject(object);
-            out.flush();
-            out.close();
+            if (MXFileStoreCodec.isSupported(object)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gz));
+
+                MXFileStoreCodec.encode(out, object);
+                out.flush();
+                out.close();
+            } else {
+                ObjectOutputStream out = new ObjectOutputStream(gz);
+
+                out.writeObject(object);
+                out.flush();
+                out.close();
+            }
 
             succeed = true;
         } catch (OutOfMemoryError oom) {
@@ -2433,7 +2824,7 @@ public class MXFileStore extends MXMemoryStore {
      * @param file        the file
      * @return the read object if it can be retrieved
      */
-    private Object readObject(String description, File file) {
+    Object readObject(String description, File file) {
         String parent = file.getParent();
         String name = file.getName();
 
@@ -2461,10 +2852,22 @@ public class MXFileStore extends MXMemoryStore {
                 cis = fis;
             }
 
-            GZIPInputStream gz = new GZIPInputStream(cis);
-            ObjectInputStream ois = new ObjectInputStream(gz);
-            object = ois.readObject();
-            ois.close();
+            BufferedInputStream bis = new BufferedInputStream(new GZIPInputStream(cis));
+            DataInputStream dis = new DataInputStream(bis);
+
+            // the files written before the binary codec are java serialized ones
+            // they are converted at the next write
+            bis.mark(4);
+
+            if (MXFileStoreCodec.MAGIC == dis.readInt()) {
+                object = MXFileStoreCodec.decode(dis);
+                dis.close();
+            } else {
+                bis.reset();
+                ObjectInputStream ois = new ObjectInputStream(bis);
+                object = ois.readObject();
+                ois.close();
+            }
         } catch (OutOfMemoryError oom) {
             dispatchOOM(oom);
         } catch (Exception e) {
@@ -2480,7 +2883,7 @@ public class MXFileStore extends MXMemoryStore {
      * @param names the names list
      * @return the filtered list
      */
-    private static List<String> listFiles(String[] names) {
+    static List<String> listFiles(String[] names) {
         List<String> filteredFilenames = new ArrayList<>();
         List<String> tmpFilenames = new ArrayList<>();
 
@@ -2574,7 +2977,7 @@ public class MXFileStore extends MXMemoryStore {
         if ((mGroupsToCommit.size() > 0) && (null != mFileStoreHandler)) {
             // get the list
             final Set<String> fGroupIds = mGroupsToCommit;
-            mGroupsToCommit = new HashSet<>();
+            mGroupsToCommit = newCommitSet();
 
             try {
                 Runnable r = new Runnable() {
@@ -2620,45 +3023,48 @@ public class MXFileStore extends MXMemoryStore {
         }
     }
 
+    /**
+     * Read the groups in parallel.
+     *
+     * @return the groups futures by file name
+     */
+    private Map<String, Future<Object>> readGroups() {
+        return mLoader.readAll(listFiles(mStoreGroupsFolderFile.list()), MXFileStoreLoader.PRIORITY_GROUPS,
+                new MXFileStoreLoader.Reader<Object>() {
+                    @Override
+                    public Object read(String filename) {
+                        return readObject("loadGroups " + filename, new File(mStoreGroupsFolderFile, filename));
+                    }
+                });
+    }
+
     /**
      * Load groups from the filesystem.
      *
+     * @param futures   the groups futures
+     * @param loadStart the load start time
      * @return true if the operation succeeds.
      */
-    private boolean loadGroups() {
+    private boolean loadGroups(Map<String, Future<Object>> futures, long loadStart) {
         boolean succeed = true;
 
-        try {
-            // extract the messages list
-            List<String> filenames = listFiles(mStoreGroupsFolderFile.list());
-
-            long start = System.currentTimeMillis();
-
-            for (String filename : filenames) {
-                File groupFile = new File(mStoreGroupsFolderFile, filename);
+        for (Map.Entry<String, Future<Object>> entry : futures.entrySet()) {
+            Object groupAsVoid = MXFileStoreLoader.getResult(entry.getValue());
 
-                if (groupFile.exists()) {
-                    Object groupAsVoid = readObject("loadGroups " + filename, groupFile);
-
-                    if ((null != groupAsVoid) && (groupAsVoid instanceof Group)) {
-                        Group group = (Group) groupAsVoid;
-                        mGroups.put(group.getGroupId(), group);
-                    } else {
-                        succeed = false;
-                        break;
-                    }
-                }
-            }
-
-            if (succeed) {
-                long delta = (System.currentTimeMillis() - start);
-                Log.d(LOG_TAG, "loadGroups : " + filenames.size() + " groups in " + delta + " ms");
-                mStoreStats.put("loadGroups", delta);
+            if (groupAsVoid instanceof Group) {
+                Group group = (Group) groupAsVoid;
+                mGroups.put(group.getGroupId(), group);
+            } else {
+                Log.e(LOG_TAG, "loadGroups : the group " + entry.getKey() + " cannot be loaded");
+                succeed = false;
+                break;
             }
+        }
 
-        } catch (Exception e) {
-            succeed = false;
-            Log.e(LOG_TAG, "loadGroups failed : " + e.getMessage(), e);
+        if (succeed) {
+            long delta = System.currentTimeMillis() - loadStart;
+            Log.d(LOG_TAG, "loadGroups : " + futures.size() + " groups in " + delta + " ms");
+            mStoreStats.put("loadGroups", delta);
         }
 
         return succeed;
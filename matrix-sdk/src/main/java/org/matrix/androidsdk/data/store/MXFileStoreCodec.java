@@ -0,0 +1,813 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.data.RoomAccountData;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.RedactedBecause;
+import org.matrix.androidsdk.rest.model.RedactedContent;
+import org.matrix.androidsdk.rest.model.UnsignedData;
+import org.matrix.androidsdk.rest.model.group.Group;
+import org.matrix.androidsdk.rest.model.group.GroupProfile;
+import org.matrix.androidsdk.rest.model.group.GroupRoom;
+import org.matrix.androidsdk.rest.model.group.GroupRooms;
+import org.matrix.androidsdk.rest.model.group.GroupSummary;
+import org.matrix.androidsdk.rest.model.group.GroupSummaryRoomsSection;
+import org.matrix.androidsdk.rest.model.group.GroupSummaryUser;
+import org.matrix.androidsdk.rest.model.group.GroupSummaryUsersSection;
+import org.matrix.androidsdk.rest.model.group.GroupUser;
+import org.matrix.androidsdk.rest.model.group.GroupUsers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary codec of the {@link MXFileStore} files.
+ * <p>
+ * It replaces the java serialization for the most used model classes : the events, the room summaries,
+ * the room account data, the read receipts and the groups.
+ * A file starts with {@link #MAGIC}, the codec version and the type of the encoded object.
+ * The files which do not start with {@link #MAGIC} are java serialized ones : they are still read and
+ * they are written again with this codec at the next save.
+ */
+public final class MXFileStoreCodec {
+    // "MXSC"
+    static final int MAGIC = 0x4D585343;
+
+    // the current codec version
+    // it is provided to the readers to be able to read the former versions
+    public static final int VERSION = 1;
+
+    // the encoded object types
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_EVENT = 2;
+    private static final byte TYPE_EVENTS_SEGMENT = 3;
+    private static final byte TYPE_EVENTS_MAP = 4;
+    private static final byte TYPE_ROOM_SUMMARY = 5;
+    private static final byte TYPE_ROOM_ACCOUNT_DATA = 6;
+    private static final byte TYPE_RECEIPTS = 7;
+    private static final byte TYPE_GROUP = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private MXFileStoreCodec() {
+    }
+
+    /**
+     * Tells if an object can be encoded with this codec.
+     *
+     * @param object the object
+     * @return true if it is supported
+     */
+    static boolean isSupported(Object object) {
+        if ((object instanceof String)
+                || (object instanceof Event)
+                || (object instanceof MXFileStoreEventsLog.Segment)
+                || (object instanceof RoomSummary)
+                || (object instanceof RoomAccountData)
+                || (object instanceof Group)) {
+            return true;
+        }
+
+        if (object instanceof LinkedHashMap) {
+            for (Map.Entry<?, ?> entry : ((LinkedHashMap<?, ?>) object).entrySet()) {
+                if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Event)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (object instanceof List) {
+            for (Object item : (List<?>) object) {
+                if (!(item instanceof ReceiptData)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Encode an object with its header.
+     *
+     * @param output the output
+     * @param object the object to encode, it must be supported
+     * @throws IOException if the object cannot be written
+     */
+    @SuppressWarnings("unchecked")
+    static void encode(DataOutput output, Object object) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+
+        if (object instanceof String) {
+            output.writeByte(TYPE_STRING);
+            writeString(output, (String) object);
+        } else if (object instanceof Event) {
+            output.writeByte(TYPE_EVENT);
+            ((Event) object).writeBinary(output);
+        } else if (object instanceof MXFileStoreEventsLog.Segment) {
+            MXFileStoreEventsLog.Segment segment = (MXFileStoreEventsLog.Segment) object;
+
+            output.writeByte(TYPE_EVENTS_SEGMENT);
+            output.writeBoolean(segment.mIsSnapshot);
+            output.writeInt(segment.mKeys.size());
+
+            for (int i = 0; i < segment.mKeys.size(); i++) {
+                writeString(output, segment.mKeys.get(i));
+                writeEvent(output, segment.mEvents.get(i));
+            }
+        } else if (object instanceof LinkedHashMap) {
+            LinkedHashMap<String, Event> events = (LinkedHashMap<String, Event>) object;
+
+            output.writeByte(TYPE_EVENTS_MAP);
+            output.writeInt(events.size());
+
+            for (Map.Entry<String, Event> entry : events.entrySet()) {
+                writeString(output, entry.getKey());
+                writeEvent(output, entry.getValue());
+            }
+        } else if (object instanceof RoomSummary) {
+            output.writeByte(TYPE_ROOM_SUMMARY);
+            ((RoomSummary) object).writeBinary(output);
+        } else if (object instanceof RoomAccountData) {
+            output.writeByte(TYPE_ROOM_ACCOUNT_DATA);
+            ((RoomAccountData) object).writeBinary(output);
+        } else if (object instanceof List) {
+            List<ReceiptData> receipts = (List<ReceiptData>) object;
+
+            output.writeByte(TYPE_RECEIPTS);
+            output.writeInt(receipts.size());
+
+            for (ReceiptData receipt : receipts) {
+                writeString(output, receipt.userId);
+                writeString(output, receipt.eventId);
+                output.writeLong(receipt.originServerTs);
+            }
+        } else if (object instanceof Group) {
+            output.writeByte(TYPE_GROUP);
+            writeGroup(output, (Group) object);
+        } else {
+            throw new IOException("Unsupported type " + object.getClass().getName());
+        }
+    }
+
+    /**
+     * Decode an object.
+     * The {@link #MAGIC} has already been read by the caller.
+     *
+     * @param input the input
+     * @return the decoded object
+     * @throws IOException            if the data cannot be read
+     * @throws ClassNotFoundException if a java serialized field cannot be read
+     */
+    static Object decode(DataInput input) throws IOException, ClassNotFoundException {
+        int version = input.readUnsignedByte();
+
+        if (version > VERSION) {
+            throw new IOException("Unsupported codec version " + version);
+        }
+
+        int type = input.readByte();
+
+        switch (type) {
+            case TYPE_STRING:
+                return readString(input);
+            case TYPE_EVENT: {
+                Event event = new Event();
+                event.readBinary(input, version);
+                return event;
+            }
+            case TYPE_EVENTS_SEGMENT: {
+                MXFileStoreEventsLog.Segment segment = new MXFileStoreEventsLog.Segment();
+                segment.mIsSnapshot = input.readBoolean();
+                int count = input.readInt();
+
+                for (int i = 0; i < count; i++) {
+                    segment.mKeys.add(readString(input));
+                    segment.mEvents.add(readEvent(input, version));
+                }
+                return segment;
+            }
+            case TYPE_EVENTS_MAP: {
+                int count = input.readInt();
+                LinkedHashMap<String, Event> events = new LinkedHashMap<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    events.put(readString(input), readEvent(input, version));
+                }
+                return events;
+            }
+            case TYPE_ROOM_SUMMARY: {
+                RoomSummary summary = new RoomSummary();
+                summary.readBinary(input, version);
+                return summary;
+            }
+            case TYPE_ROOM_ACCOUNT_DATA: {
+                RoomAccountData accountData = new RoomAccountData();
+                accountData.readBinary(input, version);
+                return accountData;
+            }
+            case TYPE_RECEIPTS: {
+                int count = input.readInt();
+                List<ReceiptData> receipts = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    receipts.add(new ReceiptData(readString(input), readString(input), input.readLong()));
+                }
+                return receipts;
+            }
+            case TYPE_GROUP:
+                return readGroup(input);
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+
+    //================================================================================
+    // Basic types
+    //================================================================================
+
+    /**
+     * Write a nullable string.
+     * Unlike {@link DataOutput#writeUTF(String)}, its length is not limited to 64K.
+     *
+     * @param output the output
+     * @param value  the string
+     * @throws IOException if it cannot be written
+     */
+    public static void writeString(DataOutput output, String value) throws IOException {
+        if (null == value) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Read a nullable string.
+     *
+     * @param input the input
+     * @return the string
+     * @throws IOException if it cannot be read
+     */
+    public static String readString(DataInput input) throws IOException {
+        int length = input.readInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write a nullable strings collection.
+     *
+     * @param output the output
+     * @param values the strings
+     * @throws IOException if it cannot be written
+     */
+    public static void writeStrings(DataOutput output, Collection<String> values) throws IOException {
+        if (null == values) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(values.size());
+
+            for (String value : values) {
+                writeString(output, value);
+            }
+        }
+    }
+
+    /**
+     * Read a nullable strings list.
+     *
+     * @param input the input
+     * @return the strings list
+     * @throws IOException if it cannot be read
+     */
+    public static List<String> readStrings(DataInput input) throws IOException {
+        int count = input.readInt();
+
+        if (count < 0) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            values.add(readString(input));
+        }
+
+        return values;
+    }
+
+    /**
+     * Write a nullable Long.
+     *
+     * @param output the output
+     * @param value  the value
+     * @throws IOException if it cannot be written
+     */
+    public static void writeLong(DataOutput output, Long value) throws IOException {
+        output.writeBoolean(null != value);
+        if (null != value) {
+            output.writeLong(value);
+        }
+    }
+
+    /**
+     * Read a nullable Long.
+     *
+     * @param input the input
+     * @return the value
+     * @throws IOException if it cannot be read
+     */
+    public static Long readLong(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readLong() : null;
+    }
+
+    /**
+     * Write a nullable Integer.
+     *
+     * @param output the output
+     * @param value  the value
+     * @throws IOException if it cannot be written
+     */
+    public static void writeInteger(DataOutput output, Integer value) throws IOException {
+        output.writeBoolean(null != value);
+        if (null != value) {
+            output.writeInt(value);
+        }
+    }
+
+    /**
+     * Read a nullable Integer.
+     *
+     * @param input the input
+     * @return the value
+     * @throws IOException if it cannot be read
+     */
+    public static Integer readInteger(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readInt() : null;
+    }
+
+    /**
+     * Write a nullable Boolean.
+     *
+     * @param output the output
+     * @param value  the value
+     * @throws IOException if it cannot be written
+     */
+    public static void writeBoolean(DataOutput output, Boolean value) throws IOException {
+        output.writeByte((null == value) ? -1 : (value ? 1 : 0));
+    }
+
+    /**
+     * Read a nullable Boolean.
+     *
+     * @param input the input
+     * @return the value
+     * @throws IOException if it cannot be read
+     */
+    public static Boolean readBoolean(DataInput input) throws IOException {
+        byte value = input.readByte();
+        return (value < 0) ? null : (value != 0);
+    }
+
+    /**
+     * Write a nullable Double.
+     *
+     * @param output the output
+     * @param value  the value
+     * @throws IOException if it cannot be written
+     */
+    public static void writeDouble(DataOutput output, Double value) throws IOException {
+        output.writeBoolean(null != value);
+        if (null != value) {
+            output.writeDouble(value);
+        }
+    }
+
+    /**
+     * Read a nullable Double.
+     *
+     * @param input the input
+     * @return the value
+     * @throws IOException if it cannot be read
+     */
+    public static Double readDouble(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readDouble() : null;
+    }
+
+    /**
+     * Write a rarely defined object with the java serialization.
+     *
+     * @param output the output
+     * @param value  the object
+     * @throws IOException if it cannot be written
+     */
+    public static void writeSerializable(DataOutput output, Serializable value) throws IOException {
+        if (null == value) {
+            output.writeInt(-1);
+        } else {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+
+            byte[] bytes = bos.toByteArray();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Read an object written with {@link #writeSerializable(DataOutput, Serializable)}.
+     *
+     * @param input the input
+     * @return the object
+     * @throws IOException            if it cannot be read
+     * @throws ClassNotFoundException if the object class does not exist anymore
+     */
+    public static Object readSerializable(DataInput input) throws IOException, ClassNotFoundException {
+        int length = input.readInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Object value = ois.readObject();
+        ois.close();
+        return value;
+    }
+
+    //================================================================================
+    // Events
+    //================================================================================
+
+    /**
+     * Write a nullable event.
+     *
+     * @param output the output
+     * @param event  the event
+     * @throws IOException if it cannot be written
+     */
+    public static void writeEvent(DataOutput output, Event event) throws IOException {
+        output.writeBoolean(null != event);
+        if (null != event) {
+            event.writeBinary(output);
+        }
+    }
+
+    /**
+     * Read a nullable event.
+     *
+     * @param input   the input
+     * @param version the codec version
+     * @return the event
+     * @throws IOException            if it cannot be read
+     * @throws ClassNotFoundException if a java serialized field cannot be read
+     */
+    public static Event readEvent(DataInput input, int version) throws IOException, ClassNotFoundException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        Event event = new Event();
+        event.readBinary(input, version);
+        return event;
+    }
+
+    /**
+     * Write a nullable unsigned data.
+     *
+     * @param output   the output
+     * @param unsigned the unsigned data
+     * @throws IOException if it cannot be written
+     */
+    public static void writeUnsignedData(DataOutput output, UnsignedData unsigned) throws IOException {
+        output.writeBoolean(null != unsigned);
+
+        if (null != unsigned) {
+            writeLong(output, unsigned.age);
+
+            RedactedBecause redactedBecause = unsigned.redacted_because;
+            output.writeBoolean(null != redactedBecause);
+
+            if (null != redactedBecause) {
+                writeString(output, redactedBecause.type);
+                output.writeLong(redactedBecause.origin_server_ts);
+                writeString(output, redactedBecause.sender);
+                writeString(output, redactedBecause.event_id);
+                writeUnsignedData(output, redactedBecause.unsigned);
+                writeString(output, redactedBecause.redacts);
+                output.writeBoolean(null != redactedBecause.content);
+                if (null != redactedBecause.content) {
+                    writeString(output, redactedBecause.content.reason);
+                }
+            }
+
+            writeString(output, unsigned.transaction_id);
+
+            if (null == unsigned.inviteRoomState) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(unsigned.inviteRoomState.size());
+
+                for (Event event : unsigned.inviteRoomState) {
+                    writeEvent(output, event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a nullable unsigned data.
+     *
+     * @param input   the input
+     * @param version the codec version
+     * @return the unsigned data
+     * @throws IOException            if it cannot be read
+     * @throws ClassNotFoundException if a java serialized field cannot be read
+     */
+    public static UnsignedData readUnsignedData(DataInput input, int version) throws IOException, ClassNotFoundException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        UnsignedData unsigned = new UnsignedData();
+        unsigned.age = readLong(input);
+
+        if (input.readBoolean()) {
+            RedactedBecause redactedBecause = new RedactedBecause();
+            redactedBecause.type = readString(input);
+            redactedBecause.origin_server_ts = input.readLong();
+            redactedBecause.sender = readString(input);
+            redactedBecause.event_id = readString(input);
+            redactedBecause.unsigned = readUnsignedData(input, version);
+            redactedBecause.redacts = readString(input);
+
+            if (input.readBoolean()) {
+                redactedBecause.content = new RedactedContent();
+                redactedBecause.content.reason = readString(input);
+            }
+
+            unsigned.redacted_because = redactedBecause;
+        }
+
+        unsigned.transaction_id = readString(input);
+
+        int count = input.readInt();
+
+        if (count >= 0) {
+            unsigned.inviteRoomState = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                unsigned.inviteRoomState.add(readEvent(input, version));
+            }
+        }
+
+        return unsigned;
+    }
+
+    //================================================================================
+    // Groups
+    //================================================================================
+
+    private static void writeGroup(DataOutput output, Group group) throws IOException {
+        writeString(output, group.getGroupId());
+        writeString(output, group.getMembership());
+        writeString(output, group.getInviter());
+
+        GroupSummary summary = group.getGroupSummary();
+        output.writeBoolean(null != summary);
+
+        if (null != summary) {
+            GroupProfile profile = summary.profile;
+            output.writeBoolean(null != profile);
+            if (null != profile) {
+                writeString(output, profile.shortDescription);
+                writeBoolean(output, profile.isPublic);
+                writeString(output, profile.avatarUrl);
+                writeString(output, profile.name);
+                writeString(output, profile.longDescription);
+            }
+
+            GroupSummaryUsersSection usersSection = summary.usersSection;
+            output.writeBoolean(null != usersSection);
+            if (null != usersSection) {
+                writeInteger(output, usersSection.totalUserCountEstimate);
+                writeStrings(output, usersSection.users);
+            }
+
+            GroupSummaryUser user = summary.user;
+            output.writeBoolean(null != user);
+            if (null != user) {
+                writeString(output, user.membership);
+                writeBoolean(output, user.isPublicised);
+            }
+
+            GroupSummaryRoomsSection roomsSection = summary.roomsSection;
+            output.writeBoolean(null != roomsSection);
+            if (null != roomsSection) {
+                writeInteger(output, roomsSection.totalRoomCountEstimate);
+                writeStrings(output, roomsSection.rooms);
+            }
+        }
+
+        GroupRooms rooms = group.getGroupRooms();
+        output.writeBoolean(null != rooms);
+
+        if (null != rooms) {
+            writeInteger(output, rooms.totalRoomCountEstimate);
+
+            if (null == rooms.chunk) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(rooms.chunk.size());
+
+                for (GroupRoom room : rooms.chunk) {
+                    writeStrings(output, room.aliases);
+                    writeString(output, room.canonicalAlias);
+                    writeString(output, room.name);
+                    output.writeInt(room.numJoinedMembers);
+                    writeString(output, room.roomId);
+                    writeString(output, room.topic);
+                    output.writeBoolean(room.worldReadable);
+                    output.writeBoolean(room.guestCanJoin);
+                    writeString(output, room.avatarUrl);
+                }
+            }
+        }
+
+        writeGroupUsers(output, group.getGroupUsers());
+        writeGroupUsers(output, group.getInvitedGroupUsers());
+    }
+
+    private static void writeGroupUsers(DataOutput output, GroupUsers users) throws IOException {
+        output.writeBoolean(null != users);
+
+        if (null != users) {
+            writeInteger(output, users.totalUserCountEstimate);
+
+            if (null == users.chunk) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(users.chunk.size());
+
+                for (GroupUser user : users.chunk) {
+                    writeString(output, user.displayname);
+                    writeString(output, user.userId);
+                    writeBoolean(output, user.isPrivileged);
+                    writeString(output, user.avatarUrl);
+                    writeBoolean(output, user.isPublic);
+                }
+            }
+        }
+    }
+
+    private static Group readGroup(DataInput input) throws IOException {
+        Group group = new Group(readString(input));
+        group.setMembership(readString(input));
+        group.setInviter(readString(input));
+
+        GroupSummary summary = null;
+
+        if (input.readBoolean()) {
+            summary = new GroupSummary();
+
+            if (input.readBoolean()) {
+                GroupProfile profile = new GroupProfile();
+                profile.shortDescription = readString(input);
+                profile.isPublic = readBoolean(input);
+                profile.avatarUrl = readString(input);
+                profile.name = readString(input);
+                profile.longDescription = readString(input);
+                summary.profile = profile;
+            }
+
+            if (input.readBoolean()) {
+                GroupSummaryUsersSection usersSection = new GroupSummaryUsersSection();
+                usersSection.totalUserCountEstimate = readInteger(input);
+                usersSection.users = readStrings(input);
+                summary.usersSection = usersSection;
+            }
+
+            if (input.readBoolean()) {
+                GroupSummaryUser user = new GroupSummaryUser();
+                user.membership = readString(input);
+                user.isPublicised = readBoolean(input);
+                summary.user = user;
+            }
+
+            if (input.readBoolean()) {
+                GroupSummaryRoomsSection roomsSection = new GroupSummaryRoomsSection();
+                roomsSection.totalRoomCountEstimate = readInteger(input);
+                roomsSection.rooms = readStrings(input);
+                summary.roomsSection = roomsSection;
+            }
+        }
+
+        group.setGroupSummary(summary);
+
+        GroupRooms rooms = null;
+
+        if (input.readBoolean()) {
+            rooms = new GroupRooms();
+            rooms.totalRoomCountEstimate = readInteger(input);
+
+            int count = input.readInt();
+
+            if (count >= 0) {
+                rooms.chunk = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    GroupRoom room = new GroupRoom();
+                    room.aliases = readStrings(input);
+                    room.canonicalAlias = readString(input);
+                    room.name = readString(input);
+                    room.numJoinedMembers = input.readInt();
+                    room.roomId = readString(input);
+                    room.topic = readString(input);
+                    room.worldReadable = input.readBoolean();
+                    room.guestCanJoin = input.readBoolean();
+                    room.avatarUrl = readString(input);
+                    rooms.chunk.add(room);
+                }
+            }
+        }
+
+        group.setGroupRooms(rooms);
+        group.setGroupUsers(readGroupUsers(input));
+        group.setInvitedGroupUsers(readGroupUsers(input));
+
+        return group;
+    }
+
+    private static GroupUsers readGroupUsers(DataInput input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        GroupUsers users = new GroupUsers();
+        users.totalUserCountEstimate = readInteger(input);
+
+        int count = input.readInt();
+
+        if (count >= 0) {
+            users.chunk = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                GroupUser user = new GroupUser();
+                user.displayname = readString(input);
+                user.userId = readString(input);
+                user.isPrivileged = readBoolean(input);
+                user.avatarUrl = readString(input);
+                user.isPublic = readBoolean(input);
+                users.chunk.add(user);
+            }
+        }
+
+        return users;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.core.FileContentUtils;
+import org.matrix.androidsdk.core.Log;
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of the room events saved by the {@link MXFileStore}.
+ * <p>
+ * Each room has its own folder of numbered segments.
+ * A commit appends a segment which only contains the events stored or deleted since the previous commit,
+ * so the written data does not depend on the room history size.
+ * From time to time, the log is compacted by writing a snapshot segment and by deleting the previous ones.
+ * <p>
+ * The segments are written with {@link MXFileStore#writeObject(String, File, Object)}
+ * so they get the same encryption and .tmp rescue than the other store files.
+ */
+class MXFileStoreEventsLog {
+    private static final String LOG_TAG = MXFileStoreEventsLog.class.getSimpleName();
+
+    // compact the log when there are too many segments to read at startup
+    private static final int MAX_SEGMENTS_COUNT = 32;
+
+    /**
+     * A log segment.
+     * The events are stored with their key in the room events map : a null event means that the key has been deleted.
+     */
+    static class Segment implements Serializable {
+        private static final long serialVersionUID = 4572693528571427810L;
+
+        // true when the segment contains the whole room history
+        boolean mIsSnapshot;
+
+        final List<String> mKeys = new ArrayList<>();
+        final List<Event> mEvents = new ArrayList<>();
+
+        /**
+         * @return true if the segment contains nothing to write
+         */
+        boolean isEmpty() {
+            return !mIsSnapshot && mKeys.isEmpty();
+        }
+    }
+
+    /**
+     * The on-disk log description of a room.
+     */
+    private static class RoomLog {
+        // the index of the next segment to write
+        int mNextSegmentIndex;
+        // segments count since the latest snapshot
+        int mSegmentsCount;
+        // records count since the latest snapshot
+        int mRecordsCount;
+    }
+
+    // the store which performs the file operations
+    private final MXFileStore mStore;
+
+    // the logs root folder
+    private final File mFolder;
+
+    // compact the log when it contains more records than this value
+    private final int mMaxRecordsCount;
+
+    // the pending updates by room id
+    private final Map<String, Segment> mPendingSegments = new HashMap<>();
+
+    // the on-disk logs by room id
+    private final Map<String, RoomLog> mRoomLogs = new HashMap<>();
+
+    // serialize the reads and the writes of a room log, by room id
+    private final Map<String, Object> mRoomFileLocks = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param store           the file store
+     * @param folder          the folder where the rooms logs are saved
+     * @param maxRecordsCount the number of records after which the log is compacted
+     */
+    MXFileStoreEventsLog(MXFileStore store, File folder, int maxRecordsCount) {
+        mStore = store;
+        mFolder = folder;
+        mMaxRecordsCount = maxRecordsCount;
+    }
+
+    /**
+     * @param roomId the room id
+     * @return the folder of the room log
+     */
+    private File getRoomFolder(String roomId) {
+        return new File(mFolder, roomId);
+    }
+
+    /**
+     * @param roomId the room id
+     * @return the lock of the room log files
+     */
+    private Object getRoomFileLock(String roomId) {
+        synchronized (mRoomFileLocks) {
+            Object lock = mRoomFileLocks.get(roomId);
+
+            if (null == lock) {
+                lock = new Object();
+                mRoomFileLocks.put(roomId, lock);
+            }
+
+            return lock;
+        }
+    }
+
+    /**
+     * @return the room ids which have a log
+     */
+    List<String> getRoomIds() {
+        List<String> roomIds = new ArrayList<>();
+        File[] files = mFolder.listFiles();
+
+        if (null != files) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    roomIds.add(file.getName());
+                }
+            }
+        }
+
+        return roomIds;
+    }
+
+    /**
+     * Tells if a room has a log on the file system.
+     *
+     * @param roomId the room id
+     * @return true if it exists
+     */
+    boolean exists(String roomId) {
+        String[] names = getRoomFolder(roomId).list();
+        return (null != names) && (names.length > 0);
+    }
+
+    //================================================================================
+    // Pending updates
+    //================================================================================
+
+    /**
+     * @param roomId the room id
+     * @return the pending segment of a room, it is created if it does not exist.
+     */
+    private Segment getPendingSegment(String roomId) {
+        Segment segment = mPendingSegments.get(roomId);
+
+        if (null == segment) {
+            segment = new Segment();
+            mPendingSegments.put(roomId, segment);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Append a stored event to the room log.
+     *
+     * @param roomId the room id
+     * @param key    the event key in the room events map
+     * @param event  the event
+     */
+    void appendEvent(String roomId, String key, Event event) {
+        synchronized (mPendingSegments) {
+            Segment segment = getPendingSegment(roomId);
+
+            // the snapshot will be computed from the memory store
+            if (!segment.mIsSnapshot) {
+                segment.mKeys.add(key);
+                segment.mEvents.add(event);
+            }
+        }
+    }
+
+    /**
+     * Append a deleted event to the room log.
+     *
+     * @param roomId the room id
+     * @param key    the event key in the room events map
+     */
+    void deleteEvent(String roomId, String key) {
+        appendEvent(roomId, key, null);
+    }
+
+    /**
+     * Request to save the whole room history at the next commit.
+     * It is required when the update cannot be described by appending events.
+     *
+     * @param roomId the room id
+     */
+    void requestSnapshot(String roomId) {
+        synchronized (mPendingSegments) {
+            Segment segment = getPendingSegment(roomId);
+            segment.mIsSnapshot = true;
+            segment.mKeys.clear();
+            segment.mEvents.clear();
+        }
+    }
+
+    /**
+     * Tells if a room has some updates which have not been taken by a commit yet.
+     *
+     * @param roomId the room id
+     * @return true if there is a pending segment
+     */
+    boolean hasPendingSegment(String roomId) {
+        synchronized (mPendingSegments) {
+            return mPendingSegments.containsKey(roomId);
+        }
+    }
+
+    /**
+     * Extract the pending updates of a room.
+     *
+     * @param roomId the room id
+     * @return the pending segment, null if there is no pending update.
+     */
+    Segment takePendingSegment(String roomId) {
+        synchronized (mPendingSegments) {
+            return mPendingSegments.remove(roomId);
+        }
+    }
+
+    //================================================================================
+    // File operations
+    //================================================================================
+
+    /**
+     * List the segment indexes of a room log in ascending order.
+     *
+     * @param roomId the room id
+     * @return the segment indexes
+     */
+    private List<Integer> listSegmentIndexes(String roomId) {
+        List<Integer> indexes = new ArrayList<>();
+
+        for (String name : MXFileStore.listFiles(getRoomFolder(roomId).list())) {
+            try {
+                indexes.add(Integer.parseInt(name));
+            } catch (NumberFormatException e) {
+                Log.e(LOG_TAG, "## listSegmentIndexes() : unexpected file " + name + " in " + roomId);
+            }
+        }
+
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * @param roomId the room id
+     * @return the on-disk log description, null if it has not been read or written yet.
+     */
+    private RoomLog getRoomLog(String roomId) {
+        synchronized (mRoomLogs) {
+            return mRoomLogs.get(roomId);
+        }
+    }
+
+    /**
+     * Tells if the next commit must write a snapshot instead of a segment.
+     *
+     * @param roomId the room id
+     * @return true if the room log must be compacted
+     */
+    boolean needsCompaction(String roomId) {
+        RoomLog roomLog = getRoomLog(roomId);
+
+        return (null == roomLog)
+                || (roomLog.mSegmentsCount >= MAX_SEGMENTS_COUNT)
+                || (roomLog.mRecordsCount >= mMaxRecordsCount);
+    }
+
+    /**
+     * Build a snapshot segment.
+     *
+     * @param events the events to save
+     * @return the snapshot segment
+     */
+    static Segment createSnapshot(LinkedHashMap<String, Event> events) {
+        Segment snapshot = new Segment();
+        snapshot.mIsSnapshot = true;
+
+        for (Map.Entry<String, Event> entry : events.entrySet()) {
+            snapshot.mKeys.add(entry.getKey());
+            snapshot.mEvents.add(entry.getValue());
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Write a segment at the end of the room log.
+     * When the segment is a snapshot, the previous segments are deleted once it has been written.
+     * This method must be called from the store thread, the room log is not read while it is written.
+     *
+     * @param roomId  the room id
+     * @param segment the segment to write
+     * @return true if the operation succeeds
+     */
+    boolean writeSegment(String roomId, Segment segment) {
+        synchronized (getRoomFileLock(roomId)) {
+            File roomFolder = getRoomFolder(roomId);
+
+            if (!roomFolder.exists()) {
+                roomFolder.mkdirs();
+            }
+
+            RoomLog roomLog = getRoomLog(roomId);
+
+            if (null == roomLog) {
+                // the log has not been read : append after the existing segments if any
+                List<Integer> indexes = listSegmentIndexes(roomId);
+
+                roomLog = new RoomLog();
+                roomLog.mNextSegmentIndex = indexes.isEmpty() ? 0 : indexes.get(indexes.size() - 1) + 1;
+                roomLog.mSegmentsCount = MAX_SEGMENTS_COUNT;
+
+                if (!segment.mIsSnapshot) {
+                    Log.e(LOG_TAG, "## writeSegment() : " + roomId + " the log is unknown, a snapshot is expected");
+                }
+            }
+
+            int index = roomLog.mNextSegmentIndex;
+            File segmentFile = new File(roomFolder, String.valueOf(index));
+
+            if (!mStore.writeObject("writeSegment " + roomId + " " + index, segmentFile, segment)) {
+                // a new segment has no previous version to restore : remove the partial file
+                segmentFile.delete();
+                return false;
+            }
+
+            roomLog.mNextSegmentIndex = index + 1;
+
+            if (segment.mIsSnapshot) {
+                roomLog.mSegmentsCount = 0;
+                roomLog.mRecordsCount = 0;
+
+                // the previous segments are useless now
+                for (int oldIndex : listSegmentIndexes(roomId)) {
+                    if (oldIndex < index) {
+                        new File(roomFolder, String.valueOf(oldIndex)).delete();
+                        new File(roomFolder, oldIndex + ".tmp").delete();
+                    }
+                }
+            } else {
+                roomLog.mSegmentsCount++;
+            }
+
+            roomLog.mRecordsCount += segment.mKeys.size();
+
+            synchronized (mRoomLogs) {
+                mRoomLogs.put(roomId, roomLog);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Replay the room log.
+     * This method is called from a loader thread when the room messages are loaded on demand.
+     * A truncated last segment is not deleted : it is overwritten by the next written segment.
+     *
+     * @param roomId the room id
+     * @return the room events, null if the log cannot be read.
+     */
+    LinkedHashMap<String, Event> read(String roomId) {
+        synchronized (getRoomFileLock(roomId)) {
+            File roomFolder = getRoomFolder(roomId);
+            List<Integer> indexes = listSegmentIndexes(roomId);
+
+            LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+            RoomLog roomLog = new RoomLog();
+
+            for (int pos = 0; pos < indexes.size(); pos++) {
+                int index = indexes.get(pos);
+                Object segmentAsVoid = mStore.readObject("readSegment " + roomId + " " + index, new File(roomFolder, String.valueOf(index)));
+
+                if (!(segmentAsVoid instanceof Segment)) {
+                    if (pos == indexes.size() - 1) {
+                        // the application has been killed while appending this segment :
+                        // it is the same as if the latest commit had not been done.
+                        Log.e(LOG_TAG, "## read() : " + roomId + " ignore the truncated segment " + index);
+                        roomLog.mNextSegmentIndex = index;
+                        break;
+                    }
+
+                    Log.e(LOG_TAG, "## read() : " + roomId + " the segment " + index + " is corrupted");
+                    return null;
+                }
+
+                Segment segment = (Segment) segmentAsVoid;
+
+                if (segment.mIsSnapshot) {
+                    events.clear();
+                    roomLog.mSegmentsCount = 0;
+                    roomLog.mRecordsCount = 0;
+                } else {
+                    roomLog.mSegmentsCount++;
+                }
+
+                for (int i = 0; i < segment.mKeys.size(); i++) {
+                    String key = segment.mKeys.get(i);
+                    Event event = segment.mEvents.get(i);
+
+                    if (null != event) {
+                        events.put(key, event);
+                    } else {
+                        events.remove(key);
+                    }
+                }
+
+                roomLog.mRecordsCount += segment.mKeys.size();
+                roomLog.mNextSegmentIndex = index + 1;
+            }
+
+            synchronized (mRoomLogs) {
+                mRoomLogs.put(roomId, roomLog);
+            }
+
+            return events;
+        }
+    }
+
+    /**
+     * Delete the log of a room.
+     *
+     * @param roomId the room id
+     */
+    void delete(String roomId) {
+        synchronized (mPendingSegments) {
+            mPendingSegments.remove(roomId);
+        }
+
+        synchronized (getRoomFileLock(roomId)) {
+            synchronized (mRoomLogs) {
+                mRoomLogs.remove(roomId);
+            }
+
+            File roomFolder = getRoomFolder(roomId);
+
+            if (roomFolder.exists()) {
+                try {
+                    FileContentUtils.deleteDirectory(roomFolder);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## delete() : " + roomId + " failed " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the pending updates and the on-disk logs description.
+     * The files are deleted by the store.
+     */
+    void clear() {
+        synchronized (mPendingSegments) {
+            mPendingSegments.clear();
+        }
+
+        synchronized (mRoomLogs) {
+            mRoomLogs.clear();
+        }
+    }
+}
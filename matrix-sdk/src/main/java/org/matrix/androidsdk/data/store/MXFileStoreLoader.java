@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.core.Log;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of threads which reads the {@link MXFileStore} files in parallel.
+ * <p>
+ * The tasks are run by priority, so the files required to display the rooms list are read first
+ * and an on demand read is not queued behind the background ones.
+ * The read objects are applied to the store by the caller.
+ */
+class MXFileStoreLoader {
+    private static final String LOG_TAG = MXFileStoreLoader.class.getSimpleName();
+
+    // the tasks priorities : the lowest value is run first
+    static final int PRIORITY_ON_DEMAND = 0;
+    static final int PRIORITY_SUMMARIES = 1;
+    static final int PRIORITY_ROOMS = 2;
+    static final int PRIORITY_GROUPS = 3;
+    static final int PRIORITY_RECEIPTS = 4;
+
+    // the idle threads are released after this delay
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Read the file(s) of an item.
+     *
+     * @param <T> the read object type
+     */
+    interface Reader<T> {
+        /**
+         * Read an item. This method is called from a loader thread.
+         *
+         * @param name the item name (a room id, a group id...)
+         * @return the read object, null if there is nothing to read
+         */
+        T read(String name);
+    }
+
+    /**
+     * A future which can be sorted by priority then by submission order.
+     */
+    private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final int mPriority;
+        private final long mSequence;
+
+        PrioritizedTask(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            if (mPriority != other.mPriority) {
+                return (mPriority < other.mPriority) ? -1 : 1;
+            }
+
+            return (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+    }
+
+    // the loader which owns the current thread, if any
+    private static final ThreadLocal<MXFileStoreLoader> sCurrentLoader = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor mExecutor;
+
+    // the submission order of the tasks with the same priority
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param name         the threads name prefix
+     * @param threadsCount the maximum number of threads
+     */
+    MXFileStoreLoader(final String name, int threadsCount) {
+        mExecutor = new ThreadPoolExecutor(threadsCount,
+                threadsCount,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mIndex = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                sCurrentLoader.set(MXFileStoreLoader.this);
+                                runnable.run();
+                            }
+                        }, name + "_" + mIndex.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the default number of threads, according to the device cores count.
+     */
+    static int getDefaultThreadsCount() {
+        return Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return true if the current thread is one of the loader threads.
+     */
+    boolean isLoaderThread() {
+        return this == sCurrentLoader.get();
+    }
+
+    /**
+     * Submit a task.
+     *
+     * @param priority the task priority
+     * @param callable the task
+     * @return the task future
+     */
+    <T> Future<T> submit(int priority, Callable<T> callable) {
+        PrioritizedTask<T> task = new PrioritizedTask<>(callable, priority, mSequence.getAndIncrement());
+
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "## submit() : the loader is shut down");
+            task.cancel(false);
+        }
+
+        return task;
+    }
+
+    /**
+     * Read some items in parallel.
+     *
+     * @param names    the items names
+     * @param priority the tasks priority
+     * @param reader   the items reader
+     * @return the futures by item name, in the names order
+     */
+    <T> Map<String, Future<T>> readAll(Collection<String> names, int priority, final Reader<T> reader) {
+        Map<String, Future<T>> futures = new LinkedHashMap<>();
+
+        for (final String name : names) {
+            futures.put(name, submit(priority, new Callable<T>() {
+                @Override
+                public T call() {
+                    return reader.read(name);
+                }
+            }));
+        }
+
+        return futures;
+    }
+
+    /**
+     * Wait for a read result.
+     *
+     * @param future the read future
+     * @return the read object, null if the read failed
+     */
+    static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## getResult() : interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "## getResult() : failed " + e.getMessage(), e);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## getResult() : cancelled " + e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Run a task on the current thread if it has not been started yet.
+     * A loader thread must call it before waiting for a task of its own loader:
+     * the task could be queued while every loader thread is waiting.
+     * The pool ignores the task once it has been run.
+     *
+     * @param future the task future
+     */
+    static void runIfPending(Future<?> future) {
+        if (future instanceof RunnableFuture) {
+            ((RunnableFuture<?>) future).run();
+        }
+    }
+
+    /**
+     * Cancel the pending tasks and release the threads.
+     */
+    void shutdown() {
+        for (Runnable runnable : mExecutor.shutdownNow()) {
+            // unblock the callers which wait for the result
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+}
@@ -49,7 +49,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,7 +67,7 @@ public class MXMemoryStore implements IMXStore {
     protected static final Object mRoomEventsLock = new Object();
 
     // room id -> map of (event_id -> event) events for this room (linked so insertion order is preserved)
-    protected Map<String, LinkedHashMap<String, Event>> mRoomEvents;
+    protected Map<String, RoomEvents> mRoomEvents;
 
     protected Map<String, String> mRoomTokens;
 
@@ -546,19 +545,27 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    /**
+     * Called before accessing the stored events of a room.
+     * A permanent store can override it to load them on demand.
+     *
+     * @param roomId the room id
+     */
+    protected void loadRoomEventsIfNeeded(String roomId) {
+    }
+
     @Override
     public Event getOldestEvent(String roomId) {
         Event event = null;
 
         if (null != roomId) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                RoomEvents events = mRoomEvents.get(roomId);
 
                 if (events != null) {
-                    Iterator<Event> it = events.values().iterator();
-                    if (it.hasNext()) {
-                        event = it.next();
-                    }
+                    event = events.getFirst();
                 }
             }
         }
@@ -577,20 +584,13 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (null != roomId) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                RoomEvents events = mRoomEvents.get(roomId);
 
                 if (events != null) {
-                    Iterator<Event> it = events.values().iterator();
-                    if (it.hasNext()) {
-                        Event lastEvent = null;
-
-                        while (it.hasNext()) {
-                            lastEvent = it.next();
-                        }
-
-                        event = lastEvent;
-                    }
+                    event = events.getLast();
                 }
             }
         }
@@ -606,34 +606,28 @@ public class MXMemoryStore implements IMXStore {
      */
     @Override
     public int eventsCountAfter(String roomId, String eventId) {
-        return eventsAfter(roomId, eventId, mCredentials.userId, null).size();
+        return eventsAfter(roomId, eventId, mCredentials.userId, null, null);
     }
 
     @Override
     public void storeLiveRoomEvent(Event event) {
         try {
             if ((null != event) && (null != event.roomId) && (null != event.eventId)) {
+                loadRoomEventsIfNeeded(event.roomId);
+
                 synchronized (mRoomEventsLock) {
-                    LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
+                    RoomEvents events = mRoomEvents.get(event.roomId);
 
                     // create the list it does not exist
                     if (null == events) {
-                        events = new LinkedHashMap<>();
+                        events = new RoomEvents();
                         mRoomEvents.put(event.roomId, events);
                     } else if (events.containsKey(event.eventId)) {
                         // the event is already define
                         return;
-                    } else if (!event.isDummyEvent() && (mTemporaryEventsList.size() > 0)) {
+                    } else {
                         // remove any waiting echo event
-                        String dummyKey = null;
-
-                        for (String key : mTemporaryEventsList.keySet()) {
-                            Event eventToCheck = mTemporaryEventsList.get(key);
-                            if (TextUtils.equals(eventToCheck.eventId, event.eventId)) {
-                                dummyKey = key;
-                                break;
-                            }
-                        }
+                        String dummyKey = getPendingEchoKey(event);
 
                         if (null != dummyKey) {
                             events.remove(dummyKey);
@@ -655,11 +649,35 @@ public class MXMemoryStore implements IMXStore {
         }
     }
 
+    /**
+     * Find the waiting echo which is replaced by a received event.
+     * It must be called while holding mRoomEventsLock.
+     *
+     * @param event the received event
+     * @return the key of the echo event, null if there is none
+     */
+    protected String getPendingEchoKey(Event event) {
+        if (event.isDummyEvent()) {
+            return null;
+        }
+
+        for (String key : mTemporaryEventsList.keySet()) {
+            Event eventToCheck = mTemporaryEventsList.get(key);
+            if (TextUtils.equals(eventToCheck.eventId, event.eventId)) {
+                return key;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public boolean doesEventExist(String eventId, String roomId) {
         boolean res = false;
 
         if (!TextUtils.isEmpty(eventId) && !TextUtils.isEmpty(roomId)) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
                 res = mRoomEvents.containsKey(roomId) && mRoomEvents.get(roomId).containsKey(eventId);
             }
@@ -673,8 +691,10 @@ public class MXMemoryStore implements IMXStore {
         Event event = null;
 
         if (!TextUtils.isEmpty(eventId) && !TextUtils.isEmpty(roomId)) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                RoomEvents events = mRoomEvents.get(roomId);
 
                 if (events != null) {
                     event = events.get(eventId);
@@ -688,8 +708,10 @@ public class MXMemoryStore implements IMXStore {
     @Override
     public void deleteEvent(Event event) {
         if ((null != event) && (null != event.roomId) && (event.eventId != null)) {
+            loadRoomEventsIfNeeded(event.roomId);
+
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
+                RoomEvents events = mRoomEvents.get(event.roomId);
                 if (events != null) {
                     events.remove(event.eventId);
                 }
@@ -732,19 +754,21 @@ public class MXMemoryStore implements IMXStore {
     public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
         // sanity check
         if (null != roomId) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
 
                 if (keepUnsent) {
-                    LinkedHashMap<String, Event> eventMap = mRoomEvents.get(roomId);
+                    RoomEvents events = mRoomEvents.get(roomId);
 
-                    if (null != eventMap) {
-                        List<Event> events = new ArrayList<>(eventMap.values());
+                    if (null != events) {
+                        Iterator<Event> iterator = events.iterator();
 
-                        for (Event event : events) {
-                            if (event.mSentState == Event.SentState.SENT) {
-                                if (null != event.eventId) {
-                                    eventMap.remove(event.eventId);
-                                }
+                        while (iterator.hasNext()) {
+                            Event event = iterator.next();
+
+                            if ((event.mSentState == Event.SentState.SENT) && (null != event.eventId)) {
+                                iterator.remove();
                             }
                         }
                     }
@@ -766,10 +790,12 @@ public class MXMemoryStore implements IMXStore {
     public void storeRoomEvents(String roomId, TokensChunkEvents tokensChunkEvents, EventTimeline.Direction direction) {
         try {
             if (null != roomId) {
+                loadRoomEventsIfNeeded(roomId);
+
                 synchronized (mRoomEventsLock) {
-                    LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+                    RoomEvents events = mRoomEvents.get(roomId);
                     if (events == null) {
-                        events = new LinkedHashMap<>();
+                        events = new RoomEvents();
                         mRoomEvents.put(roomId, events);
                     }
 
@@ -780,34 +806,15 @@ public class MXMemoryStore implements IMXStore {
                             events.put(event.eventId, event);
                         }
                     } else { // BACKWARD
-                        Collection<Event> eventsList = events.values();
-
                         // no stored events
-                        if (events.size() == 0) {
-                            // insert the catchup events in reverse order
-                            for (int index = tokensChunkEvents.chunk.size() - 1; index >= 0; index--) {
-                                Event backEvent = tokensChunkEvents.chunk.get(index);
-                                events.put(backEvent.eventId, backEvent);
-                            }
-
+                        if (events.isEmpty()) {
                             // define a token
                             mRoomTokens.put(roomId, tokensChunkEvents.start);
-                        } else {
-                            LinkedHashMap<String, Event> events2 = new LinkedHashMap<>();
-
-                            // insert the catchup events in reverse order
-                            for (int index = tokensChunkEvents.chunk.size() - 1; index >= 0; index--) {
-                                Event backEvent = tokensChunkEvents.chunk.get(index);
-                                events2.put(backEvent.eventId, backEvent);
-                            }
-
-                            // add the previous added Events
-                            for (Event event : eventsList) {
-                                events2.put(event.eventId, event);
-                            }
+                        }
 
-                            // store the new list
-                            mRoomEvents.put(roomId, events2);
+                        // the catchup events are provided from the latest to the oldest one
+                        for (Event backEvent : tokensChunkEvents.chunk) {
+                            events.prepend(backEvent.eventId, backEvent);
                         }
                     }
                 }
@@ -960,11 +967,13 @@ public class MXMemoryStore implements IMXStore {
 
         Collection<Event> collection = null;
 
+        loadRoomEventsIfNeeded(roomId);
+
         synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            RoomEvents events = mRoomEvents.get(roomId);
 
             if (null != events) {
-                collection = new ArrayList<>(events.values());
+                collection = events.getEvents();
             }
         }
 
@@ -976,11 +985,11 @@ public class MXMemoryStore implements IMXStore {
         // For now, we return everything we have for the original null token request
         // For older requests (providing a token), returning null for now
         if (null != roomId) {
-            List<Event> eventsList;
+            loadRoomEventsIfNeeded(roomId);
 
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
-                if ((events == null) || (events.size() == 0)) {
+                RoomEvents events = mRoomEvents.get(roomId);
+                if ((events == null) || events.isEmpty()) {
                     return null;
                 }
 
@@ -989,66 +998,50 @@ public class MXMemoryStore implements IMXStore {
                     return null;
                 }
 
-                // check if the token is known in the sublist
-                eventsList = new ArrayList<>(events.values());
-            }
-
-
-            List<Event> subEventsList = new ArrayList<>();
+                // search from the latest to the oldest events
+                // or from the event which holds the token
+                Iterator<Event> iterator = (null == fromToken) ? events.descendingIterator() : events.descendingIteratorBefore(fromToken);
 
-            // search from the latest to the oldest events
-            Collections.reverse(eventsList);
-
-            TokensChunkEvents response = new TokensChunkEvents();
-
-            // start the latest event and there is enough events to provide to the caller ?
-            if ((null == fromToken) && (eventsList.size() <= limit)) {
-                subEventsList = eventsList;
-            } else {
-                int index = 0;
-
-                if (null != fromToken) {
-                    // search if token is one of the stored events
-                    for (; (index < eventsList.size()) && (!TextUtils.equals(fromToken, eventsList.get(index).mToken)); index++)
-                        ;
-
-                    index++;
+                // unknown token
+                if (null == iterator) {
+                    return null;
                 }
 
-                // found it ?
-                if (index < eventsList.size()) {
-                    for (; index < eventsList.size(); index++) {
-                        Event event = eventsList.get(index);
-                        subEventsList.add(event);
+                List<Event> subEventsList = new ArrayList<>();
 
-                        // loop until to find an event with a token
-                        if ((subEventsList.size() >= limit) && (event.mToken != null)) {
-                            break;
-                        }
+                while (iterator.hasNext()) {
+                    Event event = iterator.next();
+                    subEventsList.add(event);
+
+                    // loop until to find an event with a token
+                    if ((subEventsList.size() >= limit) && (event.mToken != null)) {
+                        break;
                     }
                 }
-            }
 
-            // unknown token
-            if (subEventsList.size() == 0) {
-                return null;
-            }
+                // no more stored events
+                if (subEventsList.size() == 0) {
+                    return null;
+                }
 
-            response.chunk = subEventsList;
+                TokensChunkEvents response = new TokensChunkEvents();
+                response.chunk = subEventsList;
 
-            Event firstEvent = subEventsList.get(0);
-            Event lastEvent = subEventsList.get(subEventsList.size() - 1);
+                Event firstEvent = subEventsList.get(0);
+                Event lastEvent = subEventsList.get(subEventsList.size() - 1);
 
-            response.start = firstEvent.mToken;
+                response.start = firstEvent.mToken;
 
-            // unknown last event token, use the latest known one
-            if ((null == lastEvent.mToken) && !TextUtils.isEmpty(mRoomTokens.get(roomId))) {
-                lastEvent.mToken = mRoomTokens.get(roomId);
-            }
+                // unknown last event token, use the latest known one
+                if ((null == lastEvent.mToken) && !TextUtils.isEmpty(mRoomTokens.get(roomId))) {
+                    lastEvent.mToken = mRoomTokens.get(roomId);
+                    events.refreshToken(lastEvent.eventId);
+                }
 
-            response.end = lastEvent.mToken;
+                response.end = lastEvent.mToken;
 
-            return response;
+                return response;
+            }
         }
         return null;
     }
@@ -1099,15 +1092,17 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unsentRoomEvents = new ArrayList<>();
 
+        loadRoomEventsIfNeeded(roomId);
+
         synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            RoomEvents events = mRoomEvents.get(roomId);
 
             // contain some events
-            if ((null != events) && (events.size() > 0)) {
-                List<Event> eventsList = new ArrayList<>(events.values());
+            if (null != events) {
+                Iterator<Event> iterator = events.descendingIterator();
 
-                for (int index = events.size() - 1; index >= 0; index--) {
-                    Event event = eventsList.get(index);
+                while (iterator.hasNext()) {
+                    Event event = iterator.next();
 
                     if (event.mSentState == Event.SentState.WAITING_RETRY) {
                         unsentRoomEvents.add(event);
@@ -1131,16 +1126,14 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> undeliveredEvents = new ArrayList<>();
 
+        loadRoomEventsIfNeeded(roomId);
+
         synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            RoomEvents events = mRoomEvents.get(roomId);
 
             // contain some events
-            if ((null != events) && (events.size() > 0)) {
-                List<Event> eventsList = new ArrayList<>(events.values());
-
-                for (int index = 0; index < events.size(); index++) {
-                    Event event = eventsList.get(index);
-
+            if (null != events) {
+                for (Event event : events) {
                     if (event.isUndelivered()) {
                         undeliveredEvents.add(event);
                     }
@@ -1159,16 +1152,14 @@ public class MXMemoryStore implements IMXStore {
 
         List<Event> unknownDeviceEvents = new ArrayList<>();
 
+        loadRoomEventsIfNeeded(roomId);
+
         synchronized (mRoomEventsLock) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            RoomEvents events = mRoomEvents.get(roomId);
 
             // contain some events
-            if ((null != events) && (events.size() > 0)) {
-                List<Event> eventsList = new ArrayList<>(events.values());
-
-                for (int index = 0; index < events.size(); index++) {
-                    Event event = eventsList.get(index);
-
+            if (null != events) {
+                for (Event event : events) {
                     if (event.isUnknownDevice()) {
                         unknownDeviceEvents.add(event);
                     }
@@ -1278,17 +1269,18 @@ public class MXMemoryStore implements IMXStore {
 
             // check if the read receipt is not for an already read message
             if (TextUtils.equals(receipt.userId, mCredentials.userId)) {
-                synchronized (mReceiptsByRoomIdLock) {
-                    LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
+                loadRoomEventsIfNeeded(roomId);
 
-                    // test if the event is know
-                    if ((null != eventsMap) && eventsMap.containsKey(receipt.eventId)) {
-                        List<String> eventIds = new ArrayList<>(eventsMap.keySet());
+                // the ordinals are updated under mRoomEventsLock
+                synchronized (mRoomEventsLock) {
+                    RoomEvents events = mRoomEvents.get(roomId);
 
-                        int curEventPos = eventIds.indexOf(curReceipt.eventId);
-                        int newEventPos = eventIds.indexOf(receipt.eventId);
+                    // test if the event is know
+                    if ((null != events) && events.containsKey(receipt.eventId)) {
+                        Long curEventPos = events.getOrdinal(curReceipt.eventId);
+                        long newEventPos = events.getOrdinal(receipt.eventId);
 
-                        if (curEventPos >= newEventPos) {
+                        if ((null != curEventPos) && (curEventPos >= newEventPos)) {
                             Log.d(LOG_TAG, "## storeReceipt() : the read message is already read (cur pos " + curEventPos
                                     + " receipt event pos " + newEventPos + ")");
                             return false;
@@ -1339,53 +1331,53 @@ public class MXMemoryStore implements IMXStore {
      * @param eventId        the start event Id.
      * @param excludedUserId the excluded user id
      * @param allowedTypes   the filtered event type (null to allow anyone)
-     * @return the evnts list
+     * @param events         the events list to fill, null to only count them
+     * @return the events count
      */
-    private List<Event> eventsAfter(String roomId, String eventId, String excludedUserId, List<String> allowedTypes) {
-        // events list
-        List<Event> events = new ArrayList<>();
+    private int eventsAfter(String roomId, String eventId, String excludedUserId, List<String> allowedTypes, List<Event> events) {
+        int count = 0;
 
         // sanity check
         if (null != roomId) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mRoomEventsLock) {
-                LinkedHashMap<String, Event> roomEvents = mRoomEvents.get(roomId);
+                RoomEvents roomEvents = mRoomEvents.get(roomId);
 
                 if (roomEvents != null) {
-                    List<Event> linkedEvents = new ArrayList<>(roomEvents.values());
-
                     // Check messages from the most recent
-                    for (int i = linkedEvents.size() - 1; i >= 0; i--) {
-                        Event event = linkedEvents.get(i);
+                    Iterator<Event> iterator = roomEvents.descendingIterator();
 
-                        if ((null == eventId) || !TextUtils.equals(event.eventId, eventId)) {
-                            // Keep events matching filters
-                            if ((null == allowedTypes || (allowedTypes.indexOf(event.getType()) >= 0))
-                                    && !TextUtils.equals(event.getSender(), excludedUserId)) {
-                                events.add(event);
-                            }
-                        } else {
+                    while (iterator.hasNext()) {
+                        Event event = iterator.next();
+
+                        if ((null != eventId) && TextUtils.equals(event.eventId, eventId)) {
                             // We are done
                             break;
                         }
-                    }
 
-                    // filter the unread messages
-                    // some messages are not defined as unreadable
-                    for (int index = 0; index < events.size(); index++) {
-                        Event event = events.get(index);
+                        // Keep events matching filters
+                        // some messages are not defined as unreadable
+                        if ((null == allowedTypes || (allowedTypes.indexOf(event.getType()) >= 0))
+                                && !TextUtils.equals(event.getSender(), excludedUserId)
+                                && !TextUtils.equals(event.getSender(), mCredentials.userId)
+                                && !TextUtils.equals(event.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER)) {
+                            count++;
 
-                        if (TextUtils.equals(event.getSender(), mCredentials.userId) || TextUtils.equals(event.getType(), Event.EVENT_TYPE_STATE_ROOM_MEMBER)) {
-                            events.remove(index);
-                            index--;
+                            if (null != events) {
+                                events.add(event);
+                            }
                         }
                     }
 
-                    Collections.reverse(events);
+                    if (null != events) {
+                        Collections.reverse(events);
+                    }
                 }
             }
         }
 
-        return events;
+        return count;
     }
 
     /**
@@ -1402,19 +1394,21 @@ public class MXMemoryStore implements IMXStore {
 
         // sanity check
         if ((null != roomId) && (null != userId)) {
+            loadRoomEventsIfNeeded(roomId);
+
             synchronized (mReceiptsByRoomIdLock) {
                 synchronized (mRoomEventsLock) {
                     if (mReceiptsByRoomId.containsKey(roomId) && mRoomEvents.containsKey(roomId)) {
                         Map<String, ReceiptData> receiptsByUserId = mReceiptsByRoomId.get(roomId);
-                        LinkedHashMap<String, Event> eventsMap = mRoomEvents.get(roomId);
+                        RoomEvents events = mRoomEvents.get(roomId);
 
                         // check if the event is known
-                        if (eventsMap.containsKey(eventIdTotest) && receiptsByUserId.containsKey(userId)) {
+                        if (events.containsKey(eventIdTotest) && receiptsByUserId.containsKey(userId)) {
                             ReceiptData data = receiptsByUserId.get(userId);
-                            List<String> eventIds = new ArrayList<>(eventsMap.keySet());
+                            Long readEventPos = events.getOrdinal(data.eventId);
 
                             // the message has been read if it was sent before the latest read one
-                            res = eventIds.indexOf(eventIdTotest) <= eventIds.indexOf(data.eventId);
+                            res = (null != readEventPos) && (events.getOrdinal(eventIdTotest) <= readEventPos);
                         } else if (receiptsByUserId.containsKey(userId)) {
                             // the event is not known so assume it is has been flushed
                             res = true;
@@ -1438,6 +1432,9 @@ public class MXMemoryStore implements IMXStore {
     public List<Event> unreadEvents(String roomId, List<String> types) {
         List<Event> res = null;
 
+        // load them before locking the receipts
+        loadRoomEventsIfNeeded(roomId);
+
         synchronized (mReceiptsByRoomIdLock) {
             if (mReceiptsByRoomId.containsKey(roomId)) {
                 Map<String, ReceiptData> receiptsByUserId = mReceiptsByRoomId.get(roomId);
@@ -1445,7 +1442,8 @@ public class MXMemoryStore implements IMXStore {
                 if (receiptsByUserId.containsKey(mCredentials.userId)) {
                     ReceiptData data = receiptsByUserId.get(mCredentials.userId);
 
-                    res = eventsAfter(roomId, data.eventId, mCredentials.userId, types);
+                    res = new ArrayList<>();
+                    eventsAfter(roomId, data.eventId, mCredentials.userId, types, res);
                 }
             }
         }
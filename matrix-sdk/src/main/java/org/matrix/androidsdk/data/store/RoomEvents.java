@@ -0,0 +1,398 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.data.store;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The stored events of a room, from the oldest to the latest one.
+ * <p>
+ * The events are only inserted at the head (back pagination) or at the tail (live events),
+ * so each event gets a stable ordinal which gives its position without any list copy:
+ * the oldest and the latest events are known and two events are ordered in constant time.
+ * The events which hold a pagination token are also indexed to serve the back paginations.
+ * <p>
+ * This class is not thread safe, the memory store accesses it under its room events lock.
+ */
+public class RoomEvents implements Iterable<Event> {
+
+    private static class Node {
+        final String mKey;
+        Event mEvent;
+        final long mOrdinal;
+
+        Node mPrevious;
+        Node mNext;
+
+        Node(String key, Event event, long ordinal) {
+            mKey = key;
+            mEvent = event;
+            mOrdinal = ordinal;
+        }
+    }
+
+    // the nodes by event key
+    private final Map<String, Node> mNodes = new HashMap<>();
+
+    // the nodes by pagination token, the latest one when several events hold the same token
+    private final Map<String, Node> mNodesByToken = new HashMap<>();
+
+    // the oldest event
+    private Node mHead;
+
+    // the latest event
+    private Node mTail;
+
+    public RoomEvents() {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param events the events in chronological order.
+     */
+    public RoomEvents(LinkedHashMap<String, Event> events) {
+        for (Map.Entry<String, Event> entry : events.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return the events count
+     */
+    public int size() {
+        return mNodes.size();
+    }
+
+    /**
+     * @return true if there is no event
+     */
+    public boolean isEmpty() {
+        return mNodes.isEmpty();
+    }
+
+    /**
+     * @param key the event key
+     * @return true if the event is stored
+     */
+    public boolean containsKey(String key) {
+        return mNodes.containsKey(key);
+    }
+
+    /**
+     * @param key the event key
+     * @return the stored event, null if it is unknown
+     */
+    public Event get(String key) {
+        Node node = mNodes.get(key);
+        return (null != node) ? node.mEvent : null;
+    }
+
+    /**
+     * @return the oldest event, null if there is none
+     */
+    public Event getFirst() {
+        return (null != mHead) ? mHead.mEvent : null;
+    }
+
+    /**
+     * @return the latest event, null if there is none
+     */
+    public Event getLast() {
+        return (null != mTail) ? mTail.mEvent : null;
+    }
+
+    /**
+     * Provides the position of an event.
+     * The ordinals are not contiguous but they follow the events order.
+     *
+     * @param key the event key
+     * @return the event ordinal, null if the event is unknown
+     */
+    public Long getOrdinal(String key) {
+        Node node = mNodes.get(key);
+        return (null != node) ? node.mOrdinal : null;
+    }
+
+    /**
+     * Add an event after the latest one.
+     * A known event is updated in place.
+     *
+     * @param key   the event key
+     * @param event the event
+     */
+    public void put(String key, Event event) {
+        Node node = mNodes.get(key);
+
+        if (null != node) {
+            unindexToken(node);
+            node.mEvent = event;
+            indexToken(node);
+            return;
+        }
+
+        node = new Node(key, event, (null != mTail) ? mTail.mOrdinal + 1 : 0);
+        node.mPrevious = mTail;
+
+        if (null != mTail) {
+            mTail.mNext = node;
+        } else {
+            mHead = node;
+        }
+
+        mTail = node;
+        mNodes.put(key, node);
+        indexToken(node);
+    }
+
+    /**
+     * Add an event before the oldest one.
+     * A known event keeps its position.
+     *
+     * @param key   the event key
+     * @param event the event
+     */
+    public void prepend(String key, Event event) {
+        if (mNodes.containsKey(key)) {
+            return;
+        }
+
+        Node node = new Node(key, event, (null != mHead) ? mHead.mOrdinal - 1 : 0);
+        node.mNext = mHead;
+
+        if (null != mHead) {
+            mHead.mPrevious = node;
+        } else {
+            mTail = node;
+        }
+
+        mHead = node;
+        mNodes.put(key, node);
+        indexToken(node);
+    }
+
+    /**
+     * Remove an event.
+     *
+     * @param key the event key
+     * @return the removed event, null if it is unknown
+     */
+    public Event remove(String key) {
+        Node node = mNodes.remove(key);
+
+        if (null == node) {
+            return null;
+        }
+
+        unlink(node);
+        return node.mEvent;
+    }
+
+    /**
+     * Remove all the events.
+     */
+    public void clear() {
+        mNodes.clear();
+        mNodesByToken.clear();
+        mHead = null;
+        mTail = null;
+    }
+
+    private void unlink(Node node) {
+        unindexToken(node);
+
+        if (null != node.mPrevious) {
+            node.mPrevious.mNext = node.mNext;
+        } else {
+            mHead = node.mNext;
+        }
+
+        if (null != node.mNext) {
+            node.mNext.mPrevious = node.mPrevious;
+        } else {
+            mTail = node.mPrevious;
+        }
+    }
+
+    //================================================================================
+    // Pagination tokens
+    //================================================================================
+
+    private void indexToken(Node node) {
+        String token = (null != node.mEvent) ? node.mEvent.mToken : null;
+
+        if (null != token) {
+            Node indexedNode = mNodesByToken.get(token);
+
+            if ((null == indexedNode) || (indexedNode.mOrdinal < node.mOrdinal)) {
+                mNodesByToken.put(token, node);
+            }
+        }
+    }
+
+    private void unindexToken(Node node) {
+        String token = (null != node.mEvent) ? node.mEvent.mToken : null;
+
+        if ((null != token) && (mNodesByToken.get(token) == node)) {
+            mNodesByToken.remove(token);
+        }
+    }
+
+    /**
+     * Update the pagination token index after the token of a stored event has been set.
+     *
+     * @param key the event key
+     */
+    public void refreshToken(String key) {
+        Node node = mNodes.get(key);
+
+        if (null != node) {
+            indexToken(node);
+        }
+    }
+
+    /**
+     * Search the latest event which holds a pagination token.
+     *
+     * @param token the pagination token
+     * @return the node, null if no event holds this token
+     */
+    private Node getNodeByToken(String token) {
+        Node node = mNodesByToken.get(token);
+
+        // the event token may have been updated without refreshing the index
+        if ((null != node) && ((mNodes.get(node.mKey) != node) || (null == node.mEvent) || !token.equals(node.mEvent.mToken))) {
+            mNodesByToken.remove(token);
+            node = null;
+        }
+
+        if (null == node) {
+            // only the latest event is indexed : an older event may still hold the token
+            // once the indexed one has been removed or its token has changed
+            for (Node olderNode = mTail; null != olderNode; olderNode = olderNode.mPrevious) {
+                if ((null != olderNode.mEvent) && token.equals(olderNode.mEvent.mToken)) {
+                    mNodesByToken.put(token, olderNode);
+                    return olderNode;
+                }
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Provides an iterator on the events older than the latest event which holds a pagination token,
+     * from the latest to the oldest one.
+     *
+     * @param token the pagination token
+     * @return the iterator, null if no event holds this token
+     */
+    public Iterator<Event> descendingIteratorBefore(String token) {
+        Node node = (null != token) ? getNodeByToken(token) : null;
+        return (null != node) ? new NodeIterator(node.mPrevious, false) : null;
+    }
+
+    /**
+     * @return a copy of the events list, from the oldest to the latest one.
+     */
+    public List<Event> getEvents() {
+        List<Event> events = new ArrayList<>(mNodes.size());
+
+        for (Node node = mHead; null != node; node = node.mNext) {
+            events.add(node.mEvent);
+        }
+
+        return events;
+    }
+
+    /**
+     * @return a copy of the events, from the oldest to the latest one.
+     */
+    public LinkedHashMap<String, Event> toLinkedHashMap() {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+        for (Node node = mHead; null != node; node = node.mNext) {
+            events.put(node.mKey, node.mEvent);
+        }
+
+        return events;
+    }
+
+    /**
+     * Iterate the events from the oldest to the latest one.
+     */
+    @Override
+    public Iterator<Event> iterator() {
+        return new NodeIterator(mHead, true);
+    }
+
+    /**
+     * @return an iterator on the events from the latest to the oldest one.
+     */
+    public Iterator<Event> descendingIterator() {
+        return new NodeIterator(mTail, false);
+    }
+
+    /**
+     * Iterator which supports the removal of the current event.
+     */
+    private class NodeIterator implements Iterator<Event> {
+        private Node mNextNode;
+        private Node mCurrentNode;
+        private final boolean mForward;
+
+        NodeIterator(Node first, boolean forward) {
+            mNextNode = first;
+            mForward = forward;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return null != mNextNode;
+        }
+
+        @Override
+        public Event next() {
+            if (null == mNextNode) {
+                throw new NoSuchElementException();
+            }
+
+            mCurrentNode = mNextNode;
+            mNextNode = mForward ? mNextNode.mNext : mNextNode.mPrevious;
+            return mCurrentNode.mEvent;
+        }
+
+        @Override
+        public void remove() {
+            if (null == mCurrentNode) {
+                throw new IllegalStateException();
+            }
+
+            mNodes.remove(mCurrentNode.mKey);
+            unlink(mCurrentNode);
+            mCurrentNode = null;
+        }
+    }
+}
@@ -485,6 +485,9 @@ class MXEventTimeline implements EventTimeline {
             }
         }
 
+        // Decrypt the events if necessary, at once
+        mDataHandler.decryptEvents(events, getTimelineId());
+
         // the backward events have a dedicated management to avoid providing too many events for each request
         for (Event event : events) {
             boolean processedEvent = true;
@@ -496,9 +499,6 @@ class MXEventTimeline implements EventTimeline {
                 processedEvent = processStateEvent(event, direction, considerNewContent);
             }
 
-            // Decrypt event if necessary
-            mDataHandler.decryptEvent(event, getTimelineId());
-
             if (processedEvent) {
                 // warn the listener only if the message is processed.
                 // it should avoid duplicated events.
@@ -103,7 +103,10 @@ class StateEventRedactionChecker {
 
                         // the android SDK does not store stock member events but a representation of them, RoomMember.
                         // Prune this representation
-                        member.prune();
+                        // The members are shared with the copies of the state, so the pruned member replaces it
+                        RoomMember prunedMember = member.deepCopy();
+                        prunedMember.prune();
+                        state.setMember(member.getUserId(), prunedMember);
 
                         isFound = true;
                     }
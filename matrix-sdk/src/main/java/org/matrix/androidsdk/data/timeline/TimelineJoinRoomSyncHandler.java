@@ -191,16 +191,22 @@ class TimelineJoinRoomSyncHandler {
             // save the back token
             events.get(0).mToken = mRoomSync.timeline.prevBatch;
 
-            // Here the events are handled in forward direction (see [handleLiveEvent:]).
-            // They will be added at the end of the stored events, so we keep the chronological order.
             for (Event event : events) {
                 // the roomId is not defined.
                 event.roomId = roomId;
+            }
+
+            // decrypt the encrypted events at once
+            mEventTimeline.getRoom().getDataHandler().decryptEvents(events, mEventTimeline.getTimelineId());
+
+            // Here the events are handled in forward direction (see [handleLiveEvent:]).
+            // They will be added at the end of the stored events, so we keep the chronological order.
+            for (Event event : events) {
                 try {
                     boolean isLimited = mRoomSync.timeline != null && mRoomSync.timeline.limited;
 
                     // digest the forward event
-                    mTimelineLiveEventHandler.handleLiveEvent(event, !isLimited && !mIsGlobalInitialSync, !mIsGlobalInitialSync && !isRoomInitialSync);
+                    mTimelineLiveEventHandler.handleLiveEvent(event, !isLimited && !mIsGlobalInitialSync, !mIsGlobalInitialSync && !isRoomInitialSync, false);
                 } catch (Exception e) {
                     Log.e(LOG_TAG, "timeline event failed " + e.getMessage(), e);
                 }
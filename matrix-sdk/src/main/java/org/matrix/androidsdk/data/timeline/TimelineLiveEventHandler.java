@@ -75,6 +75,21 @@ class TimelineLiveEventHandler {
     public void handleLiveEvent(@NonNull final Event event,
                                 final boolean checkRedactedStateEvent,
                                 final boolean withPush) {
+        handleLiveEvent(event, checkRedactedStateEvent, withPush, true);
+    }
+
+    /**
+     * Handle events coming down from the event stream.
+     *
+     * @param event                   the live event
+     * @param checkRedactedStateEvent set to true to check if it triggers a state event redaction
+     * @param withPush                set to true to trigger pushes when it is required
+     * @param decrypt                 set to false if the event decryption has already been tried
+     */
+    public void handleLiveEvent(@NonNull final Event event,
+                                final boolean checkRedactedStateEvent,
+                                final boolean withPush,
+                                final boolean decrypt) {
         final IMXStore store = mEventTimeline.getStore();
         final Room room = mEventTimeline.getRoom();
         final MXDataHandler dataHandler = room.getDataHandler();
@@ -82,7 +97,9 @@ class TimelineLiveEventHandler {
         final MyUser myUser = dataHandler.getMyUser();
 
         // Decrypt event if necessary
-        dataHandler.decryptEvent(event, timelineId);
+        if (decrypt) {
+            dataHandler.decryptEvent(event, timelineId);
+        }
 
         // dispatch the call events to the calls manager
         if (event.isCallEvent()) {
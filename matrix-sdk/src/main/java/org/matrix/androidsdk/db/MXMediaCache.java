@@ -42,7 +42,6 @@ import org.matrix.androidsdk.crypto.MXEncryptedAttachments;
 import org.matrix.androidsdk.crypto.model.crypto.EncryptedFileInfo;
 import org.matrix.androidsdk.listeners.IMXMediaDownloadListener;
 import org.matrix.androidsdk.listeners.IMXMediaUploadListener;
-import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
 import org.matrix.androidsdk.network.NetworkConnectivityReceiver;
 import org.matrix.androidsdk.rest.client.MediaScanRestClient;
 
@@ -51,11 +50,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.RejectedExecutionException;
 
 public class MXMediaCache {
 
@@ -489,22 +486,27 @@ public class MXMediaCache {
                     if (!tmpFile.exists()) {
                         try {
                             InputStream fis = new FileInputStream(file);
+                            FileOutputStream fos = new FileOutputStream(tmpFile);
+                            boolean isDecrypted = true;
 
                             if (null != encryptedFileInfo) {
-                                InputStream is = MXEncryptedAttachments.decryptAttachment(fis, encryptedFileInfo);
-                                fis.close();
-                                fis = is;
-                            }
-
-                            FileOutputStream fos = new FileOutputStream(tmpFile);
-                            byte[] buf = new byte[2048];
-                            int len;
-                            while ((len = fis.read(buf)) != -1) {
-                                fos.write(buf, 0, len);
+                                // decrypt by chunks, without loading the whole media in memory
+                                isDecrypted = MXEncryptedAttachments.decryptAttachment(fis, encryptedFileInfo, fos);
+                            } else {
+                                byte[] buf = new byte[2048];
+                                int len;
+                                while ((len = fis.read(buf)) != -1) {
+                                    fos.write(buf, 0, len);
+                                }
                             }
 
                             fis.close();
                             fos.close();
+
+                            if (!isDecrypted) {
+                                Log.e(LOG_TAG, "## createTmpDecryptedMediaFile() : the decryption failed");
+                                tmpFile.delete();
+                            }
                         } catch (Exception e) {
                             Log.e(LOG_TAG, "## createTmpDecryptedMediaFile() failed " + e.getMessage(), e);
                         }
@@ -807,7 +809,9 @@ public class MXMediaCache {
                 ExifInterface.ORIENTATION_UNDEFINED,
                 null,
                 getThumbnailsFolderFile(),
-                null);
+                null,
+                null,
+                MXMediaScheduler.Lane.AVATAR);
     }
 
     /**
@@ -837,7 +841,8 @@ public class MXMediaCache {
                 null,
                 getThumbnailsFolderFile(),
                 aDefaultAvatar,
-                null);
+                null,
+                MXMediaScheduler.Lane.AVATAR);
     }
 
     /**
@@ -983,8 +988,15 @@ public class MXMediaCache {
                 encryptionInfo);
     }
 
-    // some tasks have been stacked because there are too many running ones.
-    private final List<MXMediaDownloadWorkerTask> mSuspendedTasks = new ArrayList<>();
+    // the media downloads and uploads are shared by the sessions
+    private static final MXMediaScheduler sMediaScheduler = new MXMediaScheduler();
+
+    /**
+     * @return the scheduler of the media downloads and uploads
+     */
+    public static MXMediaScheduler getMediaScheduler() {
+        return sMediaScheduler;
+    }
 
     /**
      * Check whether a download is in progress for the content at a Matrix media content URI
@@ -1045,6 +1057,34 @@ public class MXMediaCache {
                                 String mimeType,
                                 EncryptedFileInfo encryptionInfo,
                                 IMXMediaDownloadListener listener) {
+        return downloadMedia(context,
+                hsConfig,
+                url,
+                mimeType,
+                encryptionInfo,
+                listener,
+                MXMediaScheduler.Lane.MEDIA);
+    }
+
+    /**
+     * Download a media.
+     *
+     * @param context        the application context
+     * @param hsConfig       the home server config.
+     * @param url            the media url
+     * @param mimeType       the media mimetype
+     * @param encryptionInfo the encryption information
+     * @param listener       the encryption information
+     * @param lane           the scheduler lane, PREFETCH for a media which is not displayed yet
+     * @return the download identifier if there is a pending download else null
+     */
+    public String downloadMedia(Context context,
+                                HomeServerConnectionConfig hsConfig,
+                                String url,
+                                String mimeType,
+                                EncryptedFileInfo encryptionInfo,
+                                IMXMediaDownloadListener listener,
+                                MXMediaScheduler.Lane lane) {
         // sanity checks
         if ((null == mimeType) || (null == context)) {
             return null;
@@ -1060,8 +1100,8 @@ public class MXMediaCache {
 
         // is the media downloading?
         MXMediaDownloadWorkerTask task = MXMediaDownloadWorkerTask.getMediaDownloadWorkerTask(downloadId);
-        if (null != task) {
-            task.addDownloadListener(listener);
+        if ((null != task) && task.addDownloadListener(listener)) {
+            sMediaScheduler.promote(downloadId, lane);
             return downloadId;
         }
 
@@ -1080,66 +1120,16 @@ public class MXMediaCache {
                 mContentManager.isAvScannerEnabled());
         task.addDownloadListener(listener);
 
-        // avoid crash if there are too many running task
         try {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        } catch (RejectedExecutionException e) {
-            // too many tasks have been launched
-            synchronized (mSuspendedTasks) {
-                task.cancel(true);
-                // create a new task from the existing one
-                task = new MXMediaDownloadWorkerTask(task);
-                mSuspendedTasks.add(task);
-                // privacy
-                //Log.e(LOG_TAG, "Suspend the task " + task.getUrl());
-                Log.e(LOG_TAG, "Suspend the task ", e);
-            }
-
+            sMediaScheduler.execute(task, downloadId, lane);
         } catch (Exception e) {
             Log.e(LOG_TAG, "downloadMedia failed " + e.getMessage(), e);
-            synchronized (mSuspendedTasks) {
-                task.cancel(true);
-            }
+            task.cancel(true);
         }
 
         return downloadId;
     }
 
-    /**
-     * Start any suspended task
-     */
-    private void launchSuspendedTask() {
-        synchronized (mSuspendedTasks) {
-            // some task have been suspended because there were too many running ones ?
-            if (!mSuspendedTasks.isEmpty()) {
-                MXMediaDownloadWorkerTask task = mSuspendedTasks.get(0);
-
-                // privacy
-                //Log.d(LOG_TAG, "Restart the task " + task.getUrl());
-                Log.d(LOG_TAG, "Restart a task ");
-
-                // avoid crash if there are too many running task
-                try {
-                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                    mSuspendedTasks.remove(task);
-                } catch (RejectedExecutionException e) {
-                    task.cancel(true);
-
-                    mSuspendedTasks.remove(task);
-                    // create a new task from the existing one
-                    task = new MXMediaDownloadWorkerTask(task);
-                    mSuspendedTasks.add(task);
-
-                    // privacy
-                    //Log.d(LOG_TAG, "Suspend again the task " + task.getUrl() + " - " + task.getStatus());
-                    Log.d(LOG_TAG, "Suspend again the task " + task.getStatus());
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "Try to Restart a task fails " + e.getMessage(), e);
-                }
-            }
-        }
-    }
-
     /**
      * The default bitmap to use when the media cannot be retrieved.
      */
@@ -1227,6 +1217,58 @@ public class MXMediaCache {
                              File folderFile,
                              Bitmap aDefaultBitmap,
                              EncryptedFileInfo encryptionInfo) {
+        return loadBitmap(context,
+                hsConfig,
+                imageView,
+                url,
+                width,
+                height,
+                rotationAngle,
+                orientation,
+                mimeType,
+                folderFile,
+                aDefaultBitmap,
+                encryptionInfo,
+                ((width > 0) && (height > 0)) ? MXMediaScheduler.Lane.THUMBNAIL : MXMediaScheduler.Lane.MEDIA);
+    }
+
+    /**
+     * Load a bitmap from an url.
+     * The imageView image is updated when the bitmap is loaded or downloaded.
+     * The width/height parameters are optional. If they are positive, download a thumbnail.
+     * <p>
+     * The rotation angle is checked first.
+     * If rotationAngle is set to Integer.MAX_VALUE, check the orientation is defined to a valid value.
+     * If the orientation is defined, request the properly oriented image to the server
+     *
+     * @param context        the context
+     * @param hsConfig       the home server config
+     * @param imageView      the imageView to fill when the image is downloaded
+     * @param url            the image url
+     * @param width          the expected image width
+     * @param height         the expected image height
+     * @param rotationAngle  the rotation angle (degrees)
+     * @param orientation    the orientation (ExifInterface.ORIENTATION_XXX value)
+     * @param mimeType       the mimeType.
+     * @param folderFile     the folder where the media should be stored
+     * @param aDefaultBitmap the default bitmap to use when the url media cannot be retrieved.
+     * @param encryptionInfo the file encryption info
+     * @param lane           the scheduler lane
+     * @return a download identifier if the image is not cached
+     */
+    public String loadBitmap(Context context,
+                             HomeServerConnectionConfig hsConfig,
+                             final ImageView imageView,
+                             String url,
+                             int width,
+                             int height,
+                             int rotationAngle,
+                             int orientation,
+                             String mimeType,
+                             File folderFile,
+                             Bitmap aDefaultBitmap,
+                             EncryptedFileInfo encryptionInfo,
+                             MXMediaScheduler.Lane lane) {
         // Check invalid bitmap size
         if ((0 == width) || (0 == height)) {
             return null;
@@ -1274,6 +1316,17 @@ public class MXMediaCache {
         final String fDownloadId = downloadId;
 
         if (null != imageView) {
+            // the imageView does not display its previous media anymore
+            Object previousDownloadId = imageView.getTag();
+
+            if ((previousDownloadId instanceof String) && !TextUtils.equals(fDownloadId, (String) previousDownloadId)) {
+                MXMediaDownloadWorkerTask previousTask = MXMediaDownloadWorkerTask.getMediaDownloadWorkerTask((String) previousDownloadId);
+
+                if (null != previousTask) {
+                    previousTask.removeImageView(imageView);
+                }
+            }
+
             imageView.setTag(fDownloadId);
         }
 
@@ -1300,10 +1353,9 @@ public class MXMediaCache {
         } else {
             MXMediaDownloadWorkerTask currentTask = MXMediaDownloadWorkerTask.getMediaDownloadWorkerTask(downloadId);
 
-            if (null != currentTask) {
-                if (null != imageView) {
-                    currentTask.addImageView(imageView);
-                }
+            // the pending task might have been dropped since, as nobody displayed its image
+            if ((null != currentTask) && ((null == imageView) || currentTask.addImageView(imageView))) {
+                sMediaScheduler.promote(downloadId, lane);
             } else {
                 // Download it in background
                 MXMediaDownloadWorkerTask task = new MXMediaDownloadWorkerTask(context,
@@ -1324,30 +1376,8 @@ public class MXMediaCache {
 
                 task.setDefaultBitmap(defaultBitmap);
 
-                // check at the end of the download, if a suspended task can be launched again.
-                task.addDownloadListener(new MXMediaDownloadListener() {
-                    @Override
-                    public void onDownloadComplete(String downloadId) {
-                        launchSuspendedTask();
-                    }
-                });
-
-
-                // avoid crash if there are too many running task
                 try {
-                    task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                } catch (RejectedExecutionException e) {
-                    // too many tasks have been launched
-                    synchronized (mSuspendedTasks) {
-                        task.cancel(true);
-                        // create a new task from the existing one
-                        task = new MXMediaDownloadWorkerTask(task);
-                        mSuspendedTasks.add(task);
-                        // privacy
-                        //Log.e(LOG_TAG, "Suspend the task " + task.getUrl());
-                        Log.e(LOG_TAG, "Suspend a task", e);
-                    }
-
+                    sMediaScheduler.execute(task, downloadId, lane);
                 } catch (Exception e) {
                     Log.e(LOG_TAG, "loadBitmap failed " + e.getMessage(), e);
                 }
@@ -1414,6 +1444,7 @@ public class MXMediaCache {
 
         if (null != task) {
             task.cancelDownload();
+            sMediaScheduler.cancel(downloadId);
         }
     }
 
@@ -1432,13 +1463,14 @@ public class MXMediaCache {
                               String uploadId,
                               IMXMediaUploadListener listener) {
         try {
-            new MXMediaUploadWorkerTask(mContentManager,
-                    contentStream,
-                    mimeType,
+            sMediaScheduler.execute(new MXMediaUploadWorkerTask(mContentManager,
+                            contentStream,
+                            mimeType,
+                            uploadId,
+                            filename,
+                            listener),
                     uploadId,
-                    filename,
-                    listener)
-                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                    MXMediaScheduler.Lane.MEDIA);
         } catch (Exception e) {
             // cannot start the task
             if (null != listener) {
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.db;
+
+import androidx.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.core.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The byte ranges of a media which remain to be downloaded into its temporary file.
+ * <p>
+ * A sequential download resumes from the length of the temporary file.
+ * A download split into parallel segments writes into a preallocated temporary file, so the segments
+ * positions are saved in a ".ranges" file next to it when the download stops before its end.
+ */
+class MXMediaDownloadRanges {
+    private static final String LOG_TAG = MXMediaDownloadRanges.class.getSimpleName();
+
+    private static final String RANGES_FILE_EXTENSION = ".ranges";
+
+    /**
+     * A segment of the media.
+     */
+    static class Segment {
+        // the end of the segment (exclusive), -1 when the media size is unknown
+        long mEnd;
+
+        // the next byte to download
+        volatile long mPosition;
+
+        Segment(long end, long position) {
+            mEnd = end;
+            mPosition = position;
+        }
+
+        /**
+         * @return true if the segment has been fully downloaded
+         */
+        boolean isComplete() {
+            return (mEnd >= 0) && (mPosition >= mEnd);
+        }
+    }
+
+    private final File mTmpFile;
+    private final File mRangesFile;
+
+    // the media size, -1 if it is unknown
+    private long mTotalSize = -1;
+
+    // tell if the temporary file has been preallocated
+    private boolean mIsPreallocated;
+
+    private final List<Segment> mSegments = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * Restore the ranges of a previous download of the temporary file, if any.
+     *
+     * @param tmpFile the temporary file
+     */
+    MXMediaDownloadRanges(File tmpFile) {
+        mTmpFile = tmpFile;
+        mRangesFile = new File(tmpFile.getPath() + RANGES_FILE_EXTENSION);
+
+        if (mRangesFile.exists()) {
+            if (!restoreSegments()) {
+                // the preallocated file cannot be resumed
+                reset();
+            }
+        } else {
+            mSegments.add(new Segment(-1, tmpFile.exists() ? tmpFile.length() : 0));
+        }
+    }
+
+    /**
+     * Restore the segments saved in the ranges file.
+     * The file format is the media size on the first line then a "position end" line per pending segment.
+     *
+     * @return true if the segments have been restored
+     */
+    private boolean restoreSegments() {
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(mRangesFile));
+            long totalSize = Long.parseLong(reader.readLine().trim());
+            List<Segment> segments = new ArrayList<>();
+            String line;
+
+            while (null != (line = reader.readLine())) {
+                if (!TextUtils.isEmpty(line)) {
+                    String[] values = line.trim().split(" ");
+                    long position = Long.parseLong(values[0]);
+                    long end = Long.parseLong(values[1]);
+
+                    if ((position < 0) || (position >= end) || (end > totalSize)) {
+                        throw new IOException("Invalid segment " + line);
+                    }
+
+                    segments.add(new Segment(end, position));
+                }
+            }
+
+            // the temporary file must still be the preallocated one
+            if (segments.isEmpty() || (totalSize != mTmpFile.length())) {
+                return false;
+            }
+
+            mTotalSize = totalSize;
+            mIsPreallocated = true;
+            mSegments.addAll(segments);
+            return true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## restoreSegments() failed " + e.getMessage(), e);
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## restoreSegments() : close failed " + e.getMessage(), e);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Forget the downloaded data: the media will be downloaded from its first byte.
+     */
+    void reset() {
+        mTmpFile.delete();
+        mRangesFile.delete();
+
+        mTotalSize = -1;
+        mIsPreallocated = false;
+        mSegments.clear();
+        mSegments.add(new Segment(-1, 0));
+    }
+
+    /**
+     * @return the position from which the first segment must be downloaded
+     */
+    long getPosition() {
+        return mSegments.get(0).mPosition;
+    }
+
+    /**
+     * @return the media size, -1 if it is unknown
+     */
+    long getTotalSize() {
+        return mTotalSize;
+    }
+
+    /**
+     * Set the media size, once it is provided by the server.
+     *
+     * @param totalSize the media size, -1 if it is unknown
+     */
+    void setTotalSize(long totalSize) {
+        mTotalSize = totalSize;
+
+        // a sequential download ends with the media
+        if (!mIsPreallocated) {
+            mSegments.get(0).mEnd = totalSize;
+        }
+    }
+
+    /**
+     * @return the segments to download
+     */
+    List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @return the downloaded size in bytes
+     */
+    long getDownloadedSize() {
+        if (!mIsPreallocated) {
+            return mSegments.get(0).mPosition;
+        }
+
+        long remainingSize = 0;
+
+        for (Segment segment : mSegments) {
+            remainingSize += segment.mEnd - segment.mPosition;
+        }
+
+        return mTotalSize - remainingSize;
+    }
+
+    /**
+     * @return true if every segment has been downloaded
+     */
+    boolean isComplete() {
+        for (Segment segment : mSegments) {
+            if (!segment.isComplete()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Split the remaining bytes of a sequential download into segments of at least minSegmentSize bytes,
+     * and preallocate the temporary file to write them in parallel.
+     * Nothing is done if the media size is unknown or if the download is already split.
+     *
+     * @param maxSegmentsCount the maximum number of segments
+     * @param minSegmentSize   the minimum size of a segment
+     * @return true if the download has been split
+     * @throws IOException if the temporary file cannot be opened
+     */
+    boolean split(int maxSegmentsCount, long minSegmentSize) throws IOException {
+        if (mIsPreallocated || (mTotalSize < 0)) {
+            return false;
+        }
+
+        long position = getPosition();
+        long remainingSize = mTotalSize - position;
+        int segmentsCount = (int) Math.min(maxSegmentsCount, remainingSize / minSegmentSize);
+
+        if (segmentsCount < 2) {
+            return false;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mTmpFile, "rw");
+
+        try {
+            file.setLength(mTotalSize);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "## split() : cannot preallocate " + mTotalSize + " bytes " + e.getMessage(), e);
+            // keep on downloading sequentially
+            file.setLength(position);
+            return false;
+        } finally {
+            file.close();
+        }
+
+        long segmentSize = remainingSize / segmentsCount;
+
+        mSegments.clear();
+
+        for (int i = 0; i < segmentsCount; i++) {
+            long start = position + i * segmentSize;
+            long end = (i == segmentsCount - 1) ? mTotalSize : start + segmentSize;
+            mSegments.add(new Segment(end, start));
+        }
+
+        mIsPreallocated = true;
+        return true;
+    }
+
+    /**
+     * Save the segments positions when the download of a preallocated file stops before its end,
+     * or delete them when the download is complete.
+     */
+    void save() {
+        if (!mIsPreallocated || isComplete()) {
+            mRangesFile.delete();
+            return;
+        }
+
+        FileWriter writer = null;
+
+        try {
+            StringBuilder builder = new StringBuilder();
+            builder.append(mTotalSize).append("\n");
+
+            // the downloaded segments are not saved
+            for (Segment segment : mSegments) {
+                if (!segment.isComplete()) {
+                    builder.append(segment.mPosition).append(" ").append(segment.mEnd).append("\n");
+                }
+            }
+
+            writer = new FileWriter(mRangesFile);
+            writer.write(builder.toString());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## save() failed " + e.getMessage(), e);
+            // the preallocated file cannot be resumed without its ranges
+            mRangesFile.delete();
+            mTmpFile.delete();
+        } finally {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## save() : close failed " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse a "Content-Range: bytes start-end/total" header.
+     *
+     * @param contentRange the header value
+     * @return the start and the total size (-1 if it is unknown), null if the header is invalid
+     */
+    @Nullable
+    static long[] parseContentRange(@Nullable String contentRange) {
+        if (null == contentRange || !contentRange.trim().startsWith("bytes ")) {
+            return null;
+        }
+
+        try {
+            String range = contentRange.trim().substring("bytes ".length());
+            int dashIndex = range.indexOf('-');
+            int slashIndex = range.indexOf('/');
+
+            if ((dashIndex < 0) || (slashIndex < dashIndex)) {
+                return null;
+            }
+
+            String total = range.substring(slashIndex + 1).trim();
+
+            return new long[]{
+                    Long.parseLong(range.substring(0, dashIndex).trim()),
+                    "*".equals(total) ? -1 : Long.parseLong(total)
+            };
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## parseContentRange() failed " + e.getMessage(), e);
+        }
+
+        return null;
+    }
+}
@@ -57,10 +57,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -68,12 +69,19 @@ import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
@@ -116,6 +124,9 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      */
     private final List<WeakReference<ImageView>> mImageViewReferences;
 
+    // tell if an imageView has been added, the download is useless once they are all released or removed
+    private boolean mHasImageViews;
+
     /**
      * The media URL.
      */
@@ -156,6 +167,23 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      */
     private IMXMediaDownloadListener.DownloadStats mDownloadStats;
 
+    /**
+     * The byte ranges to download.
+     */
+    private MXMediaDownloadRanges mRanges;
+
+    /**
+     * The size which had been downloaded before resuming the download.
+     */
+    private long mResumedSize;
+
+    // the connections of the segments being downloaded
+    private final List<HttpURLConnection> mSegmentsConnections = new ArrayList<>();
+
+    // the first error of a segment, which stops the other segments
+    private Exception mSegmentsError;
+    private volatile boolean mIsSegmentsAborted;
+
     /**
      * Tells the download has been cancelled.
      */
@@ -198,6 +226,35 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
     private static final int DOWNLOAD_TIME_OUT = 10 * 1000;
     private static final int DOWNLOAD_BUFFER_READ_SIZE = 1024 * 32;
 
+    // a media is downloaded by parallel segments when it has at least two segments of this size
+    private static final int PARALLEL_DOWNLOAD_MIN_SEGMENT_SIZE = 2 * 1024 * 1024;
+    private static final int PARALLEL_DOWNLOAD_MAX_SEGMENTS_COUNT = 4;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    // the segments which are requested in parallel, by all the downloads
+    private static final int MAX_RUNNING_SEGMENTS_COUNT = 2;
+
+    private static final ThreadPoolExecutor sSegmentsExecutor = new ThreadPoolExecutor(MAX_RUNNING_SEGMENTS_COUNT,
+            MAX_RUNNING_SEGMENTS_COUNT,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mIndex = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "MXMediaDownloadSegment_" + mIndex.incrementAndGet());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    static {
+        sSegmentsExecutor.allowCoreThreadTimeOut(true);
+    }
+
     //==============================================================================================================
     // static methods
     //==============================================================================================================
@@ -223,14 +280,8 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      * @return the dedicated MXMediaDownloadWorkerTask if it exists.
      */
     public static MXMediaDownloadWorkerTask getMediaDownloadWorkerTask(String downloadId) {
-        if (sPendingDownloadById.containsKey(downloadId)) {
-            MXMediaDownloadWorkerTask task;
-            synchronized (sPendingDownloadById) {
-                task = sPendingDownloadById.get(downloadId);
-            }
-            return task;
-        } else {
-            return null;
+        synchronized (sPendingDownloadById) {
+            return sPendingDownloadById.get(downloadId);
         }
     }
 
@@ -437,9 +488,11 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
                     InputStream fis = new FileInputStream(file);
 
                     if (null != encryptionInfo) {
-                        InputStream decryptedIs = MXEncryptedAttachments.decryptAttachment(fis, encryptionInfo);
+                        // check the hash of the file before decoding it while it is decrypted,
+                        // to avoid loading the whole decrypted file in memory
+                        boolean isValid = MXEncryptedAttachments.checkAttachmentHash(fis, encryptionInfo);
                         fis.close();
-                        fis = decryptedIs;
+                        fis = isValid ? MXEncryptedAttachments.decryptAttachmentStream(new FileInputStream(file), encryptionInfo) : null;
                     }
 
                     // read the metadata
@@ -570,31 +623,6 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
         }
     }
 
-    /**
-     * MXMediaDownloadWorkerTask creator
-     *
-     * @param task another bitmap task
-     */
-    public MXMediaDownloadWorkerTask(MXMediaDownloadWorkerTask task) {
-        mApplicationContext = task.mApplicationContext;
-        mHsConfig = task.mHsConfig;
-        mNetworkConnectivityReceiver = task.mNetworkConnectivityReceiver;
-        mDirectoryFile = task.mDirectoryFile;
-        mUrl = task.mUrl;
-        mDownloadId = task.mDownloadId;
-        mRotation = task.mRotation;
-        mMimeType = task.mMimeType;
-        mEncryptedFileInfo = task.mEncryptedFileInfo;
-        mIsAvScannerEnabled = task.mIsAvScannerEnabled;
-        mMediaScanRestClient = task.mMediaScanRestClient;
-
-        mImageViewReferences = task.mImageViewReferences;
-
-        synchronized (sPendingDownloadById) {
-            sPendingDownloadById.put(mDownloadId, this);
-        }
-    }
-
     /**
      * Cancels the current download.
      */
@@ -620,9 +648,79 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      * Add an imageView to the list to refresh when the bitmap is downloaded.
      *
      * @param imageView an image view instance to refresh.
+     * @return false if the download is not pending anymore, the imageView is not added.
+     */
+    public boolean addImageView(ImageView imageView) {
+        synchronized (sPendingDownloadById) {
+            if (this != sPendingDownloadById.get(mDownloadId)) {
+                return false;
+            }
+
+            synchronized (mImageViewReferences) {
+                mImageViewReferences.add(new WeakReference<>(imageView));
+                mHasImageViews = true;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Remove an imageView which displays another media.
+     * It must be called from the UI thread, when the imageView tag is updated.
+     *
+     * @param imageView the image view to remove.
      */
-    public void addImageView(ImageView imageView) {
-        mImageViewReferences.add(new WeakReference<>(imageView));
+    public void removeImageView(ImageView imageView) {
+        synchronized (mImageViewReferences) {
+            Iterator<WeakReference<ImageView>> iterator = mImageViewReferences.iterator();
+
+            while (iterator.hasNext()) {
+                ImageView referencedImageView = iterator.next().get();
+
+                if ((null == referencedImageView) || (imageView == referencedImageView)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells if the image is not displayed anymore: its ImageViews have been released
+     * or removed, and there is no download listener.
+     * It must be called with the sPendingDownloadById lock, so that no imageView or listener is added meanwhile.
+     *
+     * @return true if the download is useless
+     */
+    private boolean isObsolete() {
+        if (!mDownloadListeners.isEmpty()) {
+            return false;
+        }
+
+        synchronized (mImageViewReferences) {
+            if (!mHasImageViews) {
+                return false;
+            }
+
+            for (WeakReference<ImageView> weakRef : mImageViewReferences) {
+                if (null != weakRef.get()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the task from the pending downloads, unless it has been replaced by a new download of the same media.
+     */
+    private void removeFromPendingDownloads() {
+        synchronized (sPendingDownloadById) {
+            if (this == sPendingDownloadById.get(mDownloadId)) {
+                sPendingDownloadById.remove(mDownloadId);
+            }
+        }
     }
 
     /**
@@ -638,10 +736,19 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      * Add a download listener.
      *
      * @param listener the listener to add.
+     * @return false if the download is not pending anymore, the listener is not added.
      */
-    public void addDownloadListener(IMXMediaDownloadListener listener) {
-        if (null != listener) {
-            mDownloadListeners.add(listener);
+    public boolean addDownloadListener(IMXMediaDownloadListener listener) {
+        synchronized (sPendingDownloadById) {
+            if (this != sPendingDownloadById.get(mDownloadId)) {
+                return false;
+            }
+
+            if (null != listener) {
+                mDownloadListeners.add(listener);
+            }
+
+            return true;
         }
     }
 
@@ -678,6 +785,7 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
      * @param startDownloadTime the start download time.
      */
     private void updateAndPublishProgress(long startDownloadTime) {
+        mDownloadStats.mDownloadedSize = (int) mRanges.getDownloadedSize();
         mDownloadStats.mElapsedTime = (int) ((System.currentTimeMillis() - startDownloadTime) / 1000);
 
         if (mDownloadStats.mFileSize > 0) {
@@ -692,7 +800,7 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
 
         // avoid zero div
         if (System.currentTimeMillis() != startDownloadTime) {
-            mDownloadStats.mBitRate = (int) (mDownloadStats.mDownloadedSize * 1000L / (System.currentTimeMillis() - startDownloadTime) / 1024);
+            mDownloadStats.mBitRate = (int) ((mDownloadStats.mDownloadedSize - mResumedSize) * 1000L / (System.currentTimeMillis() - startDownloadTime) / 1024);
         } else {
             mDownloadStats.mBitRate = -1;
         }
@@ -723,6 +831,17 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
 
         // Note: No need for access token here
 
+        // the request has been cancelled, or nobody displays the image anymore, while it was queued
+        // the task is removed under the lock so that no imageView or listener can be added to it meanwhile
+        synchronized (sPendingDownloadById) {
+            if (isDownloadCancelled() || isObsolete()) {
+                Log.d(LOG_TAG, "MXMediaDownloadWorkerTask " + this + " is cancelled before starting");
+                cancelDownload();
+                removeFromPendingDownloads();
+                return null;
+            }
+        }
+
         try {
             URL url = new URL(mUrl);
             Log.d(LOG_TAG, "MXMediaDownloadWorkerTask " + this + " starts");
@@ -736,30 +855,18 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
             int filelen = -1;
             HttpURLConnection connection = null;
 
-            try {
-                connection = (HttpURLConnection) url.openConnection();
+            // resume the previous download, if any
+            File tmpFile = new File(mDirectoryFile, buildFileName(mDownloadId, mMimeType) + ".tmp");
+            mRanges = new MXMediaDownloadRanges(tmpFile);
 
-                if (RestClient.getUserAgent() != null) {
-                    connection.setRequestProperty("User-Agent", RestClient.getUserAgent());
-                }
-
-                if (mHsConfig != null && connection instanceof HttpsURLConnection) {
-                    // Add SSL Socket factory.
-                    HttpsURLConnection sslConn = (HttpsURLConnection) connection;
-                    try {
-                        Pair<SSLSocketFactory, X509TrustManager> pair = CertUtil.newPinnedSSLSocketFactory(mHsConfig);
-                        sslConn.setSSLSocketFactory(pair.first);
-                        sslConn.setHostnameVerifier(CertUtil.newHostnameVerifier(mHsConfig));
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "doInBackground SSL exception " + e.getMessage(), e);
-                    }
-                }
+            // the media POSTed to the av scanner are downloaded with a single request
+            boolean isResumable = !mIsAvScannerEnabled || null == mEncryptedFileInfo;
+            boolean acceptsRanges = false;
 
-                // add a timeout to avoid infinite loading display.
-                float scale = (null != mNetworkConnectivityReceiver) ? mNetworkConnectivityReceiver.getTimeoutScale() : 1.0f;
-                connection.setReadTimeout((int) (DOWNLOAD_TIME_OUT * scale));
+            try {
+                connection = openConnection(url);
 
-                if (mIsAvScannerEnabled && null != mEncryptedFileInfo) {
+                if (!isResumable) {
                     // POST the encryption info to let the av scanner decrypt and scan the content.
                     connection.setRequestMethod("POST");
                     connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
@@ -799,10 +906,25 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
                     } finally {
                         outputStream.close();
                     }
+                } else if (!requestRange(connection)) {
+                    Log.d(LOG_TAG, "doInBackground : the download " + this + " cannot be resumed");
+                    connection.disconnect();
+
+                    mRanges.reset();
+                    connection = openConnection(url);
                 }
 
                 filelen = connection.getContentLength();
                 stream = connection.getInputStream();
+
+                if (isResumable && (HttpURLConnection.HTTP_PARTIAL == connection.getResponseCode())) {
+                    acceptsRanges = true;
+                } else {
+                    // the media is downloaded from its first byte
+                    mRanges.reset();
+                    mRanges.setTotalSize(filelen);
+                    acceptsRanges = isResumable && TextUtils.equals(connection.getHeaderField("Accept-Ranges"), "bytes");
+                }
             } catch (Exception e) {
                 Log.e(LOG_TAG, "bitmapForURL : fail to open the connection " + e.getMessage(), e);
                 defaultError.error = e.getLocalizedMessage();
@@ -869,13 +991,16 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
             if (!isDownloadCancelled() && (null == jsonElementResult)) {
                 final long startDownloadTime = System.currentTimeMillis();
 
-                String filename = buildFileName(mDownloadId, mMimeType) + ".tmp";
-                FileOutputStream fos = new FileOutputStream(new File(mDirectoryFile, filename));
+                if (acceptsRanges && mRanges.split(PARALLEL_DOWNLOAD_MAX_SEGMENTS_COUNT, PARALLEL_DOWNLOAD_MIN_SEGMENT_SIZE)) {
+                    Log.d(LOG_TAG, "doInBackground : the download " + this + " is split into " + mRanges.getSegments().size() + " segments");
+                }
+
+                mResumedSize = mRanges.getDownloadedSize();
 
                 mDownloadStats.mDownloadId = mDownloadId;
                 mDownloadStats.mProgress = 0;
-                mDownloadStats.mDownloadedSize = 0;
-                mDownloadStats.mFileSize = filelen;
+                mDownloadStats.mDownloadedSize = (int) mResumedSize;
+                mDownloadStats.mFileSize = (int) mRanges.getTotalSize();
                 mDownloadStats.mElapsedTime = 0;
                 mDownloadStats.mEstimatedRemainingTime = -1;
                 mDownloadStats.mBitRate = 0;
@@ -893,14 +1018,10 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
                 }, new Date(), 100);
 
                 try {
-                    byte[] buf = new byte[DOWNLOAD_BUFFER_READ_SIZE];
-                    int len;
-                    while (!isDownloadCancelled() && (len = stream.read(buf)) != -1) {
-                        fos.write(buf, 0, len);
-                        mDownloadStats.mDownloadedSize += len;
-                    }
+                    downloadSegments(url, connection, stream, tmpFile);
 
-                    if (!isDownloadCancelled()) {
+                    if (!isDownloadCancelled() && mRanges.isComplete()) {
+                        mDownloadStats.mDownloadedSize = (int) mRanges.getDownloadedSize();
                         mDownloadStats.mProgress = 100;
                     }
                 } catch (OutOfMemoryError outOfMemoryError) {
@@ -913,9 +1034,10 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
 
                 mIsDone = true;
 
+                // keep the downloaded segments to resume the download later
+                mRanges.save();
+
                 close(stream);
-                fos.flush();
-                fos.close();
 
                 refreshTimer.cancel();
 
@@ -926,7 +1048,7 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
                 // the file has been successfully downloaded
                 if (mDownloadStats.mProgress == 100) {
                     try {
-                        File originalFile = new File(mDirectoryFile, filename);
+                        File originalFile = tmpFile;
                         String newFileName = buildFileName(mDownloadId, mMimeType);
                         File newFile = new File(mDirectoryFile, newFileName);
                         if (newFile.exists()) {
@@ -961,13 +1083,232 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
         }
 
         // remove the task from the loading one
-        synchronized (sPendingDownloadById) {
-            sPendingDownloadById.remove(mDownloadId);
-        }
+        removeFromPendingDownloads();
 
         return jsonElementResult;
     }
 
+    /**
+     * Open a connection to the media URL.
+     *
+     * @param url the media URL
+     * @return the connection
+     * @throws IOException if the connection cannot be opened
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        if (RestClient.getUserAgent() != null) {
+            connection.setRequestProperty("User-Agent", RestClient.getUserAgent());
+        }
+
+        if (mHsConfig != null && connection instanceof HttpsURLConnection) {
+            // Add SSL Socket factory.
+            HttpsURLConnection sslConn = (HttpsURLConnection) connection;
+            try {
+                Pair<SSLSocketFactory, X509TrustManager> pair = CertUtil.newPinnedSSLSocketFactory(mHsConfig);
+                sslConn.setSSLSocketFactory(pair.first);
+                sslConn.setHostnameVerifier(CertUtil.newHostnameVerifier(mHsConfig));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "doInBackground SSL exception " + e.getMessage(), e);
+            }
+        }
+
+        // add a timeout to avoid infinite loading display.
+        float scale = (null != mNetworkConnectivityReceiver) ? mNetworkConnectivityReceiver.getTimeoutScale() : 1.0f;
+        connection.setReadTimeout((int) (DOWNLOAD_TIME_OUT * scale));
+
+        return connection;
+    }
+
+    /**
+     * Request the media from the position of the first segment.
+     *
+     * @param connection the connection
+     * @return false if the server cannot serve the media from this position
+     * @throws IOException if the request fails
+     */
+    private boolean requestRange(HttpURLConnection connection) throws IOException {
+        connection.setRequestProperty("Range", "bytes=" + mRanges.getPosition() + "-");
+
+        int responseCode = connection.getResponseCode();
+
+        if (HTTP_RANGE_NOT_SATISFIABLE == responseCode) {
+            return false;
+        }
+
+        if (HttpURLConnection.HTTP_PARTIAL == responseCode) {
+            long[] contentRange = MXMediaDownloadRanges.parseContentRange(connection.getHeaderField("Content-Range"));
+
+            if ((null == contentRange) || (contentRange[0] != mRanges.getPosition())) {
+                return false;
+            }
+
+            mRanges.setTotalSize(contentRange[1]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Download the segments into the temporary file.
+     * The first segment is read from the opened stream, the other ones are requested in parallel
+     * on the threads shared by the downloads. The first failed segment stops the other ones.
+     *
+     * @param url        the media URL
+     * @param connection the connection of the first segment
+     * @param stream     the stream of the first segment
+     * @param tmpFile    the temporary file
+     * @throws Exception if a segment cannot be downloaded
+     */
+    private void downloadSegments(final URL url, HttpURLConnection connection, InputStream stream, final File tmpFile) throws Exception {
+        final List<MXMediaDownloadRanges.Segment> segments = mRanges.getSegments();
+        List<Future<Void>> futures = new ArrayList<>();
+
+        synchronized (mSegmentsConnections) {
+            mSegmentsConnections.add(connection);
+        }
+
+        for (int i = 1; i < segments.size(); i++) {
+            final int index = i;
+
+            futures.add(sSegmentsExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        downloadSegment(url, tmpFile, segments.get(index));
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "downloadSegments : the segment " + index + " failed " + e.getMessage(), e);
+                        abortSegments(e);
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            writeSegment(stream, tmpFile, segments.get(0));
+        } catch (Exception e) {
+            abortSegments(e);
+        }
+
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        synchronized (mSegmentsConnections) {
+            mSegmentsConnections.clear();
+
+            if (null != mSegmentsError) {
+                throw mSegmentsError;
+            }
+        }
+    }
+
+    /**
+     * Stop the segments downloads after a segment has failed.
+     *
+     * @param error the segment error
+     */
+    private void abortSegments(Exception error) {
+        synchronized (mSegmentsConnections) {
+            if (mIsSegmentsAborted) {
+                return;
+            }
+
+            mSegmentsError = error;
+            mIsSegmentsAborted = true;
+
+            // unblock the pending reads
+            for (HttpURLConnection connection : mSegmentsConnections) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Request a segment and download it into the temporary file.
+     *
+     * @param url     the media URL
+     * @param tmpFile the temporary file
+     * @param segment the segment
+     * @throws IOException if the segment cannot be downloaded
+     */
+    private void downloadSegment(URL url, File tmpFile, MXMediaDownloadRanges.Segment segment) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+        InputStream stream = null;
+
+        synchronized (mSegmentsConnections) {
+            if (mIsSegmentsAborted) {
+                return;
+            }
+
+            mSegmentsConnections.add(connection);
+        }
+
+        try {
+            connection.setRequestProperty("Range", "bytes=" + segment.mPosition + "-" + (segment.mEnd - 1));
+
+            long[] contentRange = MXMediaDownloadRanges.parseContentRange(connection.getHeaderField("Content-Range"));
+
+            if ((HttpURLConnection.HTTP_PARTIAL != connection.getResponseCode())
+                    || (null == contentRange) || (contentRange[0] != segment.mPosition)) {
+                throw new IOException("The range " + segment.mPosition + "-" + segment.mEnd + " is not served");
+            }
+
+            stream = connection.getInputStream();
+            writeSegment(stream, tmpFile, segment);
+        } finally {
+            if (null != stream) {
+                close(stream);
+            }
+
+            synchronized (mSegmentsConnections) {
+                mSegmentsConnections.remove(connection);
+            }
+
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Write a segment into the temporary file, until its end or until the download is cancelled.
+     *
+     * @param stream  the segment stream
+     * @param tmpFile the temporary file
+     * @param segment the segment
+     * @throws IOException if the segment cannot be read or written
+     */
+    private void writeSegment(InputStream stream, File tmpFile, MXMediaDownloadRanges.Segment segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(tmpFile, "rw");
+
+        try {
+            file.seek(segment.mPosition);
+
+            byte[] buf = new byte[DOWNLOAD_BUFFER_READ_SIZE];
+
+            while (!isDownloadCancelled() && !mIsSegmentsAborted && !segment.isComplete()) {
+                int count = (segment.mEnd < 0) ? buf.length : (int) Math.min(buf.length, segment.mEnd - segment.mPosition);
+                int len = stream.read(buf, 0, count);
+
+                if (-1 == len) {
+                    if (segment.mEnd >= 0) {
+                        throw new IOException("Unexpected end of stream at " + segment.mPosition);
+                    }
+
+                    // the media size was unknown
+                    segment.mEnd = segment.mPosition;
+                } else {
+                    file.write(buf, 0, len);
+                    segment.mPosition += len;
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
     /**
      * Get the public key of the antivirus server
      *
@@ -1072,11 +1413,13 @@ class MXMediaDownloadWorkerTask extends AsyncTask<Void, Void, JsonElement> {
     private void setBitmap(Bitmap bitmap) {
         // update the imageViews image
         if (bitmap != null) {
-            for (WeakReference<ImageView> weakRef : mImageViewReferences) {
-                final ImageView imageView = weakRef.get();
+            synchronized (mImageViewReferences) {
+                for (WeakReference<ImageView> weakRef : mImageViewReferences) {
+                    final ImageView imageView = weakRef.get();
 
-                if (imageView != null && TextUtils.equals(mDownloadId, (String) imageView.getTag())) {
-                    imageView.setImageBitmap(bitmap);
+                    if (imageView != null && TextUtils.equals(mDownloadId, (String) imageView.getTag())) {
+                        imageView.setImageBitmap(bitmap);
+                    }
                 }
             }
         }
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.matrix.androidsdk.db;
+
+import android.os.AsyncTask;
+
+import org.matrix.androidsdk.core.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * This class schedules the media downloads and uploads on a bounded number of threads.
+ * <p>
+ * The requests are started by lane priority, then in their scheduling order.
+ * The full media and the prefetched ones cannot use all the threads, so the thumbnails and the avatars
+ * are never stuck behind large downloads.
+ * <p>
+ * The methods are thread safe.
+ */
+public class MXMediaScheduler {
+    private static final String LOG_TAG = MXMediaScheduler.class.getSimpleName();
+
+    /**
+     * The lanes, from the highest priority to the lowest one.
+     */
+    public enum Lane {
+        // the thumbnails displayed on screen
+        THUMBNAIL,
+        // the avatars
+        AVATAR,
+        // the full media and the uploads
+        MEDIA,
+        // the media which might be displayed later
+        PREFETCH
+    }
+
+    // the maximum number of running requests
+    private static final int MAX_RUNNING_REQUESTS_COUNT = 4;
+
+    // the maximum number of running requests in the MEDIA and PREFETCH lanes
+    private static final int MAX_RUNNING_LARGE_REQUESTS_COUNT = 2;
+
+    /**
+     * A scheduled request.
+     */
+    private static class Request {
+        // the download or upload id
+        final String mId;
+
+        // the AsyncTask work
+        final Runnable mRunnable;
+
+        Lane mLane;
+
+        // tell if the request has been cancelled while it was queued
+        boolean mIsCancelled;
+
+        // the scheduling time
+        final long mScheduleTime = System.currentTimeMillis();
+
+        Request(String id, Lane lane, Runnable runnable) {
+            mId = id;
+            mLane = lane;
+            mRunnable = runnable;
+        }
+
+        boolean isLarge() {
+            return (Lane.MEDIA == mLane) || (Lane.PREFETCH == mLane);
+        }
+    }
+
+    // the queued requests by lane
+    private final ArrayDeque<Request>[] mQueues;
+
+    // the cancelled requests, which are started first to release their tasks
+    private final ArrayDeque<Request> mCancelledRequests = new ArrayDeque<>();
+
+    // the queued requests by id
+    private final Map<String, Request> mQueuedRequestsById = new HashMap<>();
+
+    private int mRunningRequestsCount;
+    private int mRunningLargeRequestsCount;
+
+    // metrics by lane
+    private final long[] mStartedRequestsCounts;
+    private final long[] mTotalWaitTimes;
+    private final long[] mMaxWaitTimes;
+
+    private int mThreadIndex;
+
+    /**
+     * Constructor
+     */
+    @SuppressWarnings("unchecked")
+    public MXMediaScheduler() {
+        int lanesCount = Lane.values().length;
+
+        mQueues = new ArrayDeque[lanesCount];
+
+        for (int i = 0; i < lanesCount; i++) {
+            mQueues[i] = new ArrayDeque<>();
+        }
+
+        mStartedRequestsCounts = new long[lanesCount];
+        mTotalWaitTimes = new long[lanesCount];
+        mMaxWaitTimes = new long[lanesCount];
+    }
+
+    /**
+     * Execute an AsyncTask in a lane.
+     * It must be called from the UI thread, like AsyncTask.execute().
+     *
+     * @param task the task to execute
+     * @param id   the download or upload id
+     * @param lane the lane
+     */
+    public void execute(AsyncTask<Void, ?, ?> task, final String id, final Lane lane) {
+        task.executeOnExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                schedule(id, lane, runnable);
+            }
+        });
+    }
+
+    /**
+     * Queue a work in a lane and start it if a thread is available.
+     *
+     * @param id       the download or upload id
+     * @param lane     the lane
+     * @param runnable the work
+     */
+    void schedule(String id, Lane lane, Runnable runnable) {
+        schedule(new Request(id, lane, runnable));
+    }
+
+    /**
+     * Move a queued request to a higher priority lane, when a pending download is requested again.
+     *
+     * @param id   the download id
+     * @param lane the requested lane
+     */
+    public synchronized void promote(String id, Lane lane) {
+        Request request = mQueuedRequestsById.get(id);
+
+        if ((null != request) && !request.mIsCancelled && (lane.ordinal() < request.mLane.ordinal())) {
+            mQueues[request.mLane.ordinal()].remove(request);
+            request.mLane = lane;
+            mQueues[lane.ordinal()].add(request);
+        }
+    }
+
+    /**
+     * Start a queued request as soon as possible, so that its cancelled task is released
+     * without waiting for its turn. Nothing is done if the request is running.
+     *
+     * @param id the download or upload id
+     */
+    public synchronized void cancel(String id) {
+        Request request = mQueuedRequestsById.get(id);
+
+        if ((null != request) && !request.mIsCancelled) {
+            mQueues[request.mLane.ordinal()].remove(request);
+            request.mIsCancelled = true;
+            mCancelledRequests.add(request);
+            startRequests();
+        }
+    }
+
+    /**
+     * @param lane the lane
+     * @return the number of queued requests in the lane
+     */
+    public synchronized int getQueueDepth(Lane lane) {
+        return mQueues[lane.ordinal()].size();
+    }
+
+    /**
+     * @return the number of running requests
+     */
+    public synchronized int getRunningRequestsCount() {
+        return mRunningRequestsCount;
+    }
+
+    /**
+     * @param lane the lane
+     * @return the number of requests of the lane which have been started
+     */
+    public synchronized long getStartedRequestsCount(Lane lane) {
+        return mStartedRequestsCounts[lane.ordinal()];
+    }
+
+    /**
+     * @param lane the lane
+     * @return the average time in ms spent by the requests of the lane in the queue, -1 if no request has been started
+     */
+    public synchronized long getAverageWaitTime(Lane lane) {
+        long count = mStartedRequestsCounts[lane.ordinal()];
+        return (0 == count) ? -1 : mTotalWaitTimes[lane.ordinal()] / count;
+    }
+
+    /**
+     * @param lane the lane
+     * @return the maximum time in ms spent by a request of the lane in the queue
+     */
+    public synchronized long getMaxWaitTime(Lane lane) {
+        return mMaxWaitTimes[lane.ordinal()];
+    }
+
+    /**
+     * Queue a request and start it if a thread is available.
+     *
+     * @param request the request
+     */
+    private synchronized void schedule(Request request) {
+        mQueues[request.mLane.ordinal()].add(request);
+
+        if (null != request.mId) {
+            mQueuedRequestsById.put(request.mId, request);
+        }
+
+        startRequests();
+    }
+
+    /**
+     * Start the queued requests while threads are available.
+     */
+    private void startRequests() {
+        Request request;
+
+        while ((mRunningRequestsCount < MAX_RUNNING_REQUESTS_COUNT) && (null != (request = pollNextRequest()))) {
+            final Request fRequest = request;
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runRequests(fRequest);
+                }
+            }, "MXMediaScheduler_" + (++mThreadIndex));
+
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run a request, then the next queued ones while there are some.
+     *
+     * @param request the first request
+     */
+    private void runRequests(Request request) {
+        while (null != request) {
+            try {
+                request.mRunnable.run();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## runRequests() : the request " + request.mId + " failed " + e.getMessage(), e);
+            }
+
+            synchronized (this) {
+                mRunningRequestsCount--;
+
+                if (request.isLarge()) {
+                    mRunningLargeRequestsCount--;
+                }
+
+                request = pollNextRequest();
+            }
+        }
+    }
+
+    /**
+     * Dequeue the next request which can be started, and count it as running.
+     *
+     * @return the request, null if there is none
+     */
+    private Request pollNextRequest() {
+        Request request = mCancelledRequests.poll();
+
+        if (null == request) {
+            for (ArrayDeque<Request> queue : mQueues) {
+                Request first = queue.peek();
+
+                if ((null != first) && (!first.isLarge() || (mRunningLargeRequestsCount < MAX_RUNNING_LARGE_REQUESTS_COUNT))) {
+                    request = queue.poll();
+                    break;
+                }
+            }
+        }
+
+        if (null != request) {
+            if ((null != request.mId) && (request == mQueuedRequestsById.get(request.mId))) {
+                mQueuedRequestsById.remove(request.mId);
+            }
+
+            mRunningRequestsCount++;
+
+            if (request.isLarge()) {
+                mRunningLargeRequestsCount++;
+            }
+
+            if (!request.mIsCancelled) {
+                int lane = request.mLane.ordinal();
+                long waitTime = System.currentTimeMillis() - request.mScheduleTime;
+
+                mStartedRequestsCounts[lane]++;
+                mTotalWaitTimes[lane] += waitTime;
+                mMaxWaitTimes[lane] = Math.max(mMaxWaitTimes[lane], waitTime);
+            }
+        }
+
+        return request;
+    }
+}
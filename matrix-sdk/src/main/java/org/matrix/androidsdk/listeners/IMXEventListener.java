@@ -65,6 +65,19 @@ public interface IMXEventListener {
      */
     void onLiveEvent(Event event, RoomState roomState);
 
+    /**
+     * Some live room events were received while a sync response was processed.
+     * By default, {@link #onLiveEvent(Event, RoomState)} is called for each event.
+     *
+     * @param events     the events, in the received order
+     * @param roomStates the room state right before each event
+     */
+    default void onLiveEvents(List<Event> events, List<RoomState> roomStates) {
+        for (int index = 0; index < events.size(); index++) {
+            onLiveEvent(events.get(index), roomStates.get(index));
+        }
+    }
+
     /**
      * The live events from a chunk are performed.
      *
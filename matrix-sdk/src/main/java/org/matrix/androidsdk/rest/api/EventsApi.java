@@ -17,6 +17,7 @@
 package org.matrix.androidsdk.rest.api;
 
 import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.rest.json.SyncResponseConverterFactory;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.pid.ThirdPartyProtocol;
 import org.matrix.androidsdk.rest.model.publicroom.PublicRoomsParams;
@@ -51,6 +52,15 @@ public interface EventsApi {
     @GET(RestClient.URI_API_PREFIX_PATH_R0 + "sync")
     Call<SyncResponse> sync(@QueryMap Map<String, Object> params);
 
+    /**
+     * Perform a sync request, the response is provided to the stream listener while it is read.
+     *
+     * @param params the GET params.
+     */
+    @SyncResponseConverterFactory.Streamed
+    @GET(RestClient.URI_API_PREFIX_PATH_R0 + "sync")
+    Call<SyncResponse> syncStream(@QueryMap Map<String, Object> params);
+
     /**
      * Retrieve an event from its event id
      *
@@ -19,13 +19,18 @@ package org.matrix.androidsdk.rest.client;
 
 import android.text.TextUtils;
 
+import androidx.annotation.Nullable;
+
 import org.matrix.androidsdk.HomeServerConnectionConfig;
 import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.core.JsonUtils;
 import org.matrix.androidsdk.core.callback.ApiCallback;
 import org.matrix.androidsdk.core.callback.SimpleApiCallback;
 import org.matrix.androidsdk.core.model.MatrixError;
 import org.matrix.androidsdk.rest.api.EventsApi;
 import org.matrix.androidsdk.rest.callback.RestAdapterCallback;
+import org.matrix.androidsdk.rest.json.SyncResponseConverterFactory;
+import org.matrix.androidsdk.rest.json.SyncResponseStreamDecoder;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.URLPreview;
 import org.matrix.androidsdk.rest.model.User;
@@ -48,6 +53,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import retrofit2.Call;
+
 /**
  * Class used to make requests to the events API.
  */
@@ -59,11 +66,19 @@ public class EventsRestClient extends RestClient<EventsApi> {
     private String mSearchEventsMediaNameIdentifier = null;
     private String mSearchUsersPatternIdentifier = null;
 
+    // decode the streamed sync responses
+    private final SyncResponseConverterFactory mSyncResponseConverterFactory;
+
     /**
      * {@inheritDoc}
      */
     public EventsRestClient(HomeServerConnectionConfig hsConfig) {
-        super(hsConfig, EventsApi.class, "", false);
+        this(hsConfig, new SyncResponseConverterFactory(JsonUtils.getGson(false)));
+    }
+
+    private EventsRestClient(HomeServerConnectionConfig hsConfig, SyncResponseConverterFactory syncResponseConverterFactory) {
+        super(hsConfig, EventsApi.class, "", false, syncResponseConverterFactory);
+        mSyncResponseConverterFactory = syncResponseConverterFactory;
     }
 
     /**
@@ -194,6 +209,28 @@ public class EventsRestClient extends RestClient<EventsApi> {
                               final String setPresence,
                               final String filterOrFilterId,
                               final ApiCallback<SyncResponse> callback) {
+        syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterOrFilterId, null, callback);
+    }
+
+    /**
+     * Synchronise the client's state and receive new messages.
+     * The joined rooms can be provided to a listener while the response is read.
+     *
+     * @param token            the token to stream from (nil in case of initial sync).
+     * @param serverTimeout    the maximum time in ms to wait for an event.
+     * @param clientTimeout    the maximum time in ms the SDK must wait for the server response.
+     * @param setPresence      the optional presence parameter.
+     * @param filterOrFilterId a JSON filter or the ID of a filter created using the filter API (optional).
+     * @param streamListener   the listener of the response parts, null to get the whole response in the callback.
+     * @param callback         The request callback
+     */
+    public void syncFromToken(final String token,
+                              final int serverTimeout,
+                              final int clientTimeout,
+                              final String setPresence,
+                              final String filterOrFilterId,
+                              @Nullable final SyncResponseStreamDecoder.Listener streamListener,
+                              final ApiCallback<SyncResponse> callback) {
         Map<String, Object> params = new HashMap<>();
         int timeout = (EVENT_STREAM_TIMEOUT_MS / 1000);
 
@@ -219,16 +256,25 @@ public class EventsRestClient extends RestClient<EventsApi> {
         setConnectionTimeout(RestClient.CONNECTION_TIMEOUT_MS * ((null == token) ? 2 : 1));
 
         final String description = "syncFromToken";
+        Call<SyncResponse> request;
+
+        if (null != streamListener) {
+            // only the events thread performs streamed sync requests, one at a time
+            mSyncResponseConverterFactory.setListener(streamListener);
+            request = mApi.syncStream(params);
+        } else {
+            request = mApi.sync(params);
+        }
+
         // Disable retry because it interferes with clientTimeout
         // Let the client manage retries on events streams
-        mApi.sync(params)
-                .enqueue(new RestAdapterCallback<SyncResponse>(description, null, false, callback,
-                        new RestAdapterCallback.RequestRetryCallBack() {
-                            @Override
-                            public void onRetry() {
-                                syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterOrFilterId, callback);
-                            }
-                        }));
+        request.enqueue(new RestAdapterCallback<SyncResponse>(description, null, false, callback,
+                new RestAdapterCallback.RequestRetryCallBack() {
+                    @Override
+                    public void onRetry() {
+                        syncFromToken(token, serverTimeout, clientTimeout, setPresence, filterOrFilterId, streamListener, callback);
+                    }
+                }));
     }
 
     /**
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Type;
+
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Retrofit converter which decodes the sync responses with a {@link SyncResponseStreamDecoder},
+ * directly from the network stream.
+ * It is only used by the requests annotated with {@link Streamed}.
+ */
+public class SyncResponseConverterFactory extends Converter.Factory {
+
+    /**
+     * Tell that the sync response of a request is provided to the stream listener while it is read.
+     */
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Streamed {
+    }
+
+    private final Gson mGson;
+
+    // the listener of the pending streamed request
+    private volatile SyncResponseStreamDecoder.Listener mListener;
+
+    /**
+     * Constructor
+     *
+     * @param gson the parser of the response items
+     */
+    public SyncResponseConverterFactory(Gson gson) {
+        mGson = gson;
+    }
+
+    /**
+     * Set the listener of the next streamed sync responses.
+     *
+     * @param listener the listener, null to read the whole responses
+     */
+    public void setListener(SyncResponseStreamDecoder.Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        if ((SyncResponse.class != type) || !isStreamed(annotations)) {
+            return null;
+        }
+
+        return new Converter<ResponseBody, SyncResponse>() {
+            @Override
+            public SyncResponse convert(ResponseBody value) throws IOException {
+                try {
+                    return new SyncResponseStreamDecoder(mGson, mListener).decode(mGson.newJsonReader(value.charStream()));
+                } finally {
+                    value.close();
+                }
+            }
+        };
+    }
+
+    private static boolean isStreamed(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof Streamed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 New Vector Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.matrix.androidsdk.rest.model.group.GroupsSyncResponse;
+import org.matrix.androidsdk.rest.model.sync.AccountData;
+import org.matrix.androidsdk.rest.model.sync.DeviceListResponse;
+import org.matrix.androidsdk.rest.model.sync.DeviceOneTimeKeysCountSyncResponse;
+import org.matrix.androidsdk.rest.model.sync.InvitedRoomSync;
+import org.matrix.androidsdk.rest.model.sync.PresenceSyncResponse;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
+import org.matrix.androidsdk.rest.model.sync.RoomsSyncResponse;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.matrix.androidsdk.rest.model.sync.ToDeviceSyncResponse;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decode a sync response from a JSON stream.
+ * <p>
+ * The joined rooms are read one by one and provided to a listener as soon as they are read,
+ * so the whole rooms tree is never kept in memory. They are only provided when the to device events
+ * and the account data have been read before the rooms, as they must be applied before the rooms.
+ * Otherwise the joined rooms are listed in the response like with the default JSON parser.
+ */
+public class SyncResponseStreamDecoder {
+
+    /**
+     * Receive the parts of a sync response while it is read.
+     * The methods are called from the network thread.
+     */
+    public interface Listener {
+        /**
+         * The sections which precede the rooms have been read.
+         *
+         * @param syncResponse the sync response being read, with the to device events and the account data
+         */
+        void onSyncResponseHeader(SyncResponse syncResponse);
+
+        /**
+         * A joined room has been read. It is not listed in the sync response.
+         *
+         * @param roomId   the room id
+         * @param roomSync the room sync
+         * @throws IOException if the reading must be stopped
+         */
+        void onJoinedRoomSync(String roomId, RoomSync roomSync) throws IOException;
+
+        /**
+         * The response has been fully read.
+         * It is only called when {@link #onSyncResponseHeader(SyncResponse)} has been called.
+         *
+         * @throws IOException if the reading must be stopped
+         */
+        void onSyncResponseEnd() throws IOException;
+
+        /**
+         * The response cannot be read: the parts which have not been applied yet must be discarded,
+         * the response will be requested again.
+         * It is only called when {@link #onSyncResponseHeader(SyncResponse)} has been called.
+         */
+        void onSyncResponseFailed();
+    }
+
+    private static final Type INVITED_ROOMS_TYPE = new TypeToken<Map<String, InvitedRoomSync>>() {
+    }.getType();
+
+    private static final Type ROOMS_TYPE = new TypeToken<Map<String, RoomSync>>() {
+    }.getType();
+
+    private final Gson mGson;
+
+    private final Listener mListener;
+
+    /**
+     * Constructor
+     *
+     * @param gson     the parser of the response items
+     * @param listener the listener, null to read the whole response
+     */
+    public SyncResponseStreamDecoder(Gson gson, Listener listener) {
+        mGson = gson;
+        mListener = listener;
+    }
+
+    /**
+     * Read a sync response.
+     *
+     * @param reader the JSON reader
+     * @return the sync response
+     * @throws IOException if the response cannot be read
+     */
+    public SyncResponse decode(JsonReader reader) throws IOException {
+        SyncResponse syncResponse = new SyncResponse();
+
+        boolean hasToDevice = false;
+        boolean hasAccountData = false;
+        boolean isRead = false;
+
+        try {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "account_data":
+                        syncResponse.accountData = mGson.fromJson(reader, AccountData.class);
+                        hasAccountData = true;
+                        break;
+                    case "to_device":
+                        syncResponse.toDevice = mGson.fromJson(reader, ToDeviceSyncResponse.class);
+                        hasToDevice = true;
+                        break;
+                    case "next_batch":
+                        syncResponse.nextBatch = mGson.fromJson(reader, String.class);
+                        break;
+                    case "presence":
+                        syncResponse.presence = mGson.fromJson(reader, PresenceSyncResponse.class);
+                        break;
+                    case "device_lists":
+                        syncResponse.deviceLists = mGson.fromJson(reader, DeviceListResponse.class);
+                        break;
+                    case "device_one_time_keys_count":
+                        syncResponse.deviceOneTimeKeysCount = mGson.fromJson(reader, DeviceOneTimeKeysCountSyncResponse.class);
+                        break;
+                    case "groups":
+                        syncResponse.groups = mGson.fromJson(reader, GroupsSyncResponse.class);
+                        break;
+                    case "rooms":
+                        if ((null != mListener) && hasToDevice && hasAccountData && !syncResponse.isStreamed()) {
+                            syncResponse.setStreamed(true);
+                            mListener.onSyncResponseHeader(syncResponse);
+                        }
+
+                        syncResponse.rooms = readRooms(reader, syncResponse);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+
+            reader.endObject();
+
+            // the streamed parts are only completed once the whole response has been read
+            if (syncResponse.isStreamed()) {
+                mListener.onSyncResponseEnd();
+            }
+
+            isRead = true;
+        } finally {
+            if (syncResponse.isStreamed() && !isRead) {
+                mListener.onSyncResponseFailed();
+            }
+        }
+
+        return syncResponse;
+    }
+
+    /**
+     * Read the rooms section.
+     *
+     * @param reader       the JSON reader
+     * @param syncResponse the sync response being read
+     * @return the rooms
+     * @throws IOException if the rooms cannot be read
+     */
+    private RoomsSyncResponse readRooms(JsonReader reader, SyncResponse syncResponse) throws IOException {
+        if (JsonToken.NULL == reader.peek()) {
+            reader.nextNull();
+            return null;
+        }
+
+        RoomsSyncResponse rooms = new RoomsSyncResponse();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "join":
+                    rooms.join = readJoinedRooms(reader, syncResponse);
+                    break;
+                case "invite":
+                    rooms.invite = mGson.fromJson(reader, INVITED_ROOMS_TYPE);
+                    break;
+                case "leave":
+                    rooms.leave = mGson.fromJson(reader, ROOMS_TYPE);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+
+        reader.endObject();
+
+        return rooms;
+    }
+
+    /**
+     * Read the joined rooms, one room at a time.
+     *
+     * @param reader       the JSON reader
+     * @param syncResponse the sync response being read
+     * @return the joined rooms which have not been provided to the listener
+     * @throws IOException if the rooms cannot be read
+     */
+    private Map<String, RoomSync> readJoinedRooms(JsonReader reader, SyncResponse syncResponse) throws IOException {
+        if (JsonToken.NULL == reader.peek()) {
+            reader.nextNull();
+            return null;
+        }
+
+        Map<String, RoomSync> joinedRooms = new LinkedHashMap<>();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String roomId = reader.nextName();
+            RoomSync roomSync = mGson.fromJson(reader, RoomSync.class);
+
+            if (null == roomSync) {
+                continue;
+            }
+
+            if (syncResponse.isStreamed()) {
+                mListener.onJoinedRoomSync(roomId, roomSync);
+                syncResponse.setStreamedJoinedRoomsCount(syncResponse.getStreamedJoinedRoomsCount() + 1);
+            } else {
+                joinedRooms.put(roomId, roomSync);
+            }
+        }
+
+        reader.endObject();
+
+        return joinedRooms;
+    }
+}
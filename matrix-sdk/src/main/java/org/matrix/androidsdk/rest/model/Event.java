@@ -39,6 +39,7 @@ import org.matrix.androidsdk.crypto.model.crypto.OlmEventContent;
 import org.matrix.androidsdk.crypto.model.crypto.RoomKeyContent;
 import org.matrix.androidsdk.crypto.rest.model.crypto.RoomKeyShare;
 import org.matrix.androidsdk.crypto.rest.model.crypto.RoomKeyShareRequest;
+import org.matrix.androidsdk.data.store.MXFileStoreCodec;
 import org.matrix.androidsdk.db.MXMediaCache;
 import org.matrix.androidsdk.rest.model.message.FileMessage;
 import org.matrix.androidsdk.rest.model.message.ImageMessage;
@@ -47,6 +48,8 @@ import org.matrix.androidsdk.rest.model.message.Message;
 import org.matrix.androidsdk.rest.model.message.StickerMessage;
 import org.matrix.androidsdk.rest.model.message.VideoMessage;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -1038,6 +1041,80 @@ public class Event implements Externalizable, CryptoEvent {
         output.writeLong(mTimeZoneRawOffset);
     }
 
+    /**
+     * Write the event with the {@link MXFileStoreCodec} binary format.
+     * The content is kept as a string, it will be parsed when it is used.
+     *
+     * @param output the output
+     * @throws IOException if the event cannot be written
+     */
+    public void writeBinary(DataOutput output) throws IOException {
+        prepareSerialization();
+
+        MXFileStoreCodec.writeString(output, type);
+        MXFileStoreCodec.writeString(output, contentAsString);
+        MXFileStoreCodec.writeString(output, prev_content_as_string);
+        MXFileStoreCodec.writeString(output, eventId);
+        MXFileStoreCodec.writeString(output, roomId);
+        MXFileStoreCodec.writeString(output, userId);
+        MXFileStoreCodec.writeString(output, sender);
+        output.writeLong(originServerTs);
+        MXFileStoreCodec.writeLong(output, age);
+        MXFileStoreCodec.writeString(output, stateKey);
+        MXFileStoreCodec.writeUnsignedData(output, unsigned);
+        MXFileStoreCodec.writeString(output, redacts);
+        MXFileStoreCodec.writeSerializable(output, unsentException);
+        MXFileStoreCodec.writeSerializable(output, unsentMatrixError);
+        MXFileStoreCodec.writeString(output, (null != mSentState) ? mSentState.name() : null);
+        MXFileStoreCodec.writeString(output, mToken);
+        output.writeBoolean(mIsInternalPaginationToken);
+        MXFileStoreCodec.writeString(output, mMatrixId);
+        output.writeLong(mTimeZoneRawOffset);
+    }
+
+    /**
+     * Read an event written with {@link #writeBinary(DataOutput)}.
+     *
+     * @param input   the input
+     * @param version the codec version
+     * @throws IOException            if the event cannot be read
+     * @throws ClassNotFoundException if a serialized field cannot be read
+     */
+    public void readBinary(DataInput input, int version) throws IOException, ClassNotFoundException {
+        type = MXFileStoreCodec.readString(input);
+        contentAsString = MXFileStoreCodec.readString(input);
+        prev_content_as_string = MXFileStoreCodec.readString(input);
+        eventId = MXFileStoreCodec.readString(input);
+        roomId = MXFileStoreCodec.readString(input);
+        userId = MXFileStoreCodec.readString(input);
+        sender = MXFileStoreCodec.readString(input);
+        originServerTs = input.readLong();
+        age = MXFileStoreCodec.readLong(input);
+        stateKey = MXFileStoreCodec.readString(input);
+        unsigned = MXFileStoreCodec.readUnsignedData(input, version);
+        redacts = MXFileStoreCodec.readString(input);
+        unsentException = (Exception) MXFileStoreCodec.readSerializable(input);
+        unsentMatrixError = (MatrixError) MXFileStoreCodec.readSerializable(input);
+
+        String sentState = MXFileStoreCodec.readString(input);
+
+        if (null != sentState) {
+            try {
+                mSentState = SentState.valueOf(sentState);
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "## readBinary() : unknown sent state " + sentState, e);
+                mSentState = SentState.UNDELIVERED;
+            }
+        } else {
+            mSentState = null;
+        }
+
+        mToken = MXFileStoreCodec.readString(input);
+        mIsInternalPaginationToken = input.readBoolean();
+        mMatrixId = MXFileStoreCodec.readString(input);
+        mTimeZoneRawOffset = input.readLong();
+    }
+
     /**
      * Init some internal fields to serialize the event.
      */
@@ -345,9 +345,12 @@ public class RoomMember implements Externalizable, DatedObject, CryptoRoomMember
         copy.avatarUrl = avatarUrl;
         copy.membership = membership;
         copy.userId = userId;
+        copy.mOriginServerTs = mOriginServerTs;
         copy.mOriginalEventId = mOriginalEventId;
         copy.mSender = mSender;
         copy.reason = reason;
+        copy.thirdPartyInvite = thirdPartyInvite;
+        copy.isDirect = isDirect;
         return copy;
     }
 
@@ -21,19 +21,14 @@ import android.text.TextUtils;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import org.matrix.androidsdk.core.GlobMatcher;
 import org.matrix.androidsdk.rest.model.Event;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Pattern;
-
 public class EventMatchCondition extends Condition {
 
     public String key;
     public String pattern;
 
-    private static Map<String, Pattern> mPatternByRule = null;
-
     public EventMatchCondition() {
         kind = Condition.KIND_EVENT_MATCH;
     }
@@ -71,18 +66,11 @@ public class EventMatchCondition extends Condition {
             return true;
         }
 
-        if (null == mPatternByRule) {
-            mPatternByRule = new HashMap<>();
-        }
-
-        Pattern patternEx = mPatternByRule.get(pattern);
-
-        if (null == patternEx) {
-            patternEx = Pattern.compile(globToRegex(pattern), Pattern.CASE_INSENSITIVE);
-            mPatternByRule.put(pattern, patternEx);
+        if (null == pattern) {
+            return false;
         }
 
-        return patternEx.matcher(fieldVal).matches();
+        return GlobMatcher.getGlobMatcher(pattern).matches(fieldVal);
     }
 
     private String extractField(JsonObject jsonObject, String fieldPath) {
@@ -99,15 +87,4 @@ public class EventMatchCondition extends Condition {
         }
         return (jsonElement == null) ? null : jsonElement.getAsString();
     }
-
-    private String globToRegex(String glob) {
-        String res = glob.replace("*", ".*").replace("?", ".");
-
-        // If no special characters were found (detected here by no replacements having been made),
-        // add asterisks and boundaries to both sides
-        if (res.equals(glob)) {
-            res = "(^|.*\\W)" + res + "($|\\W.*)";
-        }
-        return res;
-    }
 }
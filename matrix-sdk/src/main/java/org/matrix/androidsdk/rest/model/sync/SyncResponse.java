@@ -66,6 +66,36 @@ public class SyncResponse implements CryptoSyncResponse {
      */
     public GroupsSyncResponse groups;
 
+    // the sections read before the rooms have been provided while the response was read
+    private boolean mIsStreamed;
+
+    // the joined rooms which have been provided while the response was read, they are not in rooms.join
+    private int mStreamedJoinedRoomsCount;
+
+    /**
+     * @return true if the sections read before the rooms (to device events, account data...)
+     * have been provided to a stream listener while the response was read
+     */
+    public boolean isStreamed() {
+        return mIsStreamed;
+    }
+
+    public void setStreamed(boolean isStreamed) {
+        mIsStreamed = isStreamed;
+    }
+
+    /**
+     * @return the number of the joined rooms which have been provided to a stream listener
+     * while the response was read, they are not listed in {@link #rooms}.
+     */
+    public int getStreamedJoinedRoomsCount() {
+        return mStreamedJoinedRoomsCount;
+    }
+
+    public void setStreamedJoinedRoomsCount(int count) {
+        mStreamedJoinedRoomsCount = count;
+    }
+
     @Override
     public CryptoDeviceListResponse getDeviceLists() {
         return deviceLists;
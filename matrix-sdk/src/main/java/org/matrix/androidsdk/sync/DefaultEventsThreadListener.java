@@ -20,6 +20,7 @@ package org.matrix.androidsdk.sync;
 
 import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.core.model.MatrixError;
+import org.matrix.androidsdk.rest.json.SyncResponseStreamDecoder;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 
 /**
@@ -38,6 +39,16 @@ public class DefaultEventsThreadListener implements EventsThreadListener {
         mDataHandler.onSyncResponse(syncResponse, fromToken, isCatchingUp);
     }
 
+    @Override
+    public void onSyncResponse(SyncResponse syncResponse, String fromToken, boolean isCatchingUp, Runnable onApplied) {
+        mDataHandler.onSyncResponse(syncResponse, fromToken, isCatchingUp, onApplied);
+    }
+
+    @Override
+    public SyncResponseStreamDecoder.Listener getSyncStreamListener(String fromToken) {
+        return mDataHandler.getSyncStreamListener(fromToken);
+    }
+
     @Override
     public void onSyncError(MatrixError matrixError) {
         mDataHandler.onSyncError(matrixError);
@@ -83,6 +83,15 @@ public class EventsThread extends Thread {
     // avoid sync on "this" because it might differ if there is a timer.
     private final Object mSyncObject = new Object();
 
+    // the number of sync responses which can be applied while the next sync request is sent.
+    // 0 means that the next request is sent once the previous response has been applied.
+    private static final int DEFAULT_SYNC_PIPELINE_DEPTH = 1;
+    private int mSyncPipelineDepth = DEFAULT_SYNC_PIPELINE_DEPTH;
+
+    // the sync responses which have been received but not yet applied
+    private final Object mPendingSyncResponsesLock = new Object();
+    private int mPendingSyncResponsesCount = 0;
+
     // Custom Retrofit error callback that will convert Retrofit errors into our own error callback
     private ApiFailureCallback mFailureCallback;
 
@@ -174,6 +183,21 @@ public class EventsThread extends Thread {
         return mDefaultServerTimeoutms;
     }
 
+    /**
+     * Set the number of sync responses which can be applied while the next sync request is sent.
+     * The responses are always applied in the order they are received.
+     *
+     * @param depth the pipeline depth, 0 to wait until the previous response is applied.
+     */
+    public void setSyncPipelineDepth(int depth) {
+        synchronized (mPendingSyncResponsesLock) {
+            mSyncPipelineDepth = Math.max(0, depth);
+            mPendingSyncResponsesLock.notifyAll();
+        }
+
+        Log.d(LOG_TAG, "## setSyncPipelineDepth() : " + mSyncPipelineDepth);
+    }
+
     /**
      * Set a delay between two sync requests.
      *
@@ -305,6 +329,11 @@ public class EventsThread extends Thread {
 
         mKilling = true;
 
+        // do not wait anymore for the pending sync responses
+        synchronized (mPendingSyncResponsesLock) {
+            mPendingSyncResponsesLock.notifyAll();
+        }
+
         if (mPaused) {
             Log.d(LOG_TAG, "killing : the thread was pause so wake it up");
 
@@ -395,13 +424,58 @@ public class EventsThread extends Thread {
         }
     }
 
+    /**
+     * Provide a sync response to the listener.
+     * The response is counted as pending until the listener has applied it.
+     *
+     * @param syncResponse the sync response
+     * @param fromToken    the start token
+     * @param isCatchingUp true if a catchup is on progress
+     */
+    private void dispatchSyncResponse(SyncResponse syncResponse, String fromToken, boolean isCatchingUp) {
+        synchronized (mPendingSyncResponsesLock) {
+            mPendingSyncResponsesCount++;
+        }
+
+        mListener.onSyncResponse(syncResponse, fromToken, isCatchingUp, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPendingSyncResponsesLock) {
+                    mPendingSyncResponsesCount--;
+                    mPendingSyncResponsesLock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until the number of the sync responses which are not yet applied
+     * fits in the pipeline depth, so a slow processing does not queue up the responses.
+     */
+    private void waitForPendingSyncResponses() {
+        synchronized (mPendingSyncResponsesLock) {
+            if (mPendingSyncResponsesCount > mSyncPipelineDepth) {
+                Log.d(LOG_TAG, "## waitForPendingSyncResponses() : " + mPendingSyncResponsesCount + " pending responses");
+            }
+
+            while (!mKilling && (mPendingSyncResponsesCount > mSyncPipelineDepth)) {
+                try {
+                    mPendingSyncResponsesLock.wait();
+                } catch (InterruptedException e) {
+                    Log.e(LOG_TAG, "## waitForPendingSyncResponses() : interrupted " + e.getMessage(), e);
+                    break;
+                }
+            }
+        }
+    }
+
     private void resumeInitialSync() {
         Log.d(LOG_TAG, "Resuming initial sync from " + mCurrentToken);
         // dummy initial sync
         // to hide the splash screen
         SyncResponse dummySyncResponse = new SyncResponse();
         dummySyncResponse.nextBatch = mCurrentToken;
-        mListener.onSyncResponse(dummySyncResponse, null, true);
+        dispatchSyncResponse(dummySyncResponse, null, true);
     }
 
     private void executeInitialSync() {
@@ -410,12 +484,13 @@ public class EventsThread extends Thread {
         while (!isInitialSyncDone()) {
             final CountDownLatch latch = new CountDownLatch(1);
             mEventsRestClient.syncFromToken(null, 0, DEFAULT_CLIENT_TIMEOUT_MS, mIsOnline ? null : "offline", mFilterOrFilterId,
+                    mListener.getSyncStreamListener(null),
                     new SimpleApiCallback<SyncResponse>(mFailureCallback) {
                         @Override
                         public void onSuccess(SyncResponse syncResponse) {
                             Log.d(LOG_TAG, "Received initial sync response.");
                             mNextServerTimeoutms = hasDevicesChanged(syncResponse) ? 0 : mDefaultServerTimeoutms;
-                            mListener.onSyncResponse(syncResponse, null, (0 == mNextServerTimeoutms));
+                            dispatchSyncResponse(syncResponse, null, (0 == mNextServerTimeoutms));
                             mCurrentToken = syncResponse.nextBatch;
                             // unblock the events thread
                             latch.countDown();
@@ -562,6 +637,9 @@ public class EventsThread extends Thread {
                 }
             }
 
+            // the previous responses may still be applied in background
+            waitForPendingSyncResponses();
+
             // the service could have been killed while being paused.
             if (!mKilling) {
 
@@ -575,6 +653,7 @@ public class EventsThread extends Thread {
                 mNextServerTimeoutms = mDefaultServerTimeoutms;
 
                 mEventsRestClient.syncFromToken(mCurrentToken, serverTimeout, DEFAULT_CLIENT_TIMEOUT_MS, mIsOnline ? null : "offline", mFilterOrFilterId,
+                        mListener.getSyncStreamListener(mCurrentToken),
                         new SimpleApiCallback<SyncResponse>(mFailureCallback) {
                             @Override
                             public void onSuccess(SyncResponse syncResponse) {
@@ -597,7 +676,7 @@ public class EventsThread extends Thread {
                                     // to loop again
                                     if (mIsCatchingUp && (0 != mNextServerTimeoutms)) {
                                         // the catchup triggers sync requests until there are some useful events
-                                        int eventCounts = 0;
+                                        int eventCounts = syncResponse.getStreamedJoinedRoomsCount();
 
                                         if (null != syncResponse.rooms) {
                                             RoomsSyncResponse roomsSyncResponse = syncResponse.rooms;
@@ -617,7 +696,7 @@ public class EventsThread extends Thread {
                                         Log.d(LOG_TAG, "Got " + eventCounts + " useful events while catching up : mPaused is set to " + mPaused);
                                     }
                                     Log.d(LOG_TAG, "Got event response");
-                                    mListener.onSyncResponse(syncResponse, mCurrentToken, (0 == mNextServerTimeoutms));
+                                    dispatchSyncResponse(syncResponse, mCurrentToken, (0 == mNextServerTimeoutms));
                                     mCurrentToken = syncResponse.nextBatch;
                                     Log.d(LOG_TAG, "mCurrentToken is now set to " + mCurrentToken);
 
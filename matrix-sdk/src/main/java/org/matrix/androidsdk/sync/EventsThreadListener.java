@@ -18,6 +18,7 @@
 package org.matrix.androidsdk.sync;
 
 import org.matrix.androidsdk.core.model.MatrixError;
+import org.matrix.androidsdk.rest.json.SyncResponseStreamDecoder;
 import org.matrix.androidsdk.rest.model.sync.SyncResponse;
 
 /**
@@ -33,6 +34,33 @@ public interface EventsThreadListener {
      */
     void onSyncResponse(SyncResponse response, String fromToken, boolean isCatchingUp);
 
+    /**
+     * Call when a sync request has been performed, the next sync request may be sent
+     * while the response is applied.
+     * By default, the response is applied by {@link #onSyncResponse(SyncResponse, String, boolean)}
+     * before calling onApplied.
+     *
+     * @param response     the response (can be null)
+     * @param fromToken    the start token
+     * @param isCatchingUp true if a catchup is on progress
+     * @param onApplied    to run once the response has been applied
+     */
+    default void onSyncResponse(SyncResponse response, String fromToken, boolean isCatchingUp, Runnable onApplied) {
+        onSyncResponse(response, fromToken, isCatchingUp);
+        onApplied.run();
+    }
+
+    /**
+     * Provide the listener which receives the parts of the next sync response while it is read.
+     * The whole response is then provided to onSyncResponse.
+     *
+     * @param fromToken the start token
+     * @return the listener, null to only receive the whole response
+     */
+    default SyncResponseStreamDecoder.Listener getSyncStreamListener(String fromToken) {
+        return null;
+    }
+
     /**
      * The sync has encountered an error
      *
@@ -0,0 +1,96 @@
+package org.matrix.androidsdk.core;
+
+import com.google.gson.JsonParser;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.bingrules.BingRule;
+import org.matrix.androidsdk.rest.model.bingrules.EventMatchCondition;
+import org.matrix.androidsdk.rest.model.bingrules.RoomMemberCountCondition;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+@RunWith(RobolectricTestRunner.class)
+public class BingRulesPlanTest {
+
+    private static EventMatchCondition eventMatch(String key, String pattern) {
+        EventMatchCondition condition = new EventMatchCondition();
+        condition.key = key;
+        condition.pattern = pattern;
+        return condition;
+    }
+
+    private static BingRule rule(String ruleId, EventMatchCondition... conditions) {
+        BingRule rule = new BingRule();
+        rule.ruleId = ruleId;
+
+        for (EventMatchCondition condition : conditions) {
+            rule.addCondition(condition);
+        }
+
+        return rule;
+    }
+
+    private static Event createEvent(String type, String roomId, String body) {
+        Event event = new Event();
+        event.type = type;
+        event.roomId = roomId;
+        event.sender = "@sender:matrix.org";
+        event.contentJson = new JsonParser().parse("{'msgtype': 'm.text', 'body': '" + body + "'}");
+        return event;
+    }
+
+    @Test
+    public void getCandidateRules_ShouldOnlyProvideTheMatchingIndexedRules() {
+        BingRule roomRule = rule("!room:matrix.org", eventMatch("room_id", "!room:matrix.org"));
+        BingRule typeRule = rule(".m.rule.message", eventMatch("type", "m.room.*"), eventMatch("content.msgtype", "m.text"));
+        BingRule contentRule = rule("hello", eventMatch("content.body", "hello"));
+        BingRule fallbackRule = rule(BingRule.RULE_ID_FALLBACK, eventMatch("type", "m.room.message"));
+
+        BingRulesPlan plan = new BingRulesPlan(Arrays.asList(roomRule, typeRule, contentRule, fallbackRule));
+        Assert.assertEquals(4, plan.size());
+
+        BitSet candidates = plan.getCandidateRules(new BingRulesPlan.EventFields(createEvent("m.room.message", "!other:matrix.org", "hi")));
+        Assert.assertEquals("{1, 2, 3}", candidates.toString());
+
+        candidates = plan.getCandidateRules(new BingRulesPlan.EventFields(createEvent("m.call.invite", "!room:matrix.org", "hi")));
+        Assert.assertEquals("{0, 2, 3}", candidates.toString());
+
+        // the index condition is not evaluated twice
+        Assert.assertEquals(1, plan.get(1).mConditions.size());
+        Assert.assertEquals("content.msgtype", plan.get(1).mConditions.get(0).mKey);
+
+        // the rules checked from their id keep no condition
+        Assert.assertNull(plan.get(3).mIndexCondition);
+        Assert.assertTrue(plan.get(3).mConditions.isEmpty());
+    }
+
+    @Test
+    public void compiledCondition_ShouldMatchLikeEventMatchCondition() {
+        Event event = createEvent("m.room.message", "!room:matrix.org", "Say Hello world!");
+        BingRulesPlan.EventFields fields = new BingRulesPlan.EventFields(event);
+
+        String[][] cases = {
+                {"content.body", "hello"},
+                {"content.body", "hell"},
+                {"content.body", "*hell*"},
+                {"content.body", "say?hello*"},
+                {"content.msgtype", "m.text"},
+                {"content.unknown", "m.text"},
+        };
+
+        for (String[] testCase : cases) {
+            EventMatchCondition condition = eventMatch(testCase[0], testCase[1]);
+            BingRulesPlan.CompiledCondition compiledCondition = new BingRulesPlan.CompiledCondition(condition);
+
+            Assert.assertTrue(compiledCondition.isEventMatch());
+            Assert.assertEquals(Arrays.toString(testCase), condition.isSatisfied(event), compiledCondition.matches(fields.get(compiledCondition)));
+        }
+
+        Assert.assertFalse(new BingRulesPlan.CompiledCondition(new RoomMemberCountCondition()).isEventMatch());
+    }
+}
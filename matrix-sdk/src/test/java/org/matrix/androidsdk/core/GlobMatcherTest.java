@@ -0,0 +1,54 @@
+package org.matrix.androidsdk.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class GlobMatcherTest {
+
+    @Test
+    public void compileGlob_WithoutWildcard_ShouldMatchAStandaloneWord() {
+        GlobMatcher matcher = GlobMatcher.compileGlob("hello");
+
+        Assert.assertTrue(matcher.matches("hello"));
+        Assert.assertTrue(matcher.matches("Say HELLO!"));
+        Assert.assertFalse(matcher.matches("Say hellos"));
+        Assert.assertFalse(matcher.matches("Say hello_"));
+
+        // '.*' does not match the line terminators
+        Assert.assertTrue(matcher.matches("first\nhello"));
+        Assert.assertFalse(matcher.matches("first\nsecond hello"));
+    }
+
+    @Test
+    public void compileGlob_WithWildcards_ShouldMatchTheWholeValue() {
+        Assert.assertTrue(GlobMatcher.compileGlob("m.room.*").matches("m.room.message"));
+        Assert.assertFalse(GlobMatcher.compileGlob("m.room.*").matches("m.call.invite"));
+        Assert.assertTrue(GlobMatcher.compileGlob("*bot*").matches("@Bot:matrix.org"));
+        Assert.assertTrue(GlobMatcher.compileGlob("*:matrix.org").matches("@alice:matrix.org"));
+        Assert.assertTrue(GlobMatcher.compileGlob("a?c*e").matches("ABCDE"));
+        Assert.assertFalse(GlobMatcher.compileGlob("a?c*e").matches("ACDE"));
+
+        // the regular expression fallback
+        Assert.assertTrue(GlobMatcher.compileGlob("a+*").matches("aaab"));
+        Assert.assertFalse(GlobMatcher.compileGlob("(*").matches("("));
+    }
+
+    @Test
+    public void compileWord_ShouldFindAStandaloneWord() {
+        Assert.assertTrue(GlobMatcher.compileWord("Alice", false).matches("hi alice, how are you?"));
+        Assert.assertFalse(GlobMatcher.compileWord("Alice", false).matches("hi alices"));
+        Assert.assertTrue(GlobMatcher.compileWord("a.b", false).matches("hi a.b"));
+        Assert.assertFalse(GlobMatcher.compileWord("a.b", false).matches("hi axb"));
+        Assert.assertTrue(GlobMatcher.compileWord("a.b", true).matches("hi axb"));
+        Assert.assertTrue(GlobMatcher.compileWord("(alice)", false).matches("hi (alice)"));
+    }
+
+    @Test
+    public void getGlobMatcher_ShouldCacheTheMatchers() {
+        Assert.assertSame(GlobMatcher.getGlobMatcher("*hello*"), GlobMatcher.getGlobMatcher("*hello*"));
+        Assert.assertNotSame(GlobMatcher.getWordMatcher("hello", false), GlobMatcher.getWordMatcher("hello", true));
+    }
+}
@@ -0,0 +1,92 @@
+package org.matrix.androidsdk.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+public class PersistentHashMapTest {
+
+    // a key whose hash is shared with other keys
+    private static class CollidingKey {
+        final int mId;
+
+        CollidingKey(int id) {
+            mId = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return mId % 3;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof CollidingKey) && ((CollidingKey) o).mId == mId;
+        }
+    }
+
+    @Test
+    public void plusAndMinus_ShouldNotModifyThePreviousMaps() {
+        PersistentHashMap<String, String> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, String> map1 = empty.plus("@alice:matrix.org", "Alice");
+        PersistentHashMap<String, String> map2 = map1.plus("@bob:matrix.org", "Bob").plus("@alice:matrix.org", "Alice2");
+        PersistentHashMap<String, String> map3 = map2.minus("@bob:matrix.org");
+
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertNull(empty.get("@alice:matrix.org"));
+
+        Assert.assertEquals(1, map1.size());
+        Assert.assertEquals("Alice", map1.get("@alice:matrix.org"));
+        Assert.assertFalse(map1.containsKey("@bob:matrix.org"));
+
+        Assert.assertEquals(2, map2.size());
+        Assert.assertEquals("Alice2", map2.get("@alice:matrix.org"));
+        Assert.assertEquals("Bob", map2.get("@bob:matrix.org"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Alice2", "Bob")), new HashSet<>(map2.values()));
+
+        Assert.assertEquals(1, map3.size());
+        Assert.assertEquals(Arrays.asList("@alice:matrix.org"), map3.keys());
+    }
+
+    @Test
+    public void plusAndMinus_WithoutChange_ShouldReturnTheSameMap() {
+        String value = "Alice";
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("@alice:matrix.org", value);
+
+        Assert.assertSame(map, map.plus("@alice:matrix.org", value));
+        Assert.assertSame(map, map.minus("@bob:matrix.org"));
+        Assert.assertSame(PersistentHashMap.empty(), map.minus("@alice:matrix.org"));
+    }
+
+    @Test
+    public void plusAndMinus_ShouldMatchAHashMap() {
+        Random random = new Random(42);
+        PersistentHashMap<Object, Integer> map = PersistentHashMap.empty();
+        Map<Object, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            int id = random.nextInt(1000);
+            Object key = (0 == id % 2) ? "@user" + id + ":matrix.org" : new CollidingKey(id);
+
+            if (0 == random.nextInt(3)) {
+                map = map.minus(key);
+                expected.remove(key);
+            } else {
+                map = map.plus(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        Assert.assertEquals(expected.keySet(), new HashSet<>(map.keys()));
+
+        for (Map.Entry<Object, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
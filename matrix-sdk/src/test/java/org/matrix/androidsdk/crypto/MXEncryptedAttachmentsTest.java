@@ -0,0 +1,157 @@
+package org.matrix.androidsdk.crypto;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.crypto.model.crypto.EncryptedFileInfo;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXEncryptedAttachmentsTest {
+
+    // several chunks of the 32KB crypto buffer, and a partial one
+    private static final int ATTACHMENT_SIZE = 3 * 32 * 1024 + 123;
+
+    private byte[] createAttachment() {
+        byte[] attachment = new byte[ATTACHMENT_SIZE];
+        new Random(42).nextBytes(attachment);
+        return attachment;
+    }
+
+    /**
+     * Read a stream by small chunks, which do not match the crypto buffer size.
+     *
+     * @param inputStream the stream
+     * @param length      the number of bytes to read
+     * @return the read bytes
+     */
+    private byte[] read(InputStream inputStream, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        int read;
+
+        while ((offset < length) && (-1 != (read = inputStream.read(data, offset, Math.min(1000, length - offset))))) {
+            offset += read;
+        }
+
+        Assert.assertEquals(length, offset);
+
+        return data;
+    }
+
+    /**
+     * Encrypt an attachment, and read the whole encrypted stream.
+     *
+     * @param attachment the attachment
+     * @param result     the encryption result, updated with the read encrypted stream
+     * @return the encrypted attachment
+     */
+    private byte[] encrypt(byte[] attachment, MXEncryptedAttachments.EncryptionResult result) throws IOException {
+        byte[] encryptedAttachment = read(result.mEncryptedStream, attachment.length);
+
+        // the hash is only known once the end of the stream is reached
+        Assert.assertNull(result.mEncryptedFileInfo.hashes);
+        Assert.assertEquals(-1, result.mEncryptedStream.read());
+        Assert.assertNotNull(result.mEncryptedFileInfo.hashes.get("sha256"));
+
+        result.mEncryptedStream.close();
+
+        return encryptedAttachment;
+    }
+
+    @Test
+    public void encryptThenDecrypt_ShouldReturnTheAttachment() throws Exception {
+        byte[] attachment = createAttachment();
+        MXEncryptedAttachments.EncryptionResult result = MXEncryptedAttachments.encryptAttachmentStream(new ByteArrayInputStream(attachment), "image/png");
+
+        Assert.assertNotNull(result);
+        Assert.assertEquals("image/png", result.mEncryptedFileInfo.mimetype);
+
+        byte[] encryptedAttachment = encrypt(attachment, result);
+
+        Assert.assertFalse(Arrays.equals(attachment, encryptedAttachment));
+
+        // streaming decryption
+        InputStream decryptedStream = MXEncryptedAttachments.decryptAttachmentStream(new ByteArrayInputStream(encryptedAttachment),
+                result.mEncryptedFileInfo);
+
+        Assert.assertNotNull(decryptedStream);
+        Assert.assertArrayEquals(attachment, read(decryptedStream, attachment.length));
+        Assert.assertEquals(-1, decryptedStream.read());
+
+        // decryption to an output stream
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        Assert.assertTrue(MXEncryptedAttachments.decryptAttachment(new ByteArrayInputStream(encryptedAttachment),
+                result.mEncryptedFileInfo, outputStream));
+        Assert.assertArrayEquals(attachment, outputStream.toByteArray());
+
+        Assert.assertTrue(MXEncryptedAttachments.checkAttachmentHash(new ByteArrayInputStream(encryptedAttachment), result.mEncryptedFileInfo));
+    }
+
+    @Test
+    public void encryptAttachment_ShouldProvideTheHashAtOnce() throws Exception {
+        byte[] attachment = createAttachment();
+        MXEncryptedAttachments.EncryptionResult result = MXEncryptedAttachments.encryptAttachment(new ByteArrayInputStream(attachment), "image/png");
+
+        Assert.assertNotNull(result);
+        Assert.assertNotNull(result.mEncryptedFileInfo.hashes.get("sha256"));
+
+        byte[] encryptedAttachment = read(result.mEncryptedStream, attachment.length);
+        Assert.assertEquals(-1, result.mEncryptedStream.read());
+
+        InputStream decryptedStream = MXEncryptedAttachments.decryptAttachment(new ByteArrayInputStream(encryptedAttachment),
+                result.mEncryptedFileInfo);
+
+        Assert.assertNotNull(decryptedStream);
+        Assert.assertArrayEquals(attachment, read(decryptedStream, attachment.length));
+    }
+
+    @Test
+    public void decrypt_WhenTheAttachmentIsTampered_ShouldFailAtTheEndOfTheStream() throws Exception {
+        byte[] attachment = createAttachment();
+        MXEncryptedAttachments.EncryptionResult result = MXEncryptedAttachments.encryptAttachmentStream(new ByteArrayInputStream(attachment), "image/png");
+        byte[] encryptedAttachment = encrypt(attachment, result);
+        EncryptedFileInfo encryptedFileInfo = result.mEncryptedFileInfo;
+
+        encryptedAttachment[ATTACHMENT_SIZE / 2] ^= 0x01;
+
+        Assert.assertFalse(MXEncryptedAttachments.checkAttachmentHash(new ByteArrayInputStream(encryptedAttachment), encryptedFileInfo));
+        Assert.assertFalse(MXEncryptedAttachments.decryptAttachment(new ByteArrayInputStream(encryptedAttachment),
+                encryptedFileInfo, new ByteArrayOutputStream()));
+        Assert.assertNull(MXEncryptedAttachments.decryptAttachment(new ByteArrayInputStream(encryptedAttachment), encryptedFileInfo));
+
+        InputStream decryptedStream = MXEncryptedAttachments.decryptAttachmentStream(new ByteArrayInputStream(encryptedAttachment),
+                encryptedFileInfo);
+
+        // the data is provided, but the read fails once the hash can be checked
+        read(decryptedStream, attachment.length);
+
+        try {
+            decryptedStream.read();
+            Assert.fail("The tampered attachment must not be read until its end");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void decrypt_WithAnInvalidFileInfo_ShouldFail() throws Exception {
+        byte[] attachment = createAttachment();
+        MXEncryptedAttachments.EncryptionResult result = MXEncryptedAttachments.encryptAttachmentStream(new ByteArrayInputStream(attachment), "image/png");
+        byte[] encryptedAttachment = encrypt(attachment, result);
+
+        result.mEncryptedFileInfo.key.alg = "A128CTR";
+
+        Assert.assertNull(MXEncryptedAttachments.decryptAttachmentStream(new ByteArrayInputStream(encryptedAttachment), result.mEncryptedFileInfo));
+        Assert.assertFalse(MXEncryptedAttachments.checkAttachmentHash(new ByteArrayInputStream(encryptedAttachment), result.mEncryptedFileInfo));
+        Assert.assertNull(MXEncryptedAttachments.decryptAttachmentStream(null, result.mEncryptedFileInfo));
+    }
+}
@@ -0,0 +1,53 @@
+package org.matrix.androidsdk.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class RoomStateTest {
+
+    private static final String ALICE = "@alice:matrix.org";
+    private static final String BOB = "@bob:matrix.org";
+
+    private static RoomMember member(String displayName) {
+        RoomMember member = new RoomMember();
+        member.displayname = displayName;
+        member.membership = RoomMember.MEMBERSHIP_JOIN;
+        return member;
+    }
+
+    @Test
+    public void getMemberName_WhenMembersHaveTheSameDisplayName_ShouldDisambiguateThem() {
+        RoomState state = new RoomState();
+        state.setMember(ALICE, member("Alice"));
+        state.setMember(BOB, member("Bob"));
+
+        Assert.assertEquals("Alice", state.getMemberName(ALICE));
+        Assert.assertEquals("Bob", state.getMemberName(BOB));
+
+        // the cached name of Bob must be updated too
+        state.setMember(ALICE, member("Bob"));
+        Assert.assertEquals("Bob (" + ALICE + ")", state.getMemberName(ALICE));
+        Assert.assertEquals("Bob (" + BOB + ")", state.getMemberName(BOB));
+
+        state.removeMember(ALICE);
+        Assert.assertEquals("Bob", state.getMemberName(BOB));
+    }
+
+    @Test
+    public void deepCopy_ShouldNotShareTheMembersUpdates() {
+        RoomState state = new RoomState();
+        state.setMember(ALICE, member("Bob"));
+
+        RoomState copy = state.deepCopy();
+        copy.setMember(BOB, member("Bob"));
+
+        Assert.assertEquals(1, state.getLoadedMembers().size());
+        Assert.assertEquals("Bob", state.getMemberName(ALICE));
+        Assert.assertEquals(2, copy.getLoadedMembers().size());
+        Assert.assertEquals("Bob (" + ALICE + ")", copy.getMemberName(ALICE));
+    }
+}
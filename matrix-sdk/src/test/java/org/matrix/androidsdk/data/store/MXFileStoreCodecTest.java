@@ -0,0 +1,119 @@
+package org.matrix.androidsdk.data.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.UnsignedData;
+import org.matrix.androidsdk.rest.model.group.Group;
+import org.matrix.androidsdk.rest.model.group.GroupProfile;
+import org.matrix.androidsdk.rest.model.group.GroupSummary;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreCodecTest {
+
+    private static Object roundTrip(Object object) throws Exception {
+        Assert.assertTrue(MXFileStoreCodec.isSupported(object));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        MXFileStoreCodec.encode(out, object);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertEquals(MXFileStoreCodec.MAGIC, in.readInt());
+        return MXFileStoreCodec.decode(in);
+    }
+
+    private static Event createEvent(String eventId) {
+        Event event = new Event();
+        event.eventId = eventId;
+        event.roomId = "!roomId:matrix.org";
+        event.sender = "@alice:matrix.org";
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.originServerTs = 1234L;
+        return event;
+    }
+
+    @Test
+    public void event_ShouldBeRestored() throws Exception {
+        Event event = createEvent("$1");
+        event.unsigned = new UnsignedData();
+        event.unsigned.transaction_id = "txn";
+        event.mSentState = Event.SentState.UNDELIVERED;
+
+        Event restored = (Event) roundTrip(event);
+
+        Assert.assertEquals("$1", restored.eventId);
+        Assert.assertEquals("@alice:matrix.org", restored.sender);
+        Assert.assertEquals(1234L, restored.originServerTs);
+        Assert.assertNull(restored.age);
+        Assert.assertEquals("txn", restored.unsigned.transaction_id);
+        Assert.assertEquals(Event.SentState.UNDELIVERED, restored.mSentState);
+    }
+
+    @Test
+    public void eventsMap_ShouldKeepTheOrder() throws Exception {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+        events.put("$2", createEvent("$2"));
+        events.put("$1", createEvent("$1"));
+
+        @SuppressWarnings("unchecked")
+        LinkedHashMap<String, Event> restored = (LinkedHashMap<String, Event>) roundTrip(events);
+
+        Assert.assertEquals("[$2, $1]", new ArrayList<>(restored.keySet()).toString());
+    }
+
+    @Test
+    public void receipts_ShouldBeRestored() throws Exception {
+        List<ReceiptData> receipts = Arrays.asList(new ReceiptData("@alice:matrix.org", "$1", 42L));
+
+        @SuppressWarnings("unchecked")
+        List<ReceiptData> restored = (List<ReceiptData>) roundTrip(receipts);
+
+        Assert.assertEquals(1, restored.size());
+        Assert.assertEquals("$1", restored.get(0).eventId);
+        Assert.assertEquals(42L, restored.get(0).originServerTs);
+    }
+
+    @Test
+    public void roomSummary_ShouldBeRestored() throws Exception {
+        RoomSummary summary = new RoomSummary();
+        summary.setRoomId("!roomId:matrix.org");
+        summary.setLatestReceivedEvent(createEvent("$1"));
+        summary.mUnreadEventsCount = 3;
+
+        RoomSummary restored = (RoomSummary) roundTrip(summary);
+
+        Assert.assertEquals("!roomId:matrix.org", restored.getRoomId());
+        Assert.assertEquals("$1", restored.getLatestReceivedEvent().eventId);
+        Assert.assertEquals(3, restored.mUnreadEventsCount);
+    }
+
+    @Test
+    public void group_ShouldBeRestored() throws Exception {
+        Group group = new Group("+group:matrix.org");
+        GroupSummary summary = new GroupSummary();
+        summary.profile = new GroupProfile();
+        summary.profile.name = "Group";
+        group.setGroupSummary(summary);
+
+        Group restored = (Group) roundTrip(group);
+
+        Assert.assertEquals("+group:matrix.org", restored.getGroupId());
+        Assert.assertEquals("Group", restored.getGroupSummary().profile.name);
+        Assert.assertNotNull(restored.getGroupRooms());
+    }
+}
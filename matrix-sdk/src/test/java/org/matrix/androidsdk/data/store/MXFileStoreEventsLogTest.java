@@ -0,0 +1,198 @@
+package org.matrix.androidsdk.data.store;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.core.FileContentUtils;
+import org.matrix.androidsdk.rest.model.Event;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXFileStoreEventsLogTest {
+
+    private static final String ROOM_ID = "!roomId:matrix.org";
+
+    @Mock
+    MXFileStore mStore;
+
+    private File mFolder;
+    private MXFileStoreEventsLog mEventsLog;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mFolder = Files.createTempDirectory("MXFileStoreEventsLogTest").toFile();
+
+        Mockito.when(mStore.writeObject(Mockito.anyString(), Mockito.any(File.class), Mockito.any())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                DataOutputStream out = new DataOutputStream(new FileOutputStream((File) invocation.getArgument(1)));
+                MXFileStoreCodec.encode(out, invocation.getArgument(2));
+                out.close();
+                return true;
+            }
+        });
+
+        Mockito.when(mStore.readObject(Mockito.anyString(), Mockito.any(File.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                try {
+                    DataInputStream in = new DataInputStream(new FileInputStream((File) invocation.getArgument(1)));
+                    Object object = (MXFileStoreCodec.MAGIC == in.readInt()) ? MXFileStoreCodec.decode(in) : null;
+                    in.close();
+                    return object;
+                } catch (Exception e) {
+                    return null;
+                }
+            }
+        });
+
+        mEventsLog = new MXFileStoreEventsLog(mStore, mFolder, 10);
+    }
+
+    @After
+    public void tearDown() {
+        FileContentUtils.deleteDirectory(mFolder);
+    }
+
+    private static Event createEvent(String eventId) {
+        Event event = new Event();
+        event.eventId = eventId;
+        event.roomId = ROOM_ID;
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        return event;
+    }
+
+    private void writeSnapshot(String... eventIds) {
+        LinkedHashMap<String, Event> events = new LinkedHashMap<>();
+
+        for (String eventId : eventIds) {
+            events.put(eventId, createEvent(eventId));
+        }
+
+        Assert.assertTrue(mEventsLog.writeSegment(ROOM_ID, MXFileStoreEventsLog.createSnapshot(events)));
+    }
+
+    private void commit() {
+        MXFileStoreEventsLog.Segment segment = mEventsLog.takePendingSegment(ROOM_ID);
+        Assert.assertNotNull(segment);
+        Assert.assertTrue(mEventsLog.writeSegment(ROOM_ID, segment));
+    }
+
+    private static List<String> keys(LinkedHashMap<String, Event> events) {
+        return new ArrayList<>(events.keySet());
+    }
+
+    @Test
+    public void read_WhenSegmentsAreAppended_ShouldReplayThemInOrder() {
+        writeSnapshot("$1", "$2");
+
+        mEventsLog.appendEvent(ROOM_ID, "$3", createEvent("$3"));
+        commit();
+
+        mEventsLog.deleteEvent(ROOM_ID, "$1");
+        mEventsLog.appendEvent(ROOM_ID, "$4", createEvent("$4"));
+        commit();
+
+        Assert.assertTrue(mEventsLog.exists(ROOM_ID));
+        Assert.assertEquals(3, new File(mFolder, ROOM_ID).list().length);
+
+        LinkedHashMap<String, Event> events = mEventsLog.read(ROOM_ID);
+        Assert.assertNotNull(events);
+        Assert.assertEquals("[$2, $3, $4]", keys(events).toString());
+    }
+
+    @Test
+    public void read_WhenAnEventIsUpdated_ShouldKeepItsPosition() {
+        writeSnapshot("$1", "$2");
+
+        Event updatedEvent = createEvent("$1");
+        updatedEvent.mSentState = Event.SentState.UNDELIVERED;
+        mEventsLog.appendEvent(ROOM_ID, "$1", updatedEvent);
+        commit();
+
+        LinkedHashMap<String, Event> events = mEventsLog.read(ROOM_ID);
+        Assert.assertEquals("[$1, $2]", keys(events).toString());
+        Assert.assertEquals(Event.SentState.UNDELIVERED, events.get("$1").mSentState);
+    }
+
+    @Test
+    public void writeSegment_WhenASnapshotIsWritten_ShouldDeleteThePreviousSegments() {
+        writeSnapshot("$1");
+        mEventsLog.appendEvent(ROOM_ID, "$2", createEvent("$2"));
+        commit();
+
+        writeSnapshot("$1", "$2", "$3");
+
+        String[] names = new File(mFolder, ROOM_ID).list();
+        Assert.assertEquals(1, names.length);
+        Assert.assertEquals("2", names[0]);
+        Assert.assertEquals("[$1, $2, $3]", keys(mEventsLog.read(ROOM_ID)).toString());
+    }
+
+    @Test
+    public void needsCompaction_WhenTooManyRecordsAreAppended_ShouldBeTrue() {
+        Assert.assertTrue(mEventsLog.needsCompaction(ROOM_ID));
+
+        writeSnapshot("$0");
+        Assert.assertFalse(mEventsLog.needsCompaction(ROOM_ID));
+
+        for (int i = 1; i < 10; i++) {
+            mEventsLog.appendEvent(ROOM_ID, "$" + i, createEvent("$" + i));
+        }
+        commit();
+
+        Assert.assertTrue(mEventsLog.needsCompaction(ROOM_ID));
+    }
+
+    @Test
+    public void requestSnapshot_ShouldDiscardThePendingEvents() {
+        mEventsLog.appendEvent(ROOM_ID, "$1", createEvent("$1"));
+        mEventsLog.requestSnapshot(ROOM_ID);
+        mEventsLog.appendEvent(ROOM_ID, "$2", createEvent("$2"));
+
+        MXFileStoreEventsLog.Segment segment = mEventsLog.takePendingSegment(ROOM_ID);
+        Assert.assertTrue(segment.mIsSnapshot);
+        Assert.assertTrue(segment.mKeys.isEmpty());
+        Assert.assertNull(mEventsLog.takePendingSegment(ROOM_ID));
+    }
+
+    @Test
+    public void read_WhenTheLastSegmentIsTruncated_ShouldIgnoreItUntilItIsOverwritten() throws Exception {
+        writeSnapshot("$1");
+        mEventsLog.appendEvent(ROOM_ID, "$2", createEvent("$2"));
+        commit();
+
+        // simulate a kill while appending a segment
+        FileOutputStream fos = new FileOutputStream(new File(new File(mFolder, ROOM_ID), "2"));
+        fos.write(new byte[]{1, 2, 3});
+        fos.close();
+
+        LinkedHashMap<String, Event> events = mEventsLog.read(ROOM_ID);
+        Assert.assertEquals("[$1, $2]", keys(events).toString());
+
+        // the next segment is written over the truncated one
+        mEventsLog.appendEvent(ROOM_ID, "$3", createEvent("$3"));
+        commit();
+
+        Assert.assertEquals("[$1, $2, $3]", keys(mEventsLog.read(ROOM_ID)).toString());
+        Assert.assertFalse(new File(new File(mFolder, ROOM_ID), "3").exists());
+    }
+}
@@ -0,0 +1,149 @@
+package org.matrix.androidsdk.data.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class RoomEventsTest {
+
+    private static Event createEvent(String eventId) {
+        Event event = new Event();
+        event.eventId = eventId;
+        return event;
+    }
+
+    private static String ids(Iterator<Event> iterator) {
+        List<String> ids = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            ids.add(iterator.next().eventId);
+        }
+
+        return ids.toString();
+    }
+
+    @Test
+    public void putAndPrepend_ShouldKeepTheOrder() {
+        RoomEvents events = new RoomEvents();
+        events.put("$2", createEvent("$2"));
+        events.put("$3", createEvent("$3"));
+        events.prepend("$1", createEvent("$1"));
+        events.prepend("$0", createEvent("$0"));
+
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals("$0", events.getFirst().eventId);
+        Assert.assertEquals("$3", events.getLast().eventId);
+        Assert.assertEquals("[$0, $1, $2, $3]", ids(events.iterator()));
+        Assert.assertEquals("[$3, $2, $1, $0]", ids(events.descendingIterator()));
+
+        Assert.assertTrue(events.getOrdinal("$0") < events.getOrdinal("$1"));
+        Assert.assertTrue(events.getOrdinal("$1") < events.getOrdinal("$3"));
+        Assert.assertNull(events.getOrdinal("$4"));
+    }
+
+    @Test
+    public void put_WhenTheEventIsKnown_ShouldUpdateItInPlace() {
+        RoomEvents events = new RoomEvents();
+        events.put("$1", createEvent("$1"));
+        events.put("$2", createEvent("$2"));
+
+        Event updatedEvent = createEvent("$1");
+        events.put("$1", updatedEvent);
+        events.prepend("$2", createEvent("$2"));
+
+        Assert.assertEquals("[$1, $2]", ids(events.iterator()));
+        Assert.assertSame(updatedEvent, events.get("$1"));
+    }
+
+    @Test
+    public void remove_ShouldUpdateTheHeadAndTheTail() {
+        RoomEvents events = new RoomEvents();
+        events.put("$1", createEvent("$1"));
+        events.put("$2", createEvent("$2"));
+        events.put("$3", createEvent("$3"));
+
+        events.remove("$3");
+        Assert.assertEquals("$2", events.getLast().eventId);
+
+        events.remove("$1");
+        Assert.assertEquals("$2", events.getFirst().eventId);
+
+        events.remove("$2");
+        Assert.assertTrue(events.isEmpty());
+        Assert.assertNull(events.getFirst());
+        Assert.assertNull(events.getLast());
+    }
+
+    @Test
+    public void iteratorRemove_ShouldRemoveTheCurrentEvent() {
+        RoomEvents events = new RoomEvents();
+        events.put("$1", createEvent("$1"));
+        events.put("$2", createEvent("$2"));
+        events.put("$3", createEvent("$3"));
+
+        Iterator<Event> iterator = events.iterator();
+
+        while (iterator.hasNext()) {
+            if (!"$3".equals(iterator.next().eventId)) {
+                iterator.remove();
+            }
+        }
+
+        Assert.assertEquals("[$3]", ids(events.iterator()));
+        Assert.assertFalse(events.containsKey("$1"));
+        Assert.assertEquals("$3", events.getFirst().eventId);
+    }
+
+    @Test
+    public void descendingIteratorBefore_ShouldStartBeforeTheTokenEvent() {
+        RoomEvents events = new RoomEvents();
+
+        for (int i = 0; i < 5; i++) {
+            events.put("$" + i, createEvent("$" + i));
+        }
+
+        Assert.assertNull(events.descendingIteratorBefore("token"));
+
+        events.get("$3").mToken = "token";
+        events.refreshToken("$3");
+
+        Assert.assertEquals("[$2, $1, $0]", ids(events.descendingIteratorBefore("token")));
+
+        events.remove("$3");
+        Assert.assertNull(events.descendingIteratorBefore("token"));
+    }
+
+    @Test
+    public void descendingIteratorBefore_WhenTheLatestTokenEventIsGone_ShouldFindAnOlderOne() {
+        RoomEvents events = new RoomEvents();
+
+        for (int i = 0; i < 5; i++) {
+            events.put("$" + i, createEvent("$" + i));
+        }
+
+        events.get("$1").mToken = "token";
+        events.refreshToken("$1");
+        events.get("$3").mToken = "token";
+        events.refreshToken("$3");
+
+        Assert.assertEquals("[$2, $1, $0]", ids(events.descendingIteratorBefore("token")));
+
+        // the token of the indexed event has changed
+        events.get("$3").mToken = "other_token";
+        Assert.assertEquals("[$0]", ids(events.descendingIteratorBefore("token")));
+
+        events.get("$3").mToken = "token";
+        events.refreshToken("$3");
+
+        // the indexed event has been removed
+        events.remove("$3");
+        Assert.assertEquals("[$0]", ids(events.descendingIteratorBefore("token")));
+    }
+}
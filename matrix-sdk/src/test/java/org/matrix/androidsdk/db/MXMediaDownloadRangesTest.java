@@ -0,0 +1,206 @@
+package org.matrix.androidsdk.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.core.FileContentUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXMediaDownloadRangesTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private File mFolder;
+    private File mTmpFile;
+    private File mRangesFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = Files.createTempDirectory("MXMediaDownloadRangesTest").toFile();
+        mTmpFile = new File(mFolder, "media.tmp");
+        mRangesFile = new File(mFolder, "media.tmp.ranges");
+    }
+
+    @After
+    public void tearDown() {
+        FileContentUtils.deleteDirectory(mFolder);
+    }
+
+    private void writeFile(File file, long length) throws Exception {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(length);
+        randomAccessFile.close();
+    }
+
+    private void writeRanges(String ranges) throws Exception {
+        FileWriter writer = new FileWriter(mRangesFile);
+        writer.write(ranges);
+        writer.close();
+    }
+
+    @Test
+    public void parseContentRange_ShouldReadTheStartAndTheTotalSize() {
+        long[] range = MXMediaDownloadRanges.parseContentRange("bytes 1234-9999/10000");
+        Assert.assertEquals(1234, range[0]);
+        Assert.assertEquals(10000, range[1]);
+
+        range = MXMediaDownloadRanges.parseContentRange(" bytes 0-9/* ");
+        Assert.assertEquals(0, range[0]);
+        Assert.assertEquals(-1, range[1]);
+    }
+
+    @Test
+    public void parseContentRange_WhenTheHeaderIsInvalid_ShouldReturnNull() {
+        Assert.assertNull(MXMediaDownloadRanges.parseContentRange(null));
+        Assert.assertNull(MXMediaDownloadRanges.parseContentRange("items 0-9/10"));
+        Assert.assertNull(MXMediaDownloadRanges.parseContentRange("bytes */10"));
+        Assert.assertNull(MXMediaDownloadRanges.parseContentRange("bytes 0/10-9"));
+        Assert.assertNull(MXMediaDownloadRanges.parseContentRange("bytes a-9/10"));
+    }
+
+    @Test
+    public void constructor_WithoutRanges_ShouldResumeFromTheFileLength() throws Exception {
+        Assert.assertEquals(0, new MXMediaDownloadRanges(mTmpFile).getPosition());
+
+        writeFile(mTmpFile, 1234);
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+
+        Assert.assertEquals(1234, ranges.getPosition());
+        Assert.assertEquals(1234, ranges.getDownloadedSize());
+        Assert.assertEquals(-1, ranges.getTotalSize());
+    }
+
+    @Test
+    public void constructor_WithValidRanges_ShouldRestoreTheSegments() throws Exception {
+        writeFile(mTmpFile, 1000);
+        writeRanges("1000\n100 500\n\n600 1000\n");
+
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+        List<MXMediaDownloadRanges.Segment> segments = ranges.getSegments();
+
+        Assert.assertEquals(2, segments.size());
+        Assert.assertEquals(100, segments.get(0).mPosition);
+        Assert.assertEquals(500, segments.get(0).mEnd);
+        Assert.assertEquals(600, segments.get(1).mPosition);
+        Assert.assertEquals(1000, segments.get(1).mEnd);
+        Assert.assertEquals(1000, ranges.getTotalSize());
+        Assert.assertEquals(1000 - 400 - 400, ranges.getDownloadedSize());
+    }
+
+    private void assertRangesAreReset(String ranges, long fileLength) throws Exception {
+        writeFile(mTmpFile, fileLength);
+        writeRanges(ranges);
+
+        MXMediaDownloadRanges downloadRanges = new MXMediaDownloadRanges(mTmpFile);
+
+        Assert.assertEquals(ranges, 0, downloadRanges.getPosition());
+        Assert.assertEquals(ranges, 1, downloadRanges.getSegments().size());
+        Assert.assertEquals(ranges, -1, downloadRanges.getTotalSize());
+        Assert.assertFalse(ranges, mTmpFile.exists());
+        Assert.assertFalse(ranges, mRangesFile.exists());
+    }
+
+    @Test
+    public void constructor_WithInvalidRanges_ShouldRestartTheDownload() throws Exception {
+        // a segment which is empty, reversed, negative or beyond the media
+        assertRangesAreReset("1000\n500 500\n", 1000);
+        assertRangesAreReset("1000\n600 100\n", 1000);
+        assertRangesAreReset("1000\n-1 100\n", 1000);
+        assertRangesAreReset("1000\n100 1001\n", 1000);
+        // no segment
+        assertRangesAreReset("1000\n", 1000);
+        // the temporary file is not the preallocated one
+        assertRangesAreReset("1000\n100 500\n", 999);
+        // corrupted files
+        assertRangesAreReset("", 1000);
+        assertRangesAreReset("1000\n100\n", 1000);
+        assertRangesAreReset("size\n100 500\n", 1000);
+    }
+
+    @Test
+    public void split_ShouldCoverTheRemainingBytes() throws Exception {
+        writeFile(mTmpFile, 1000);
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+        ranges.setTotalSize(1000 + 10 * MB + 3);
+
+        Assert.assertTrue(ranges.split(4, 2 * MB));
+
+        List<MXMediaDownloadRanges.Segment> segments = ranges.getSegments();
+        Assert.assertEquals(4, segments.size());
+        Assert.assertEquals(1000, segments.get(0).mPosition);
+
+        for (int i = 1; i < segments.size(); i++) {
+            Assert.assertEquals(segments.get(i - 1).mEnd, segments.get(i).mPosition);
+        }
+
+        // the last segment ends with the media
+        Assert.assertEquals(1000 + 10 * MB + 3, segments.get(3).mEnd);
+        Assert.assertEquals(1000 + 10 * MB + 3, mTmpFile.length());
+        Assert.assertEquals(1000, ranges.getDownloadedSize());
+    }
+
+    @Test
+    public void split_ShouldKeepSegmentsOfTheMinimumSize() throws Exception {
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+        ranges.setTotalSize(5 * MB);
+
+        Assert.assertTrue(ranges.split(4, 2 * MB));
+        Assert.assertEquals(2, ranges.getSegments().size());
+        Assert.assertEquals(5 * MB / 2, ranges.getSegments().get(0).mEnd);
+    }
+
+    @Test
+    public void split_WhenTheMediaIsTooSmall_ShouldNotSplit() throws Exception {
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+        ranges.setTotalSize(4 * MB - 1);
+
+        Assert.assertFalse(ranges.split(4, 2 * MB));
+        Assert.assertEquals(1, ranges.getSegments().size());
+        Assert.assertEquals(4 * MB - 1, ranges.getSegments().get(0).mEnd);
+        Assert.assertFalse(mTmpFile.exists());
+    }
+
+    @Test
+    public void split_WhenTheMediaSizeIsUnknown_ShouldNotSplit() throws Exception {
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+
+        Assert.assertFalse(ranges.split(4, 2 * MB));
+        Assert.assertEquals(1, ranges.getSegments().size());
+    }
+
+    @Test
+    public void save_ShouldOnlyRestoreThePendingSegments() throws Exception {
+        MXMediaDownloadRanges ranges = new MXMediaDownloadRanges(mTmpFile);
+        ranges.setTotalSize(8 * MB);
+        Assert.assertTrue(ranges.split(4, 2 * MB));
+
+        List<MXMediaDownloadRanges.Segment> segments = ranges.getSegments();
+        segments.get(0).mPosition = segments.get(0).mEnd;
+        segments.get(2).mPosition += 1000;
+        ranges.save();
+
+        MXMediaDownloadRanges restoredRanges = new MXMediaDownloadRanges(mTmpFile);
+
+        Assert.assertEquals(3, restoredRanges.getSegments().size());
+        Assert.assertEquals(segments.get(1).mPosition, restoredRanges.getPosition());
+        Assert.assertEquals(ranges.getDownloadedSize(), restoredRanges.getDownloadedSize());
+
+        // the ranges are deleted once the download is complete
+        for (MXMediaDownloadRanges.Segment segment : restoredRanges.getSegments()) {
+            segment.mPosition = segment.mEnd;
+        }
+
+        Assert.assertTrue(restoredRanges.isComplete());
+        restoredRanges.save();
+        Assert.assertFalse(mRangesFile.exists());
+    }
+}
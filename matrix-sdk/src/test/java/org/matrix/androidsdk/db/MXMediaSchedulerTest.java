@@ -0,0 +1,225 @@
+package org.matrix.androidsdk.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class MXMediaSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private MXMediaScheduler mScheduler;
+
+    // the ids of the started works, in their start order
+    private final List<String> mStartedIds = new ArrayList<>();
+
+    // the latches which block the works started by block()
+    private final List<CountDownLatch> mBlockingLatches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mScheduler = new MXMediaScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        for (CountDownLatch latch : mBlockingLatches) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Schedule a work which records its start then waits until it is released.
+     *
+     * @param id      the work id
+     * @param lane    the lane
+     * @param started counted down when the work starts
+     * @return the latch releasing the work
+     */
+    private CountDownLatch block(final String id, MXMediaScheduler.Lane lane, final CountDownLatch started) {
+        final CountDownLatch release = new CountDownLatch(1);
+        mBlockingLatches.add(release);
+
+        mScheduler.schedule(id, lane, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mStartedIds) {
+                    mStartedIds.add(id);
+                }
+
+                started.countDown();
+
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        return release;
+    }
+
+    /**
+     * Schedule a work which records its start then ends.
+     *
+     * @param id   the work id
+     * @param lane the lane
+     * @param done counted down when the work ends
+     */
+    private void schedule(final String id, MXMediaScheduler.Lane lane, final CountDownLatch done) {
+        mScheduler.schedule(id, lane, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mStartedIds) {
+                    mStartedIds.add(id);
+                }
+
+                done.countDown();
+            }
+        });
+    }
+
+    /**
+     * Use every thread with blocked thumbnail works.
+     *
+     * @return the latch releasing the first blocked work
+     */
+    private CountDownLatch blockAllThreads() throws Exception {
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch firstRelease = block("blocked_0", MXMediaScheduler.Lane.THUMBNAIL, started);
+
+        for (int i = 1; i < 4; i++) {
+            block("blocked_" + i, MXMediaScheduler.Lane.THUMBNAIL, started);
+        }
+
+        Assert.assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(4, mScheduler.getRunningRequestsCount());
+
+        synchronized (mStartedIds) {
+            mStartedIds.clear();
+        }
+
+        return firstRelease;
+    }
+
+    private List<String> getStartedIds() {
+        synchronized (mStartedIds) {
+            return new ArrayList<>(mStartedIds);
+        }
+    }
+
+    @Test
+    public void schedule_ShouldStartTheRequestsByLanePriority() throws Exception {
+        CountDownLatch firstRelease = blockAllThreads();
+        CountDownLatch done = new CountDownLatch(4);
+
+        schedule("prefetch", MXMediaScheduler.Lane.PREFETCH, done);
+        schedule("media", MXMediaScheduler.Lane.MEDIA, done);
+        schedule("avatar", MXMediaScheduler.Lane.AVATAR, done);
+        schedule("thumbnail", MXMediaScheduler.Lane.THUMBNAIL, done);
+
+        Assert.assertEquals(1, mScheduler.getQueueDepth(MXMediaScheduler.Lane.THUMBNAIL));
+        Assert.assertEquals(1, mScheduler.getQueueDepth(MXMediaScheduler.Lane.PREFETCH));
+
+        // the released thread runs the queued requests one after the other
+        firstRelease.countDown();
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("thumbnail", "avatar", "media", "prefetch"), getStartedIds());
+    }
+
+    @Test
+    public void schedule_ShouldKeepThreadsForTheSmallRequests() throws Exception {
+        CountDownLatch largeStarted = new CountDownLatch(2);
+
+        block("media_0", MXMediaScheduler.Lane.MEDIA, largeStarted);
+        block("media_1", MXMediaScheduler.Lane.MEDIA, largeStarted);
+        CountDownLatch prefetchStarted = new CountDownLatch(1);
+        block("prefetch", MXMediaScheduler.Lane.PREFETCH, prefetchStarted);
+
+        Assert.assertTrue(largeStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the large lanes cannot use more than 2 threads
+        Assert.assertEquals(2, mScheduler.getRunningRequestsCount());
+        Assert.assertEquals(1, mScheduler.getQueueDepth(MXMediaScheduler.Lane.PREFETCH));
+
+        CountDownLatch thumbnailDone = new CountDownLatch(1);
+        schedule("thumbnail", MXMediaScheduler.Lane.THUMBNAIL, thumbnailDone);
+
+        Assert.assertTrue(thumbnailDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(1, prefetchStarted.getCount());
+    }
+
+    @Test
+    public void promote_ShouldMoveTheRequestToAHigherLane() throws Exception {
+        CountDownLatch firstRelease = blockAllThreads();
+        CountDownLatch done = new CountDownLatch(2);
+
+        schedule("media", MXMediaScheduler.Lane.MEDIA, done);
+        schedule("prefetch", MXMediaScheduler.Lane.PREFETCH, done);
+
+        mScheduler.promote("prefetch", MXMediaScheduler.Lane.AVATAR);
+        // a request is never demoted
+        mScheduler.promote("media", MXMediaScheduler.Lane.PREFETCH);
+
+        Assert.assertEquals(0, mScheduler.getQueueDepth(MXMediaScheduler.Lane.PREFETCH));
+        Assert.assertEquals(1, mScheduler.getQueueDepth(MXMediaScheduler.Lane.AVATAR));
+        Assert.assertEquals(1, mScheduler.getQueueDepth(MXMediaScheduler.Lane.MEDIA));
+
+        firstRelease.countDown();
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("prefetch", "media"), getStartedIds());
+    }
+
+    @Test
+    public void cancel_ShouldStartTheRequestFirst() throws Exception {
+        CountDownLatch firstRelease = blockAllThreads();
+        CountDownLatch done = new CountDownLatch(2);
+
+        schedule("thumbnail", MXMediaScheduler.Lane.THUMBNAIL, done);
+        schedule("cancelled", MXMediaScheduler.Lane.PREFETCH, done);
+
+        mScheduler.cancel("cancelled");
+
+        Assert.assertEquals(0, mScheduler.getQueueDepth(MXMediaScheduler.Lane.PREFETCH));
+
+        firstRelease.countDown();
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("cancelled", "thumbnail"), getStartedIds());
+
+        // the cancelled request is not counted in the metrics
+        Assert.assertEquals(0, mScheduler.getStartedRequestsCount(MXMediaScheduler.Lane.PREFETCH));
+        Assert.assertEquals(-1, mScheduler.getAverageWaitTime(MXMediaScheduler.Lane.PREFETCH));
+    }
+
+    @Test
+    public void metrics_ShouldCountTheStartedRequests() throws Exception {
+        CountDownLatch firstRelease = blockAllThreads();
+        CountDownLatch done = new CountDownLatch(1);
+
+        schedule("avatar", MXMediaScheduler.Lane.AVATAR, done);
+        Thread.sleep(50);
+        firstRelease.countDown();
+
+        Assert.assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Assert.assertEquals(4, mScheduler.getStartedRequestsCount(MXMediaScheduler.Lane.THUMBNAIL));
+        Assert.assertEquals(1, mScheduler.getStartedRequestsCount(MXMediaScheduler.Lane.AVATAR));
+        Assert.assertTrue(mScheduler.getMaxWaitTime(MXMediaScheduler.Lane.AVATAR) >= 50);
+        Assert.assertEquals(mScheduler.getMaxWaitTime(MXMediaScheduler.Lane.AVATAR),
+                mScheduler.getAverageWaitTime(MXMediaScheduler.Lane.AVATAR));
+    }
+}
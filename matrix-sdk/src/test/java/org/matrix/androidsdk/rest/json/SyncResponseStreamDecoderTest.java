@@ -0,0 +1,117 @@
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.core.JsonUtils;
+import org.matrix.androidsdk.rest.model.sync.RoomSync;
+import org.matrix.androidsdk.rest.model.sync.SyncResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncResponseStreamDecoderTest {
+
+    private static final String ROOMS = "'rooms': {"
+            + "'join': {"
+            + "'!a:matrix.org': {'timeline': {'events': [{'event_id': '$1', 'type': 'm.room.message'}], 'prev_batch': 'p1'}},"
+            + "'!b:matrix.org': {'timeline': {'events': [], 'limited': true}}"
+            + "},"
+            + "'invite': {'!c:matrix.org': {}}"
+            + "}";
+
+    private final Gson gson = JsonUtils.getGson(false);
+
+    private static class TestListener implements SyncResponseStreamDecoder.Listener {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onSyncResponseHeader(SyncResponse syncResponse) {
+            calls.add("header " + syncResponse.toDevice.events.size());
+        }
+
+        @Override
+        public void onJoinedRoomSync(String roomId, RoomSync roomSync) {
+            calls.add(roomId + " " + roomSync.timeline.events.size());
+        }
+
+        @Override
+        public void onSyncResponseEnd() {
+            calls.add("end");
+        }
+
+        @Override
+        public void onSyncResponseFailed() {
+            calls.add("failed");
+        }
+    }
+
+    private SyncResponse decode(String json, SyncResponseStreamDecoder.Listener listener) throws Exception {
+        JsonReader reader = gson.newJsonReader(new StringReader(json));
+        reader.setLenient(true);
+
+        return new SyncResponseStreamDecoder(gson, listener).decode(reader);
+    }
+
+    @Test
+    public void decode_WhenTheHeaderPrecedesTheRooms_ShouldStreamTheJoinedRooms() throws Exception {
+        TestListener listener = new TestListener();
+
+        SyncResponse syncResponse = decode("{'account_data': {'events': []}, 'to_device': {'events': []}, "
+                + ROOMS + ", 'next_batch': 's2', 'unknown': [1, 2]}", listener);
+
+        Assert.assertEquals("[header 0, !a:matrix.org 1, !b:matrix.org 0, end]", listener.calls.toString());
+        Assert.assertTrue(syncResponse.isStreamed());
+        Assert.assertEquals(2, syncResponse.getStreamedJoinedRoomsCount());
+        Assert.assertTrue(syncResponse.rooms.join.isEmpty());
+        Assert.assertEquals(1, syncResponse.rooms.invite.size());
+        Assert.assertEquals("s2", syncResponse.nextBatch);
+    }
+
+    @Test
+    public void decode_WhenTheResponseIsTruncated_ShouldNotEndIt() throws Exception {
+        TestListener listener = new TestListener();
+
+        try {
+            decode("{'account_data': {'events': []}, 'to_device': {'events': []}, "
+                    + ROOMS + ", 'next_batch': 's2'", listener);
+            Assert.fail("The truncated response should not be read");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Assert.assertEquals("[header 0, !a:matrix.org 1, !b:matrix.org 0, failed]", listener.calls.toString());
+    }
+
+    @Test
+    public void decode_WhenTheToDeviceEventsFollowTheRooms_ShouldKeepTheJoinedRooms() throws Exception {
+        TestListener listener = new TestListener();
+
+        SyncResponse syncResponse = decode("{'account_data': {'events': []}, "
+                + ROOMS + ", 'to_device': {'events': []}, 'next_batch': 's2'}", listener);
+
+        Assert.assertTrue(listener.calls.isEmpty());
+        Assert.assertFalse(syncResponse.isStreamed());
+        Assert.assertEquals(0, syncResponse.getStreamedJoinedRoomsCount());
+        Assert.assertEquals(2, syncResponse.rooms.join.size());
+        Assert.assertEquals("p1", syncResponse.rooms.join.get("!a:matrix.org").timeline.prevBatch);
+        Assert.assertTrue(syncResponse.rooms.join.get("!b:matrix.org").timeline.limited);
+    }
+
+    @Test
+    public void decode_WithoutListener_ShouldReadTheWholeResponse() throws Exception {
+        SyncResponse syncResponse = decode("{'account_data': {'events': []}, 'to_device': {'events': []}, "
+                + ROOMS + ", 'next_batch': 's2'}", null);
+
+        Assert.assertFalse(syncResponse.isStreamed());
+        Assert.assertEquals(2, syncResponse.rooms.join.size());
+        Assert.assertEquals("$1", syncResponse.rooms.join.get("!a:matrix.org").timeline.events.get(0).eventId);
+    }
+}